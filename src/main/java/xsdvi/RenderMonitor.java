@@ -0,0 +1,328 @@
+package xsdvi;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import xsdvi.svg.FragmentCache;
+import xsdvi.utils.DiskCache;
+import xsdvi.utils.Metrics;
+
+/**
+ * Live statistics of the renderer for JMX clients, e.g. JConsole, when it runs
+ * for long or is embedded in a server. It is updated by the rendering thread,
+ * through {@link Metrics} for the phase times, and read by the JMX threads.
+ * Caches are cleared by the rendering thread between two roots, see
+ * {@link #checkpoint()}. The pool of -threads can be resized while it runs.
+ *
+ * @author Alexander Dyuzhev
+ */
+public class RenderMonitor implements RenderMonitorMXBean {
+
+    /**
+     *
+     */
+    public static final String OBJECT_NAME = "xsdvi:type=RenderMonitor";
+
+    /**
+     * Name of the histogram of the whole roots.
+     */
+    public static final String RENDER = "render";
+
+    // bucket i counts the latencies below 2^i ms, the last one all the others
+    private static final int BUCKETS = 12;
+
+    private final AtomicLong renders = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final Map<String, long[]> histograms = new LinkedHashMap<>();
+    private final Map<String, Long> totalNanos = new LinkedHashMap<>();
+    private final List<String> inFlightRoots = new CopyOnWriteArrayList<>();
+    private volatile int queueDepth = 0;
+    private volatile long retainedSymbols = 0;
+    private volatile long retainedSymbolBytes = 0;
+    private volatile boolean clearRequested = false;
+    private volatile FragmentCache fragmentCache = null;
+    private volatile XsdRenderer renderer = null;
+    private volatile ThreadPoolExecutor executor = null;
+
+    /**
+     *
+     */
+    public RenderMonitor() {
+        histograms.put(RENDER, new long[BUCKETS]);
+        totalNanos.put(RENDER, 0L);
+        for (Metrics.Phase phase : Metrics.Phase.values()) {
+            histograms.put(phase.jsonName(), new long[BUCKETS]);
+            totalNanos.put(phase.jsonName(), 0L);
+        }
+    }
+
+    /**
+     * Registers this monitor with the platform MBean server.
+     *
+     * @throws JMException
+     */
+    public void register() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+    }
+
+    /**
+     * @throws JMException
+     */
+    public void unregister() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+    }
+
+    /**
+     * @param fragmentCache
+     */
+    public void setFragmentCache(FragmentCache fragmentCache) {
+        this.fragmentCache = fragmentCache;
+    }
+
+    /**
+     * @param renderer
+     */
+    public void setRenderer(XsdRenderer renderer) {
+        this.renderer = renderer;
+    }
+
+    /**
+     * @param executor pool of the render threads, null if the roots are
+     * rendered one at a time
+     */
+    public void setExecutor(ThreadPoolExecutor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @param queueDepth
+     */
+    public void setQueueDepth(int queueDepth) {
+        this.queueDepth = queueDepth;
+    }
+
+    /**
+     * @param root
+     */
+    public void rootStarted(String root) {
+        inFlightRoots.add(root);
+    }
+
+    /**
+     * @param root
+     * @param success false if no diagram was drawn
+     */
+    public void rootFinished(String root, boolean success) {
+        inFlightRoots.remove(root);
+        if (success) {
+            renders.incrementAndGet();
+        } else {
+            failures.incrementAndGet();
+        }
+    }
+
+    /**
+     * Called by {@link Metrics} for each finished record.
+     *
+     * @param root null for the records of whole inputs
+     * @param wallNanos
+     * @param times wall and CPU nanoseconds and allocated bytes per phase
+     * @param symbols symbols laid out
+     */
+    public void recordFinished(String root, long wallNanos, Map<Metrics.Phase, long[]> times, long symbols) {
+        synchronized (histograms) {
+            if (times.containsKey(Metrics.Phase.DRAW)) {
+                add(RENDER, wallNanos);
+            }
+            for (Map.Entry<Metrics.Phase, long[]> entry : times.entrySet()) {
+                add(entry.getKey().jsonName(), entry.getValue()[0]);
+            }
+        }
+        long[] traverse = times.get(Metrics.Phase.TRAVERSE);
+        if (traverse != null) {
+            retainedSymbolBytes = traverse[2];
+            retainedSymbols = symbols;
+        }
+    }
+
+    /**
+     * @param name
+     * @param nanos
+     */
+    private void add(String name, long nanos) {
+        long millis = nanos / 1000000;
+        int bucket = 0;
+        while (bucket < BUCKETS - 1 && millis >= 1L << bucket) {
+            bucket++;
+        }
+        histograms.get(name)[bucket]++;
+        totalNanos.merge(name, nanos, Long::sum);
+    }
+
+    /**
+     * Clears the caches if requested, called by the rendering thread between
+     * two roots.
+     */
+    public void checkpoint() {
+        if (!clearRequested) {
+            return;
+        }
+        clearRequested = false;
+        FragmentCache cache = fragmentCache;
+        if (cache != null) {
+            cache.clear();
+        }
+        XsdRenderer xsdRenderer = renderer;
+        if (xsdRenderer != null) {
+            xsdRenderer.clearDocumentationCache();
+        }
+    }
+
+    @Override
+    public void clearCaches() {
+        clearRequested = true;
+    }
+
+    @Override
+    public long getRenders() {
+        return renders.get();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.get();
+    }
+
+    @Override
+    public List<String> getHistogramBuckets() {
+        List<String> buckets = new ArrayList<>();
+        for (int i = 0; i < BUCKETS - 1; i++) {
+            buckets.add("<" + (1L << i) + "ms");
+        }
+        buckets.add(">=" + (1L << (BUCKETS - 2)) + "ms");
+        return buckets;
+    }
+
+    @Override
+    public Map<String, long[]> getPhaseLatencyHistograms() {
+        Map<String, long[]> copy = new LinkedHashMap<>();
+        synchronized (histograms) {
+            for (Map.Entry<String, long[]> entry : histograms.entrySet()) {
+                copy.put(entry.getKey(), entry.getValue().clone());
+            }
+        }
+        return copy;
+    }
+
+    @Override
+    public Map<String, Double> getPhaseTotalMillis() {
+        Map<String, Double> copy = new LinkedHashMap<>();
+        synchronized (histograms) {
+            for (Map.Entry<String, Long> entry : totalNanos.entrySet()) {
+                copy.put(entry.getKey(), entry.getValue() / 1e6);
+            }
+        }
+        return copy;
+    }
+
+    @Override
+    public int getThreadPoolSize() {
+        ThreadPoolExecutor pool = executor;
+        return pool == null ? 1 : pool.getMaximumPoolSize();
+    }
+
+    @Override
+    public void setThreadPoolSize(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Invalid number of threads: " + size);
+        }
+        ThreadPoolExecutor pool = executor;
+        if (pool == null) {
+            throw new IllegalStateException("The roots are rendered one at a time, start with -threads to resize");
+        }
+        synchronized (pool) {
+            // the core size can't exceed the maximum one
+            if (size > pool.getMaximumPoolSize()) {
+                pool.setMaximumPoolSize(size);
+                pool.setCorePoolSize(size);
+            } else {
+                pool.setCorePoolSize(size);
+                pool.setMaximumPoolSize(size);
+            }
+        }
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    @Override
+    public List<String> getInFlightRoots() {
+        return new ArrayList<>(inFlightRoots);
+    }
+
+    @Override
+    public int getFragmentCacheSize() {
+        FragmentCache cache = fragmentCache;
+        return cache == null ? 0 : cache.size();
+    }
+
+    @Override
+    public double getFragmentCacheHitRatio() {
+        FragmentCache cache = fragmentCache;
+        return cache == null ? 0 : ratio(cache.getHits(), cache.getMisses());
+    }
+
+    @Override
+    public double getDiskCacheHitRatio() {
+        FragmentCache cache = fragmentCache;
+        DiskCache diskCache = cache == null ? null : cache.getDiskCache();
+        return diskCache == null ? 0 : ratio(diskCache.getHits(), diskCache.getMisses());
+    }
+
+    @Override
+    public int getAnnotationCacheSize() {
+        XsdRenderer xsdRenderer = renderer;
+        return xsdRenderer == null ? 0 : xsdRenderer.getDocumentationCacheSize();
+    }
+
+    @Override
+    public double getAnnotationCacheHitRatio() {
+        XsdRenderer xsdRenderer = renderer;
+        return xsdRenderer == null ? 0 : ratio(xsdRenderer.getDocumentationHits(), xsdRenderer.getDocumentationMisses());
+    }
+
+    @Override
+    public long getRetainedSymbols() {
+        return retainedSymbols;
+    }
+
+    @Override
+    public long getRetainedSymbolBytes() {
+        return retainedSymbolBytes;
+    }
+
+    /**
+     * @param hits
+     * @param misses
+     * @return
+     */
+    private static double ratio(long hits, long misses) {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+}
@@ -0,0 +1,102 @@
+package xsdvi;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Management interface of {@link RenderMonitor}, registered as
+ * {@value RenderMonitor#OBJECT_NAME}.
+ *
+ * @author Alexander Dyuzhev
+ */
+public interface RenderMonitorMXBean {
+
+    /**
+     * @return diagrams drawn
+     */
+    long getRenders();
+
+    /**
+     * @return roots that produced no diagram
+     */
+    long getFailures();
+
+    /**
+     * @return upper bounds of the latency histogram buckets
+     */
+    List<String> getHistogramBuckets();
+
+    /**
+     * @return per phase, and for whole roots under 'render', the number of
+     * roots in each bucket of {@link #getHistogramBuckets()}
+     */
+    Map<String, long[]> getPhaseLatencyHistograms();
+
+    /**
+     * @return per phase, the total wall time in milliseconds
+     */
+    Map<String, Double> getPhaseTotalMillis();
+
+    /**
+     * @return threads rendering the roots, 1 without -threads
+     */
+    int getThreadPoolSize();
+
+    /**
+     * Resizes the pool of -threads, the roots already started finish first.
+     *
+     * @param size
+     */
+    void setThreadPoolSize(int size);
+
+    /**
+     * @return roots of the current input not drawn yet
+     */
+    int getQueueDepth();
+
+    /**
+     * @return roots being traversed or drawn
+     */
+    List<String> getInFlightRoots();
+
+    /**
+     * @return subtrees kept by the fragment cache, 0 without -fragmentCache
+     */
+    int getFragmentCacheSize();
+
+    /**
+     * @return
+     */
+    double getFragmentCacheHitRatio();
+
+    /**
+     * @return hit ratio of the cache directory, 0 without -cacheDir
+     */
+    double getDiskCacheHitRatio();
+
+    /**
+     * @return components with parsed documentation
+     */
+    int getAnnotationCacheSize();
+
+    /**
+     * @return
+     */
+    double getAnnotationCacheHitRatio();
+
+    /**
+     * @return symbols of the last tree built
+     */
+    long getRetainedSymbols();
+
+    /**
+     * @return bytes allocated while building the last tree, an upper bound of
+     * the heap it retains
+     */
+    long getRetainedSymbolBytes();
+
+    /**
+     * Clears the fragment and annotation caches before the next root.
+     */
+    void clearCaches();
+}
@@ -0,0 +1,421 @@
+package xsdvi;
+
+import java.util.List;
+
+import org.apache.xerces.xs.XSConstants;
+
+import xsdvi.utils.DiskCache;
+
+/**
+ * Immutable options of an {@link XsdRenderer}, created with {@link #builder()}.
+ *
+ * @author Alexander Dyuzhev
+ */
+public final class RenderOptions {
+
+    /**
+     * Entries of the fragment cache when only its directory is set.
+     */
+    public static final int DEFAULT_FRAGMENT_CACHE_SIZE = 1000;
+
+    private final boolean embodyStyle;
+    private final String styleUri;
+    private final boolean oneNodeOnly;
+    private final List<Short> rootTypes;
+    private final boolean compact;
+    private final boolean dedup;
+    private final int fragmentCacheSize;
+    private final String cacheDir;
+    private final long cacheSize;
+    private final long maxNodes;
+    private final long maxBytes;
+    private final long maxMillis;
+    private final boolean digest;
+    private final List<String> catalogs;
+    private final String schemaMirror;
+    private final boolean lightweight;
+    private final boolean snapshot;
+    private final String snapshotDir;
+
+    /**
+     * @param builder
+     */
+    private RenderOptions(Builder builder) {
+        embodyStyle = builder.embodyStyle;
+        styleUri = builder.styleUri;
+        oneNodeOnly = builder.oneNodeOnly;
+        rootTypes = List.copyOf(builder.rootTypes);
+        compact = builder.compact;
+        dedup = builder.dedup;
+        fragmentCacheSize = builder.fragmentCacheSize;
+        cacheDir = builder.cacheDir;
+        cacheSize = builder.cacheSize;
+        maxNodes = builder.maxNodes;
+        maxBytes = builder.maxBytes;
+        maxMillis = builder.maxMillis;
+        digest = builder.digest;
+        catalogs = List.copyOf(builder.catalogs);
+        schemaMirror = builder.schemaMirror;
+        lightweight = builder.lightweight;
+        snapshot = builder.snapshot;
+        snapshotDir = builder.snapshotDir;
+    }
+
+    /**
+     * @return builder of the default options: embodied style, whole
+     * diagrams of elements, no caches and no limits
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return true if the style is embodied in each diagram
+     */
+    public boolean isEmbodyStyle() {
+        return embodyStyle;
+    }
+
+    /**
+     * @return the external style referenced by the diagrams
+     */
+    public String getStyleUri() {
+        return styleUri;
+    }
+
+    /**
+     * @return true if a root diagram shows only the root and its children
+     */
+    public boolean isOneNodeOnly() {
+        return oneNodeOnly;
+    }
+
+    /**
+     * @return component types listed by {@link XsdRenderer#getRootNames}
+     */
+    public List<Short> getRootTypes() {
+        return rootTypes;
+    }
+
+    /**
+     * @return
+     */
+    public boolean isCompact() {
+        return compact;
+    }
+
+    /**
+     * @return
+     */
+    public boolean isDedup() {
+        return dedup;
+    }
+
+    /**
+     * @return entries of the fragment cache, 0 for none
+     */
+    public int getFragmentCacheSize() {
+        return fragmentCacheSize;
+    }
+
+    /**
+     * @return directory of the persistent fragment cache, or null
+     */
+    public String getCacheDir() {
+        return cacheDir;
+    }
+
+    /**
+     * @return maximum bytes of the persistent fragment cache
+     */
+    public long getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * @return maximum boxes of a diagram, 0 for no limit
+     */
+    public long getMaxNodes() {
+        return maxNodes;
+    }
+
+    /**
+     * @return maximum bytes of a diagram, 0 for no limit
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return maximum milliseconds of the traversal and of the drawing of a
+     * diagram, 0 for no limit
+     */
+    public long getMaxMillis() {
+        return maxMillis;
+    }
+
+    /**
+     * @return true if the results carry the digest of the diagram
+     */
+    public boolean isDigest() {
+        return digest;
+    }
+
+    /**
+     * @return OASIS XML catalogs resolving remote schema locations, may be
+     * empty
+     */
+    public List<String> getCatalogs() {
+        return catalogs;
+    }
+
+    /**
+     * @return directory of local copies of remote schema documents, or null
+     */
+    public String getSchemaMirror() {
+        return schemaMirror;
+    }
+
+    /**
+     * @return true if remote schema documents are resolved locally and never
+     * fetched, always by the lightweight reader
+     */
+    public boolean isOffline() {
+        return !catalogs.isEmpty() || schemaMirror != null || lightweight;
+    }
+
+    /**
+     * @return true if schemas are read by the lightweight reader, without
+     * validation
+     */
+    public boolean isLightweight() {
+        return lightweight;
+    }
+
+    /**
+     * @return true if the Xerces model of a schema is copied into an
+     * immutable graph and released once read
+     */
+    public boolean isSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return directory of the snapshot files of the schemas read, or null
+     */
+    public String getSnapshotDir() {
+        return snapshotDir;
+    }
+
+    /**
+     * Builder of {@link RenderOptions}, not thread-safe.
+     */
+    public static final class Builder {
+
+        private boolean embodyStyle = true;
+        private String styleUri = null;
+        private boolean oneNodeOnly = false;
+        private List<Short> rootTypes = List.of(XSConstants.ELEMENT_DECLARATION);
+        private boolean compact = false;
+        private boolean dedup = false;
+        private int fragmentCacheSize = 0;
+        private String cacheDir = null;
+        private long cacheSize = DiskCache.DEFAULT_MAX_BYTES;
+        private long maxNodes = 0;
+        private long maxBytes = 0;
+        private long maxMillis = 0;
+        private boolean digest = false;
+        private List<String> catalogs = List.of();
+        private String schemaMirror = null;
+        private boolean lightweight = false;
+        private boolean snapshot = false;
+        private String snapshotDir = null;
+
+        /**
+         *
+         */
+        private Builder() {
+            // see RenderOptions.builder()
+        }
+
+        /**
+         * @param embodyStyle
+         * @return
+         */
+        public Builder embodyStyle(boolean embodyStyle) {
+            this.embodyStyle = embodyStyle;
+            return this;
+        }
+
+        /**
+         * @param styleUri external style, used when the style isn't embodied
+         * @return
+         */
+        public Builder styleUri(String styleUri) {
+            this.styleUri = styleUri;
+            return this;
+        }
+
+        /**
+         * @param oneNodeOnly
+         * @return
+         */
+        public Builder oneNodeOnly(boolean oneNodeOnly) {
+            this.oneNodeOnly = oneNodeOnly;
+            return this;
+        }
+
+        /**
+         * @param rootTypes {@link XSConstants#ELEMENT_DECLARATION} and/or
+         * {@link XSConstants#TYPE_DEFINITION}
+         * @return
+         */
+        public Builder rootTypes(List<Short> rootTypes) {
+            this.rootTypes = rootTypes;
+            return this;
+        }
+
+        /**
+         * @param compact
+         * @return
+         */
+        public Builder compact(boolean compact) {
+            this.compact = compact;
+            return this;
+        }
+
+        /**
+         * @param dedup
+         * @return
+         */
+        public Builder dedup(boolean dedup) {
+            this.dedup = dedup;
+            return this;
+        }
+
+        /**
+         * @param fragmentCacheSize
+         * @return
+         */
+        public Builder fragmentCacheSize(int fragmentCacheSize) {
+            this.fragmentCacheSize = fragmentCacheSize;
+            return this;
+        }
+
+        /**
+         * @param cacheDir
+         * @return
+         */
+        public Builder cacheDir(String cacheDir) {
+            this.cacheDir = cacheDir;
+            return this;
+        }
+
+        /**
+         * @param cacheSize
+         * @return
+         */
+        public Builder cacheSize(long cacheSize) {
+            this.cacheSize = cacheSize;
+            return this;
+        }
+
+        /**
+         * @param maxNodes
+         * @return
+         */
+        public Builder maxNodes(long maxNodes) {
+            this.maxNodes = maxNodes;
+            return this;
+        }
+
+        /**
+         * @param maxBytes
+         * @return
+         */
+        public Builder maxBytes(long maxBytes) {
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * @param maxMillis
+         * @return
+         */
+        public Builder maxMillis(long maxMillis) {
+            this.maxMillis = maxMillis;
+            return this;
+        }
+
+        /**
+         * @param digest true to digest each diagram before drawing it, see
+         * {@link XsdRenderer.Result#getDigest()}
+         * @return
+         */
+        public Builder digest(boolean digest) {
+            this.digest = digest;
+            return this;
+        }
+
+        /**
+         * @param catalogs paths or URIs of OASIS XML catalogs, see
+         * {@link xsdvi.utils.SchemaResolver}
+         * @return
+         */
+        public Builder catalogs(List<String> catalogs) {
+            this.catalogs = catalogs;
+            return this;
+        }
+
+        /**
+         * @param schemaMirror directory of local copies of remote schema
+         * documents, see {@link xsdvi.utils.SchemaResolver}
+         * @return
+         */
+        public Builder schemaMirror(String schemaMirror) {
+            this.schemaMirror = schemaMirror;
+            return this;
+        }
+
+        /**
+         * @param lightweight true to read schemas with
+         * {@link xsdvi.model.StaxSchemaReader} instead of validating them with
+         * Xerces, the remote documents are then read from the catalogs and the
+         * schema mirror only
+         * @return
+         */
+        public Builder lightweight(boolean lightweight) {
+            this.lightweight = lightweight;
+            return this;
+        }
+
+        /**
+         * @param snapshot true to copy the Xerces model of a schema into a
+         * {@link xsdvi.model.SchemaGraph}, read by any number of threads
+         * without locking
+         * @return
+         */
+        public Builder snapshot(boolean snapshot) {
+            this.snapshot = snapshot;
+            return this;
+        }
+
+        /**
+         * @param snapshotDir directory where the schemas read are saved as
+         * {@link xsdvi.model.SchemaSnapshot} files, read instead of the
+         * schemas until one of their documents changes, or null
+         * @return
+         */
+        public Builder snapshotDir(String snapshotDir) {
+            this.snapshotDir = snapshotDir;
+            return this;
+        }
+
+        /**
+         * @return
+         */
+        public RenderOptions build() {
+            return new RenderOptions(this);
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package xsdvi;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import xsdvi.model.SchemaModel;
+import xsdvi.model.SchemaModel.Component;
+import xsdvi.model.SchemaModel.Type;
+import xsdvi.utils.LoggerHelper;
+
+/**
+ * Selects the roots to draw by an expression of comma separated terms,
+ * resolved in one pass over the components of a schema. A term is
+ * <ul>
+ * <li>a local name, e.g. <code>UnitSet</code>,</li>
+ * <li>a glob on the local name, e.g. <code>*Type</code> or
+ * <code>Unit?</code>,</li>
+ * <li>a regular expression on the local name, e.g.
+ * <code>/Unit(Set|Name)/</code>,</li>
+ * <li>any of these after a namespace in braces, e.g.
+ * <code>{urn:x}Unit*</code>, <code>{urn:x}</code> alone for the whole
+ * namespace and <code>{}</code> for no namespace,</li>
+ * <li><code>@file</code>, the terms of a list file, one per line, blank lines
+ * and lines starting with # are skipped,</li>
+ * <li>any of these after <code>!</code> to exclude what it matches.</li>
+ * </ul>
+ * A root is selected if it matches an including term, or there are none, and
+ * no excluding term. The roots keep the order of the components.
+ *
+ * @author Alexander Dyuzhev
+ */
+public class RootSelector {
+
+    private static final Logger logger = Logger.getLogger(LoggerHelper.LOGGER_NAME);
+
+    // exact local names in any namespace are looked up, the other terms matched
+    private final Map<String, Term> includeNames = new LinkedHashMap<>();
+    private final List<Term> includePatterns = new ArrayList<>();
+    private final Set<String> excludeNames = new HashSet<>();
+    private final List<Term> excludePatterns = new ArrayList<>();
+
+    /**
+     * One term, names are looked up, patterns matched.
+     */
+    private static final class Term {
+
+        final String text;
+        final String namespace;
+        final boolean anyNamespace;
+        final String name;
+        final Pattern pattern;
+
+        /**
+         * @param text
+         * @param namespace
+         * @param anyNamespace
+         * @param name exact local name, or null
+         * @param pattern pattern of the local name if not exact, null for
+         * any
+         */
+        Term(String text, String namespace, boolean anyNamespace, String name, Pattern pattern) {
+            this.text = text;
+            this.namespace = namespace;
+            this.anyNamespace = anyNamespace;
+            this.name = name;
+            this.pattern = pattern;
+        }
+
+        /**
+         * @param component
+         * @return
+         */
+        boolean matches(Component component) {
+            if (!anyNamespace && !namespace.equals(component.getNamespace() == null ? "" : component.getNamespace())) {
+                return false;
+            }
+            if (name != null) {
+                return name.equals(component.getName());
+            }
+            return pattern == null || pattern.matcher(component.getName()).matches();
+        }
+    }
+
+    /**
+     *
+     */
+    private RootSelector() {
+        // see parse(String)
+    }
+
+    /**
+     * @param expression comma separated terms
+     * @return
+     * @throws IllegalArgumentException if a term is invalid or a list file
+     * can't be read
+     */
+    public static RootSelector parse(String expression) {
+        RootSelector selector = new RootSelector();
+        for (String term : expression.split(",")) {
+            selector.add(term.trim(), false, new HashSet<>());
+        }
+        if (selector.includeNames.isEmpty() && selector.includePatterns.isEmpty()
+                && selector.excludeNames.isEmpty() && selector.excludePatterns.isEmpty()) {
+            throw new IllegalArgumentException("Empty root selection");
+        }
+        return selector;
+    }
+
+    /**
+     * @param text
+     * @param exclude
+     * @param files list files being read, to stop recursion
+     */
+    private void add(String text, boolean exclude, Set<String> files) {
+        if (text.isEmpty()) {
+            return;
+        }
+        if (text.startsWith("!")) {
+            add(text.substring(1).trim(), !exclude, files);
+            return;
+        }
+        if (text.startsWith("@")) {
+            String file = text.substring(1);
+            if (!files.add(Paths.get(file).toAbsolutePath().normalize().toString())) {
+                throw new IllegalArgumentException("Root list " + file + " includes itself");
+            }
+            try {
+                for (String line : Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8)) {
+                    line = line.trim();
+                    if (!line.isEmpty() && !line.startsWith("#")) {
+                        add(line, exclude, files);
+                    }
+                }
+            } catch (IOException ex) {
+                throw new IllegalArgumentException("Can't read root list " + file + ": " + ex);
+            }
+            files.remove(Paths.get(file).toAbsolutePath().normalize().toString());
+            return;
+        }
+        String namespace = null;
+        String local = text;
+        if (text.startsWith("{")) {
+            int end = text.indexOf('}');
+            if (end < 0) {
+                throw new IllegalArgumentException("Invalid root term " + text + ", missing }");
+            }
+            namespace = text.substring(1, end);
+            local = text.substring(end + 1);
+        }
+        Term term;
+        try {
+            if (local.isEmpty()) {
+                term = new Term(text, namespace, namespace == null, null, null);
+            } else if (local.length() > 1 && local.startsWith("/") && local.endsWith("/")) {
+                term = new Term(text, namespace, namespace == null, null, Pattern.compile(local.substring(1, local.length() - 1)));
+            } else if (local.contains("*") || local.contains("?")) {
+                term = new Term(text, namespace, namespace == null, null, glob(local));
+            } else {
+                term = new Term(text, namespace, namespace == null, local, null);
+            }
+        } catch (PatternSyntaxException ex) {
+            throw new IllegalArgumentException("Invalid root term " + text + ": " + ex.getDescription());
+        }
+        if (term.name != null && term.anyNamespace) {
+            if (exclude) {
+                excludeNames.add(term.name);
+            } else {
+                includeNames.putIfAbsent(term.name, term);
+            }
+        } else {
+            (exclude ? excludePatterns : includePatterns).add(term);
+        }
+    }
+
+    /**
+     * @param glob
+     * @return
+     */
+    private static Pattern glob(String glob) {
+        StringBuilder regex = new StringBuilder();
+        int start = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?') {
+                if (i > start) {
+                    regex.append(Pattern.quote(glob.substring(start, i)));
+                }
+                regex.append(c == '*' ? ".*" : ".");
+                start = i + 1;
+            }
+        }
+        if (start < glob.length()) {
+            regex.append(Pattern.quote(glob.substring(start)));
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    /**
+     * @param model
+     * @param rootTypes {@link SchemaModel#ELEMENT_DECLARATION} and/or
+     * {@link SchemaModel#TYPE_DEFINITION}, complex types only
+     * @return names of the selected roots, each once
+     */
+    public List<String> select(SchemaModel model, List<Short> rootTypes) {
+        Set<String> names = new LinkedHashSet<>();
+        if (model == null) {
+            return new ArrayList<>(names);
+        }
+        boolean includeAll = includeNames.isEmpty() && includePatterns.isEmpty();
+        Set<Term> used = new HashSet<>();
+        for (Short rootType : rootTypes) {
+            List<? extends Component> components = rootType == SchemaModel.ELEMENT_DECLARATION ? model.getElements()
+                    : rootType == SchemaModel.TYPE_DEFINITION ? model.getTypes() : new ArrayList<Component>();
+            for (Component component : components) {
+                if (component instanceof Type && !((Type) component).isComplex()) {
+                    continue;
+                }
+                Term include = includeNames.get(component.getName());
+                if (include == null) {
+                    for (Term term : includePatterns) {
+                        if (term.matches(component)) {
+                            include = term;
+                            break;
+                        }
+                    }
+                }
+                if (include != null) {
+                    used.add(include);
+                } else if (!includeAll) {
+                    continue;
+                }
+                if (excludeNames.contains(component.getName()) || matchesAny(excludePatterns, component)) {
+                    continue;
+                }
+                names.add(component.getName());
+            }
+        }
+        for (Term term : includeNames.values()) {
+            if (!used.contains(term)) {
+                logger.log(Level.WARNING, "Root {0} not found", term.text);
+            }
+        }
+        for (Term term : includePatterns) {
+            if (!used.contains(term)) {
+                logger.log(Level.WARNING, "Root term {0} selects nothing", term.text);
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+    /**
+     * @param terms
+     * @param component
+     * @return
+     */
+    private static boolean matchesAny(List<Term> terms, Component component) {
+        for (Term term : terms) {
+            if (term.matches(component)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,166 @@
+package xsdvi;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import xsdvi.model.SchemaModel;
+import xsdvi.utils.LoggerHelper;
+
+/**
+ * Watches the inputs and the documents they include and import for changes.
+ * The folders of the files are watched with a {@link WatchService}, a burst
+ * of saves, e.g. an editor writing a backup and the file, is reported once
+ * after the files are quiet for the debounce time.
+ *
+ * @author Alexander Dyuzhev
+ */
+public class SchemaWatcher implements Closeable {
+
+    /**
+     *
+     */
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 300;
+
+    private static final Logger logger = Logger.getLogger(LoggerHelper.LOGGER_NAME);
+
+    private final WatchService service;
+    private final long debounceMillis;
+    private final Map<WatchKey, Path> folders = new HashMap<>();
+    private final Set<Path> registered = new HashSet<>();
+    // watched file -> inputs reading it
+    private final Map<Path, Set<String>> readers = new HashMap<>();
+
+    /**
+     * @param debounceMillis quiet time after the last change of a burst
+     * @throws IOException
+     */
+    public SchemaWatcher(long debounceMillis) throws IOException {
+        this.service = FileSystems.getDefault().newWatchService();
+        this.debounceMillis = debounceMillis;
+    }
+
+    /**
+     * Watches an input and the documents of its model, replacing the
+     * documents of its previous model.
+     *
+     * @param input
+     * @param model null if it can't be loaded, only the input is watched
+     * @return files watched for the input
+     * @throws IOException if a folder can't be watched
+     */
+    public Set<Path> watch(String input, SchemaModel model) throws IOException {
+        for (Set<String> inputs : readers.values()) {
+            inputs.remove(input);
+        }
+        readers.values().removeIf(Set::isEmpty);
+        Set<Path> files = new LinkedHashSet<>();
+        files.add(Paths.get(input).toAbsolutePath().normalize());
+        if (model != null) {
+            for (String location : model.getDocumentLocations()) {
+                Path file = toPath(location);
+                if (file != null) {
+                    files.add(file);
+                }
+            }
+        }
+        for (Path file : files) {
+            readers.computeIfAbsent(file, k -> new LinkedHashSet<>()).add(input);
+            Path folder = file.getParent();
+            if (folder != null && registered.add(folder)) {
+                WatchKey key = folder.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                folders.put(key, folder);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * @param location document location of a model
+     * @return the local file, or null for a remote document
+     */
+    private static Path toPath(String location) {
+        try {
+            URI uri = new URI(location);
+            if (uri.getScheme() == null) {
+                return Paths.get(location).toAbsolutePath().normalize();
+            }
+            if (uri.getScheme().equals("file")) {
+                return Paths.get(uri).toAbsolutePath().normalize();
+            }
+        } catch (Exception ex) {
+            logger.log(Level.FINE, "Not watching {0}: {1}", new Object[]{location, ex.toString()});
+        }
+        return null;
+    }
+
+    /**
+     * Waits for changes of the watched files.
+     *
+     * @return inputs reading the changed files, in the order they were
+     * watched first
+     * @throws InterruptedException
+     * @throws ClosedWatchServiceException if closed while waiting
+     */
+    public Set<String> take() throws InterruptedException {
+        Set<String> changed = new LinkedHashSet<>();
+        WatchKey key = service.take();
+        while (key != null) {
+            collect(key, changed);
+            // the burst ends when the files are quiet for the debounce time
+            key = changed.isEmpty() ? service.take() : service.poll(debounceMillis, TimeUnit.MILLISECONDS);
+        }
+        return changed;
+    }
+
+    /**
+     * @param key
+     * @param changed
+     */
+    private void collect(WatchKey key, Set<String> changed) {
+        Path folder = folders.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (folder == null || event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // lost events, every input may have changed
+                for (Set<String> inputs : readers.values()) {
+                    changed.addAll(inputs);
+                }
+                continue;
+            }
+            Set<String> inputs = readers.get(folder.resolve((Path) event.context()));
+            if (inputs != null) {
+                changed.addAll(inputs);
+            }
+        }
+        key.reset();
+    }
+
+    /**
+     * @return files watched
+     */
+    public int size() {
+        return readers.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        service.close();
+    }
+}
@@ -0,0 +1,291 @@
+package xsdvi;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import xsdvi.utils.ArchiveHelper;
+import xsdvi.utils.LoggerHelper;
+
+/**
+ * Partial manifest of a shard, see {@link ShardPlan}: the diagrams written or
+ * failed by the shard with their sequence numbers in the whole run, and the
+ * generated style shared by all shards. {@link #merge} combines the manifests
+ * of all shards into the output of a single run. A manifest is a text file,
+ * one tab separated record per line:
+ * <pre>
+ * shard   2   4
+ * jobs    54
+ * style   style.css
+ * diagram 7   UnitsML UnitsML.svg
+ * failed  9   Unit
+ * </pre>
+ *
+ * @author Alexander Dyuzhev
+ */
+public class ShardManifest {
+
+    /**
+     * Name of the manifest of shard i of n in its output folder.
+     */
+    public static final String FILE_NAME = "xsdvi-shard-%d-of-%d.txt";
+
+    /**
+     * Name of the merged manifest in the output folder.
+     */
+    public static final String MERGED_FILE_NAME = "xsdvi-manifest.txt";
+
+    private static final Logger logger = Logger.getLogger(LoggerHelper.LOGGER_NAME);
+
+    private final int index;
+    private final int count;
+    private int jobs = 0;
+    private String style = null;
+    // sequence number -> index key and file, no file if failed
+    private final Map<Integer, String[]> diagrams = new TreeMap<>();
+    private Path directory = null;
+
+    /**
+     * @param index
+     * @param count
+     */
+    public ShardManifest(int index, int count) {
+        this.index = index;
+        this.count = count;
+    }
+
+    /**
+     * @param seq sequence number in the whole run
+     * @param key root name, or input for the diagram of the whole schema
+     * @param file file name in the output folder
+     */
+    public void add(int seq, String key, String file) {
+        diagrams.put(seq, new String[]{key, file});
+    }
+
+    /**
+     * @param seq
+     * @param key
+     */
+    public void addFailed(int seq, String key) {
+        diagrams.put(seq, new String[]{key, null});
+    }
+
+    /**
+     * @param jobs diagrams of the whole run
+     */
+    public void setJobs(int jobs) {
+        this.jobs = jobs;
+    }
+
+    /**
+     * @param style generated style, as given on the command line
+     */
+    public void setStyle(String style) {
+        this.style = style;
+    }
+
+    /**
+     * Writes the manifest to the output folder. A diagram whose file isn't
+     * there, e.g. because writing it failed, is listed as failed.
+     *
+     * @param outputPath output folder, null for the current one
+     * @return the manifest file
+     * @throws IOException
+     */
+    public Path write(String outputPath) throws IOException {
+        Path folder = Paths.get(outputPath != null ? outputPath : "");
+        StringBuilder buffer = new StringBuilder();
+        buffer.append("shard\t").append(index).append('\t').append(count).append('\n');
+        buffer.append("jobs\t").append(jobs).append('\n');
+        if (style != null) {
+            buffer.append("style\t").append(style).append('\n');
+        }
+        for (Map.Entry<Integer, String[]> entry : diagrams.entrySet()) {
+            String key = entry.getValue()[0];
+            String file = entry.getValue()[1];
+            if (file != null && Files.exists(folder.resolve(file))) {
+                buffer.append("diagram\t").append(entry.getKey()).append('\t').append(key).append('\t').append(file).append('\n');
+            } else {
+                buffer.append("failed\t").append(entry.getKey()).append('\t').append(key).append('\n');
+            }
+        }
+        Path path = folder.resolve(index == 1 && count == 1 ? MERGED_FILE_NAME : String.format(FILE_NAME, index, count));
+        Files.write(path, buffer.toString().getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+
+    /**
+     * @param path
+     * @return
+     * @throws IOException if the manifest can't be read or is invalid
+     */
+    public static ShardManifest read(Path path) throws IOException {
+        ShardManifest manifest = null;
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            lineNumber++;
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] field = line.split("\t");
+            try {
+                if (field[0].equals("shard") && field.length == 3 && manifest == null) {
+                    manifest = new ShardManifest(Integer.parseInt(field[1]), Integer.parseInt(field[2]));
+                    manifest.directory = path.toAbsolutePath().getParent();
+                } else if (manifest == null) {
+                    throw new IOException(path + ":" + lineNumber + ": shard expected");
+                } else if (field[0].equals("jobs") && field.length == 2) {
+                    manifest.jobs = Integer.parseInt(field[1]);
+                } else if (field[0].equals("style") && field.length == 2) {
+                    manifest.style = field[1];
+                } else if (field[0].equals("diagram") && field.length == 4) {
+                    manifest.add(Integer.parseInt(field[1]), field[2], field[3]);
+                } else if (field[0].equals("failed") && field.length == 3) {
+                    manifest.addFailed(Integer.parseInt(field[1]), field[2]);
+                } else {
+                    throw new IOException(path + ":" + lineNumber + ": invalid record " + line);
+                }
+            } catch (NumberFormatException ex) {
+                throw new IOException(path + ":" + lineNumber + ": invalid number in " + line);
+            }
+        }
+        if (manifest == null) {
+            throw new IOException(path + ": empty manifest");
+        }
+        return manifest;
+    }
+
+    /**
+     * Combines the shards into the output of a single run: the diagrams in
+     * the order of the run, the generated style and a merged manifest in the
+     * output folder, or an archive with the index of a single run.
+     *
+     * @param uris the manifests of all shards of a run
+     * @param outputPath output folder, null for the current one
+     * @param outputArchive archive, or null for the output folder
+     * @param failures diagrams failed in their shard are added
+     * @return diagrams merged
+     * @throws IOException if a shard is missing, the shards are of different
+     * runs or the output can't be written
+     */
+    public static int merge(List<String> uris, String outputPath, String outputArchive, List<String> failures) throws IOException {
+        List<ShardManifest> manifests = new ArrayList<>();
+        for (String uri : uris) {
+            manifests.add(read(Paths.get(uri)));
+        }
+        if (manifests.isEmpty()) {
+            throw new IOException("No manifests to merge");
+        }
+        ShardManifest first = manifests.get(0);
+        ShardManifest[] shards = new ShardManifest[first.count];
+        Map<Integer, ShardManifest> owners = new TreeMap<>();
+        for (ShardManifest manifest : manifests) {
+            if (manifest.count != first.count || manifest.jobs != first.jobs) {
+                throw new IOException("Shard " + manifest.index + "/" + manifest.count + " of " + manifest.jobs
+                        + " diagrams isn't of the run of shard " + first.index + "/" + first.count + " of " + first.jobs + " diagrams");
+            }
+            if (shards[manifest.index - 1] != null) {
+                throw new IOException("Shard " + manifest.index + "/" + manifest.count + " is listed twice");
+            }
+            shards[manifest.index - 1] = manifest;
+            for (int seq : manifest.diagrams.keySet()) {
+                if (owners.put(seq, manifest) != null) {
+                    throw new IOException("Diagram " + seq + " is in more than one shard, the shards were planned differently");
+                }
+            }
+        }
+        for (int i = 0; i < shards.length; i++) {
+            if (shards[i] == null) {
+                throw new IOException("Shard " + (i + 1) + "/" + first.count + " is missing");
+            }
+        }
+
+        ShardManifest merged = new ShardManifest(1, 1);
+        merged.jobs = first.jobs;
+        ShardManifest styled = null;
+        for (ShardManifest manifest : manifests) {
+            if (manifest.style != null) {
+                styled = manifest;
+                merged.style = manifest.style;
+                break;
+            }
+        }
+        ArchiveHelper archive = outputArchive != null ? new ArchiveHelper(outputArchive) : null;
+        Path folder = Paths.get(outputPath != null ? outputPath : "");
+        if (archive == null) {
+            Files.createDirectories(folder.toAbsolutePath());
+        }
+        int count = 0;
+        try {
+            if (styled != null) {
+                copy(styled.source(Paths.get(styled.style).getFileName().toString(), styled.style), archive, styled.style, Paths.get(styled.style));
+            }
+            for (int seq = 0; seq < first.jobs; seq++) {
+                ShardManifest owner = owners.get(seq);
+                String[] diagram = owner != null ? owner.diagrams.get(seq) : null;
+                if (diagram == null) {
+                    failures.add("Diagram " + seq + ": in no shard");
+                    continue;
+                }
+                if (diagram[1] == null) {
+                    failures.add(diagram[0] + ": failed in shard " + owner.index + "/" + owner.count);
+                    merged.addFailed(seq, diagram[0]);
+                    continue;
+                }
+                copy(owner.directory.resolve(diagram[1]), archive, diagram[1], folder.resolve(diagram[1]));
+                if (archive != null) {
+                    archive.addIndexEntry(diagram[0], diagram[1]);
+                }
+                merged.add(seq, diagram[0], diagram[1]);
+                count++;
+            }
+        } finally {
+            if (archive != null) {
+                archive.close();
+            }
+        }
+        if (archive == null) {
+            Path path = merged.write(outputPath);
+            logger.log(Level.INFO, "Merged manifest {0}", path);
+        }
+        return count;
+    }
+
+    /**
+     * @param file file name in the folder of the manifest
+     * @param uri path as given on the command line
+     * @return the file next to the manifest, or else the path
+     */
+    private Path source(String file, String uri) {
+        Path path = directory.resolve(file);
+        return Files.exists(path) ? path : Paths.get(uri);
+    }
+
+    /**
+     * @param source
+     * @param archive
+     * @param entry archive entry
+     * @param target file, if there is no archive
+     * @throws IOException
+     */
+    private static void copy(Path source, ArchiveHelper archive, String entry, Path target) throws IOException {
+        if (archive != null) {
+            try (OutputStream out = archive.newEntry(entry)) {
+                Files.copy(source, out);
+            }
+        } else if (!Files.exists(target) || !Files.isSameFile(source, target)) {
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package xsdvi;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Deterministic partition of the diagrams of a run into shards run by
+ * separate processes. Every process plans all diagrams of all inputs in the
+ * same order with the same weights, the boxes predicted by
+ * {@link XsdAnalyzer}, and gives each diagram, heaviest first, to the least
+ * loaded shard. So the processes agree on the plan without talking to each
+ * other and the shards take about the same time.
+ *
+ * @author Alexander Dyuzhev
+ */
+public class ShardPlan {
+
+    private final int index;
+    private final int count;
+    private final long[] loads;
+    private int jobs = 0;
+
+    /**
+     * @param index shard of this process, from 1
+     * @param count
+     * @throws IllegalArgumentException if the index isn't between 1 and count
+     */
+    public ShardPlan(int index, int count) {
+        if (count < 1 || index < 1 || index > count) {
+            throw new IllegalArgumentException("Invalid shard " + index + "/" + count);
+        }
+        this.index = index;
+        this.count = count;
+        this.loads = new long[count];
+    }
+
+    /**
+     * @param spec 'i/n', e.g. '2/4' for the second of four shards
+     * @return
+     * @throws IllegalArgumentException if the spec is invalid
+     */
+    public static ShardPlan parse(String spec) {
+        String[] field = spec.split("/");
+        if (field.length != 2) {
+            throw new IllegalArgumentException("Invalid shard " + spec + ", expected i/n");
+        }
+        try {
+            return new ShardPlan(Integer.parseInt(field[0].trim()), Integer.parseInt(field[1].trim()));
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Invalid shard " + spec + ", expected i/n");
+        }
+    }
+
+    /**
+     * Plans the next diagrams, e.g. the roots of an input. Their sequence
+     * numbers in the whole run follow the ones planned before, see
+     * {@link #getJobs()}.
+     *
+     * @param names names of the diagrams, breaking ties of the weights
+     * @param weights
+     * @return positions in the names of the diagrams of this shard, ascending
+     */
+    public List<Integer> assign(List<String> names, long[] weights) {
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < names.size(); i++) {
+            order.add(i);
+        }
+        order.sort(Comparator.<Integer>comparingLong(i -> -weights[i])
+                .thenComparing(i -> names.get(i), Comparator.nullsFirst(Comparator.naturalOrder()))
+                .thenComparingInt(i -> i));
+        boolean[] mine = new boolean[names.size()];
+        for (int i : order) {
+            int shard = 0;
+            for (int s = 1; s < count; s++) {
+                if (loads[s] < loads[shard]) {
+                    shard = s;
+                }
+            }
+            loads[shard] += Math.max(weights[i], 1);
+            mine[i] = shard == index - 1;
+        }
+        jobs += names.size();
+        List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i < mine.length; i++) {
+            if (mine[i]) {
+                positions.add(i);
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * @return shard of this process, from 1
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return diagrams planned so far in all shards
+     */
+    public int getJobs() {
+        return jobs;
+    }
+
+    /**
+     * @return planned weight of each shard
+     */
+    public long[] getLoads() {
+        return loads.clone();
+    }
+
+    @Override
+    public String toString() {
+        return index + "/" + count;
+    }
+}
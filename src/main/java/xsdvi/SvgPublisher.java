@@ -0,0 +1,177 @@
+package xsdvi;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+
+import xsdvi.model.SchemaModel;
+
+/**
+ * Streams a diagram as chunks of bytes. Each subscriber gets its own
+ * rendering, run by the executor once subscribed. The rendering thread fills
+ * a chunk and waits for demand before handing it over, so a slow subscriber
+ * slows the rendering down instead of buffering the diagram: at most one
+ * chunk is held besides the ones requested. The subscriber is never blocked,
+ * {@link Flow.Subscription#request(long)} and
+ * {@link Flow.Subscription#cancel()} only signal the rendering thread, which
+ * stops at its next chunk once cancelled.
+ *
+ * @author Alexander Dyuzhev
+ */
+public class SvgPublisher implements Flow.Publisher<ByteBuffer> {
+
+    /**
+     *
+     */
+    public static final int CHUNK_SIZE = 16384;
+
+    private final XsdRenderer renderer;
+    private final SchemaModel model;
+    private final String root;
+    private final Executor executor;
+
+    /**
+     * @param renderer
+     * @param model
+     * @param root null for the whole schema
+     * @param executor runs one rendering per subscriber, blocked while there
+     * is no demand
+     */
+    public SvgPublisher(XsdRenderer renderer, SchemaModel model, String root, Executor executor) {
+        this.renderer = renderer;
+        this.model = model;
+        this.root = root;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        ChunkSubscription subscription = new ChunkSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        try {
+            executor.execute(subscription);
+        } catch (RejectedExecutionException ex) {
+            subscription.cancel();
+            subscriber.onError(ex);
+        }
+    }
+
+    /**
+     * Renders into chunks and hands them to the subscriber on demand.
+     */
+    private final class ChunkSubscription extends OutputStream implements Flow.Subscription, Runnable {
+
+        private final Flow.Subscriber<? super ByteBuffer> subscriber;
+        private long demand = 0;
+        private boolean cancelled = false;
+        private Throwable error = null;
+        private byte[] chunk = new byte[CHUNK_SIZE];
+        private int length = 0;
+
+        /**
+         * @param subscriber
+         */
+        ChunkSubscription(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public synchronized void request(long n) {
+            if (n <= 0) {
+                // signalled by the rendering thread, see Reactive Streams rule 3.9
+                error = new IllegalArgumentException("Non-positive request " + n);
+                cancelled = true;
+            } else {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            }
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void cancel() {
+            cancelled = true;
+            notifyAll();
+        }
+
+        @Override
+        public void run() {
+            try {
+                renderer.render(model, root, this);
+                if (length > 0) {
+                    emit();
+                }
+            } catch (CancellationException ex) {
+                // cancelled by the subscriber
+            } catch (Exception | StackOverflowError | OutOfMemoryError ex) {
+                if (!isCancelled()) {
+                    subscriber.onError(ex);
+                }
+                return;
+            }
+            Throwable failure;
+            synchronized (this) {
+                failure = error;
+            }
+            if (failure != null) {
+                subscriber.onError(failure);
+            } else if (!isCancelled()) {
+                subscriber.onComplete();
+            }
+        }
+
+        /**
+         * @return
+         */
+        private synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            while (len > 0) {
+                int n = Math.min(len, CHUNK_SIZE - length);
+                System.arraycopy(b, off, chunk, length, n);
+                length += n;
+                off += n;
+                len -= n;
+                if (length == CHUNK_SIZE) {
+                    emit();
+                }
+            }
+        }
+
+        /**
+         * Waits for demand and hands the chunk over.
+         *
+         * @throws CancellationException if cancelled, stops the rendering
+         */
+        private void emit() {
+            synchronized (this) {
+                while (demand == 0 && !cancelled) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        cancelled = true;
+                    }
+                }
+                if (cancelled) {
+                    throw new CancellationException();
+                }
+                demand--;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, length);
+            chunk = new byte[CHUNK_SIZE];
+            length = 0;
+            subscriber.onNext(buffer);
+        }
+    }
+}
@@ -0,0 +1,433 @@
+package xsdvi;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import xsdvi.model.SchemaModel;
+import xsdvi.model.SchemaModel.Component;
+import xsdvi.model.SchemaModel.Element;
+import xsdvi.model.SchemaModel.IdentityConstraint;
+import xsdvi.model.SchemaModel.ModelGroup;
+import xsdvi.model.SchemaModel.Particle;
+import xsdvi.model.SchemaModel.Term;
+import xsdvi.model.SchemaModel.Type;
+import xsdvi.model.SchemaModel.Wildcard;
+
+/**
+ * Predicts the size of the diagrams without drawing them. The model is walked
+ * like {@link XsdHandler} does, each visited component counting as one box,
+ * but no symbols are created and no annotations are parsed. The subtrees of
+ * element declarations are computed once and reused wherever the same
+ * declarations are open above them, so schemas whose diagrams explode are
+ * analyzed in the time of their distinct components.
+ *
+ * @author Alexander Dyuzhev
+ */
+public class XsdAnalyzer {
+
+    // least squares fits of the output sizes of the UnitsML diagrams to their boxes
+    private static final long BASE_BYTES = 9540;
+    private static final long BOX_BYTES = 746;
+    private static final long COMPACT_BASE_BYTES = 6600;
+    private static final long COMPACT_BOX_BYTES = 594;
+
+    private final List<Component> stack = new ArrayList<>();
+    private final Set<Element> openElements = new HashSet<>();
+    private final Map<Element, List<Subtree>> subtrees = new HashMap<>();
+    private SchemaModel analyzedModel = null;
+    private boolean oneNodeOnly = false;
+    private boolean compact = false;
+
+    /**
+     * @param oneNodeOnly
+     */
+    public void setOneNodeOnly(boolean oneNodeOnly) {
+        if (oneNodeOnly != this.oneNodeOnly) {
+            subtrees.clear();
+        }
+        this.oneNodeOnly = oneNodeOnly;
+    }
+
+    /**
+     * @param compact true to estimate the size of the compact output
+     */
+    public void setCompact(boolean compact) {
+        this.compact = compact;
+    }
+
+    /**
+     * @param model
+     * @param rootNodeName null for the diagram of the whole schema
+     * @return null if there is no such root
+     */
+    public Result analyze(SchemaModel model, String rootNodeName) {
+        if (model == null) {
+            return null;
+        }
+        if (model != analyzedModel) {
+            subtrees.clear();
+            analyzedModel = model;
+        }
+        long start = System.nanoTime();
+        Subtree tree = null;
+        if (rootNodeName == null) {
+            Subtree content = new Subtree();
+            for (Element elementDeclaration : model.getElements()) {
+                content.add(analyzeElement(elementDeclaration));
+            }
+            for (Type typeDefinition : model.getTypes()) {
+                if (typeDefinition.isComplex()) {
+                    analyzeComplexType(typeDefinition, content);
+                }
+            }
+            tree = Subtree.box(content);
+        } else {
+            // the handler sets the root for each match, the last one is drawn
+            for (Element elementDeclaration : model.getElements()) {
+                if (elementDeclaration.getName().equals(rootNodeName)) {
+                    tree = analyzeElement(elementDeclaration);
+                }
+            }
+            for (Type typeDefinition : model.getTypes()) {
+                if (typeDefinition.getName().equals(rootNodeName) && typeDefinition.isComplex()) {
+                    tree = analyzeRootComplexType(typeDefinition);
+                }
+            }
+        }
+        if (tree == null) {
+            return null;
+        }
+        long estimatedBytes = compact ? COMPACT_BASE_BYTES + COMPACT_BOX_BYTES * tree.nodes : BASE_BYTES + BOX_BYTES * tree.nodes;
+        return new Result(rootNodeName, tree.nodes, tree.depth, tree.loops, estimatedBytes, tree.expansions, System.nanoTime() - start);
+    }
+
+    /**
+     * @param elementDeclaration
+     * @return subtree of the element box
+     */
+    private Subtree analyzeElement(Element elementDeclaration) {
+        if (openElements.contains(elementDeclaration)) {
+            Subtree loop = Subtree.box(new Subtree());
+            loop.loops = 1;
+            Subtree element = Subtree.box(loop);
+            element.checked.add(elementDeclaration);
+            return element;
+        }
+        // the subtree only depends on which of the declarations it checks for loops are open
+        boolean reuse = !oneNodeOnly;
+        List<Subtree> candidates = subtrees.get(elementDeclaration);
+        if (reuse && candidates != null) {
+            for (Subtree candidate : candidates) {
+                if (candidate.openChecked.equals(openChecked(candidate.checked))) {
+                    return candidate;
+                }
+            }
+        }
+        Type typeDefinition = elementDeclaration.getType();
+        Subtree content = new Subtree();
+        stack.add(elementDeclaration);
+        openElements.add(elementDeclaration);
+        if (!(stack.size() > 1 && oneNodeOnly) && typeDefinition.isComplex()) {
+            long nodes = content.nodes;
+            analyzeComplexType(typeDefinition, content);
+            String name = typeDefinition.isAnonymous()
+                    ? "element " + elementDeclaration.getName() + " (anonymous type)"
+                    : "type " + typeDefinition.getName();
+            if (content.nodes > nodes) {
+                content.addExpansion(name, 1, content.nodes - nodes);
+            }
+        }
+        for (IdentityConstraint identityConstraintDefinition : elementDeclaration.getIdentityConstraints()) {
+            Subtree constraint = new Subtree();
+            constraint.add(Subtree.box(new Subtree()));
+            for (int j = 0; j < identityConstraintDefinition.getFields().size(); j++) {
+                constraint.add(Subtree.box(new Subtree()));
+            }
+            content.add(Subtree.box(constraint));
+        }
+        openElements.remove(elementDeclaration);
+        stack.remove(stack.size() - 1);
+        Subtree element = Subtree.box(content);
+        element.checked.add(elementDeclaration);
+        if (reuse) {
+            element.openChecked = openChecked(element.checked);
+            subtrees.computeIfAbsent(elementDeclaration, key -> new ArrayList<>()).add(element);
+        }
+        return element;
+    }
+
+    /**
+     * @param checked
+     * @return the open element declarations among the checked ones
+     */
+    private Set<Element> openChecked(Set<Element> checked) {
+        Set<Element> open = new HashSet<>();
+        for (Component object : stack) {
+            if (object instanceof Element && checked.contains(object)) {
+                open.add((Element) object);
+            }
+        }
+        return open;
+    }
+
+    /**
+     * @param complexTypeDefinition
+     * @return subtree of the complex type box
+     */
+    private Subtree analyzeRootComplexType(Type complexTypeDefinition) {
+        Subtree content = new Subtree();
+        stack.add(complexTypeDefinition);
+        analyzeComplexType(complexTypeDefinition, content);
+        stack.remove(stack.size() - 1);
+        if (content.nodes > 0) {
+            content.addExpansion("type " + complexTypeDefinition.getName(), 1, content.nodes);
+        }
+        return Subtree.box(content);
+    }
+
+    /**
+     * @param complexTypeDefinition
+     * @param content boxes are added to it
+     */
+    private void analyzeComplexType(Type complexTypeDefinition, Subtree content) {
+        Particle particle = complexTypeDefinition.getParticle();
+        if (particle != null) {
+            content.add(analyzeTerm(particle.getTerm()));
+        }
+        for (int i = 0; i < complexTypeDefinition.getAttributeUses().size(); i++) {
+            content.add(Subtree.box(new Subtree()));
+        }
+        if (complexTypeDefinition.getAttributeWildcard() != null) {
+            content.add(Subtree.box(new Subtree()));
+        }
+    }
+
+    /**
+     * @param term
+     * @return subtree of the term box, empty for unknown terms
+     */
+    private Subtree analyzeTerm(Term term) {
+        if (term instanceof ModelGroup) {
+            Subtree particles = new Subtree();
+            for (Particle particle : ((ModelGroup) term).getParticles()) {
+                particles.add(analyzeTerm(particle.getTerm()));
+            }
+            return Subtree.box(particles);
+        } else if (term instanceof Element) {
+            return analyzeElement((Element) term);
+        } else if (term instanceof Wildcard) {
+            return Subtree.box(new Subtree());
+        }
+        return new Subtree();
+    }
+
+    /**
+     * @param results
+     * @param expansions number of types listed per root
+     * @return table of the results, the largest diagrams first
+     */
+    public static String formatReport(List<Result> results, int expansions) {
+        List<Result> sorted = new ArrayList<>(results);
+        sorted.sort((a, b) -> Long.compare(b.getNodes(), a.getNodes()));
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.ROOT, "%-40s %10s %6s %6s %14s%n", "Root", "Boxes", "Depth", "Loops", "Est. bytes"));
+        for (Result result : sorted) {
+            report.append(String.format(Locale.ROOT, "%-40s %10d %6d %6d %14d%n",
+                    result.getRoot() == null ? "(schema)" : result.getRoot(),
+                    result.getNodes(), result.getMaxDepth(), result.getLoops(), result.getEstimatedBytes()));
+            List<Expansion> top = result.getExpansions();
+            for (int i = 0; i < Math.min(expansions, top.size()); i++) {
+                Expansion expansion = top.get(i);
+                report.append(String.format(Locale.ROOT, "    %-36s %10d boxes in %d expansions%n",
+                        expansion.getName(), expansion.getNodes(), expansion.getCount()));
+            }
+        }
+        return report.toString();
+    }
+
+    /**
+     * Boxes of a subtree, or of a list of sibling subtrees.
+     */
+    private static final class Subtree {
+
+        private long nodes = 0;
+        private int depth = 0;
+        private long loops = 0;
+        // name -> expansions, boxes below them
+        private final Map<String, long[]> expansions = new HashMap<>();
+        // element declarations checked for loops
+        private final Set<Element> checked = new HashSet<>();
+        private Set<Element> openChecked = null;
+
+        /**
+         * @param content
+         * @return a box above the content
+         */
+        static Subtree box(Subtree content) {
+            Subtree box = new Subtree();
+            box.add(content);
+            box.nodes++;
+            box.depth++;
+            return box;
+        }
+
+        /**
+         * @param sibling
+         */
+        void add(Subtree sibling) {
+            nodes += sibling.nodes;
+            depth = Math.max(depth, sibling.depth);
+            loops += sibling.loops;
+            for (Map.Entry<String, long[]> entry : sibling.expansions.entrySet()) {
+                addExpansion(entry.getKey(), entry.getValue()[0], entry.getValue()[1]);
+            }
+            checked.addAll(sibling.checked);
+        }
+
+        /**
+         * @param name
+         * @param count
+         * @param boxes
+         */
+        void addExpansion(String name, long count, long boxes) {
+            long[] expansion = expansions.computeIfAbsent(name, key -> new long[2]);
+            expansion[0] += count;
+            expansion[1] += boxes;
+        }
+    }
+
+    /**
+     * Boxes below the expansions of one type.
+     */
+    public static final class Expansion {
+
+        private final String name;
+        private final long count;
+        private final long nodes;
+
+        /**
+         * @param name
+         * @param count
+         * @param nodes
+         */
+        Expansion(String name, long count, long nodes) {
+            this.name = name;
+            this.count = count;
+            this.nodes = nodes;
+        }
+
+        /**
+         * @return "type" and the type name, or "element" and the name of the
+         * element with an anonymous type
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return number of times the type is expanded
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return boxes below the expansions, including the ones of nested
+         * expansions
+         */
+        public long getNodes() {
+            return nodes;
+        }
+    }
+
+    /**
+     * Predicted size of one diagram.
+     */
+    public static final class Result {
+
+        private final String root;
+        private final long nodes;
+        private final int maxDepth;
+        private final long loops;
+        private final long estimatedBytes;
+        private final List<Expansion> expansions = new ArrayList<>();
+        private final long nanos;
+
+        /**
+         * @param root
+         * @param nodes
+         * @param maxDepth
+         * @param loops
+         * @param estimatedBytes
+         * @param expansions
+         * @param nanos
+         */
+        Result(String root, long nodes, int maxDepth, long loops, long estimatedBytes, Map<String, long[]> expansions, long nanos) {
+            this.root = root;
+            this.nodes = nodes;
+            this.maxDepth = maxDepth;
+            this.loops = loops;
+            this.estimatedBytes = estimatedBytes;
+            for (Map.Entry<String, long[]> entry : expansions.entrySet()) {
+                this.expansions.add(new Expansion(entry.getKey(), entry.getValue()[0], entry.getValue()[1]));
+            }
+            this.expansions.sort((a, b) -> a.getNodes() != b.getNodes()
+                    ? Long.compare(b.getNodes(), a.getNodes()) : a.getName().compareTo(b.getName()));
+            this.nanos = nanos;
+        }
+
+        /**
+         * @return null for the diagram of the whole schema
+         */
+        public String getRoot() {
+            return root;
+        }
+
+        /**
+         * @return boxes of the diagram
+         */
+        public long getNodes() {
+            return nodes;
+        }
+
+        /**
+         * @return boxes on the longest path from the root
+         */
+        public int getMaxDepth() {
+            return maxDepth;
+        }
+
+        /**
+         * @return loop boxes where recursive declarations are cut off
+         */
+        public long getLoops() {
+            return loops;
+        }
+
+        /**
+         * @return approximate size of the SVG file
+         */
+        public long getEstimatedBytes() {
+            return estimatedBytes;
+        }
+
+        /**
+         * @return the types with the most boxes below them first
+         */
+        public List<Expansion> getExpansions() {
+            return expansions;
+        }
+
+        /**
+         * @return time of the analysis
+         */
+        public long getNanos() {
+            return nanos;
+        }
+    }
+}
@@ -1,43 +1,12 @@
 package xsdvi;
 
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Stack;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
-
-import org.apache.xerces.xs.StringList;
-import org.apache.xerces.xs.XSAnnotation;
-import org.apache.xerces.xs.XSAttributeDeclaration;
-import org.apache.xerces.xs.XSAttributeUse;
-import org.apache.xerces.xs.XSComplexTypeDefinition;
-import org.apache.xerces.xs.XSConstants;
-import org.apache.xerces.xs.XSElementDeclaration;
-import org.apache.xerces.xs.XSIDCDefinition;
-import org.apache.xerces.xs.XSModel;
-import org.apache.xerces.xs.XSModelGroup;
-import org.apache.xerces.xs.XSNamedMap;
-import org.apache.xerces.xs.XSObject;
-import org.apache.xerces.xs.XSObjectList;
-import org.apache.xerces.xs.XSParticle;
-import org.apache.xerces.xs.XSTerm;
-import org.apache.xerces.xs.XSTypeDefinition;
-import org.apache.xerces.xs.XSWildcard;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
-
 import xsdvi.svg.AbstractSymbol;
 import xsdvi.svg.SymbolAll;
 import xsdvi.svg.SymbolAny;
@@ -53,9 +22,24 @@ import xsdvi.svg.SymbolLoop;
 import xsdvi.svg.SymbolSchema;
 import xsdvi.svg.SymbolSelector;
 import xsdvi.svg.SymbolSequence;
+import xsdvi.svg.SymbolTruncated;
 import xsdvi.svg.SymbolUnique;
+import xsdvi.model.SchemaModel;
+import xsdvi.model.SchemaModel.AttributeUse;
+import xsdvi.model.SchemaModel.Component;
+import xsdvi.model.SchemaModel.Element;
+import xsdvi.model.SchemaModel.IdentityConstraint;
+import xsdvi.model.SchemaModel.ModelGroup;
+import xsdvi.model.SchemaModel.Particle;
+import xsdvi.model.SchemaModel.Term;
+import xsdvi.model.SchemaModel.Type;
+import xsdvi.model.SchemaModel.Wildcard;
+import xsdvi.utils.FlightEvents;
 import xsdvi.utils.LoggerHelper;
+import xsdvi.utils.Metrics;
+import xsdvi.utils.RenderBudget;
 import xsdvi.utils.TreeBuilder;
+import xsdvi.utils.TreeElement;
 
 /**
  * @author Václav Slavìtínský
@@ -65,13 +49,24 @@ public class XsdHandler {
 
     private static final Logger logger = Logger.getLogger(LoggerHelper.LOGGER_NAME);
     private final TreeBuilder builder;
-    private final Stack<XSObject> stack;
+    private final Stack<Component> stack;
 
     private String rootNodeName;
     private boolean oneNodeOnly = false;
 
     private String schemaNamespace;
 
+    private final Map<Component, List<String>> documentation = new IdentityHashMap<>();
+    private SchemaModel documentedModel = null;
+    private long documentationHits = 0;
+    private long documentationMisses = 0;
+
+    private Metrics metrics = new Metrics(false);
+
+    private RenderBudget budget = null;
+    private long nodes = 0;
+    private boolean truncated = false;
+
     /**
      * @param xsdSymbols
      */
@@ -88,73 +83,141 @@ public class XsdHandler {
         this.oneNodeOnly = oneNodeOnly;
     }
 
+    /**
+     * @param metrics receives the traversal and annotation parsing times, the
+     * loop cut-offs and the annotations parsed
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param budget limits the boxes and the time of the traversal, started
+     * by the caller for each diagram; null for no limits
+     */
+    public void setBudget(RenderBudget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * @return true if the last diagram was cut off
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
     /**
      * @param model
      */
-    public void processModel(XSModel model) {
+    public void processModel(SchemaModel model) {
         if (model == null) {
             return;
         }
+        if (model != documentedModel) {
+            documentation.clear();
+            documentedModel = model;
+        }
+        metrics.enter(Metrics.Phase.TRAVERSE);
+        FlightEvents.Traversal event = new FlightEvents.Traversal();
+        event.begin();
+        nodes = 0;
+        truncated = false;
         AbstractSymbol symbol = new SymbolSchema();
         if (rootNodeName == null) {
-            builder.setRoot(symbol);
+            setRoot(symbol);
         }
-        processElementDeclarations(model.getComponents(XSConstants.ELEMENT_DECLARATION));
-        processTypeDeclarations(model.getComponents(XSConstants.TYPE_DEFINITION));
+        processElementDeclarations(model.getElements());
+        processTypeDeclarations(model.getTypes());
 
         if (rootNodeName == null) {
             builder.levelUp();
         }
+        if (event.shouldCommit()) {
+            event.root = rootNodeName;
+            event.nodes = builder.getRoot() != null ? countNodes(builder.getRoot()) : 0;
+            event.commit();
+        }
+        metrics.exit();
+    }
+
+    /**
+     * @param element
+     * @return number of elements in the subtree
+     */
+    private static int countNodes(TreeElement element) {
+        int count = 1;
+        for (TreeElement child : element.getChildren()) {
+            count += countNodes(child);
+        }
+        return count;
     }
 
-    public List<String> getRootNodeNames(XSModel model, List<Short> rootTypeNames) {
+    public List<String> getRootNodeNames(SchemaModel model, List<Short> rootTypeNames) {
         ArrayList<String> names = new ArrayList<>();
         if (model == null) {
             return names;
         }
 
         for (Short rootType : rootTypeNames) {
-            XSNamedMap map = model.getComponents(rootType);
-            for (int i = 0; i < map.getLength(); i++) {
-                if (rootType == XSConstants.ELEMENT_DECLARATION || (rootType == XSConstants.TYPE_DEFINITION && ((XSTypeDefinition) map.item(i)).getTypeCategory() == XSTypeDefinition.COMPLEX_TYPE)) {
-                    names.add(map.item(i).getName());
+            if (rootType == SchemaModel.ELEMENT_DECLARATION) {
+                for (Element elementDeclaration : model.getElements()) {
+                    names.add(elementDeclaration.getName());
+                }
+            } else if (rootType == SchemaModel.TYPE_DEFINITION) {
+                for (Type typeDefinition : model.getTypes()) {
+                    if (typeDefinition.isComplex()) {
+                        names.add(typeDefinition.getName());
+                    }
                 }
             }
         }
         return names;
     }
 
-    public void setSchemaNamespace(XSModel model, String elementName) {
-        XSNamedMap map = model.getComponents(XSConstants.ELEMENT_DECLARATION);
-        for (int i = 0; i < map.getLength(); i++) {
-            if (map.item(i).getName().equals(elementName)) {
-                schemaNamespace = map.item(i).getNamespace();
-                break;
+    /**
+     * Sets the namespace of the root, not shown in its diagram. It is looked
+     * up for each root, a handler drawing the roots of another thread before
+     * keeps none of theirs.
+     *
+     * @param model
+     * @param elementName name of a global element or complex type
+     */
+    public void setSchemaNamespace(SchemaModel model, String elementName) {
+        for (Element elementDeclaration : model.getElements()) {
+            if (elementDeclaration.getName().equals(elementName)) {
+                schemaNamespace = elementDeclaration.getNamespace();
+                return;
             }
         }
+        for (Type typeDefinition : model.getTypes()) {
+            if (typeDefinition.isComplex() && elementName.equals(typeDefinition.getName())) {
+                schemaNamespace = typeDefinition.getNamespace();
+                return;
+            }
+        }
+        schemaNamespace = null;
     }
 
     /**
-     * @param map
+     * @param elementDeclarations
      */
-    private void processElementDeclarations(XSNamedMap map) {
-        for (int i = 0; i < map.getLength(); i++) {
-            String name = map.item(i).getName();
+    private void processElementDeclarations(List<Element> elementDeclarations) {
+        for (Element elementDeclaration : elementDeclarations) {
+            String name = elementDeclaration.getName();
             boolean isRoot = name.equals(rootNodeName);
             if (isRoot || rootNodeName == null) {
-                processElementDeclaration((XSElementDeclaration) map.item(i), null, isRoot);
+                processElementDeclaration(elementDeclaration, null, isRoot);
             }
         }
     }
 
-    private void processTypeDeclarations(XSNamedMap map) {
-        for (int i = 0; i < map.getLength(); i++) {
-            String name = map.item(i).getName();
+    private void processTypeDeclarations(List<Type> typeDefinitions) {
+        for (Type typeDefinition : typeDefinitions) {
+            String name = typeDefinition.getName();
             boolean isRoot = name.equals(rootNodeName);
             if (isRoot || rootNodeName == null) {
-                XSTypeDefinition typeDefinition = (XSTypeDefinition) map.item(i);
-                if (typeDefinition.getTypeCategory() == XSTypeDefinition.COMPLEX_TYPE) {
-                    processComplexTypeDefinition((XSComplexTypeDefinition) typeDefinition, isRoot);
+                if (typeDefinition.isComplex()) {
+                    processComplexTypeDefinition(typeDefinition, isRoot);
                 }
             }
         }
@@ -163,7 +226,10 @@ public class XsdHandler {
     /**
      * @param particle
      */
-    private void processParticle(XSParticle particle) {
+    private void processParticle(Particle particle) {
+        if (truncate()) {
+            return;
+        }
         processTerm(particle.getTerm(), getCardinalityString(particle));
     }
 
@@ -171,20 +237,13 @@ public class XsdHandler {
      * @param term
      * @param cardinality
      */
-    private void processTerm(XSTerm term, String cardinality) {
-        int type = term.getType();
-        switch (type) {
-            case XSConstants.MODEL_GROUP:
-                processModelGroup((XSModelGroup) term, cardinality);
-                break;
-            case XSConstants.ELEMENT_DECLARATION:
-                processElementDeclaration((XSElementDeclaration) term, cardinality, false);
-                break;
-            case XSConstants.WILDCARD:
-                processElementWildcard((XSWildcard) term, cardinality);
-                break;
-            default:
-                break;
+    private void processTerm(Term term, String cardinality) {
+        if (term instanceof ModelGroup) {
+            processModelGroup((ModelGroup) term, cardinality);
+        } else if (term instanceof Element) {
+            processElementDeclaration((Element) term, cardinality, false);
+        } else if (term instanceof Wildcard) {
+            processElementWildcard((Wildcard) term, cardinality);
         }
     }
 
@@ -192,7 +251,7 @@ public class XsdHandler {
      * @param wildcard
      * @param cardinality
      */
-    private void processElementWildcard(XSWildcard wildcard, String cardinality) {
+    private void processElementWildcard(Wildcard wildcard, String cardinality) {
         SymbolAny symbol = new SymbolAny();
         String ns = getNamespaceString(wildcard);
         if (ns != null && !ns.equals(schemaNamespace)) {
@@ -201,14 +260,17 @@ public class XsdHandler {
         symbol.setDescription(getDocumentationString(wildcard));
         symbol.setProcessContents(getProcessContents(wildcard));
         symbol.setCardinality(cardinality);
-        builder.appendChild(symbol);
+        appendChild(symbol);
         builder.levelUp();
     }
 
     /**
      * @param wildcard
      */
-    private void processAttributeWildcard(XSWildcard wildcard) {
+    private void processAttributeWildcard(Wildcard wildcard) {
+        if (truncate()) {
+            return;
+        }
         SymbolAnyAttribute symbol = new SymbolAnyAttribute();
         String ns = getNamespaceString(wildcard);
         if (ns != null && !ns.equals(schemaNamespace)) {
@@ -216,7 +278,7 @@ public class XsdHandler {
         }
         symbol.setDescription(getDocumentationString(wildcard));
         symbol.setProcessContents(getProcessContents(wildcard));
-        builder.appendChild(symbol);
+        appendChild(symbol);
         builder.levelUp();
     }
 
@@ -224,26 +286,25 @@ public class XsdHandler {
      * @param modelGroup
      * @param cardinality
      */
-    private void processModelGroup(XSModelGroup modelGroup, String cardinality) {
+    private void processModelGroup(ModelGroup modelGroup, String cardinality) {
         AbstractSymbol symbol = null;
-        int compositor = modelGroup.getCompositor();
-        switch (compositor) {
-            case XSModelGroup.COMPOSITOR_ALL:
+        switch (modelGroup.getCompositor()) {
+            case ALL:
                 symbol = new SymbolAll(cardinality);
                 symbol.setDescription(getDocumentationString(modelGroup));
                 break;
-            case XSModelGroup.COMPOSITOR_CHOICE:
+            case CHOICE:
                 symbol = new SymbolChoice(cardinality);
                 symbol.setDescription(getDocumentationString(modelGroup));
                 break;
-            case XSModelGroup.COMPOSITOR_SEQUENCE:
+            case SEQUENCE:
                 symbol = new SymbolSequence(cardinality);
                 symbol.setDescription(getDocumentationString(modelGroup));
                 break;
             default:
                 break;
         }
-        builder.appendChild(symbol);
+        appendChild(symbol);
         processParticles(modelGroup.getParticles());
         builder.levelUp();
     }
@@ -251,28 +312,30 @@ public class XsdHandler {
     /**
      * @param particles
      */
-    private void processParticles(XSObjectList particles) {
-        for (int i = 0; i < particles.getLength(); i++) {
-            processParticle((XSParticle) particles.item(i));
+    private void processParticles(List<Particle> particles) {
+        for (Particle particle : particles) {
+            processParticle(particle);
         }
     }
 
     /**
      * @param attributeUse
      */
-    private void processAttributeUse(XSAttributeUse attributeUse) {
-        XSAttributeDeclaration attributeDeclaration = attributeUse.getAttrDeclaration();
+    private void processAttributeUse(AttributeUse attributeUse) {
+        if (truncate()) {
+            return;
+        }
         SymbolAttribute symbol = new SymbolAttribute();
-        symbol.setName(attributeDeclaration.getName());
-        String ns = attributeDeclaration.getNamespace();
+        symbol.setName(attributeUse.getName());
+        String ns = attributeUse.getNamespace();
         if (ns != null && !ns.equals(schemaNamespace)) {
             symbol.setNamespace(ns);
         }
-        symbol.setType(getTypeString(attributeDeclaration.getTypeDefinition()));
-        symbol.setRequired(attributeUse.getRequired());
+        symbol.setType(getTypeString(attributeUse.getType()));
+        symbol.setRequired(attributeUse.isRequired());
         symbol.setConstraint(getConstraintString(attributeUse));
         symbol.setDescription(getDocumentationString(attributeUse));
-        builder.appendChild(symbol);
+        appendChild(symbol);
         builder.levelUp();
     }
 
@@ -280,8 +343,11 @@ public class XsdHandler {
      * @param elementDeclaration
      * @param cardinality
      */
-    private void processElementDeclaration(XSElementDeclaration elementDeclaration, String cardinality, boolean isRoot) {
-        XSTypeDefinition typeDefinition = elementDeclaration.getTypeDefinition();
+    private void processElementDeclaration(Element elementDeclaration, String cardinality, boolean isRoot) {
+        if (!isRoot && truncate()) {
+            return;
+        }
+        Type typeDefinition = elementDeclaration.getType();
 
         SymbolElement symbol = new SymbolElement();
         symbol.setName(elementDeclaration.getName());
@@ -291,17 +357,19 @@ public class XsdHandler {
         }
         symbol.setType(getTypeString(typeDefinition));
         symbol.setCardinality(cardinality);
-        symbol.setNillable(elementDeclaration.getNillable());
-        symbol.setAbstr(elementDeclaration.getAbstract());
+        symbol.setNillable(elementDeclaration.isNillable());
+        symbol.setAbstr(elementDeclaration.isAbstract());
         symbol.setSubstitution(getSubstitutionString(elementDeclaration));
+        // the descendants are drawn from the type, and from the declaration for identity constraints
+        symbol.setContentKey(elementDeclaration.getIdentityConstraints().isEmpty() ? typeDefinition : elementDeclaration);
         // symbol.setDescription(getDocumentationString(elementDeclaration));
         if (isRoot && oneNodeOnly) { // without Collapse All and Expand All buttons
             symbol.setStartYPosition(20); //default 50
         }
         if (isRoot) {
-            builder.setRoot(symbol);
+            setRoot(symbol);
         } else {
-            builder.appendChild(symbol);
+            appendChild(symbol);
         }
         //LOOP
         if (processLoop(elementDeclaration)) {
@@ -314,8 +382,8 @@ public class XsdHandler {
             //skip processing
         } else {
             //COMPLEX TYPE
-            if (typeDefinition.getTypeCategory() == XSTypeDefinition.COMPLEX_TYPE) {
-                processComplexTypeDefinition((XSComplexTypeDefinition) typeDefinition, false);
+            if (typeDefinition.isComplex()) {
+                processComplexTypeDefinition(typeDefinition, false);
             }
         }
         //IDENTITY CONSTRAINTS
@@ -327,7 +395,7 @@ public class XsdHandler {
     /**
      * @param complexTypeDefinition
      */
-    private void processComplexTypeDefinition(XSComplexTypeDefinition complexTypeDefinition, boolean isRoot) {
+    private void processComplexTypeDefinition(Type complexTypeDefinition, boolean isRoot) {
         if (isRoot) {
             SymbolComplexType symbol = new SymbolComplexType();
             symbol.setName(getTypeString(complexTypeDefinition));
@@ -339,19 +407,20 @@ public class XsdHandler {
             if (oneNodeOnly) {
                 symbol.setStartYPosition(20); //default 50
             }
-            builder.setRoot(symbol);
+            symbol.setContentKey(complexTypeDefinition);
+            setRoot(symbol);
             stack.push(complexTypeDefinition);
         }
 
         //PARTICLE
-        XSParticle particle = complexTypeDefinition.getParticle();
+        Particle particle = complexTypeDefinition.getParticle();
         if (particle != null) {
             processParticle(particle);
         }
         //ATTRIBUTE USES
         processAttributeUses(complexTypeDefinition.getAttributeUses());
         //ATTRIBUTE WILDCARD
-        XSWildcard wildcard = complexTypeDefinition.getAttributeWildcard();
+        Wildcard wildcard = complexTypeDefinition.getAttributeWildcard();
         if (wildcard != null) {
             processAttributeWildcard(wildcard);
         }
@@ -364,18 +433,18 @@ public class XsdHandler {
     /**
      * @param attributeUses
      */
-    private void processAttributeUses(XSObjectList attributeUses) {
-        for (int i = 0; i < attributeUses.getLength(); i++) {
-            processAttributeUse((XSAttributeUse) attributeUses.item(i));
+    private void processAttributeUses(List<AttributeUse> attributeUses) {
+        for (AttributeUse attributeUse : attributeUses) {
+            processAttributeUse(attributeUse);
         }
     }
 
     /**
      * @param identityConstraints
      */
-    private void processIdentityConstraints(XSNamedMap identityConstraints) {
-        for (int i = 0; i < identityConstraints.getLength(); i++) {
-            processIdentityConstraintDefinition((XSIDCDefinition) identityConstraints.item(i));
+    private void processIdentityConstraints(List<IdentityConstraint> identityConstraints) {
+        for (IdentityConstraint identityConstraint : identityConstraints) {
+            processIdentityConstraintDefinition(identityConstraint);
         }
     }
 
@@ -383,24 +452,66 @@ public class XsdHandler {
      * @param elementDeclaration
      * @return
      */
-    private boolean processLoop(XSElementDeclaration elementDeclaration) {
+    private boolean processLoop(Element elementDeclaration) {
         if (stack.contains(elementDeclaration)) {
             SymbolLoop symbol = new SymbolLoop();
-            builder.appendChild(symbol);
+            metrics.countLoop();
+            appendChild(symbol);
             builder.levelUp();
             return true;
         }
         return false;
     }
 
+    /**
+     * @param symbol
+     */
+    private void setRoot(AbstractSymbol symbol) {
+        builder.setRoot(symbol);
+        nodes = 1;
+    }
+
+    /**
+     * @param symbol
+     */
+    private void appendChild(AbstractSymbol symbol) {
+        builder.appendChild(symbol);
+        nodes++;
+    }
+
+    /**
+     * Appends a truncation box instead of the next box once the budget is
+     * exceeded, the remaining components of the diagram are skipped.
+     *
+     * @return true if the traversal of the diagram is cut off
+     */
+    private boolean truncate() {
+        if (truncated) {
+            return true;
+        }
+        if (budget == null || !budget.checkNodes(nodes)) {
+            return false;
+        }
+        truncated = true;
+        SymbolTruncated symbol = new SymbolTruncated(budget.getExceeded());
+        appendChild(symbol);
+        builder.levelUp();
+        String warning = "Diagram " + (rootNodeName == null ? "of the schema" : rootNodeName) + " truncated at " + symbol.code() + ": " + budget.getExceeded();
+        logger.warning(warning);
+        metrics.addWarning(warning);
+        return true;
+    }
+
     /**
      * @param identityConstraintDefinition
      */
-    private void processIdentityConstraintDefinition(XSIDCDefinition identityConstraintDefinition) {
+    private void processIdentityConstraintDefinition(IdentityConstraint identityConstraintDefinition) {
+        if (truncate()) {
+            return;
+        }
         AbstractSymbol symbol = null;
-        int category = identityConstraintDefinition.getCategory();
-        switch (category) {
-            case XSIDCDefinition.IC_UNIQUE: {
+        switch (identityConstraintDefinition.getCategory()) {
+            case UNIQUE: {
                 symbol = new SymbolUnique();
                 symbol.setDescription(getDocumentationString(identityConstraintDefinition));
                 ((SymbolUnique) symbol).setName(identityConstraintDefinition.getName());
@@ -410,7 +521,7 @@ public class XsdHandler {
                 }
                 break;
             }
-            case XSIDCDefinition.IC_KEY: {
+            case KEY: {
                 symbol = new SymbolKey();
                 symbol.setDescription(getDocumentationString(identityConstraintDefinition));
                 ((SymbolKey) symbol).setName(identityConstraintDefinition.getName());
@@ -420,7 +531,7 @@ public class XsdHandler {
                 }
                 break;
             }
-            case XSIDCDefinition.IC_KEYREF: {
+            case KEYREF: {
                 symbol = new SymbolKeyref();
                 symbol.setDescription(getDocumentationString(identityConstraintDefinition));
                 ((SymbolKeyref) symbol).setName(identityConstraintDefinition.getName());
@@ -428,24 +539,23 @@ public class XsdHandler {
                 if (ns != null && !ns.equals(schemaNamespace)) {
                     ((SymbolKeyref) symbol).setNamespace(ns);
                 }
-                ((SymbolKeyref) symbol).setRefer(identityConstraintDefinition.getRefKey().getName());
+                ((SymbolKeyref) symbol).setRefer(identityConstraintDefinition.getRefer());
                 break;
             }
             default:
                 break;
         }
-        builder.appendChild(symbol);
+        appendChild(symbol);
 
         SymbolSelector symbolSelector = new SymbolSelector();
-        symbolSelector.setXpath(identityConstraintDefinition.getSelectorStr());
-        builder.appendChild(symbolSelector);
+        symbolSelector.setXpath(identityConstraintDefinition.getSelector());
+        appendChild(symbolSelector);
         builder.levelUp();
 
-        StringList fieldStrings = identityConstraintDefinition.getFieldStrs();
-        for (int i = 0; i < fieldStrings.getLength(); i++) {
+        for (String field : identityConstraintDefinition.getFields()) {
             SymbolField symbolField = new SymbolField();
-            symbolField.setXpath(fieldStrings.item(i));
-            builder.appendChild(symbolField);
+            symbolField.setXpath(field);
+            appendChild(symbolField);
             builder.levelUp();
         }
 
@@ -457,22 +567,24 @@ public class XsdHandler {
      * @param attributeUse
      * @return
      */
-    private String getConstraintString(XSAttributeUse attributeUse) {
-        if (attributeUse.getConstraintType() == XSConstants.VC_DEFAULT) {
-            return "default: " + attributeUse.getValueConstraintValue().getNormalizedValue();
-        } else if (attributeUse.getConstraintType() == XSConstants.VC_FIXED) {
-            return "fixed: " + attributeUse.getValueConstraintValue().getNormalizedValue();
+    private String getConstraintString(AttributeUse attributeUse) {
+        switch (attributeUse.getValueConstraint()) {
+            case DEFAULT:
+                return "default: " + attributeUse.getValue();
+            case FIXED:
+                return "fixed: " + attributeUse.getValue();
+            default:
+                return null;
         }
-        return null;
     }
 
     /**
      * @param typeDefinition
      * @return
      */
-    private String getTypeString(XSTypeDefinition typeDefinition) {
-        if (typeDefinition.getAnonymous()) {
-            if (typeDefinition.getTypeCategory() == XSTypeDefinition.SIMPLE_TYPE) {
+    private String getTypeString(Type typeDefinition) {
+        if (typeDefinition.isAnonymous()) {
+            if (!typeDefinition.isComplex()) {
                 return "base: " + typeDefinition.getBaseType().getName();
             }
         } else {
@@ -485,8 +597,8 @@ public class XsdHandler {
      * @param elementDeclaration
      * @return
      */
-    private String getSubstitutionString(XSElementDeclaration elementDeclaration) {
-        XSElementDeclaration substitution = elementDeclaration.getSubstitutionGroupAffiliation();
+    private String getSubstitutionString(Element elementDeclaration) {
+        Element substitution = elementDeclaration.getSubstitutionGroup();
         if (substitution != null) {
             return substitution.getName();
         }
@@ -497,26 +609,25 @@ public class XsdHandler {
      * @param wildcard
      * @return
      */
-    private String getNamespaceString(XSWildcard wildcard) {
-        if (wildcard.getConstraintType() == XSWildcard.NSCONSTRAINT_ANY) {
+    private String getNamespaceString(Wildcard wildcard) {
+        if (wildcard.getConstraint() == SchemaModel.NamespaceConstraint.ANY) {
             return "any NS";
         }
         StringBuilder namespace = new StringBuilder();
-        if (wildcard.getConstraintType() == XSWildcard.NSCONSTRAINT_NOT) {
+        if (wildcard.getConstraint() == SchemaModel.NamespaceConstraint.NOT) {
             namespace.append("not NS: ");
         } else {
             namespace.append("NS: ");
         }
-        StringList constraintList = wildcard.getNsConstraintList();
         boolean absent = false;
-        for (int i = 0; i < constraintList.getLength(); i++) {
-            if (constraintList.item(i) == null) {
+        for (String constraint : wildcard.getNamespaces()) {
+            if (constraint == null) {
                 if (!absent) {
                     namespace.append("[absent] ");
                     absent = true;
                 }
             } else {
-                namespace.append(constraintList.item(i));
+                namespace.append(constraint);
                 namespace.append(' ');
             }
         }
@@ -527,10 +638,10 @@ public class XsdHandler {
      * @param particle
      * @return
      */
-    private String getCardinalityString(XSParticle particle) {
+    private String getCardinalityString(Particle particle) {
         int minOccurs = particle.getMinOccurs();
         int maxOccurs = particle.getMaxOccurs();
-        if (particle.getMaxOccursUnbounded()) {
+        if (particle.isUnbounded()) {
             return minOccurs + "..\u221E";
         } else if (minOccurs != 1 || maxOccurs != 1) {
             return minOccurs + ".." + maxOccurs;
@@ -542,59 +653,89 @@ public class XsdHandler {
      * @param wildcard
      * @return
      */
-    private int getProcessContents(XSWildcard wildcard) {
+    private int getProcessContents(Wildcard wildcard) {
         switch (wildcard.getProcessContents()) {
-            case XSWildcard.PC_STRICT:
+            case STRICT:
                 return AbstractSymbol.PC_STRICT;
-            case XSWildcard.PC_SKIP:
+            case SKIP:
                 return AbstractSymbol.PC_SKIP;
-            case XSWildcard.PC_LAX:
+            case LAX:
                 return AbstractSymbol.PC_LAX;
             default:
                 return AbstractSymbol.PC_STRICT;
         }
     }
 
-    //private List<String> getDocumentationString(XSElementDeclaration elementDeclaration) {
-    private List<String> getDocumentationString(org.apache.xerces.xs.XSObject itemDeclaration) {
-        //XSAnnotation annotation = elementDeclaration.getAnnotation();
+    /**
+     * Parses the documentation of each component once per model, components
+     * are drawn again for every root reaching them.
+     *
+     * @param itemDeclaration
+     * @return
+     */
+    private List<String> getDocumentationString(Component itemDeclaration) {
+        List<String> cached = documentation.get(itemDeclaration);
+        if (cached != null) {
+            documentationHits++;
+            return cached;
+        }
+        documentationMisses++;
+        List<String> parsed = parseDocumentationString(itemDeclaration);
+        documentation.put(itemDeclaration, parsed);
+        return parsed;
+    }
+
+    /**
+     * @return number of components with parsed documentation
+     */
+    public int getDocumentationCacheSize() {
+        return documentation.size();
+    }
+
+    /**
+     * @return
+     */
+    public long getDocumentationHits() {
+        return documentationHits;
+    }
+
+    /**
+     * @return
+     */
+    public long getDocumentationMisses() {
+        return documentationMisses;
+    }
+
+    /**
+     * Forgets the parsed documentation, it is parsed again when needed.
+     */
+    public void clearDocumentationCache() {
+        documentation.clear();
+    }
+
+    /**
+     * @param itemDeclaration
+     * @return escaped documentation of the component
+     */
+    private List<String> parseDocumentationString(Component itemDeclaration) {
+        metrics.enter(Metrics.Phase.ANNOTATIONS);
+        FlightEvents.Annotation event = new FlightEvents.Annotation();
+        event.begin();
         List<String> annotationsList = new ArrayList<>();
-        XSObjectList annotations = null;
-        if (itemDeclaration instanceof XSElementDeclaration) {
-            annotations = ((XSElementDeclaration) itemDeclaration).getAnnotations();
-        } else if (itemDeclaration instanceof XSAttributeUse) {
-            annotations = ((XSAttributeUse) itemDeclaration).getAnnotations();
-        } else if (itemDeclaration instanceof XSModelGroup) {
-            annotations = ((XSModelGroup) itemDeclaration).getAnnotations();
-        } else if (itemDeclaration instanceof XSIDCDefinition) {
-            annotations = ((XSIDCDefinition) itemDeclaration).getAnnotations();
-        } else if (itemDeclaration instanceof XSWildcard) {
-            annotations = ((XSWildcard) itemDeclaration).getAnnotations();
-        }
-
-        if (annotations != null) {
-            for (Object annotationObject : annotations) {
-                XSAnnotation annotation = (XSAnnotation) annotationObject;
-                String annotationString = annotation.getAnnotationString();
-                try {
-                    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-                    DocumentBuilder dBuilder = factory.newDocumentBuilder();
-
-                    ByteArrayInputStream input = new ByteArrayInputStream(annotationString.getBytes("UTF-8"));
-                    Document doc = dBuilder.parse(input);
-                    XPath xPath = XPathFactory.newInstance().newXPath();
-                    String expression = "//*[local-name() = 'documentation']";
-                    NodeList nodeList = (NodeList) xPath.compile(expression).evaluate(doc, XPathConstants.NODESET);
-                    for (int i = 0; i < nodeList.getLength(); i++) {
-                        Node nNode = nodeList.item(i);
-                        // Todo: split text string by element's width
-                        annotationsList.add(escapeForXML(nNode.getTextContent()));
-                    }
-                } catch (ParserConfigurationException | SAXException | IOException | XPathExpressionException e) {
-                    logger.log(Level.SEVERE, "Can''t retrieve the documentation: {0}", e.toString());
-                }
-            }
-        }
+        long bytes = 0;
+        for (String text : itemDeclaration.getDocumentation()) {
+            metrics.countAnnotation();
+            bytes += text.length();
+            // Todo: split text string by element's width
+            annotationsList.add(escapeForXML(text));
+        }
+        if (event.shouldCommit()) {
+            event.component = itemDeclaration.getName();
+            event.nodes = annotationsList.size();
+            event.bytes = bytes;
+            event.commit();
+        }
+        metrics.exit();
         return annotationsList;
     }
 
@@ -0,0 +1,679 @@
+package xsdvi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.xerces.dom.DOMInputImpl;
+import org.apache.xerces.impl.xs.XSImplementationImpl;
+import org.apache.xerces.xs.XSImplementation;
+import org.apache.xerces.xs.XSLoader;
+import org.apache.xerces.xs.XSModel;
+import org.w3c.dom.DOMConfiguration;
+import org.w3c.dom.ls.LSResourceResolver;
+
+import xsdvi.model.SchemaGraph;
+import xsdvi.model.SchemaModel;
+import xsdvi.model.SchemaSnapshot;
+import xsdvi.model.StaxSchemaReader;
+import xsdvi.model.XercesSchemaModel;
+import xsdvi.svg.AbstractSymbol;
+import xsdvi.svg.FragmentCache;
+import xsdvi.svg.SvgForXsd;
+import xsdvi.utils.DiskCache;
+import xsdvi.utils.LoggerHelper;
+import xsdvi.utils.Metrics;
+import xsdvi.utils.RenderBudget;
+import xsdvi.utils.SchemaResolver;
+import xsdvi.utils.TreeBuilder;
+import xsdvi.utils.WriterHelper;
+import xsdvi.utils.XsdErrorHandler;
+
+/**
+ * Renders the diagrams of schemas in-process. A renderer is built once from
+ * its {@link RenderOptions} and is thread-safe: each call traverses and draws
+ * with its own handler and symbol tree, taken from a pool so the parsed
+ * documentation of a model is reused by the next call on it. The fragment
+ * cache of the options is shared by all calls. A model is only read, it may be
+ * rendered by several threads at once.
+ *
+ * <pre>
+ * XsdRenderer renderer = new XsdRenderer(RenderOptions.builder().compact(true).build());
+ * SchemaModel model = renderer.read("schema.xsd");
+ * byte[] svg = renderer.render(model, "root");
+ * </pre>
+ *
+ * @author Alexander Dyuzhev
+ */
+public class XsdRenderer {
+
+    private static final Logger logger = Logger.getLogger(LoggerHelper.LOGGER_NAME);
+
+    private final RenderOptions options;
+    private final FragmentCache fragmentCache;
+    // null unless remote schema documents are resolved offline
+    private final SchemaResolver resolver;
+    private final Queue<Context> idle = new ConcurrentLinkedQueue<>();
+    // documentation lookups of all the contexts, busy ones included
+    private final AtomicLong documentationHits = new AtomicLong();
+    private final AtomicLong documentationMisses = new AtomicLong();
+
+    /**
+     * Handler, symbol tree and drawing state of one call at a time.
+     */
+    private final class Context {
+
+        final TreeBuilder builder = new TreeBuilder();
+        final XsdHandler xsdHandler = new XsdHandler(builder);
+        final SvgForXsd svg = new SvgForXsd(new WriterHelper());
+        final RenderBudget budget = new RenderBudget(options.getMaxNodes(), options.getMaxBytes(), options.getMaxMillis());
+
+        /**
+         *
+         */
+        Context() {
+            svg.setHideMenuButtons(options.isOneNodeOnly());
+            svg.setCompact(options.isCompact());
+            svg.setDedup(options.isDedup());
+            svg.setFragmentCache(fragmentCache);
+            svg.setEmbodyStyle(options.isEmbodyStyle());
+            svg.setStyleUri(options.getStyleUri());
+            if (budget.isLimited()) {
+                xsdHandler.setBudget(budget);
+                svg.setBudget(budget);
+            }
+        }
+    }
+
+    /**
+     * Outcome of one diagram.
+     */
+    public static final class Result {
+
+        private final String root;
+        private final boolean truncated;
+        private final long nanos;
+        private final String digest;
+
+        /**
+         * @param root
+         * @param truncated
+         * @param nanos
+         * @param digest
+         */
+        Result(String root, boolean truncated, long nanos, String digest) {
+            this.root = root;
+            this.truncated = truncated;
+            this.nanos = nanos;
+            this.digest = digest;
+        }
+
+        /**
+         * @return the root, null for the whole schema
+         */
+        public String getRoot() {
+            return root;
+        }
+
+        /**
+         * @return true if the diagram was cut off by a limit of the options
+         */
+        public boolean isTruncated() {
+            return truncated;
+        }
+
+        /**
+         * @return
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * @return digest of the diagram, see {@link XsdRenderer#digest}, or
+         * null if not enabled by the options
+         */
+        public String getDigest() {
+            return digest;
+        }
+    }
+
+    /**
+     * @param options
+     * @throws IllegalArgumentException if a catalog or the schema mirror of
+     * the options can't be read
+     */
+    public XsdRenderer(RenderOptions options) {
+        this.options = options;
+        resolver = options.isOffline() ? new SchemaResolver(options.getCatalogs(), options.getSchemaMirror()) : null;
+        if (options.getFragmentCacheSize() > 0 || options.getCacheDir() != null) {
+            fragmentCache = new FragmentCache(options.getFragmentCacheSize() > 0 ? options.getFragmentCacheSize() : RenderOptions.DEFAULT_FRAGMENT_CACHE_SIZE);
+            if (options.getCacheDir() != null) {
+                try {
+                    fragmentCache.setDiskCache(new DiskCache(options.getCacheDir(), options.getCacheSize()));
+                } catch (IOException ex) {
+                    logger.log(Level.SEVERE, "Can''t create cache directory {0}: {1}", new Object[]{options.getCacheDir(), ex.toString()});
+                }
+            }
+        } else {
+            fragmentCache = null;
+        }
+    }
+
+    /**
+     * @return
+     */
+    public RenderOptions getOptions() {
+        return options;
+    }
+
+    /**
+     * @return the fragment cache shared by all calls, or null
+     */
+    public FragmentCache getFragmentCache() {
+        return fragmentCache;
+    }
+
+    /**
+     * Loads and validates a schema with its includes and imports.
+     *
+     * @param uri
+     * @return
+     * @throws IOException if the schema can't be loaded
+     */
+    public XSModel load(String uri) throws IOException {
+        XSModel model = newSchemaLoader(resolver).loadURI(uri);
+        if (model == null) {
+            throw new IOException("Can't load schema " + uri);
+        }
+        return model;
+    }
+
+    /**
+     * @param in read to the end, not closed
+     * @param systemId base of the relative includes and imports, or null
+     * @return
+     * @throws IOException if the schema can't be loaded
+     */
+    public XSModel load(InputStream in, String systemId) throws IOException {
+        XSModel model = newSchemaLoader(resolver).load(new DOMInputImpl(null, systemId, null, in, null));
+        if (model == null) {
+            throw new IOException("Can't load schema " + (systemId != null ? systemId : "from stream"));
+        }
+        return model;
+    }
+
+    /**
+     * Reads a schema with its includes and imports, validated by Xerces
+     * unless the options ask for the lightweight reader. The Xerces model is
+     * copied into an immutable graph if the options ask for a snapshot. With a
+     * snapshot directory, the graph is read from the snapshot file of the
+     * schema while its documents are unchanged, else it is written there.
+     *
+     * @param uri
+     * @return
+     * @throws IOException if the schema can't be read
+     */
+    public SchemaModel read(String uri) throws IOException {
+        if (options.getSnapshotDir() == null) {
+            return options.isLightweight() ? new StaxSchemaReader(resolver).read(uri) : model(load(uri));
+        }
+        // the schema is read the same way by the same options
+        Path snapshot = SchemaSnapshot.path(options.getSnapshotDir(), absolute(uri) + " " + options.isLightweight()
+                + " " + options.getCatalogs() + " " + options.getSchemaMirror());
+        try {
+            SchemaGraph graph = SchemaSnapshot.read(snapshot);
+            if (graph != null) {
+                logger.log(Level.INFO, "Read {0} from snapshot {1}", new Object[]{uri, snapshot});
+                return graph;
+            }
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Can''t read snapshot {0}: {1}", new Object[]{snapshot, ex.toString()});
+        }
+        SchemaGraph graph = SchemaGraph.copyOf(options.isLightweight() ? new StaxSchemaReader(resolver).read(uri) : XercesSchemaModel.of(load(uri)));
+        try {
+            SchemaSnapshot.write(graph, snapshot);
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Can''t write snapshot {0}: {1}", new Object[]{snapshot, ex.toString()});
+        }
+        return graph;
+    }
+
+    /**
+     * @param in read to the end, not closed
+     * @param systemId base of the relative includes and imports, or null
+     * @return
+     * @throws IOException if the schema can't be read
+     */
+    public SchemaModel read(InputStream in, String systemId) throws IOException {
+        if (options.isLightweight()) {
+            return new StaxSchemaReader(resolver).read(in, systemId);
+        }
+        return model(load(in, systemId));
+    }
+
+    /**
+     * @param uri
+     * @return absolute URI of a relative path, the same file from any working
+     * directory
+     */
+    private static String absolute(String uri) {
+        try {
+            URI parsed = new URI(uri);
+            if (parsed.isAbsolute() && parsed.getScheme().length() > 1) {
+                return uri;
+            }
+        } catch (URISyntaxException ex) {
+            // a file path
+        }
+        return Paths.get(uri).toAbsolutePath().normalize().toUri().toString();
+    }
+
+    /**
+     * @param model
+     * @return
+     */
+    private SchemaModel model(XSModel model) {
+        return options.isSnapshot() ? SchemaGraph.copyOf(XercesSchemaModel.of(model)) : XercesSchemaModel.of(model);
+    }
+
+    /**
+     * The Xerces implementation is taken directly, the reflective lookup of
+     * the DOMImplementationRegistry is the same implementation at a cost of
+     * startup time.
+     *
+     * @param resolver resolves the remote documents offline, or null to let
+     * Xerces fetch them
+     * @return
+     */
+    static XSLoader newSchemaLoader(LSResourceResolver resolver) {
+        XSImplementation impl = (XSImplementation) XSImplementationImpl.getDOMImplementation();
+        XSLoader schemaLoader = impl.createXSLoader(null);
+        DOMConfiguration config = schemaLoader.getConfig();
+        config.setParameter("error-handler", new XsdErrorHandler());
+        config.setParameter("validate", Boolean.TRUE);
+        if (resolver != null) {
+            config.setParameter("resource-resolver", resolver);
+        }
+        return schemaLoader;
+    }
+
+    /**
+     * @param model
+     * @return names of the components of the root types of the options
+     */
+    public List<String> getRootNames(XSModel model) {
+        return getRootNames(XercesSchemaModel.of(model));
+    }
+
+    /**
+     * @param model
+     * @return names of the components of the root types of the options
+     */
+    public List<String> getRootNames(SchemaModel model) {
+        Context context = acquire();
+        try {
+            return context.xsdHandler.getRootNodeNames(model, options.getRootTypes());
+        } finally {
+            idle.offer(context);
+        }
+    }
+
+    /**
+     * @param model
+     * @param selector
+     * @return names of the components of the root types of the options
+     * selected by the selector
+     */
+    public List<String> getRootNames(XSModel model, RootSelector selector) {
+        return getRootNames(XercesSchemaModel.of(model), selector);
+    }
+
+    /**
+     * @param model
+     * @param selector
+     * @return names of the components of the root types of the options
+     * selected by the selector
+     */
+    public List<String> getRootNames(SchemaModel model, RootSelector selector) {
+        return selector.select(model, options.getRootTypes());
+    }
+
+    /**
+     * @param model
+     * @param root null for the whole schema
+     * @param out not closed
+     * @return
+     * @throws IOException
+     * @throws IllegalArgumentException if the root isn't found
+     */
+    public Result render(XSModel model, String root, OutputStream out) throws IOException {
+        return render(XercesSchemaModel.of(model), root, out);
+    }
+
+    /**
+     * @param model
+     * @param root null for the whole schema
+     * @param out not closed
+     * @return
+     * @throws IOException
+     * @throws IllegalArgumentException if the root isn't found
+     */
+    public Result render(SchemaModel model, String root, OutputStream out) throws IOException {
+        WriterHelper writerHelper = new WriterHelper(new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        }, WriterHelper.DEFAULT_CHARSET);
+        Result result = render(model, root, writerHelper, null, new Metrics(false));
+        if (result == null) {
+            throw new IllegalArgumentException("Root " + root + " not found");
+        }
+        if (writerHelper.getError() != null) {
+            throw writerHelper.getError();
+        }
+        return result;
+    }
+
+    /**
+     * @param model
+     * @param root null for the whole schema
+     * @param channel not closed
+     * @return
+     * @throws IOException
+     * @throws IllegalArgumentException if the root isn't found
+     */
+    public Result render(XSModel model, String root, WritableByteChannel channel) throws IOException {
+        return render(XercesSchemaModel.of(model), root, channel);
+    }
+
+    /**
+     * @param model
+     * @param root null for the whole schema
+     * @param channel not closed
+     * @return
+     * @throws IOException
+     * @throws IllegalArgumentException if the root isn't found
+     */
+    public Result render(SchemaModel model, String root, WritableByteChannel channel) throws IOException {
+        return render(model, root, Channels.newOutputStream(channel));
+    }
+
+    /**
+     * @param model
+     * @param root null for the whole schema
+     * @return the SVG
+     * @throws IllegalArgumentException if the root isn't found
+     */
+    public byte[] render(XSModel model, String root) {
+        return render(XercesSchemaModel.of(model), root);
+    }
+
+    /**
+     * @param model
+     * @param root null for the whole schema
+     * @return the SVG
+     * @throws IllegalArgumentException if the root isn't found
+     */
+    public byte[] render(SchemaModel model, String root) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            render(model, root, out);
+        } catch (IOException ex) {
+            // not thrown by a byte array
+            throw new UncheckedIOException(ex);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @param model
+     * @param root null for the whole schema
+     * @param executor runs the rendering of each subscriber
+     * @return publisher of the diagram in chunks, rendered as the subscriber
+     * requests them
+     */
+    public Flow.Publisher<ByteBuffer> publish(XSModel model, String root, Executor executor) {
+        return publish(XercesSchemaModel.of(model), root, executor);
+    }
+
+    /**
+     * @param model
+     * @param root null for the whole schema
+     * @param executor runs the rendering of each subscriber
+     * @return publisher of the diagram in chunks, rendered as the subscriber
+     * requests them
+     */
+    public Flow.Publisher<ByteBuffer> publish(SchemaModel model, String root, Executor executor) {
+        return new SvgPublisher(this, model, root, executor);
+    }
+
+    /**
+     * @param model
+     * @param root null for the whole schema
+     * @return publisher of the diagram in chunks, rendered by a new thread
+     * for each subscriber
+     */
+    public Flow.Publisher<ByteBuffer> publish(XSModel model, String root) {
+        return publish(XercesSchemaModel.of(model), root);
+    }
+
+    /**
+     * @param model
+     * @param root null for the whole schema
+     * @return publisher of the diagram in chunks, rendered by a new thread
+     * for each subscriber
+     */
+    public Flow.Publisher<ByteBuffer> publish(SchemaModel model, String root) {
+        return publish(model, root, command -> {
+            Thread thread = new Thread(command, "xsdvi-publish");
+            thread.setDaemon(true);
+            thread.start();
+        });
+    }
+
+    /**
+     * @param uri
+     * @param root null for the whole schema
+     * @param out not closed
+     * @return
+     * @throws IOException
+     * @throws IllegalArgumentException if the root isn't found
+     */
+    public Result render(String uri, String root, OutputStream out) throws IOException {
+        return render(read(uri), root, out);
+    }
+
+    /**
+     * @param in
+     * @param systemId base of the relative includes and imports, or null
+     * @param root null for the whole schema
+     * @param out not closed
+     * @return
+     * @throws IOException
+     * @throws IllegalArgumentException if the root isn't found
+     */
+    public Result render(InputStream in, String systemId, String root, OutputStream out) throws IOException {
+        return render(read(in, systemId), root, out);
+    }
+
+    /**
+     * Traverses the model and draws the diagram to the writer, which is
+     * opened with the output after the traversal if the output is not null.
+     *
+     * @param model
+     * @param root null for the whole schema
+     * @param writerHelper
+     * @param output
+     * @param metrics receives the times of the phases, must not be shared by
+     * concurrent calls
+     * @return null if the root isn't found
+     */
+    Result render(SchemaModel model, String root, WriterHelper writerHelper, String output, Metrics metrics) {
+        long start = System.nanoTime();
+        Context context = acquire();
+        // a context that failed half way is dropped
+        boolean reusable = false;
+        try {
+            context.xsdHandler.setMetrics(metrics);
+            context.svg.setMetrics(metrics);
+            AbstractSymbol rootSymbol = traverse(context, model, root);
+            if (rootSymbol == null) {
+                reusable = true;
+                return null;
+            }
+            String digest = options.isDigest() ? context.svg.digest(rootSymbol) : null;
+            if (output != null) {
+                logger.log(Level.INFO, "Drawing SVG {0}...", output);
+                writerHelper.newWriter(output);
+                if (writerHelper.getError() != null) {
+                    throw new UncheckedIOException(writerHelper.getError());
+                }
+            }
+            context.svg.setWriter(writerHelper);
+            context.svg.setRootName(root);
+            try {
+                context.svg.draw(rootSymbol);
+            } catch (RuntimeException | Error ex) {
+                writerHelper.abort();
+                throw ex;
+            }
+            reusable = true;
+            return new Result(root, context.xsdHandler.isTruncated() || context.svg.isTruncated(), System.nanoTime() - start, digest);
+        } finally {
+            if (reusable) {
+                context.svg.setWriter(null);
+                context.xsdHandler.setMetrics(new Metrics(false));
+                context.svg.setMetrics(new Metrics(false));
+                idle.offer(context);
+            }
+        }
+    }
+
+    /**
+     * Traverses the model without drawing. Diagrams of equal digests are drawn
+     * alike, so a diagram whose digest didn't change since it was drawn needs
+     * no drawing.
+     *
+     * @param model
+     * @param root null for the whole schema
+     * @return digest of the diagram, or null if the root isn't found
+     */
+    public String digest(XSModel model, String root) {
+        return digest(XercesSchemaModel.of(model), root);
+    }
+
+    /**
+     * @param model
+     * @param root null for the whole schema
+     * @return digest of the diagram, or null if the root isn't found
+     */
+    public String digest(SchemaModel model, String root) {
+        Context context = acquire();
+        boolean reusable = false;
+        try {
+            AbstractSymbol rootSymbol = traverse(context, model, root);
+            String digest = rootSymbol != null ? context.svg.digest(rootSymbol) : null;
+            reusable = true;
+            return digest;
+        } finally {
+            if (reusable) {
+                idle.offer(context);
+            }
+        }
+    }
+
+    /**
+     * @param context
+     * @param model
+     * @param root
+     * @return the root symbol, or null if the root isn't found
+     */
+    private AbstractSymbol traverse(Context context, SchemaModel model, String root) {
+        context.xsdHandler.setRootNodeName(root);
+        context.xsdHandler.setOneNodeOnly(root != null && options.isOneNodeOnly());
+        if (root != null) {
+            context.xsdHandler.setSchemaNamespace(model, root);
+        }
+        context.budget.start();
+        context.builder.setRoot(null);
+        long hits = context.xsdHandler.getDocumentationHits();
+        long misses = context.xsdHandler.getDocumentationMisses();
+        try {
+            context.xsdHandler.processModel(model);
+        } finally {
+            documentationHits.addAndGet(context.xsdHandler.getDocumentationHits() - hits);
+            documentationMisses.addAndGet(context.xsdHandler.getDocumentationMisses() - misses);
+        }
+        AbstractSymbol rootSymbol = (AbstractSymbol) context.builder.getRoot();
+        context.builder.setRoot(null);
+        return rootSymbol;
+    }
+
+    /**
+     * @return an idle context or a new one
+     */
+    private Context acquire() {
+        Context context = idle.poll();
+        return context != null ? context : new Context();
+    }
+
+    /**
+     * @return components with parsed documentation in the idle contexts
+     */
+    public int getDocumentationCacheSize() {
+        int size = 0;
+        for (Context context : idle) {
+            size += context.xsdHandler.getDocumentationCacheSize();
+        }
+        return size;
+    }
+
+    /**
+     * @return documentation lookups answered by the cache, in all the
+     * contexts
+     */
+    public long getDocumentationHits() {
+        return documentationHits.get();
+    }
+
+    /**
+     * @return documentation parsed, in all the contexts
+     */
+    public long getDocumentationMisses() {
+        return documentationMisses.get();
+    }
+
+    /**
+     * Forgets the parsed documentation of the idle contexts.
+     */
+    public void clearDocumentationCache() {
+        for (Context context : idle) {
+            context.xsdHandler.clearDocumentationCache();
+        }
+    }
+}
@@ -1,18 +1,33 @@
 package xsdvi;
 
 import java.io.File;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.ClosedWatchServiceException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.management.JMException;
+
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
@@ -21,19 +36,18 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.xerces.xs.XSConstants;
-import org.apache.xerces.xs.XSImplementation;
-import org.apache.xerces.xs.XSLoader;
-import org.apache.xerces.xs.XSModel;
-import org.w3c.dom.DOMConfiguration;
-import org.w3c.dom.DOMErrorHandler;
-import org.w3c.dom.bootstrap.DOMImplementationRegistry;
-
-import xsdvi.svg.AbstractSymbol;
+
+import xsdvi.model.SchemaModel;
+import xsdvi.svg.FragmentCache;
 import xsdvi.svg.SvgForXsd;
+import xsdvi.utils.ArchiveHelper;
+import xsdvi.utils.DiskCache;
+import xsdvi.utils.FlightEvents;
 import xsdvi.utils.LoggerHelper;
-import xsdvi.utils.TreeBuilder;
+import xsdvi.utils.Metrics;
+import xsdvi.utils.OutputPipeline;
+import xsdvi.utils.RenderThreads;
 import xsdvi.utils.WriterHelper;
-import xsdvi.utils.XsdErrorHandler;
 
 /**
  * @author Václav Slavìtínský
@@ -44,15 +58,43 @@ public final class XsdVi {
     private static final Logger logger = Logger.getLogger(LoggerHelper.LOGGER_NAME);
 
     private static final List<String> inputs = new ArrayList<>();
+    // archive folders of the inputs, when several inputs may draw the same roots
+    private static final Map<String, String> archiveFolders = new HashMap<>();
     private static String style = null;
     private static String styleUrl = null;
     private static String rootNodeName = null;
+    private static RootSelector rootSelector = null;
     private static List<Short> rootTypes = null;
     private static final Map<String, Short> allowedRootTypes = Map.of(
             "element", XSConstants.ELEMENT_DECLARATION,
             "type", XSConstants.TYPE_DEFINITION);
     private static boolean oneNodeOnly = false;
     private static String outputPath = null;
+    private static String outputArchive = null;
+    private static boolean compact = false;
+    private static boolean dedup = false;
+    private static int fragmentCacheSize = 0;
+    private static String cacheDir = null;
+    private static long cacheSize = DiskCache.DEFAULT_MAX_BYTES;
+    private static String metricsUri = null;
+    private static boolean jmx = false;
+    private static boolean analyze = false;
+    private static long maxNodes = 0;
+    private static long maxBytes = 0;
+    private static long maxMillis = 0;
+    private static String logFile = LoggerHelper.DEFAULT_URI;
+    private static Level logLevel = Level.ALL;
+    private static int threads = 1;
+    private static boolean virtualThreads = false;
+    private static ShardPlan shardPlan = null;
+    private static boolean mergeShards = false;
+    private static boolean watch = false;
+    private static List<String> catalogs = List.of();
+    private static String schemaMirror = null;
+    private static boolean lightReader = false;
+    private static String snapshotDir = null;
+    // input -> output -> digest of the diagram drawn last, in watch mode
+    private static final Map<String, Map<String, String>> digests = new ConcurrentHashMap<>();
 
     // Options
     public static final String ROOT_NODE_NAME = "rootNodeName";
@@ -62,6 +104,30 @@ public final class XsdVi {
     public static final String GENERATE_STYLE = "generateStyle";
     public static final String USE_STYLE = "useStyle";
     public static final String ROOT_TYPES = "rootTypes";
+    public static final String ROOTS = "roots";
+    public static final String OUTPUT_ARCHIVE = "outputArchive";
+    public static final String COMPACT = "compact";
+    public static final String DEDUP = "dedup";
+    public static final String FRAGMENT_CACHE = "fragmentCache";
+    public static final String CACHE_DIR = "cacheDir";
+    public static final String CACHE_SIZE = "cacheSize";
+    public static final String METRICS = "metrics";
+    public static final String JMX = "jmx";
+    public static final String ANALYZE = "analyze";
+    public static final String MAX_NODES = "maxNodes";
+    public static final String MAX_BYTES = "maxBytes";
+    public static final String MAX_TIME = "maxTime";
+    public static final String LOG_FILE = "logFile";
+    public static final String LOG_LEVEL = "logLevel";
+    public static final String THREADS = "threads";
+    public static final String VIRTUAL_THREADS = "virtualThreads";
+    public static final String SHARD = "shard";
+    public static final String MERGE_SHARDS = "mergeShards";
+    public static final String WATCH = "watch";
+    public static final String CATALOG = "catalog";
+    public static final String SCHEMA_MIRROR = "schemaMirror";
+    public static final String LIGHT_READER = "lightReader";
+    public static final String SNAPSHOT_DIR = "snapshotDir";
 
     static final Option optionRootNodeName = Option.builder(ROOT_NODE_NAME)
             .desc(" schema root node name (or 'all' for all elements)")
@@ -100,7 +166,160 @@ public final class XsdVi {
     static final Option optionRootTypes = Option.builder(ROOT_TYPES)
             .desc(" specify which XSD types to use as potential root nodes")
             .hasArg()
-            .required(true)
+            .required(false)
+            .build();
+
+    static final Option optionRoots = Option.builder(ROOTS)
+            .desc(" draw the roots selected by comma separated terms: name, glob (*Type), /regex/, {namespace} before a term"
+                    + " or alone, @file with a term per line, ! before a term to exclude")
+            .hasArg()
+            .argName("terms")
+            .required(false)
+            .build();
+
+    static final Option optionOutputArchive = Option.builder(OUTPUT_ARCHIVE)
+            .desc(" write all svgs into one archive (.zip or .tar) instead of separate files")
+            .hasArg()
+            .required(false)
+            .build();
+
+    static final Option optionCompact = Option.builder(COMPACT)
+            .desc(" minified svg output with short class names and ids")
+            .required(false)
+            .build();
+
+    static final Option optionDedup = Option.builder(DEDUP)
+            .desc(" draw repeated subtrees once and reference them with <use>")
+            .required(false)
+            .build();
+
+    static final Option optionFragmentCache = Option.builder(FRAGMENT_CACHE)
+            .desc(" reuse subtrees drawn for one root in the diagrams of the other roots, keeping at most <entries> subtrees")
+            .hasArg()
+            .argName("entries")
+            .required(false)
+            .build();
+
+    static final Option optionCacheDir = Option.builder(CACHE_DIR)
+            .desc(" keep drawn subtrees in directory <dir> for the next runs, implies -" + FRAGMENT_CACHE)
+            .hasArg()
+            .argName("dir")
+            .required(false)
+            .build();
+
+    static final Option optionCacheSize = Option.builder(CACHE_SIZE)
+            .desc(" size limit of the cache directory in megabytes, least recently used subtrees are evicted first (default 64)")
+            .hasArg()
+            .argName("MB")
+            .required(false)
+            .build();
+
+    static final Option optionMetrics = Option.builder(METRICS)
+            .desc(" write time per phase, symbol counts and bytes written of each input and root as JSON to <file>")
+            .hasArg()
+            .argName("file")
+            .required(false)
+            .build();
+
+    static final Option optionJmx = Option.builder(JMX)
+            .desc(" register the " + RenderMonitor.OBJECT_NAME + " MBean with render statistics for JMX clients while running")
+            .required(false)
+            .build();
+
+    static final Option optionAnalyze = Option.builder(ANALYZE)
+            .desc(" print the predicted boxes, depth, loops and output size of each diagram and the types expanded most, without drawing")
+            .required(false)
+            .build();
+
+    static final Option optionMaxNodes = Option.builder(MAX_NODES)
+            .desc(" cut off each diagram after <n> boxes with a truncation box")
+            .hasArg()
+            .argName("n")
+            .required(false)
+            .build();
+
+    static final Option optionMaxBytes = Option.builder(MAX_BYTES)
+            .desc(" cut off each diagram after <n> bytes of output with a truncation box")
+            .hasArg()
+            .argName("n")
+            .required(false)
+            .build();
+
+    static final Option optionMaxTime = Option.builder(MAX_TIME)
+            .desc(" cut off the traversal and the drawing of each diagram after <s> seconds each with a truncation box")
+            .hasArg()
+            .argName("s")
+            .required(false)
+            .build();
+
+    static final Option optionLogFile = Option.builder(LOG_FILE)
+            .desc(" append the log to <file>, default " + LoggerHelper.DEFAULT_URI)
+            .hasArg()
+            .argName("file")
+            .required(false)
+            .build();
+
+    static final Option optionLogLevel = Option.builder(LOG_LEVEL)
+            .desc(" log the records of <level> and above, e.g. INFO or WARNING, default ALL")
+            .hasArg()
+            .argName("level")
+            .required(false)
+            .build();
+
+    static final Option optionThreads = Option.builder(THREADS)
+            .desc(" render the roots with <n> threads, the files are written by one more thread")
+            .hasArg()
+            .argName("n")
+            .required(false)
+            .build();
+
+    static final Option optionVirtualThreads = Option.builder(VIRTUAL_THREADS)
+            .desc(" run the render tasks of -" + THREADS + " on virtual threads, from Java 21")
+            .required(false)
+            .build();
+
+    static final Option optionShard = Option.builder(SHARD)
+            .desc(" render only shard <i/n> of the diagrams, e.g. 2/4, balanced by their predicted boxes, and list them in "
+                    + String.format(ShardManifest.FILE_NAME, 2, 4) + " of the output folder")
+            .hasArg()
+            .argName("i/n")
+            .required(false)
+            .build();
+
+    static final Option optionMergeShards = Option.builder(MERGE_SHARDS)
+            .desc(" the inputs are the manifests of all shards of a run, their diagrams and style are merged into the output folder or archive")
+            .required(false)
+            .build();
+
+    static final Option optionWatch = Option.builder(WATCH)
+            .desc(" after the run, watch the inputs with their includes and imports and redraw the diagrams an edit changes, until interrupted")
+            .required(false)
+            .build();
+
+    static final Option optionCatalog = Option.builder(CATALOG)
+            .desc(" resolve remote includes and imports offline through the comma separated XML catalog <files>")
+            .hasArg()
+            .argName("files")
+            .required(false)
+            .build();
+
+    static final Option optionSchemaMirror = Option.builder(SCHEMA_MIRROR)
+            .desc(" resolve remote includes and imports offline from the local copies in directory <dir>, as host and path or by file name")
+            .hasArg()
+            .argName("dir")
+            .required(false)
+            .build();
+
+    static final Option optionLightReader = Option.builder(LIGHT_READER)
+            .desc(" read the schemas with the lightweight streaming reader instead of Xerces, without validation, remote documents from the catalogs and the mirror only")
+            .required(false)
+            .build();
+
+    static final Option optionSnapshotDir = Option.builder(SNAPSHOT_DIR)
+            .desc(" save the schemas read as snapshot files in directory <dir>, read instead of the schemas until one of their documents changes")
+            .hasArg()
+            .argName("dir")
+            .required(false)
             .build();
 
     static final Options options = new Options() {
@@ -111,6 +330,30 @@ public final class XsdVi {
             addOption(optionOneNodeOnly);
             addOption(optionOutputPath);
             addOption(optionRootTypes);
+            addOption(optionRoots);
+            addOption(optionOutputArchive);
+            addOption(optionCompact);
+            addOption(optionDedup);
+            addOption(optionFragmentCache);
+            addOption(optionCacheDir);
+            addOption(optionCacheSize);
+            addOption(optionMetrics);
+            addOption(optionJmx);
+            addOption(optionAnalyze);
+            addOption(optionMaxNodes);
+            addOption(optionMaxBytes);
+            addOption(optionMaxTime);
+            addOption(optionLogFile);
+            addOption(optionLogLevel);
+            addOption(optionThreads);
+            addOption(optionVirtualThreads);
+            addOption(optionShard);
+            addOption(optionMergeShards);
+            addOption(optionWatch);
+            addOption(optionCatalog);
+            addOption(optionSchemaMirror);
+            addOption(optionLightReader);
+            addOption(optionSnapshotDir);
         }
     };
 
@@ -123,6 +366,30 @@ public final class XsdVi {
             addOption(optionOutputPath);
             addOption(optionEmbodyStyle);
             addOption(optionRootTypes);
+            addOption(optionRoots);
+            addOption(optionOutputArchive);
+            addOption(optionCompact);
+            addOption(optionDedup);
+            addOption(optionFragmentCache);
+            addOption(optionCacheDir);
+            addOption(optionCacheSize);
+            addOption(optionMetrics);
+            addOption(optionJmx);
+            addOption(optionAnalyze);
+            addOption(optionMaxNodes);
+            addOption(optionMaxBytes);
+            addOption(optionMaxTime);
+            addOption(optionLogFile);
+            addOption(optionLogLevel);
+            addOption(optionThreads);
+            addOption(optionVirtualThreads);
+            addOption(optionShard);
+            addOption(optionMergeShards);
+            addOption(optionWatch);
+            addOption(optionCatalog);
+            addOption(optionSchemaMirror);
+            addOption(optionLightReader);
+            addOption(optionSnapshotDir);
         }
     };
 
@@ -135,6 +402,30 @@ public final class XsdVi {
             addOption(optionOutputPath);
             addOption(optionGenerateStyle);
             addOption(optionRootTypes);
+            addOption(optionRoots);
+            addOption(optionOutputArchive);
+            addOption(optionCompact);
+            addOption(optionDedup);
+            addOption(optionFragmentCache);
+            addOption(optionCacheDir);
+            addOption(optionCacheSize);
+            addOption(optionMetrics);
+            addOption(optionJmx);
+            addOption(optionAnalyze);
+            addOption(optionMaxNodes);
+            addOption(optionMaxBytes);
+            addOption(optionMaxTime);
+            addOption(optionLogFile);
+            addOption(optionLogLevel);
+            addOption(optionThreads);
+            addOption(optionVirtualThreads);
+            addOption(optionShard);
+            addOption(optionMergeShards);
+            addOption(optionWatch);
+            addOption(optionCatalog);
+            addOption(optionSchemaMirror);
+            addOption(optionLightReader);
+            addOption(optionSnapshotDir);
         }
     };
 
@@ -147,11 +438,35 @@ public final class XsdVi {
             addOption(optionOutputPath);
             addOption(optionUseStyle);
             addOption(optionRootTypes);
+            addOption(optionRoots);
+            addOption(optionOutputArchive);
+            addOption(optionCompact);
+            addOption(optionDedup);
+            addOption(optionFragmentCache);
+            addOption(optionCacheDir);
+            addOption(optionCacheSize);
+            addOption(optionMetrics);
+            addOption(optionJmx);
+            addOption(optionAnalyze);
+            addOption(optionMaxNodes);
+            addOption(optionMaxBytes);
+            addOption(optionMaxTime);
+            addOption(optionLogFile);
+            addOption(optionLogLevel);
+            addOption(optionThreads);
+            addOption(optionVirtualThreads);
+            addOption(optionShard);
+            addOption(optionMergeShards);
+            addOption(optionWatch);
+            addOption(optionCatalog);
+            addOption(optionSchemaMirror);
+            addOption(optionLightReader);
+            addOption(optionSnapshotDir);
         }
     };
 
     static final String CMD_COMMON_PREFIX = "java -jar xsdvi.jar <input1.xsd> [<input2.xsd> [<input3.xsd> ...]]";
-    static final String CMD_COMMON_SUFFIX = " [-" + ROOT_NODE_NAME + " <name>] [-" + ONE_NODE_ONLY + "] [-" + OUTPUT_PATH + " <arg>]";
+    static final String CMD_COMMON_SUFFIX = " [-" + ROOT_NODE_NAME + " <name>] [-" + ROOTS + " <terms>] [-" + ONE_NODE_ONLY + "] [-" + OUTPUT_PATH + " <arg>] [-" + OUTPUT_ARCHIVE + " <file>] [-" + COMPACT + "] [-" + DEDUP + "] [-" + FRAGMENT_CACHE + " <entries>] [-" + CACHE_DIR + " <dir>] [-" + CACHE_SIZE + " <MB>] [-" + METRICS + " <file>] [-" + JMX + "] [-" + ANALYZE + "] [-" + MAX_NODES + " <n>] [-" + MAX_BYTES + " <n>] [-" + MAX_TIME + " <s>] [-" + LOG_FILE + " <file>] [-" + LOG_LEVEL + " <level>] [-" + THREADS + " <n>] [-" + VIRTUAL_THREADS + "] [-" + SHARD + " <i/n>] [-" + MERGE_SHARDS + "] [-" + WATCH + "] [-" + CATALOG + " <files>] [-" + SCHEMA_MIRROR + " <dir>] [-" + LIGHT_READER + "] [-" + SNAPSHOT_DIR + " <dir>]";
     static final String CMD = CMD_COMMON_PREFIX + CMD_COMMON_SUFFIX;
     static final String CMD_EMBODY_STYLE = CMD_COMMON_PREFIX + " [-" + EMBODY_STYLE + "] " + CMD_COMMON_SUFFIX;
     static final String CMD_GENERATE_STYLE = CMD_COMMON_PREFIX + " [-" + GENERATE_STYLE + " <arg>] " + CMD_COMMON_SUFFIX;
@@ -162,6 +477,31 @@ public final class XsdVi {
     static final String USAGE = getUsage();
     static final int ERROR_EXIT_CODE = -1;
 
+    /**
+     * A root rendered into the pipeline, waiting for its output to be
+     * written.
+     */
+    private static final class PipelinedRoot {
+
+        final String name;
+        final String output;
+        final int seq;
+        final boolean rendered;
+
+        /**
+         * @param name
+         * @param output
+         * @param seq position in the shard manifest
+         * @param rendered
+         */
+        PipelinedRoot(String name, String output, int seq, boolean rendered) {
+            this.name = name;
+            this.output = output;
+            this.seq = seq;
+            this.rendered = rendered;
+        }
+    }
+
     private XsdVi() {
         // no instances
     }
@@ -170,87 +510,742 @@ public final class XsdVi {
      * @param args
      */
     public static void main(String[] args) {
-        LoggerHelper.setupLogger();
         inputs.clear();
 
         parseArgs(args);
+        LoggerHelper.setupLogger(logFile, logLevel);
+        if (mergeShards) {
+            mergeShards();
+            return;
+        }
 
-        XSLoader schemaLoader = getSchemaLoader();
-
-        TreeBuilder builder = new TreeBuilder();
-        XsdHandler xsdHandler = new XsdHandler(builder);
+        XsdRenderer renderer = new XsdRenderer(RenderOptions.builder()
+                .embodyStyle(style.equals(EMBODY_STYLE))
+                .styleUri(styleUrl)
+                .oneNodeOnly(oneNodeOnly)
+                .rootTypes(rootTypes)
+                .compact(compact)
+                .dedup(dedup)
+                .fragmentCacheSize(fragmentCacheSize)
+                .cacheDir(cacheDir)
+                .cacheSize(cacheSize)
+                .maxNodes(maxNodes)
+                .maxBytes(maxBytes)
+                .maxMillis(maxMillis)
+                .digest(watch)
+                .catalogs(catalogs)
+                .schemaMirror(schemaMirror)
+                .lightweight(lightReader)
+                // the render threads share an immutable copy of the model, without locking
+                .snapshot(threads > 1 && !analyze)
+                .snapshotDir(snapshotDir)
+                .build());
         WriterHelper writerHelper = new WriterHelper();
-        SvgForXsd svg = new SvgForXsd(writerHelper);
-        svg.setHideMenuButtons(oneNodeOnly);
+        Metrics metrics = new Metrics(metricsUri != null);
+        writerHelper.setMetrics(metrics);
+        if (outputArchive != null && !analyze) {
+            try {
+                writerHelper.setArchive(new ArchiveHelper(outputArchive));
+            } catch (IOException ex) {
+                logger.log(Level.SEVERE, "Can''t create archive {0}: {1}", new Object[]{outputArchive, ex.toString()});
+                System.exit(ERROR_EXIT_CODE);
+            }
+            logger.log(Level.INFO, "Writing archive {0}", outputArchive);
+            setArchiveFolders();
+        } else if (outputPath != null && !analyze) {
+            try {
+                Files.createDirectories(Paths.get(outputPath, ""));
+            } catch (IOException ex) {
+            }
+        }
+        RenderMonitor monitor = null;
+        if (jmx) {
+            monitor = new RenderMonitor();
+            monitor.setRenderer(renderer);
+            monitor.setFragmentCache(renderer.getFragmentCache());
+            metrics.setMonitor(monitor);
+            try {
+                monitor.register();
+                logger.log(Level.INFO, "Registered MBean {0}", RenderMonitor.OBJECT_NAME);
+            } catch (JMException ex) {
+                logger.log(Level.SEVERE, "Can''t register MBean {0}: {1}", new Object[]{RenderMonitor.OBJECT_NAME, ex.toString()});
+            }
+        }
 
         if (style.equals(EMBODY_STYLE)) {
             logger.info("The style will be embodied");
-            svg.setEmbodyStyle(true);
         } else {
             logger.log(Level.INFO, "Using external style {0}", styleUrl);
-            svg.setEmbodyStyle(false);
-            svg.setStyleUri(styleUrl);
         }
         if (style.equals(GENERATE_STYLE)) {
             logger.log(Level.INFO, "Generating style {0}...", styleUrl);
-            svg.printExternStyle();
+            SvgForXsd styleSvg = new SvgForXsd(writerHelper);
+            styleSvg.setCompact(compact);
+            styleSvg.setStyleUri(styleUrl);
+            styleSvg.printExternStyle();
             logger.info("Done.");
         }
 
-        // check input file exists
-        for (String input : inputs) {
-            File fXMLin = new File(input);
-            if (!fXMLin.exists()) {
-                System.out.println(String.format(INPUT_NOT_FOUND, XSD_INPUT, fXMLin));
+        XsdAnalyzer analyzer = new XsdAnalyzer();
+        analyzer.setCompact(compact);
+        List<XsdAnalyzer.Result> analyses = new ArrayList<>();
+
+        // the roots of an input are rendered in parallel, the files written by one more thread
+        ThreadPoolExecutor executor = null;
+        OutputPipeline pipeline = null;
+        if (threads > 1 && !analyze) {
+            executor = RenderThreads.newExecutor(threads, virtualThreads);
+            if (monitor != null) {
+                monitor.setExecutor(executor);
+            }
+            pipeline = new OutputPipeline(OutputPipeline.DEFAULT_CAPACITY, writerHelper.getArchive());
+            logger.log(Level.INFO, "Rendering with {0} {1}threads", new Object[]{threads, virtualThreads && RenderThreads.isVirtualSupported() ? "virtual " : ""});
+        }
+
+        // failures of inputs and roots, reported at the end of the run
+        List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        // roots rendered into the pipeline, indexed once their outputs are written
+        List<PipelinedRoot> pipelined = new ArrayList<>();
+        int written = 0;
+        String rootOption = rootNodeName;
+
+        digests.clear();
+        SchemaWatcher watcher = null;
+        if (watch) {
+            try {
+                watcher = new SchemaWatcher(SchemaWatcher.DEFAULT_DEBOUNCE_MILLIS);
+            } catch (IOException ex) {
+                logger.log(Level.SEVERE, "Can''t watch the inputs: {0}", ex.toString());
+                LoggerHelper.closeLogger();
                 System.exit(ERROR_EXIT_CODE);
             }
         }
 
+        ShardManifest manifest = null;
+        if (shardPlan != null && !analyze) {
+            manifest = new ShardManifest(shardPlan.getIndex(), shardPlan.getCount());
+            if (style.equals(GENERATE_STYLE)) {
+                manifest.setStyle(styleUrl);
+            }
+            analyzer.setOneNodeOnly(rootNodeName != null && oneNodeOnly);
+        }
+
         for (String input : inputs) {
+            File fXMLin = new File(input);
+            if (!fXMLin.exists()) {
+                System.out.println(String.format(INPUT_NOT_FOUND, XSD_INPUT, fXMLin));
+                failures.add(input + ": not found");
+                watchInput(watcher, input, null);
+                continue;
+            }
+            rootNodeName = rootOption;
+            LoggerHelper.setContext(input, null);
             logger.log(Level.INFO, "Parsing {0}...", input);
-            XSModel model = schemaLoader.loadURI(input);
+            metrics.begin(input, null);
+            metrics.enter(Metrics.Phase.PARSE);
+            FlightEvents.SchemaLoad loadEvent = new FlightEvents.SchemaLoad();
+            loadEvent.begin();
+            SchemaModel model = null;
+            try {
+                model = renderer.read(input);
+            } catch (IOException | RuntimeException ex) {
+                logger.log(Level.SEVERE, "Can''t load " + input, ex);
+            }
+            if (loadEvent.shouldCommit()) {
+                loadEvent.input = input;
+                loadEvent.bytes = new File(input).length();
+                loadEvent.nodes = model == null ? 0
+                        : model.getElements().size() + model.getTypes().size();
+                loadEvent.commit();
+            }
+            metrics.exit();
+            watchInput(watcher, input, model);
+            if (model == null) {
+                logger.log(Level.SEVERE, "Skipping {0}, the schema can''t be loaded", input);
+                failures.add(input + ": schema can't be loaded");
+                metrics.end();
+                continue;
+            }
+
+            if (analyze) {
+                List<String> analyzedRoots = new ArrayList<>();
+                if (rootNodeName == null) {
+                    analyzedRoots.add(null);
+                } else if (rootNodeName.equals("all")) {
+                    analyzedRoots.addAll(rootNames(renderer, model));
+                } else {
+                    analyzedRoots.add(rootNodeName);
+                }
+                analyzer.setOneNodeOnly(rootNodeName != null && oneNodeOnly);
+                for (String root : analyzedRoots) {
+                    XsdAnalyzer.Result result = analyzer.analyze(model, root);
+                    if (result != null) {
+                        analyses.add(result);
+                    } else {
+                        logger.log(Level.SEVERE, "Root {0} not found in {1}", new Object[]{root, input});
+                    }
+                }
+                metrics.end();
+                continue;
+            }
 
             logger.info("Processing XML Schema model...");
 
             List<String> rootNames = new ArrayList<>();
             if (rootNodeName == null) {
+                int seq = 0;
+                if (shardPlan != null) {
+                    seq = shardPlan.getJobs();
+                    if (shardPlan.assign(List.of(input), shardWeights(analyzer, model, Collections.singletonList(null))).isEmpty()) {
+                        metrics.end();
+                        continue;
+                    }
+                }
                 String output = outputUrl(input);
-                xsdHandler.processModel(model);
-                logger.log(Level.INFO, "Drawing SVG {0}...", output);
-                writerHelper.newWriter(output);
-                if (builder.getRoot() != null) {
-                    svg.draw((AbstractSymbol) builder.getRoot());
-                    logger.info("Done.");
-                } else {
-                    logger.severe("SVG is empty!");
+                if (monitor != null) {
+                    monitor.checkpoint();
+                    monitor.rootStarted(input);
+                }
+                boolean success = render(renderer, model, input, null, output, writerHelper, metrics, failures);
+                if (success) {
+                    written++;
+                }
+                if (manifest != null) {
+                    addManifestEntry(manifest, seq, input, output, success);
+                }
+                metrics.end();
+                if (monitor != null) {
+                    monitor.rootFinished(input, success);
                 }
             } else { // rootNodeName != null
                 if (rootNodeName.equals("all")) {
-                    rootNames = xsdHandler.getRootNodeNames(model, rootTypes);
+                    rootNames = rootNames(renderer, model);
                 } else {
                     rootNames.add(rootNodeName);
                 }
-                xsdHandler.setSchemaNamespace(model, rootNames.get(0));
+                metrics.end();
 
-                for (String elementName : rootNames) {
+                List<Integer> seqs = new ArrayList<>();
+                if (shardPlan != null) {
+                    int first = shardPlan.getJobs();
+                    List<String> shardRoots = new ArrayList<>();
+                    for (int position : shardPlan.assign(rootNames, shardWeights(analyzer, model, rootNames))) {
+                        seqs.add(first + position);
+                        shardRoots.add(rootNames.get(position));
+                    }
+                    logger.log(Level.INFO, "Shard {0}: {1} of {2} diagrams", new Object[]{shardPlan, shardRoots.size(), rootNames.size()});
+                    rootNames = shardRoots;
+                }
+
+                if (executor != null) {
+                    boolean[] successes = renderParallel(executor, pipeline, renderer, model, input, rootNames, metrics, monitor, failures);
+                    for (int i = 0; i < successes.length; i++) {
+                        if (successes[i]) {
+                            written++;
+                        }
+                        rootNodeName = rootNames.get(i);
+                        pipelined.add(new PipelinedRoot(rootNames.get(i), outputUrl(input), manifest != null ? seqs.get(i) : -1, successes[i]));
+                    }
+                    continue;
+                }
+                for (int i = 0; i < rootNames.size(); i++) {
+                    String elementName = rootNames.get(i);
+                    if (monitor != null) {
+                        monitor.checkpoint();
+                        monitor.setQueueDepth(rootNames.size() - i - 1);
+                        monitor.rootStarted(elementName);
+                    }
+                    metrics.begin(input, elementName);
+                    LoggerHelper.setContext(input, elementName);
                     rootNodeName = elementName;
                     String output = outputUrl(input);
-                    xsdHandler.setRootNodeName(rootNodeName);
-                    xsdHandler.setOneNodeOnly(oneNodeOnly);
-                    xsdHandler.processModel(model);
-                    logger.log(Level.INFO, "Drawing SVG {0}...", output);
-                    writerHelper.newWriter(output);
-                    if (builder.getRoot() != null) {
-                        svg.draw((AbstractSymbol) builder.getRoot());
-                        logger.info("Done.");
-                    } else {
-                        logger.severe("SVG is empty!");
+                    boolean success = render(renderer, model, input, elementName, output, writerHelper, metrics, failures);
+                    if (success) {
+                        written++;
+                    }
+                    if (manifest != null) {
+                        addManifestEntry(manifest, seqs.get(i), elementName, output, success);
                     }
+                    metrics.end();
+                    if (monitor != null) {
+                        monitor.rootFinished(elementName, success);
+                    }
+                }
+            }
+        }
+        if (executor != null) {
+            executor.shutdown();
+            pipeline.close();
+            List<String> writeFailures = pipeline.getFailures();
+            failures.addAll(writeFailures);
+            written -= writeFailures.size();
+            for (PipelinedRoot root : pipelined) {
+                boolean success = root.rendered && !pipeline.isFailed(root.output);
+                if (success) {
+                    addIndexEntry(writerHelper, root.name, root.output);
+                }
+                if (manifest != null) {
+                    addManifestEntry(manifest, root.seq, root.name, root.output, success);
                 }
             }
         }
+        int filesChanged = writerHelper.getFilesChanged() + (pipeline != null ? pipeline.getFilesChanged() : 0);
+        int filesUnchanged = writerHelper.getFilesUnchanged() + (pipeline != null ? pipeline.getFilesUnchanged() : 0);
+        metrics.setFiles(filesChanged, filesUnchanged);
+        if (manifest != null) {
+            LoggerHelper.clearContext();
+            manifest.setJobs(shardPlan.getJobs());
+            try {
+                Path path = manifest.write(outputPath);
+                logger.log(Level.INFO, "Shard {0} of {1} diagrams, manifest {2}", new Object[]{shardPlan, shardPlan.getJobs(), path});
+            } catch (IOException ex) {
+                logger.log(Level.SEVERE, "Can''t write the shard manifest: {0}", ex.toString());
+                failures.add("shard manifest: " + ex);
+            }
+        }
+        if (analyze) {
+            long nanos = 0;
+            for (XsdAnalyzer.Result result : analyses) {
+                nanos += result.getNanos();
+            }
+            String report = XsdAnalyzer.formatReport(analyses, 3);
+            System.out.print(report);
+            logger.log(Level.INFO, "Analyzed {0} diagrams in {1} ms\n{2}", new Object[]{analyses.size(), nanos / 1000000, report});
+        }
+        if (!metrics.getWarnings().isEmpty()) {
+            logger.log(Level.WARNING, "{0} truncations", metrics.getWarnings().size());
+        }
+        if (monitor != null) {
+            try {
+                monitor.unregister();
+            } catch (JMException ex) {
+                logger.log(Level.SEVERE, ex.getLocalizedMessage(), ex);
+            }
+        }
+        if (metricsUri != null) {
+            try {
+                metrics.writeReport(metricsUri);
+                logger.log(Level.INFO, "Metrics written to {0}\n{1}", new Object[]{metricsUri, metrics.getSummary()});
+            } catch (IOException ex) {
+                logger.log(Level.SEVERE, "Can''t write metrics {0}: {1}", new Object[]{metricsUri, ex.toString()});
+            }
+        }
+        if (renderer.getFragmentCache() != null) {
+            FragmentCache cache = renderer.getFragmentCache();
+            logger.log(Level.INFO, "Fragment cache: {0} hits, {1} misses, {2} entries", new Object[]{cache.getHits(), cache.getMisses(), cache.size()});
+            DiskCache diskCache = cache.getDiskCache();
+            if (diskCache != null) {
+                long lookups = diskCache.getHits() + diskCache.getMisses();
+                int evicted = diskCache.evict();
+                logger.log(Level.INFO, "Cache {0}: {1} hits, {2} misses ({3}% hit rate), {4} bytes read, {5} bytes written, {6} entries evicted",
+                        new Object[]{diskCache.getDirectory(), diskCache.getHits(), diskCache.getMisses(),
+                            lookups == 0 ? 0 : diskCache.getHits() * 100 / lookups, diskCache.getBytesRead(), diskCache.getBytesWritten(), evicted});
+            }
+        }
+        if (writerHelper.getArchive() != null) {
+            try {
+                writerHelper.getArchive().close();
+            } catch (IOException ex) {
+                logger.log(Level.SEVERE, ex.getLocalizedMessage(), ex);
+            }
+        }
         //new xsdvi.svg.SvgSymbols(writerHelper).drawSymbols();
         //logger.info("Symbols saved.");
+
+        LoggerHelper.clearContext();
+        String summary = writerHelper.getArchive() != null || analyze
+                ? String.format("%d inputs, %d diagrams written, %d failed", inputs.size(), written, failures.size())
+                : String.format("%d inputs, %d diagrams written, %d files changed, %d unchanged, %d failed",
+                        inputs.size(), written, filesChanged, filesUnchanged, failures.size());
+        if (!failures.isEmpty()) {
+            StringBuilder report = new StringBuilder(summary).append(':');
+            for (String failure : failures) {
+                report.append(System.lineSeparator()).append("  ").append(failure);
+            }
+            System.out.println(report);
+            logger.severe(report.toString());
+            if (watcher == null) {
+                LoggerHelper.closeLogger();
+                System.exit(ERROR_EXIT_CODE);
+            }
+        } else {
+            logger.info(summary);
+        }
+        if (watcher != null) {
+            watch(watcher, renderer, writerHelper, rootOption);
+        }
+        LoggerHelper.closeLogger();
+    }
+
+    /**
+     * @param watcher null if not watching
+     * @param input
+     * @param model
+     */
+    private static void watchInput(SchemaWatcher watcher, String input, SchemaModel model) {
+        if (watcher == null) {
+            return;
+        }
+        try {
+            watcher.watch(input, model);
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Can''t watch {0}: {1}", new Object[]{input, ex.toString()});
+        }
+    }
+
+    /**
+     * Redraws the diagrams of the changed inputs until interrupted. A changed
+     * input is parsed again, the models of the others aren't and the caches
+     * of the renderer stay warm. Each diagram of a changed input is traversed,
+     * and drawn only if its digest differs from the one drawn last; the
+     * diagrams of roots gone are deleted.
+     *
+     * @param watcher
+     * @param renderer
+     * @param writerHelper
+     * @param rootOption
+     */
+    private static void watch(SchemaWatcher watcher, XsdRenderer renderer, WriterHelper writerHelper, String rootOption) {
+        logger.log(Level.INFO, "Watching {0} files, interrupt to stop", watcher.size());
+        Metrics metrics = new Metrics(false);
+        writerHelper.setMetrics(metrics);
+        while (true) {
+            Set<String> changed;
+            try {
+                changed = watcher.take();
+            } catch (InterruptedException | ClosedWatchServiceException ex) {
+                break;
+            }
+            for (String input : changed) {
+                long start = System.nanoTime();
+                LoggerHelper.setContext(input, null);
+                logger.log(Level.INFO, "Parsing {0}...", input);
+                SchemaModel model = null;
+                try {
+                    model = renderer.read(input);
+                } catch (IOException | RuntimeException ex) {
+                    logger.log(Level.SEVERE, "Can''t load " + input, ex);
+                }
+                watchInput(watcher, input, model);
+                if (model == null) {
+                    logger.log(Level.SEVERE, "Keeping the diagrams of {0}, the schema can''t be loaded", input);
+                    continue;
+                }
+                List<String> roots = new ArrayList<>();
+                if (rootOption == null) {
+                    roots.add(null);
+                } else if (rootOption.equals("all")) {
+                    roots.addAll(rootNames(renderer, model));
+                } else {
+                    roots.add(rootOption);
+                }
+                Map<String, String> drawn = digests.computeIfAbsent(input, k -> new ConcurrentHashMap<>());
+                Set<String> outputs = new HashSet<>();
+                List<String> failures = new ArrayList<>();
+                int redrawn = 0;
+                for (String root : roots) {
+                    rootNodeName = root;
+                    String output = outputUrl(input);
+                    outputs.add(output);
+                    LoggerHelper.setContext(input, root);
+                    String digest = renderer.digest(model, root);
+                    if (digest != null && digest.equals(drawn.get(output)) && Files.exists(Paths.get(output))) {
+                        continue;
+                    }
+                    if (render(renderer, model, input, root, output, writerHelper, metrics, failures)) {
+                        redrawn++;
+                    }
+                }
+                int removed = 0;
+                for (String output : new ArrayList<>(drawn.keySet())) {
+                    if (!outputs.contains(output)) {
+                        drawn.remove(output);
+                        try {
+                            Files.deleteIfExists(Paths.get(output));
+                            removed++;
+                        } catch (IOException ex) {
+                            logger.log(Level.WARNING, "Can''t delete {0}: {1}", new Object[]{output, ex.toString()});
+                        }
+                    }
+                }
+                LoggerHelper.setContext(input, null);
+                logger.log(Level.INFO, "{0} diagrams redrawn, {1} unchanged, {2} removed, {3} failed in {4} ms",
+                        new Object[]{redrawn, roots.size() - redrawn - failures.size(), removed, failures.size(), (System.nanoTime() - start) / 1000000});
+            }
+            LoggerHelper.clearContext();
+        }
+        try {
+            watcher.close();
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, ex.getLocalizedMessage(), ex);
+        }
+        logger.info("Stopped watching");
+    }
+
+    /**
+     * Draws one diagram. A failure is logged and added to the failures
+     * instead of ending the run, its output file is left as it was.
+     *
+     * @param renderer
+     * @param model
+     * @param input
+     * @param rootName null for the diagram of the whole schema
+     * @param output
+     * @param writerHelper
+     * @param metrics
+     * @param failures
+     * @return true if the diagram was written
+     */
+    private static boolean render(XsdRenderer renderer, SchemaModel model, String input, String rootName, String output,
+            WriterHelper writerHelper, Metrics metrics, List<String> failures) {
+        try {
+            XsdRenderer.Result result = renderer.render(model, rootName, writerHelper, output, metrics);
+            if (result == null) {
+                logger.log(Level.SEVERE, "SVG is empty, {0} not found in {1}", new Object[]{rootName, input});
+                failures.add(input + " [" + rootName + "]: not found");
+                return false;
+            }
+            addDigest(input, output, result);
+            addIndexEntry(writerHelper, rootName != null ? rootName : input, output);
+            logger.info("Done.");
+            return true;
+        } catch (RuntimeException | StackOverflowError | OutOfMemoryError ex) {
+            String failure = input + (rootName != null ? " [" + rootName + "]" : "") + ": " + ex;
+            logger.log(Level.SEVERE, "Failed " + failure, ex);
+            failures.add(failure);
+            return false;
+        }
+    }
+
+    /**
+     * Renders the roots of an input with the executor, their outputs are
+     * written by the pipeline. A rendered root is only complete once the
+     * pipeline wrote its output, see {@link OutputPipeline#isFailed(String)}.
+     *
+     * @param executor
+     * @param pipeline
+     * @param renderer
+     * @param model
+     * @param input
+     * @param rootNames
+     * @param metrics
+     * @param monitor
+     * @param failures
+     * @return which of the roots were rendered
+     */
+    private static boolean[] renderParallel(ExecutorService executor, OutputPipeline pipeline, XsdRenderer renderer, SchemaModel model, String input,
+            List<String> rootNames, Metrics metrics, RenderMonitor monitor, List<String> failures) {
+        if (monitor != null) {
+            monitor.checkpoint();
+        }
+        AtomicInteger queued = new AtomicInteger(rootNames.size());
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (String root : rootNames) {
+            rootNodeName = root;
+            String output = outputUrl(input);
+            results.add(executor.submit(() -> {
+                if (monitor != null) {
+                    monitor.setQueueDepth(queued.decrementAndGet());
+                    monitor.rootStarted(root);
+                }
+                Metrics taskMetrics = metrics.fork();
+                taskMetrics.begin(input, root);
+                LoggerHelper.setContext(input, root);
+                boolean success = render(renderer, model, input, root, output, pipeline, taskMetrics, failures);
+                taskMetrics.end();
+                LoggerHelper.clearContext();
+                if (monitor != null) {
+                    monitor.rootFinished(root, success);
+                }
+                return success;
+            }));
+        }
+        boolean[] rendered = new boolean[results.size()];
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                rendered[i] = results.get(i).get();
+            } catch (ExecutionException ex) {
+                logger.log(Level.SEVERE, "Failed " + input + " [" + rootNames.get(i) + "]", ex.getCause());
+                failures.add(input + " [" + rootNames.get(i) + "]: " + ex.getCause());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                failures.add(input + " [" + rootNames.get(i) + "]: " + ex);
+            }
+        }
+        return rendered;
+    }
+
+    /**
+     * Draws one diagram into an output of the pipeline, see
+     * {@link #render(XsdRenderer, SchemaModel, String, String, String, WriterHelper, Metrics, List)}.
+     *
+     * @param renderer
+     * @param model
+     * @param input
+     * @param rootName
+     * @param output
+     * @param pipeline
+     * @param metrics
+     * @param failures
+     * @return true if the diagram was drawn
+     */
+    private static boolean render(XsdRenderer renderer, SchemaModel model, String input, String rootName, String output,
+            OutputPipeline pipeline, Metrics metrics, List<String> failures) {
+        OutputPipeline.Stream stream = pipeline.open(output);
+        // the output ends here once drawn, or is aborted
+        WriterHelper writerHelper = new WriterHelper(new FilterOutputStream(stream) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                stream.write(b, off, len);
+            }
+
+            @Override
+            public void close() {
+                // see below
+            }
+        }, WriterHelper.DEFAULT_CHARSET);
+        try {
+            logger.log(Level.INFO, "Drawing SVG {0}...", output);
+            XsdRenderer.Result result = renderer.render(model, rootName, writerHelper, null, metrics);
+            if (result == null) {
+                stream.abort();
+                logger.log(Level.SEVERE, "SVG is empty, {0} not found in {1}", new Object[]{rootName, input});
+                failures.add(input + " [" + rootName + "]: not found");
+                return false;
+            }
+            if (writerHelper.getError() != null) {
+                throw new UncheckedIOException(writerHelper.getError());
+            }
+            stream.close();
+            addDigest(input, output, result);
+            logger.info("Done.");
+            return true;
+        } catch (IOException | RuntimeException | StackOverflowError | OutOfMemoryError ex) {
+            stream.abort();
+            String failure = input + " [" + rootName + "]: " + ex;
+            logger.log(Level.SEVERE, "Failed " + failure, ex);
+            failures.add(failure);
+            return false;
+        }
+    }
+
+    /**
+     * @param renderer
+     * @param model
+     * @return all roots, or the ones of -roots
+     */
+    private static List<String> rootNames(XsdRenderer renderer, SchemaModel model) {
+        if (rootSelector == null) {
+            return renderer.getRootNames(model);
+        }
+        List<String> names = renderer.getRootNames(model, rootSelector);
+        logger.log(Level.INFO, "Selected {0} roots", names.size());
+        return names;
+    }
+
+    /**
+     * @param analyzer
+     * @param model
+     * @param roots
+     * @return predicted boxes of the diagrams of the roots
+     */
+    private static long[] shardWeights(XsdAnalyzer analyzer, SchemaModel model, List<String> roots) {
+        long[] weights = new long[roots.size()];
+        for (int i = 0; i < weights.length; i++) {
+            XsdAnalyzer.Result result = analyzer.analyze(model, roots.get(i));
+            weights[i] = result != null ? result.getNodes() : 1;
+        }
+        return weights;
+    }
+
+    /**
+     * @param manifest
+     * @param seq
+     * @param key
+     * @param output
+     * @param success
+     */
+    private static void addManifestEntry(ShardManifest manifest, int seq, String key, String output, boolean success) {
+        if (success) {
+            manifest.add(seq, key, Paths.get(output).getFileName().toString());
+        } else {
+            manifest.addFailed(seq, key);
+        }
+    }
+
+    /**
+     * Merges the shards listed by the manifests of the inputs, ends the run
+     * like {@link #main(String[])}.
+     */
+    private static void mergeShards() {
+        List<String> failures = new ArrayList<>();
+        int merged = 0;
+        try {
+            merged = ShardManifest.merge(inputs, outputPath, outputArchive, failures);
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "Can''t merge the shards: {0}", ex.toString());
+            failures.add(ex.toString());
+        }
+        String summary = String.format("%d shards, %d diagrams merged, %d failed", inputs.size(), merged, failures.size());
+        if (!failures.isEmpty()) {
+            StringBuilder report = new StringBuilder(summary).append(':');
+            for (String failure : failures) {
+                report.append(System.lineSeparator()).append("  ").append(failure);
+            }
+            System.out.println(report);
+            logger.severe(report.toString());
+            LoggerHelper.closeLogger();
+            System.exit(ERROR_EXIT_CODE);
+        }
+        logger.info(summary);
+        LoggerHelper.closeLogger();
+    }
+
+    /**
+     * @param input
+     * @param output
+     * @param result
+     */
+    private static void addDigest(String input, String output, XsdRenderer.Result result) {
+        if (result.getDigest() != null) {
+            digests.computeIfAbsent(input, k -> new ConcurrentHashMap<>()).put(output, result.getDigest());
+        }
+    }
+
+    /**
+     * @param writerHelper
+     * @param rootName
+     * @param output
+     */
+    private static void addIndexEntry(WriterHelper writerHelper, String rootName, String output) {
+        if (writerHelper.getArchive() != null) {
+            writerHelper.getArchive().addIndexEntry(rootName, output);
+        }
+    }
+
+    /**
+     * Puts the entries of each input in a folder named after it when there are
+     * several inputs, their roots may have the same names. Inputs of the same
+     * name are numbered.
+     */
+    private static void setArchiveFolders() {
+        archiveFolders.clear();
+        if (inputs.size() < 2) {
+            return;
+        }
+        Set<String> folders = new HashSet<>();
+        for (String input : inputs) {
+            String[] field = input.split("[/\\\\]");
+            String folder = field[field.length - 1];
+            if (folder.toLowerCase().endsWith(".xsd")) {
+                folder = folder.substring(0, folder.length() - 4);
+            }
+            String name = folder;
+            for (int i = 2; !folders.add(name); i++) {
+                name = folder + "-" + i;
+            }
+            archiveFolders.put(input, name);
+        }
     }
 
     /**
@@ -271,13 +1266,13 @@ public final class XsdVi {
             filename = rootNodeName + filename;
         }
 
+        if (outputArchive != null) {
+            String folder = archiveFolders.get(input);
+            return folder != null ? folder + "/" + filename : filename;
+        }
         String path = "";
         if (outputPath != null) {
             path = outputPath;
-            try {
-                Files.createDirectories(Paths.get(path, ""));
-            } catch (IOException ex) {
-            }
         }
         Path localOutputPath = Paths.get(path, filename);
         return localOutputPath.toString();
@@ -307,6 +1302,7 @@ public final class XsdVi {
             try {
                 cmd = parser.parse(optionsEmbodyStyle, args);
                 style = EMBODY_STYLE;
+                cmdFail = false;
 
             } catch (ParseException exp) {
                 cmdFail = true;
@@ -318,6 +1314,7 @@ public final class XsdVi {
                 cmd = parser.parse(optionsGenerateStyle, args);
                 style = GENERATE_STYLE;
                 styleUrl = cmd.getOptionValue(GENERATE_STYLE);
+                cmdFail = false;
 
             } catch (ParseException exp) {
                 cmdFail = true;
@@ -329,6 +1326,7 @@ public final class XsdVi {
                 cmd = parser.parse(optionsUseStyle, args);
                 style = USE_STYLE;
                 styleUrl = cmd.getOptionValue(USE_STYLE);
+                cmdFail = false;
 
             } catch (ParseException exp) {
                 cmdFail = true;
@@ -345,6 +1343,19 @@ public final class XsdVi {
 
                 rootNodeName = cmd.getOptionValue(ROOT_NODE_NAME);
                 oneNodeOnly = cmd.hasOption(ONE_NODE_ONLY);
+                rootSelector = null;
+                if (cmd.hasOption(ROOTS)) {
+                    if (rootNodeName != null) {
+                        throw new ParseException("-" + ROOT_NODE_NAME + " and -" + ROOTS + " exclude each other");
+                    }
+                    try {
+                        rootSelector = RootSelector.parse(cmd.getOptionValue(ROOTS));
+                    } catch (IllegalArgumentException ex) {
+                        throw new ParseException(ex.getMessage());
+                    }
+                    // drawn like all roots, one diagram per root
+                    rootNodeName = "all";
+                }
 
                 if (cmd.hasOption(ROOT_TYPES)) {
                     rootTypes = new ArrayList<>();
@@ -364,6 +1375,89 @@ public final class XsdVi {
                 }
 
                 outputPath = cmd.getOptionValue(OUTPUT_PATH);
+                outputArchive = cmd.getOptionValue(OUTPUT_ARCHIVE);
+                compact = cmd.hasOption(COMPACT);
+                dedup = cmd.hasOption(DEDUP);
+                fragmentCacheSize = 0;
+                if (cmd.hasOption(FRAGMENT_CACHE)) {
+                    try {
+                        fragmentCacheSize = Integer.parseInt(cmd.getOptionValue(FRAGMENT_CACHE));
+                    } catch (NumberFormatException ex) {
+                        throw new ParseException("Invalid fragment cache size:" + cmd.getOptionValue(FRAGMENT_CACHE));
+                    }
+                }
+                cacheDir = cmd.getOptionValue(CACHE_DIR);
+                catalogs = new ArrayList<>();
+                if (cmd.hasOption(CATALOG)) {
+                    for (String catalog : cmd.getOptionValue(CATALOG).split(",")) {
+                        if (!catalog.trim().isEmpty()) {
+                            catalogs.add(catalog.trim());
+                        }
+                    }
+                }
+                for (String catalog : catalogs) {
+                    if (!catalog.contains(":/") && !new File(catalog).isFile()) {
+                        throw new ParseException("Catalog not found:" + catalog);
+                    }
+                }
+                schemaMirror = cmd.getOptionValue(SCHEMA_MIRROR);
+                if (schemaMirror != null && !new File(schemaMirror).isDirectory()) {
+                    throw new ParseException("Schema mirror is not a directory:" + schemaMirror);
+                }
+                lightReader = cmd.hasOption(LIGHT_READER);
+                snapshotDir = cmd.getOptionValue(SNAPSHOT_DIR);
+                metricsUri = cmd.getOptionValue(METRICS);
+                jmx = cmd.hasOption(JMX);
+                analyze = cmd.hasOption(ANALYZE);
+                try {
+                    maxNodes = cmd.hasOption(MAX_NODES) ? Long.parseLong(cmd.getOptionValue(MAX_NODES)) : 0;
+                    maxBytes = cmd.hasOption(MAX_BYTES) ? Long.parseLong(cmd.getOptionValue(MAX_BYTES)) : 0;
+                    maxMillis = cmd.hasOption(MAX_TIME) ? Math.round(Double.parseDouble(cmd.getOptionValue(MAX_TIME)) * 1000) : 0;
+                } catch (NumberFormatException ex) {
+                    throw new ParseException("Invalid limit:" + ex.getMessage());
+                }
+                try {
+                    threads = cmd.hasOption(THREADS) ? Integer.parseInt(cmd.getOptionValue(THREADS)) : 1;
+                } catch (NumberFormatException ex) {
+                    threads = 0;
+                }
+                if (threads < 1) {
+                    throw new ParseException("Invalid number of threads:" + cmd.getOptionValue(THREADS));
+                }
+                virtualThreads = cmd.hasOption(VIRTUAL_THREADS);
+                shardPlan = null;
+                if (cmd.hasOption(SHARD)) {
+                    try {
+                        shardPlan = ShardPlan.parse(cmd.getOptionValue(SHARD));
+                    } catch (IllegalArgumentException ex) {
+                        throw new ParseException(ex.getMessage());
+                    }
+                    if (outputArchive != null) {
+                        throw new ParseException("Shards write files, merge them into an archive with -" + MERGE_SHARDS);
+                    }
+                }
+                mergeShards = cmd.hasOption(MERGE_SHARDS);
+                watch = cmd.hasOption(WATCH);
+                if (watch && (outputArchive != null || shardPlan != null || analyze || mergeShards)) {
+                    throw new ParseException("-" + WATCH + " writes files, without -" + OUTPUT_ARCHIVE + ", -" + SHARD + ", -" + ANALYZE + " or -" + MERGE_SHARDS);
+                }
+                if (mergeShards && shardPlan != null) {
+                    throw new ParseException("-" + SHARD + " and -" + MERGE_SHARDS + " exclude each other");
+                }
+                logFile = cmd.getOptionValue(LOG_FILE, LoggerHelper.DEFAULT_URI);
+                try {
+                    logLevel = Level.parse(cmd.getOptionValue(LOG_LEVEL, Level.ALL.getName()).toUpperCase());
+                } catch (IllegalArgumentException ex) {
+                    throw new ParseException("Invalid log level:" + cmd.getOptionValue(LOG_LEVEL));
+                }
+                cacheSize = DiskCache.DEFAULT_MAX_BYTES;
+                if (cmd.hasOption(CACHE_SIZE)) {
+                    try {
+                        cacheSize = Long.parseLong(cmd.getOptionValue(CACHE_SIZE)) << 20;
+                    } catch (NumberFormatException ex) {
+                        throw new ParseException("Invalid cache size:" + cmd.getOptionValue(CACHE_SIZE));
+                    }
+                }
 
                 inputs.addAll(cmd.getArgList());
 
@@ -387,26 +1481,6 @@ public final class XsdVi {
         logger.severe(USAGE);
     }
 
-    /**
-     * @return
-     */
-    private static XSLoader getSchemaLoader() {
-        XSLoader schemaLoader = null;
-        try {
-            System.setProperty(DOMImplementationRegistry.PROPERTY, "org.apache.xerces.dom.DOMXSImplementationSourceImpl");
-            DOMImplementationRegistry registry = DOMImplementationRegistry.newInstance();
-            XSImplementation impl = (XSImplementation) registry.getDOMImplementation("XS-Loader");
-            schemaLoader = impl.createXSLoader(null);
-            DOMConfiguration config = schemaLoader.getConfig();
-            DOMErrorHandler errorHandler = new XsdErrorHandler();
-            config.setParameter("error-handler", errorHandler);
-            config.setParameter("validate", Boolean.TRUE);
-        } catch (ClassCastException | ClassNotFoundException | InstantiationException | IllegalAccessException e) {
-            logger.log(Level.SEVERE, e.getLocalizedMessage(), e);
-        }
-        return schemaLoader;
-    }
-
     private static String getUsage() {
         StringWriter stringWriter = new StringWriter();
         PrintWriter pw = new PrintWriter(stringWriter);
@@ -0,0 +1,478 @@
+package xsdvi.model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Compact component graph of a schema, holding only what the diagrams show.
+ * The nodes are filled by the readers of this package, references pointing
+ * to the shared nodes of the components, and are only read once built. The
+ * documentation is extracted while reading.
+ * <p>
+ * A graph is not changed once built, so a graph handed to other threads, e.g.
+ * by submitting the tasks reading it to an executor, is traversed by any
+ * number of them without locking. {@link #copyOf(SchemaModel)} takes such a
+ * snapshot of another model, e.g. of a Xerces model that is then released.
+ *
+ * @author Alexander Dyuzhev
+ */
+public final class SchemaGraph implements SchemaModel {
+
+    final List<Element> elements = new ArrayList<>();
+    final List<Type> types = new ArrayList<>();
+    final List<String> documentLocations = new ArrayList<>();
+
+    /**
+     * Copies a model into a graph, with the documentation extracted, the
+     * components shared as in the model and the lists unmodifiable. The graph
+     * holds nothing of the model.
+     *
+     * @param model
+     * @return the model itself if it is a graph
+     */
+    public static SchemaGraph copyOf(SchemaModel model) {
+        if (model instanceof SchemaGraph) {
+            return (SchemaGraph) model;
+        }
+        return new Copy().graph(model);
+    }
+
+    @Override
+    public List<Element> getElements() {
+        return Collections.unmodifiableList(elements);
+    }
+
+    @Override
+    public List<Type> getTypes() {
+        return Collections.unmodifiableList(types);
+    }
+
+    @Override
+    public List<String> getDocumentLocations() {
+        return Collections.unmodifiableList(documentLocations);
+    }
+
+    /**
+     * Named and documented node.
+     */
+    abstract static class ComponentNode implements Component {
+
+        String name;
+        String namespace;
+        List<String> documentation = Collections.emptyList();
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String getNamespace() {
+            return namespace;
+        }
+
+        @Override
+        public List<String> getDocumentation() {
+            return documentation;
+        }
+    }
+
+    static final class ElementNode extends ComponentNode implements Element {
+
+        Type type;
+        boolean nillable;
+        boolean abstr;
+        Element substitutionGroup;
+        List<IdentityConstraint> identityConstraints = Collections.emptyList();
+
+        @Override
+        public Type getType() {
+            return type;
+        }
+
+        @Override
+        public boolean isNillable() {
+            return nillable;
+        }
+
+        @Override
+        public boolean isAbstract() {
+            return abstr;
+        }
+
+        @Override
+        public Element getSubstitutionGroup() {
+            return substitutionGroup;
+        }
+
+        @Override
+        public List<IdentityConstraint> getIdentityConstraints() {
+            return identityConstraints;
+        }
+    }
+
+    static final class TypeNode extends ComponentNode implements Type {
+
+        boolean complex;
+        Type baseType;
+        Particle particle;
+        List<AttributeUse> attributeUses = Collections.emptyList();
+        Wildcard attributeWildcard;
+
+        @Override
+        public boolean isComplex() {
+            return complex;
+        }
+
+        @Override
+        public boolean isAnonymous() {
+            return name == null;
+        }
+
+        @Override
+        public Type getBaseType() {
+            return baseType;
+        }
+
+        @Override
+        public Particle getParticle() {
+            return particle;
+        }
+
+        @Override
+        public List<AttributeUse> getAttributeUses() {
+            return attributeUses;
+        }
+
+        @Override
+        public Wildcard getAttributeWildcard() {
+            return attributeWildcard;
+        }
+    }
+
+    static final class ParticleNode implements Particle {
+
+        int minOccurs = 1;
+        int maxOccurs = 1;
+        boolean unbounded;
+        Term term;
+
+        @Override
+        public int getMinOccurs() {
+            return minOccurs;
+        }
+
+        @Override
+        public int getMaxOccurs() {
+            return maxOccurs;
+        }
+
+        @Override
+        public boolean isUnbounded() {
+            return unbounded;
+        }
+
+        @Override
+        public Term getTerm() {
+            return term;
+        }
+    }
+
+    static final class ModelGroupNode extends ComponentNode implements ModelGroup {
+
+        Compositor compositor;
+        List<Particle> particles = Collections.emptyList();
+
+        @Override
+        public Compositor getCompositor() {
+            return compositor;
+        }
+
+        @Override
+        public List<Particle> getParticles() {
+            return particles;
+        }
+    }
+
+    static final class WildcardNode extends ComponentNode implements Wildcard {
+
+        NamespaceConstraint constraint = NamespaceConstraint.ANY;
+        List<String> namespaces = Collections.emptyList();
+        ProcessContents processContents = ProcessContents.STRICT;
+
+        @Override
+        public NamespaceConstraint getConstraint() {
+            return constraint;
+        }
+
+        @Override
+        public List<String> getNamespaces() {
+            return namespaces;
+        }
+
+        @Override
+        public ProcessContents getProcessContents() {
+            return processContents;
+        }
+    }
+
+    static final class AttributeUseNode extends ComponentNode implements AttributeUse {
+
+        Type type;
+        boolean required;
+        ValueConstraint valueConstraint = ValueConstraint.NONE;
+        String value;
+
+        @Override
+        public Type getType() {
+            return type;
+        }
+
+        @Override
+        public boolean isRequired() {
+            return required;
+        }
+
+        @Override
+        public ValueConstraint getValueConstraint() {
+            return valueConstraint;
+        }
+
+        @Override
+        public String getValue() {
+            return value;
+        }
+    }
+
+    static final class IdentityConstraintNode extends ComponentNode implements IdentityConstraint {
+
+        Category category;
+        String refer;
+        String selector;
+        List<String> fields = Collections.emptyList();
+
+        @Override
+        public Category getCategory() {
+            return category;
+        }
+
+        @Override
+        public String getRefer() {
+            return refer;
+        }
+
+        @Override
+        public String getSelector() {
+            return selector;
+        }
+
+        @Override
+        public List<String> getFields() {
+            return fields;
+        }
+    }
+
+    /**
+     * Copy of a model. The nodes are created when first reached, their
+     * references are linked later from a queue, not by recursion, so the
+     * depth of a schema is not limited by the stack.
+     */
+    private static final class Copy {
+
+        private final Map<Object, Object> nodes = new IdentityHashMap<>();
+        private final Deque<Runnable> links = new ArrayDeque<>();
+
+        /**
+         * @param model
+         * @return
+         */
+        SchemaGraph graph(SchemaModel model) {
+            SchemaGraph graph = new SchemaGraph();
+            for (Element element : model.getElements()) {
+                graph.elements.add(element(element));
+            }
+            for (Type type : model.getTypes()) {
+                graph.types.add(type(type));
+            }
+            graph.documentLocations.addAll(model.getDocumentLocations());
+            while (!links.isEmpty()) {
+                links.poll().run();
+            }
+            return graph;
+        }
+
+        /**
+         * @param node
+         * @param source
+         */
+        private static void named(ComponentNode node, Component source) {
+            node.name = source.getName();
+            node.namespace = source.getNamespace();
+            node.documentation = strings(source.getDocumentation());
+        }
+
+        /**
+         * @param strings
+         * @return unmodifiable copy, null items kept
+         */
+        private static List<String> strings(List<String> strings) {
+            return strings.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(new ArrayList<>(strings));
+        }
+
+        /**
+         * @param <S>
+         * @param <T>
+         * @param sources
+         * @param copy
+         * @return unmodifiable list of the copies
+         */
+        private static <S, T> List<T> list(List<? extends S> sources, Function<S, T> copy) {
+            if (sources.isEmpty()) {
+                return Collections.emptyList();
+            }
+            List<T> copies = new ArrayList<>(sources.size());
+            for (S source : sources) {
+                copies.add(copy.apply(source));
+            }
+            return Collections.unmodifiableList(copies);
+        }
+
+        private Element element(Element source) {
+            if (source == null) {
+                return null;
+            }
+            ElementNode node = (ElementNode) nodes.get(source);
+            if (node == null) {
+                ElementNode copy = new ElementNode();
+                nodes.put(source, copy);
+                named(copy, source);
+                copy.nillable = source.isNillable();
+                copy.abstr = source.isAbstract();
+                links.add(() -> {
+                    copy.type = type(source.getType());
+                    copy.substitutionGroup = element(source.getSubstitutionGroup());
+                    copy.identityConstraints = list(source.getIdentityConstraints(), this::identityConstraint);
+                });
+                node = copy;
+            }
+            return node;
+        }
+
+        private Type type(Type source) {
+            if (source == null) {
+                return null;
+            }
+            TypeNode node = (TypeNode) nodes.get(source);
+            if (node == null) {
+                TypeNode copy = new TypeNode();
+                nodes.put(source, copy);
+                named(copy, source);
+                copy.complex = source.isComplex();
+                links.add(() -> {
+                    copy.baseType = type(source.getBaseType());
+                    copy.particle = particle(source.getParticle());
+                    copy.attributeUses = list(source.getAttributeUses(), this::attributeUse);
+                    copy.attributeWildcard = wildcard(source.getAttributeWildcard());
+                });
+                node = copy;
+            }
+            return node;
+        }
+
+        private Particle particle(Particle source) {
+            if (source == null) {
+                return null;
+            }
+            ParticleNode node = (ParticleNode) nodes.get(source);
+            if (node == null) {
+                ParticleNode copy = new ParticleNode();
+                nodes.put(source, copy);
+                copy.minOccurs = source.getMinOccurs();
+                copy.maxOccurs = source.getMaxOccurs();
+                copy.unbounded = source.isUnbounded();
+                links.add(() -> copy.term = term(source.getTerm()));
+                node = copy;
+            }
+            return node;
+        }
+
+        /**
+         * @param source
+         * @return
+         */
+        private Term term(Term source) {
+            if (source instanceof Element) {
+                return element((Element) source);
+            } else if (source instanceof ModelGroup) {
+                return modelGroup((ModelGroup) source);
+            } else if (source instanceof Wildcard) {
+                return wildcard((Wildcard) source);
+            }
+            return null;
+        }
+
+        private ModelGroup modelGroup(ModelGroup source) {
+            ModelGroupNode node = (ModelGroupNode) nodes.get(source);
+            if (node == null) {
+                ModelGroupNode copy = new ModelGroupNode();
+                nodes.put(source, copy);
+                named(copy, source);
+                copy.compositor = source.getCompositor();
+                links.add(() -> copy.particles = list(source.getParticles(), this::particle));
+                node = copy;
+            }
+            return node;
+        }
+
+        private Wildcard wildcard(Wildcard source) {
+            if (source == null) {
+                return null;
+            }
+            WildcardNode node = (WildcardNode) nodes.get(source);
+            if (node == null) {
+                node = new WildcardNode();
+                nodes.put(source, node);
+                named(node, source);
+                node.constraint = source.getConstraint();
+                node.namespaces = strings(source.getNamespaces());
+                node.processContents = source.getProcessContents();
+            }
+            return node;
+        }
+
+        private AttributeUse attributeUse(AttributeUse source) {
+            AttributeUseNode node = (AttributeUseNode) nodes.get(source);
+            if (node == null) {
+                AttributeUseNode copy = new AttributeUseNode();
+                nodes.put(source, copy);
+                named(copy, source);
+                copy.required = source.isRequired();
+                copy.valueConstraint = source.getValueConstraint();
+                copy.value = source.getValue();
+                links.add(() -> copy.type = type(source.getType()));
+                node = copy;
+            }
+            return node;
+        }
+
+        private IdentityConstraint identityConstraint(IdentityConstraint source) {
+            IdentityConstraintNode node = (IdentityConstraintNode) nodes.get(source);
+            if (node == null) {
+                node = new IdentityConstraintNode();
+                nodes.put(source, node);
+                named(node, source);
+                node.category = source.getCategory();
+                node.refer = source.getRefer();
+                node.selector = source.getSelector();
+                node.fields = strings(source.getFields());
+            }
+            return node;
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package xsdvi.model;
+
+import java.util.List;
+
+import org.apache.xerces.xs.XSConstants;
+
+/**
+ * The components of a schema drawn in the diagrams, as traversed by
+ * {@link xsdvi.XsdHandler}. It is what the handler reads of a schema: the
+ * global element declarations and type definitions with their resolved
+ * content models, attribute uses, wildcards and identity constraints, and the
+ * documentation of the annotations. Includes, imports, references, model and
+ * attribute groups and derivations are resolved by the backend, either
+ * {@link XercesSchemaModel} over a validated Xerces model or a
+ * {@link SchemaGraph} read by {@link StaxSchemaReader}.
+ * <p>
+ * A component is the same object wherever it is reached, e.g. an element
+ * declaration referenced from several content models, since loops are
+ * detected and drawn subtrees reused by identity.
+ *
+ * @author Alexander Dyuzhev
+ */
+public interface SchemaModel {
+
+    /**
+     * Root type of global element declarations, as in
+     * {@link xsdvi.RenderOptions#getRootTypes()}.
+     */
+    short ELEMENT_DECLARATION = XSConstants.ELEMENT_DECLARATION;
+
+    /**
+     * Root type of global complex type definitions.
+     */
+    short TYPE_DEFINITION = XSConstants.TYPE_DEFINITION;
+
+    /**
+     * @return global element declarations of all namespaces
+     */
+    List<Element> getElements();
+
+    /**
+     * @return global type definitions of all namespaces, simple and complex
+     */
+    List<Type> getTypes();
+
+    /**
+     * @return locations of the schema documents read
+     */
+    List<String> getDocumentLocations();
+
+    /**
+     * Compositor of a model group.
+     */
+    enum Compositor {
+        SEQUENCE, CHOICE, ALL
+    }
+
+    /**
+     * Category of an identity constraint.
+     */
+    enum Category {
+        KEY, KEYREF, UNIQUE
+    }
+
+    /**
+     * Namespace constraint of a wildcard.
+     */
+    enum NamespaceConstraint {
+        ANY, NOT, LIST
+    }
+
+    /**
+     * Processing of the content matched by a wildcard.
+     */
+    enum ProcessContents {
+        STRICT, SKIP, LAX
+    }
+
+    /**
+     * Value constraint of an attribute use.
+     */
+    enum ValueConstraint {
+        NONE, DEFAULT, FIXED
+    }
+
+    /**
+     * A schema component.
+     */
+    interface Component {
+
+        /**
+         * @return local name, null for model groups, wildcards and anonymous
+         * types
+         */
+        String getName();
+
+        /**
+         * @return namespace, null for none
+         */
+        String getNamespace();
+
+        /**
+         * @return text of the documentation elements of the annotations, not
+         * escaped
+         */
+        List<String> getDocumentation();
+    }
+
+    /**
+     * Element declaration, model group or wildcard of a particle.
+     */
+    interface Term extends Component {
+    }
+
+    /**
+     * Element declaration.
+     */
+    interface Element extends Term {
+
+        /**
+         * @return
+         */
+        Type getType();
+
+        /**
+         * @return
+         */
+        boolean isNillable();
+
+        /**
+         * @return
+         */
+        boolean isAbstract();
+
+        /**
+         * @return head of the substitution group, or null
+         */
+        Element getSubstitutionGroup();
+
+        /**
+         * @return in the order of declaration
+         */
+        List<IdentityConstraint> getIdentityConstraints();
+    }
+
+    /**
+     * Simple or complex type definition.
+     */
+    interface Type extends Component {
+
+        /**
+         * @return
+         */
+        boolean isComplex();
+
+        /**
+         * @return
+         */
+        boolean isAnonymous();
+
+        /**
+         * @return base type, or null for the ur-types
+         */
+        Type getBaseType();
+
+        /**
+         * @return effective content of a complex type, with the content of
+         * the base type of an extension, null for empty or simple content
+         */
+        Particle getParticle();
+
+        /**
+         * @return attribute uses of a complex type, with the inherited ones
+         */
+        List<AttributeUse> getAttributeUses();
+
+        /**
+         * @return attribute wildcard of a complex type, or null
+         */
+        Wildcard getAttributeWildcard();
+    }
+
+    /**
+     * Occurrence of a term in a content model.
+     */
+    interface Particle {
+
+        /**
+         * @return
+         */
+        int getMinOccurs();
+
+        /**
+         * @return ignored if unbounded
+         */
+        int getMaxOccurs();
+
+        /**
+         * @return
+         */
+        boolean isUnbounded();
+
+        /**
+         * @return
+         */
+        Term getTerm();
+    }
+
+    /**
+     * Model group, the one of a group definition wherever it is referenced.
+     */
+    interface ModelGroup extends Term {
+
+        /**
+         * @return
+         */
+        Compositor getCompositor();
+
+        /**
+         * @return
+         */
+        List<Particle> getParticles();
+    }
+
+    /**
+     * Element or attribute wildcard.
+     */
+    interface Wildcard extends Term {
+
+        /**
+         * @return
+         */
+        NamespaceConstraint getConstraint();
+
+        /**
+         * @return namespaces of a list or excluded by a negation, null for no
+         * namespace
+         */
+        List<String> getNamespaces();
+
+        /**
+         * @return
+         */
+        ProcessContents getProcessContents();
+    }
+
+    /**
+     * Attribute use, named and typed by its attribute declaration.
+     */
+    interface AttributeUse extends Component {
+
+        /**
+         * @return
+         */
+        Type getType();
+
+        /**
+         * @return
+         */
+        boolean isRequired();
+
+        /**
+         * @return
+         */
+        ValueConstraint getValueConstraint();
+
+        /**
+         * @return default or fixed value, or null
+         */
+        String getValue();
+    }
+
+    /**
+     * Identity constraint.
+     */
+    interface IdentityConstraint extends Component {
+
+        /**
+         * @return
+         */
+        Category getCategory();
+
+        /**
+         * @return name of the key referenced by a keyref, or null
+         */
+        String getRefer();
+
+        /**
+         * @return XPath of the selector
+         */
+        String getSelector();
+
+        /**
+         * @return XPaths of the fields
+         */
+        List<String> getFields();
+    }
+}
@@ -0,0 +1,606 @@
+package xsdvi.model;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import xsdvi.model.SchemaGraph.AttributeUseNode;
+import xsdvi.model.SchemaGraph.ComponentNode;
+import xsdvi.model.SchemaGraph.ElementNode;
+import xsdvi.model.SchemaGraph.IdentityConstraintNode;
+import xsdvi.model.SchemaGraph.ModelGroupNode;
+import xsdvi.model.SchemaGraph.ParticleNode;
+import xsdvi.model.SchemaGraph.TypeNode;
+import xsdvi.model.SchemaGraph.WildcardNode;
+import xsdvi.utils.LoggerHelper;
+
+/**
+ * A {@link SchemaGraph} saved in a binary file and read back without reading
+ * the schema. The file starts with the SHA-256 hashes of the schema documents
+ * the graph was read from, and it is only read while all of them are
+ * unchanged. Then come the table of the strings and the nodes, their
+ * references being indexes. The file is read through a memory mapping, with
+ * the documentation already extracted.
+ * <p>
+ * Files are written to a temporary file and renamed into place, so processes
+ * running at the same time never read a partial snapshot.
+ *
+ * @author Alexander Dyuzhev
+ */
+public final class SchemaSnapshot {
+
+    private static final Logger logger = Logger.getLogger(LoggerHelper.LOGGER_NAME);
+
+    // "XSDV"
+    private static final int MAGIC = 0x58534456;
+    private static final int FORMAT_VERSION = 1;
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+    private static final String TEMP_SUFFIX = ".part";
+    private static final AtomicLong tempCounter = new AtomicLong();
+
+    private static final byte ELEMENT = 1;
+    private static final byte TYPE = 2;
+    private static final byte PARTICLE = 3;
+    private static final byte MODEL_GROUP = 4;
+    private static final byte WILDCARD = 5;
+    private static final byte ATTRIBUTE_USE = 6;
+    private static final byte IDENTITY_CONSTRAINT = 7;
+
+    /**
+     *
+     */
+    private SchemaSnapshot() {
+        // static methods only
+    }
+
+    /**
+     * @param directory
+     * @param key identifies the schema and how it is read, the file name is
+     * derived from its digest
+     * @return
+     */
+    public static Path path(String directory, String key) {
+        StringBuilder name = new StringBuilder();
+        for (byte b : sha256().digest(key.getBytes(StandardCharsets.UTF_8))) {
+            name.append(String.format("%02x", b & 0xff));
+        }
+        return Paths.get(directory).resolve(name.append(SNAPSHOT_SUFFIX).toString());
+    }
+
+    /**
+     * Writes the graph with the hashes of its documents, replacing the file.
+     *
+     * @param graph
+     * @param file its directory is created if missing
+     * @throws IOException if the file or a document can't be read or written
+     */
+    public static void write(SchemaGraph graph, Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        // next to the file, with the default permissions, unlike Files.createTempFile
+        Path temp = directory.resolve("." + file.getFileName() + "." + Long.toHexString(System.nanoTime() + tempCounter.incrementAndGet()) + TEMP_SUFFIX);
+        FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+                new Writer(graph).write(out);
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * @param file
+     * @return the graph, or null if there is no snapshot or a document has
+     * changed since it was written
+     * @throws IOException if the file can't be read or is not a snapshot of
+     * this version
+     */
+    public static SchemaGraph read(Path file) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException ex) {
+            return null;
+        }
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                throw new IOException("Not a snapshot of format " + FORMAT_VERSION);
+            }
+            int inputs = buffer.getInt();
+            for (int i = 0; i < inputs; i++) {
+                String location = string(buffer);
+                byte[] hash = new byte[32];
+                buffer.get(hash);
+                if (!Arrays.equals(hash, hashOrNull(location))) {
+                    logger.log(Level.INFO, "{0} changed, snapshot {1} is out of date", new Object[]{location, file});
+                    return null;
+                }
+            }
+            return new Reader(buffer).read();
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | ClassCastException | IllegalArgumentException ex) {
+            throw new IOException("Corrupt snapshot: " + ex, ex);
+        }
+    }
+
+    /**
+     * @param location
+     * @return the hash of the document, or null if it can't be read
+     */
+    private static byte[] hashOrNull(String location) {
+        try {
+            return hash(location);
+        } catch (IOException | IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * A remote document is not fetched, it is hashed by its location, as the
+     * resolver reads it once and for all.
+     *
+     * @param location URI of a schema document
+     * @return SHA-256 of its content
+     * @throws IOException
+     */
+    static byte[] hash(String location) throws IOException {
+        MessageDigest digest = sha256();
+        String lower = location.toLowerCase();
+        if (lower.startsWith("http:") || lower.startsWith("https:") || lower.startsWith("ftp:")) {
+            return digest.digest(location.getBytes(StandardCharsets.UTF_8));
+        }
+        URI uri = URI.create(location);
+        try (InputStream in = "file".equals(uri.getScheme()) ? Files.newInputStream(Paths.get(uri)) : uri.toURL().openStream()) {
+            byte[] chunk = new byte[64 * 1024];
+            for (int n = in.read(chunk); n >= 0; n = in.read(chunk)) {
+                digest.update(chunk, 0, n);
+            }
+        }
+        return digest.digest();
+    }
+
+    /**
+     * @return
+     */
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * @param out
+     * @param string
+     * @throws IOException
+     */
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        if (string == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * @param buffer
+     * @return
+     */
+    private static String string(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Numbers the nodes and strings as they are reached, writing the nodes
+     * to a body written after the tables.
+     */
+    private static final class Writer {
+
+        private final SchemaGraph graph;
+        private final Map<Object, Integer> indexes = new IdentityHashMap<>();
+        private final List<Object> nodes = new ArrayList<>();
+        private final Map<String, Integer> stringIndexes = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream body = new DataOutputStream(bytes);
+
+        Writer(SchemaGraph graph) {
+            this.graph = graph;
+        }
+
+        /**
+         * @param out
+         * @throws IOException
+         */
+        void write(DataOutputStream out) throws IOException {
+            List<Integer> elements = nodes(graph.elements);
+            List<Integer> types = nodes(graph.types);
+            List<Integer> locations = new ArrayList<>();
+            for (String location : graph.documentLocations) {
+                locations.add(string(location));
+            }
+            // the nodes reached by the body are numbered while it is written
+            for (int i = 0; i < nodes.size(); i++) {
+                node(nodes.get(i));
+            }
+
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(graph.documentLocations.size());
+            for (String location : graph.documentLocations) {
+                writeString(out, location);
+                out.write(hash(location));
+            }
+            out.writeInt(strings.size());
+            for (String string : strings) {
+                writeString(out, string);
+            }
+            out.writeInt(nodes.size());
+            for (Object node : nodes) {
+                out.writeByte(kind(node));
+            }
+            body.flush();
+            bytes.writeTo(out);
+            writeIndexes(out, elements);
+            writeIndexes(out, types);
+            writeIndexes(out, locations);
+        }
+
+        /**
+         * @param out
+         * @param list
+         * @throws IOException
+         */
+        private static void writeIndexes(DataOutputStream out, List<Integer> list) throws IOException {
+            out.writeInt(list.size());
+            for (int index : list) {
+                out.writeInt(index);
+            }
+        }
+
+        /**
+         * @param node
+         * @return index of the node, -1 for null
+         */
+        private int index(Object node) {
+            if (node == null) {
+                return -1;
+            }
+            Integer index = indexes.get(node);
+            if (index == null) {
+                index = nodes.size();
+                indexes.put(node, index);
+                nodes.add(node);
+            }
+            return index;
+        }
+
+        /**
+         * @param list
+         * @return
+         */
+        private List<Integer> nodes(List<?> list) {
+            List<Integer> numbers = new ArrayList<>(list.size());
+            for (Object node : list) {
+                numbers.add(index(node));
+            }
+            return numbers;
+        }
+
+        /**
+         * @param string
+         * @return index of the string, -1 for null
+         */
+        private int string(String string) {
+            if (string == null) {
+                return -1;
+            }
+            Integer index = stringIndexes.get(string);
+            if (index == null) {
+                index = strings.size();
+                stringIndexes.put(string, index);
+                strings.add(string);
+            }
+            return index;
+        }
+
+        /**
+         * @param node
+         * @return
+         */
+        private static byte kind(Object node) {
+            if (node instanceof ElementNode) {
+                return ELEMENT;
+            } else if (node instanceof TypeNode) {
+                return TYPE;
+            } else if (node instanceof ParticleNode) {
+                return PARTICLE;
+            } else if (node instanceof ModelGroupNode) {
+                return MODEL_GROUP;
+            } else if (node instanceof WildcardNode) {
+                return WILDCARD;
+            } else if (node instanceof AttributeUseNode) {
+                return ATTRIBUTE_USE;
+            } else if (node instanceof IdentityConstraintNode) {
+                return IDENTITY_CONSTRAINT;
+            }
+            throw new IllegalArgumentException("Not a node of a graph: " + node);
+        }
+
+        private void writeRef(Object node) throws IOException {
+            body.writeInt(index(node));
+        }
+
+        private void writeRefs(List<?> list) throws IOException {
+            body.writeInt(list.size());
+            for (Object node : list) {
+                writeRef(node);
+            }
+        }
+
+        private void writeText(String string) throws IOException {
+            body.writeInt(string(string));
+        }
+
+        private void writeTexts(List<String> list) throws IOException {
+            body.writeInt(list.size());
+            for (String string : list) {
+                writeText(string);
+            }
+        }
+
+        /**
+         * @param node
+         * @throws IOException
+         */
+        private void node(Object node) throws IOException {
+            if (node instanceof ComponentNode) {
+                ComponentNode component = (ComponentNode) node;
+                writeText(component.name);
+                writeText(component.namespace);
+                writeTexts(component.documentation);
+            }
+            if (node instanceof ElementNode) {
+                ElementNode element = (ElementNode) node;
+                writeRef(element.type);
+                body.writeBoolean(element.nillable);
+                body.writeBoolean(element.abstr);
+                writeRef(element.substitutionGroup);
+                writeRefs(element.identityConstraints);
+            } else if (node instanceof TypeNode) {
+                TypeNode type = (TypeNode) node;
+                body.writeBoolean(type.complex);
+                writeRef(type.baseType);
+                writeRef(type.particle);
+                writeRefs(type.attributeUses);
+                writeRef(type.attributeWildcard);
+            } else if (node instanceof ParticleNode) {
+                ParticleNode particle = (ParticleNode) node;
+                body.writeInt(particle.minOccurs);
+                body.writeInt(particle.maxOccurs);
+                body.writeBoolean(particle.unbounded);
+                writeRef(particle.term);
+            } else if (node instanceof ModelGroupNode) {
+                ModelGroupNode modelGroup = (ModelGroupNode) node;
+                body.writeByte(modelGroup.compositor.ordinal());
+                writeRefs(modelGroup.particles);
+            } else if (node instanceof WildcardNode) {
+                WildcardNode wildcard = (WildcardNode) node;
+                body.writeByte(wildcard.constraint.ordinal());
+                writeTexts(wildcard.namespaces);
+                body.writeByte(wildcard.processContents.ordinal());
+            } else if (node instanceof AttributeUseNode) {
+                AttributeUseNode attributeUse = (AttributeUseNode) node;
+                writeRef(attributeUse.type);
+                body.writeBoolean(attributeUse.required);
+                body.writeByte(attributeUse.valueConstraint.ordinal());
+                writeText(attributeUse.value);
+            } else if (node instanceof IdentityConstraintNode) {
+                IdentityConstraintNode identityConstraint = (IdentityConstraintNode) node;
+                body.writeByte(identityConstraint.category.ordinal());
+                writeText(identityConstraint.refer);
+                writeText(identityConstraint.selector);
+                writeTexts(identityConstraint.fields);
+            }
+        }
+    }
+
+    /**
+     * Creates the nodes from their kinds, then fills them from the body.
+     */
+    private static final class Reader {
+
+        private final ByteBuffer buffer;
+        private String[] strings;
+        private Object[] nodes;
+
+        Reader(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        /**
+         * @return
+         */
+        SchemaGraph read() {
+            strings = new String[buffer.getInt()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = string(buffer);
+            }
+            nodes = new Object[buffer.getInt()];
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i] = newNode(buffer.get());
+            }
+            for (Object node : nodes) {
+                fill(node);
+            }
+            SchemaGraph graph = new SchemaGraph();
+            graph.elements.addAll(refs(SchemaModel.Element.class));
+            graph.types.addAll(refs(SchemaModel.Type.class));
+            graph.documentLocations.addAll(readStrings());
+            return graph;
+        }
+
+        /**
+         * @param kind
+         * @return
+         */
+        private static Object newNode(byte kind) {
+            switch (kind) {
+                case ELEMENT:
+                    return new ElementNode();
+                case TYPE:
+                    return new TypeNode();
+                case PARTICLE:
+                    return new ParticleNode();
+                case MODEL_GROUP:
+                    return new ModelGroupNode();
+                case WILDCARD:
+                    return new WildcardNode();
+                case ATTRIBUTE_USE:
+                    return new AttributeUseNode();
+                case IDENTITY_CONSTRAINT:
+                    return new IdentityConstraintNode();
+                default:
+                    throw new IllegalArgumentException("Unknown node kind " + kind);
+            }
+        }
+
+        private <T> T ref(Class<T> type) {
+            int index = buffer.getInt();
+            return index < 0 ? null : type.cast(nodes[index]);
+        }
+
+        private <T> List<T> refs(Class<T> type) {
+            int size = buffer.getInt();
+            if (size == 0) {
+                return Collections.emptyList();
+            }
+            List<T> list = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                list.add(ref(type));
+            }
+            return Collections.unmodifiableList(list);
+        }
+
+        private String readString() {
+            int index = buffer.getInt();
+            return index < 0 ? null : strings[index];
+        }
+
+        private List<String> readStrings() {
+            int size = buffer.getInt();
+            if (size == 0) {
+                return Collections.emptyList();
+            }
+            List<String> list = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                list.add(readString());
+            }
+            return Collections.unmodifiableList(list);
+        }
+
+        /**
+         * @param <E>
+         * @param values
+         * @return
+         */
+        private <E> E value(E[] values) {
+            return values[buffer.get()];
+        }
+
+        /**
+         * @param node
+         */
+        private void fill(Object node) {
+            if (node instanceof ComponentNode) {
+                ComponentNode component = (ComponentNode) node;
+                component.name = readString();
+                component.namespace = readString();
+                component.documentation = readStrings();
+            }
+            if (node instanceof ElementNode) {
+                ElementNode element = (ElementNode) node;
+                element.type = ref(SchemaModel.Type.class);
+                element.nillable = buffer.get() != 0;
+                element.abstr = buffer.get() != 0;
+                element.substitutionGroup = ref(SchemaModel.Element.class);
+                element.identityConstraints = refs(SchemaModel.IdentityConstraint.class);
+            } else if (node instanceof TypeNode) {
+                TypeNode type = (TypeNode) node;
+                type.complex = buffer.get() != 0;
+                type.baseType = ref(SchemaModel.Type.class);
+                type.particle = ref(SchemaModel.Particle.class);
+                type.attributeUses = refs(SchemaModel.AttributeUse.class);
+                type.attributeWildcard = ref(SchemaModel.Wildcard.class);
+            } else if (node instanceof ParticleNode) {
+                ParticleNode particle = (ParticleNode) node;
+                particle.minOccurs = buffer.getInt();
+                particle.maxOccurs = buffer.getInt();
+                particle.unbounded = buffer.get() != 0;
+                particle.term = ref(SchemaModel.Term.class);
+            } else if (node instanceof ModelGroupNode) {
+                ModelGroupNode modelGroup = (ModelGroupNode) node;
+                modelGroup.compositor = value(SchemaModel.Compositor.values());
+                modelGroup.particles = refs(SchemaModel.Particle.class);
+            } else if (node instanceof WildcardNode) {
+                WildcardNode wildcard = (WildcardNode) node;
+                wildcard.constraint = value(SchemaModel.NamespaceConstraint.values());
+                wildcard.namespaces = readStrings();
+                wildcard.processContents = value(SchemaModel.ProcessContents.values());
+            } else if (node instanceof AttributeUseNode) {
+                AttributeUseNode attributeUse = (AttributeUseNode) node;
+                attributeUse.type = ref(SchemaModel.Type.class);
+                attributeUse.required = buffer.get() != 0;
+                attributeUse.valueConstraint = value(SchemaModel.ValueConstraint.values());
+                attributeUse.value = readString();
+            } else if (node instanceof IdentityConstraintNode) {
+                IdentityConstraintNode identityConstraint = (IdentityConstraintNode) node;
+                identityConstraint.category = value(SchemaModel.Category.values());
+                identityConstraint.refer = readString();
+                identityConstraint.selector = readString();
+                identityConstraint.fields = readStrings();
+            }
+        }
+    }
+}
@@ -0,0 +1,1744 @@
+package xsdvi.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.xerces.impl.dv.InvalidDatatypeValueException;
+import org.apache.xerces.impl.dv.SchemaDVFactory;
+import org.apache.xerces.impl.dv.ValidatedInfo;
+import org.apache.xerces.impl.validation.ValidationState;
+import org.w3c.dom.ls.LSInput;
+import org.w3c.dom.ls.LSResourceResolver;
+
+import xsdvi.model.SchemaGraph.AttributeUseNode;
+import xsdvi.model.SchemaGraph.ElementNode;
+import xsdvi.model.SchemaGraph.IdentityConstraintNode;
+import xsdvi.model.SchemaGraph.ModelGroupNode;
+import xsdvi.model.SchemaGraph.ParticleNode;
+import xsdvi.model.SchemaGraph.TypeNode;
+import xsdvi.model.SchemaGraph.WildcardNode;
+import xsdvi.model.SchemaModel.AttributeUse;
+import xsdvi.model.SchemaModel.Category;
+import xsdvi.model.SchemaModel.Compositor;
+import xsdvi.model.SchemaModel.Element;
+import xsdvi.model.SchemaModel.IdentityConstraint;
+import xsdvi.model.SchemaModel.NamespaceConstraint;
+import xsdvi.model.SchemaModel.Particle;
+import xsdvi.model.SchemaModel.ProcessContents;
+import xsdvi.model.SchemaModel.Type;
+import xsdvi.model.SchemaModel.ValueConstraint;
+import xsdvi.model.SchemaModel.Wildcard;
+import xsdvi.utils.LoggerHelper;
+
+/**
+ * Reads schemas with StAX straight into a {@link SchemaGraph}, without the
+ * grammar, the validation and the PSVI of Xerces. The documents are streamed
+ * once, keeping only the components the diagrams show, then the references
+ * are resolved: includes, chameleon includes and imports, element, group and
+ * attribute group references, substitution groups, the content models and
+ * attributes inherited by extension and restriction, and attribute wildcards.
+ * Redefinitions replace the redefined components.
+ * <p>
+ * The schemas are not validated: errors Xerces reports, e.g. a restriction
+ * that isn't one, go unnoticed, and unresolved references are logged and
+ * left out. Use Xerces to check a schema strictly. The components are listed
+ * in document order, Xerces lists them in the order of its symbol tables.
+ *
+ * @author Alexander Dyuzhev
+ */
+public class StaxSchemaReader {
+
+    private static final Logger logger = Logger.getLogger(LoggerHelper.LOGGER_NAME);
+
+    private static final String XSD = XMLConstants.W3C_XML_SCHEMA_NS_URI;
+
+    private static final List<String> BUILTIN_TYPES = Collections.unmodifiableList(Arrays.asList(
+            "anyType", "anySimpleType", "string", "normalizedString", "token", "language", "Name", "NCName", "ID", "IDREF",
+            "IDREFS", "ENTITY", "ENTITIES", "NMTOKEN", "NMTOKENS", "boolean", "decimal", "integer",
+            "nonPositiveInteger", "negativeInteger", "long", "int", "short", "byte", "nonNegativeInteger",
+            "unsignedLong", "unsignedInt", "unsignedShort", "unsignedByte", "positiveInteger", "float", "double",
+            "duration", "dateTime", "time", "date", "gYearMonth", "gYear", "gMonthDay", "gDay", "gMonth",
+            "hexBinary", "base64Binary", "anyURI", "QName", "NOTATION"));
+
+    // the built-in datatypes of Xerces, giving the values of defaults and fixed values
+    private static final SchemaDVFactory DATATYPES = SchemaDVFactory.getInstance();
+
+    // suffix of the key of a redefined component, never part of a name
+    private static final String ORIGINAL = "'";
+
+    private final LSResourceResolver resolver;
+
+    /**
+     * @param resolver resolves the included and imported documents, or null
+     * to read them from their locations, remote ones over the network
+     */
+    public StaxSchemaReader(LSResourceResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    /**
+     * Reads a schema with its includes and imports.
+     *
+     * @param uri
+     * @return
+     * @throws IOException if the schema can't be read
+     */
+    public SchemaGraph read(String uri) throws IOException {
+        return new Reading().read(new Pending(uri, null, null, false, null), null);
+    }
+
+    /**
+     * @param in read to the end, not closed
+     * @param systemId base of the relative includes and imports, or null
+     * @return
+     * @throws IOException if the schema can't be read
+     */
+    public SchemaGraph read(InputStream in, String systemId) throws IOException {
+        return new Reading().read(new Pending(systemId, null, null, false, null), in);
+    }
+
+    /**
+     * @return
+     */
+    private static XMLInputFactory newFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        // the DTD of a document, e.g. XMLSchema.dtd of xml.xsd, is not read
+        factory.setXMLResolver((publicId, systemId, baseUri, namespace) -> new ByteArrayInputStream(new byte[0]));
+        try {
+            factory.setProperty("http://java.sun.com/xml/stream/properties/ignore-external-dtd", Boolean.TRUE);
+        } catch (IllegalArgumentException ex) {
+            // another implementation, the resolver gives it an empty DTD
+        }
+        return factory;
+    }
+
+    /**
+     * @return context checking the values by their type alone, the IDs and
+     * entities aren't tracked
+     */
+    private static ValidationState newValidationState() {
+        ValidationState state = new ValidationState();
+        state.setExtraChecking(false);
+        return state;
+    }
+
+    /**
+     * @param namespace
+     * @param name
+     * @return key of a global component
+     */
+    private static String key(String namespace, String name) {
+        return "{" + (namespace == null ? "" : namespace) + "}" + name;
+    }
+
+    /**
+     * A document to read.
+     */
+    private static final class Pending {
+
+        final String location;
+        final String base;
+        final String namespace;
+        final boolean include;
+        final String includerNamespace;
+
+        /**
+         * @param location as written, relative to the base
+         * @param base system id of the document including or importing it
+         * @param namespace imported namespace
+         * @param include
+         * @param includerNamespace target namespace of the including document
+         */
+        Pending(String location, String base, String namespace, boolean include, String includerNamespace) {
+            this.location = location;
+            this.base = base;
+            this.namespace = namespace;
+            this.include = include;
+            this.includerNamespace = includerNamespace;
+        }
+    }
+
+    /**
+     * A schema document being read.
+     */
+    private static final class Document {
+
+        String systemId;
+        String targetNamespace;
+        boolean chameleon;
+        boolean qualifiedElements;
+        boolean qualifiedAttributes;
+    }
+
+    /**
+     * Element declaration with its unresolved references.
+     */
+    private static final class ElementDef {
+
+        final ElementNode node;
+        final Document document;
+        String typeKey;
+        Type inlineType;
+        String substitutionKey;
+        boolean resolving;
+        boolean resolved;
+
+        ElementDef(ElementNode node, Document document) {
+            this.node = node;
+            this.document = document;
+        }
+    }
+
+    /**
+     * Complex type definition before its derivation is resolved.
+     */
+    private static final class ComplexDef {
+
+        final TypeNode node;
+        final Document document;
+        String baseKey;
+        boolean extension;
+        boolean simpleContent;
+        boolean mixed;
+        ParticleNode particle;
+        final List<AttributeItem> attributes = new ArrayList<>();
+        WildcardNode attributeWildcard;
+        boolean resolving;
+        boolean resolved;
+
+        ComplexDef(TypeNode node, Document document) {
+            this.node = node;
+            this.document = document;
+        }
+    }
+
+    /**
+     * Simple type definition before its base is resolved.
+     */
+    private static final class SimpleDef {
+
+        final TypeNode node;
+        final Document document;
+        String baseKey;
+        Type inlineBase;
+        boolean list;
+
+        SimpleDef(TypeNode node, Document document) {
+            this.node = node;
+            this.document = document;
+        }
+    }
+
+    /**
+     * Attribute, attribute reference or attribute group reference of a
+     * complex type or attribute group.
+     */
+    private static final class AttributeItem {
+
+        final Document document;
+        AttributeUseNode use;
+        String refKey;
+        String typeKey;
+        Type inlineType;
+        boolean prohibited;
+        String groupKey;
+
+        AttributeItem(Document document) {
+            this.document = document;
+        }
+    }
+
+    /**
+     * Global attribute declaration.
+     */
+    private static final class AttributeDef {
+
+        final Document document;
+        String name;
+        String namespace;
+        String typeKey;
+        Type inlineType;
+        Type type;
+
+        AttributeDef(Document document) {
+            this.document = document;
+        }
+    }
+
+    /**
+     * Attribute group definition.
+     */
+    private static final class AttributeGroupDef {
+
+        final List<AttributeItem> items = new ArrayList<>();
+        WildcardNode wildcard;
+        List<AttributeUse> uses;
+        Wildcard resolvedWildcard;
+        boolean resolving;
+    }
+
+    /**
+     * Element or group reference of a particle.
+     */
+    private static final class Reference {
+
+        final ParticleNode particle;
+        final boolean group;
+        final String key;
+        final Document document;
+
+        Reference(ParticleNode particle, boolean group, String key, Document document) {
+            this.particle = particle;
+            this.group = group;
+            this.key = key;
+            this.document = document;
+        }
+    }
+
+    /**
+     * Attribute uses and wildcard collected for a complex type or attribute
+     * group.
+     */
+    private static final class Attributes {
+
+        final Map<String, AttributeUse> uses = new LinkedHashMap<>();
+        final Set<String> prohibited = new HashSet<>();
+        Wildcard wildcard;
+    }
+
+    /**
+     * State of one read.
+     */
+    private final class Reading {
+
+        private final XMLInputFactory factory = newFactory();
+        private final SchemaGraph graph = new SchemaGraph();
+        private final Deque<Pending> queue = new ArrayDeque<>();
+        private final Set<String> documents = new HashSet<>();
+        private final Set<String> namespaces = new HashSet<>();
+
+        private final Map<String, ElementNode> elements = new HashMap<>();
+        private final Map<String, Type> types = new HashMap<>();
+        private final Map<String, ModelGroupNode> groups = new HashMap<>();
+        private final Map<String, AttributeGroupDef> attributeGroups = new HashMap<>();
+        private final Map<String, AttributeDef> attributes = new HashMap<>();
+        private final Map<String, TypeNode> builtins = new HashMap<>();
+        // components of a redefine, replacing the included ones
+        private final Map<String, Object> redefinitions = new LinkedHashMap<>();
+
+        private final List<ElementDef> elementDefs = new ArrayList<>();
+        private final Map<Element, ElementDef> elementDefsByNode = new IdentityHashMap<>();
+        private final List<ComplexDef> complexDefs = new ArrayList<>();
+        private final Map<Type, ComplexDef> complexDefsByNode = new IdentityHashMap<>();
+        private final List<SimpleDef> simpleDefs = new ArrayList<>();
+        private final Set<Type> listTypes = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final List<Reference> references = new ArrayList<>();
+        private final List<ModelGroupNode> modelGroups = new ArrayList<>();
+        private final List<AttributeItem> attributeItems = new ArrayList<>();
+
+        private final ValidationState validationState = newValidationState();
+
+        private XMLStreamReader r;
+        private Document document;
+        // key of the component being redefined, its self references are to the original
+        private String redefining = null;
+
+        /**
+         * @param main
+         * @param in stream of the main document, or null to open it
+         * @return
+         * @throws IOException
+         */
+        SchemaGraph read(Pending main, InputStream in) throws IOException {
+            try {
+                if (!readDocument(main, in)) {
+                    throw new IOException("Can't load schema " + main.location);
+                }
+            } catch (XMLStreamException ex) {
+                logger.log(Level.SEVERE, "[xs-fatal-error]: {0}", message(ex));
+                throw new IOException("Can't load schema " + (main.location != null ? main.location : "from stream"), ex);
+            }
+            while (!queue.isEmpty()) {
+                Pending pending = queue.poll();
+                try {
+                    readDocument(pending, null);
+                } catch (IOException | XMLStreamException ex) {
+                    logger.log(Level.WARNING, "[xs-warning]: schema_reference.4: Failed to read schema document ''{0}'': {1}",
+                            new Object[]{pending.location, message(ex)});
+                }
+            }
+            resolve();
+            return graph;
+        }
+
+        /**
+         * @param ex
+         * @return
+         */
+        private String message(Exception ex) {
+            if (ex instanceof XMLStreamException && ((XMLStreamException) ex).getLocation() != null) {
+                return ex.getMessage();
+            }
+            return ex.toString();
+        }
+
+        //READING-------------------------------------------------------------//
+        /**
+         * @param pending
+         * @param in stream of the document, or null to open it
+         * @return false if the document isn't a schema
+         * @throws IOException
+         * @throws XMLStreamException
+         */
+        private boolean readDocument(Pending pending, InputStream in) throws IOException, XMLStreamException {
+            String expected = pending.include ? pending.includerNamespace : pending.namespace;
+            String systemId = absolute(pending.location, pending.base);
+            if (systemId != null && documents.contains(systemId + " " + expected)) {
+                return true;
+            }
+            Reader characters = null;
+            if (in == null && resolver != null) {
+                LSInput input = resolver.resolveResource(XSD, pending.namespace, null, pending.location, pending.base);
+                if (input != null) {
+                    systemId = input.getSystemId() != null ? input.getSystemId() : systemId;
+                    in = input.getByteStream();
+                    characters = input.getCharacterStream();
+                }
+            }
+            if (systemId == null && in == null && characters == null) {
+                // an import by namespace alone
+                return true;
+            }
+            InputStream opened = null;
+            try {
+                if (in == null && characters == null) {
+                    opened = new URI(systemId).toURL().openStream();
+                    in = opened;
+                }
+                r = characters != null ? factory.createXMLStreamReader(systemId, characters) : factory.createXMLStreamReader(systemId, in);
+                try {
+                    return readSchema(pending, systemId);
+                } finally {
+                    r.close();
+                }
+            } catch (URISyntaxException | IllegalArgumentException ex) {
+                throw new IOException(ex);
+            } finally {
+                if (opened != null) {
+                    opened.close();
+                }
+            }
+        }
+
+        /**
+         * @param location
+         * @param base
+         * @return absolute URI of the location, or null
+         */
+        private String absolute(String location, String base) {
+            if (location == null) {
+                return null;
+            }
+            try {
+                URI uri = new URI(location);
+                if (uri.isAbsolute() && uri.getScheme().length() > 1) {
+                    return uri.toString();
+                }
+                if (base != null) {
+                    return new URI(base).resolve(uri).toString();
+                }
+            } catch (URISyntaxException | IllegalArgumentException ex) {
+                // a file path
+            }
+            return Paths.get(location).toAbsolutePath().toUri().toString();
+        }
+
+        /**
+         * @param pending
+         * @param systemId
+         * @return false if the root isn't a schema
+         * @throws XMLStreamException
+         */
+        private boolean readSchema(Pending pending, String systemId) throws XMLStreamException {
+            if (nextTag() != XMLStreamConstants.START_ELEMENT || !isXsd("schema")) {
+                logger.log(Level.SEVERE, "[xs-error]: s4s-elt-schema-ns: The namespace of element ''{0}'' must be from the schema namespace. ({1})",
+                        new Object[]{r.hasName() ? r.getLocalName() : "", systemId});
+                return false;
+            }
+            Document doc = new Document();
+            doc.systemId = systemId;
+            doc.targetNamespace = attribute("targetNamespace");
+            if (doc.targetNamespace != null && doc.targetNamespace.isEmpty()) {
+                doc.targetNamespace = null;
+            }
+            if (pending.include && doc.targetNamespace == null && pending.includerNamespace != null) {
+                doc.targetNamespace = pending.includerNamespace;
+                doc.chameleon = true;
+            }
+            if (!documents.add(systemId + " " + doc.targetNamespace)) {
+                return true;
+            }
+            if (systemId != null) {
+                graph.documentLocations.add(systemId);
+            }
+            namespaces.add(String.valueOf(doc.targetNamespace));
+            doc.qualifiedElements = "qualified".equals(attribute("elementFormDefault"));
+            doc.qualifiedAttributes = "qualified".equals(attribute("attributeFormDefault"));
+            document = doc;
+            while (nextTag() == XMLStreamConstants.START_ELEMENT) {
+                if (!XSD.equals(r.getNamespaceURI())) {
+                    skip();
+                    continue;
+                }
+                switch (r.getLocalName()) {
+                    case "include":
+                        include(doc);
+                        skip();
+                        break;
+                    case "redefine":
+                        include(doc);
+                        readRedefine();
+                        break;
+                    case "import": {
+                        String namespace = attribute("namespace");
+                        String location = attribute("schemaLocation");
+                        if (location != null || !namespaces.contains(String.valueOf(namespace))) {
+                            queue.add(new Pending(location, doc.systemId, namespace, false, null));
+                        }
+                        skip();
+                        break;
+                    }
+                    default:
+                        readTopLevel(false);
+                        break;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @param doc
+         */
+        private void include(Document doc) {
+            String location = attribute("schemaLocation");
+            if (location != null) {
+                queue.add(new Pending(location, doc.systemId, null, true, doc.targetNamespace));
+            }
+        }
+
+        /**
+         * @throws XMLStreamException
+         */
+        private void readRedefine() throws XMLStreamException {
+            while (nextTag() == XMLStreamConstants.START_ELEMENT) {
+                if (XSD.equals(r.getNamespaceURI())) {
+                    readTopLevel(true);
+                } else {
+                    skip();
+                }
+            }
+        }
+
+        /**
+         * @param redefine true for a redefinition
+         * @throws XMLStreamException
+         */
+        private void readTopLevel(boolean redefine) throws XMLStreamException {
+            String name = attribute("name");
+            String key = key(document.targetNamespace, name);
+            redefining = redefine ? key : null;
+            switch (r.getLocalName()) {
+                case "element": {
+                    ElementNode element = readElement(true);
+                    if (register(elements, key, element, redefine)) {
+                        graph.elements.add(element);
+                    }
+                    break;
+                }
+                case "complexType": {
+                    Type type = readComplexType(name);
+                    if (register(types, key, type, redefine)) {
+                        graph.types.add(type);
+                    }
+                    break;
+                }
+                case "simpleType": {
+                    Type type = readSimpleType(name);
+                    if (register(types, key, type, redefine)) {
+                        graph.types.add(type);
+                    }
+                    break;
+                }
+                case "group":
+                    register(groups, key, readGroup(), redefine);
+                    break;
+                case "attributeGroup": {
+                    AttributeGroupDef group = new AttributeGroupDef();
+                    readAttributeItems(group.items, wildcard -> group.wildcard = wildcard);
+                    register(attributeGroups, key, group, redefine);
+                    break;
+                }
+                case "attribute":
+                    register(attributes, key, readAttributeDeclaration(name), redefine);
+                    break;
+                default:
+                    skip();
+                    break;
+            }
+            redefining = null;
+        }
+
+        /**
+         * @param <T>
+         * @param map
+         * @param key
+         * @param component
+         * @param redefine
+         * @return true if registered as a new global component
+         */
+        private <T> boolean register(Map<String, T> map, String key, T component, boolean redefine) {
+            if (component == null) {
+                return false;
+            }
+            if (redefine) {
+                redefinitions.put(System.identityHashCode(map) + key, new Object[]{map, key, component});
+                return false;
+            }
+            if (map.containsKey(key)) {
+                logger.log(Level.SEVERE, "[xs-error]: sch-props-correct.2: A schema cannot contain two global components with the same name; this schema contains two occurrences of ''{0}''. ({1})",
+                        new Object[]{key, document.systemId});
+                return false;
+            }
+            map.put(key, component);
+            return true;
+        }
+
+        /**
+         * @param global
+         * @return
+         * @throws XMLStreamException
+         */
+        private ElementNode readElement(boolean global) throws XMLStreamException {
+            ElementNode node = new ElementNode();
+            node.name = attribute("name");
+            node.namespace = global || qualified(attribute("form"), document.qualifiedElements) ? document.targetNamespace : null;
+            node.nillable = bool(attribute("nillable"));
+            node.abstr = bool(attribute("abstract"));
+            ElementDef def = new ElementDef(node, document);
+            def.typeKey = qname(attribute("type"));
+            String substitutionGroup = attribute("substitutionGroup");
+            if (substitutionGroup != null && !substitutionGroup.isEmpty()) {
+                // the first head of a list of XSD 1.1
+                def.substitutionKey = qname(substitutionGroup.split("\\s+")[0]);
+            }
+            List<IdentityConstraint> constraints = new ArrayList<>();
+            List<IdentityConstraint> keyrefs = new ArrayList<>();
+            while (nextTag() == XMLStreamConstants.START_ELEMENT) {
+                switch (xsdName()) {
+                    case "annotation":
+                        node.documentation = readAnnotation();
+                        break;
+                    case "complexType":
+                        def.inlineType = readComplexType(null);
+                        break;
+                    case "simpleType":
+                        def.inlineType = readSimpleType(null);
+                        break;
+                    case "unique":
+                        constraints.add(readIdentityConstraint(Category.UNIQUE));
+                        break;
+                    case "key":
+                        constraints.add(readIdentityConstraint(Category.KEY));
+                        break;
+                    case "keyref":
+                        keyrefs.add(readIdentityConstraint(Category.KEYREF));
+                        break;
+                    default:
+                        skip();
+                        break;
+                }
+            }
+            // keyrefs follow the keys they refer to, as in Xerces
+            constraints.addAll(keyrefs);
+            if (!constraints.isEmpty()) {
+                node.identityConstraints = Collections.unmodifiableList(constraints);
+            }
+            elementDefs.add(def);
+            elementDefsByNode.put(node, def);
+            return node;
+        }
+
+        /**
+         * @param category
+         * @return
+         * @throws XMLStreamException
+         */
+        private IdentityConstraintNode readIdentityConstraint(Category category) throws XMLStreamException {
+            IdentityConstraintNode node = new IdentityConstraintNode();
+            node.category = category;
+            node.name = attribute("name");
+            node.namespace = document.targetNamespace;
+            String refer = attribute("refer");
+            if (refer != null) {
+                node.refer = refer.substring(refer.indexOf(':') + 1);
+            }
+            List<String> fields = new ArrayList<>();
+            while (nextTag() == XMLStreamConstants.START_ELEMENT) {
+                switch (xsdName()) {
+                    case "annotation":
+                        node.documentation = readAnnotation();
+                        break;
+                    case "selector":
+                        node.selector = xpath(attribute("xpath"));
+                        skip();
+                        break;
+                    case "field":
+                        fields.add(xpath(attribute("xpath")));
+                        skip();
+                        break;
+                    default:
+                        skip();
+                        break;
+                }
+            }
+            node.fields = Collections.unmodifiableList(fields);
+            return node;
+        }
+
+        /**
+         * @param name null for an anonymous type
+         * @return
+         * @throws XMLStreamException
+         */
+        private TypeNode readComplexType(String name) throws XMLStreamException {
+            TypeNode node = new TypeNode();
+            node.complex = true;
+            node.name = name;
+            node.namespace = document.targetNamespace;
+            ComplexDef def = new ComplexDef(node, document);
+            def.mixed = bool(attribute("mixed"));
+            while (nextTag() == XMLStreamConstants.START_ELEMENT) {
+                switch (xsdName()) {
+                    case "annotation":
+                        node.documentation = readAnnotation();
+                        break;
+                    case "simpleContent":
+                        def.simpleContent = true;
+                        readContent(def);
+                        break;
+                    case "complexContent":
+                        if (attribute("mixed") != null) {
+                            def.mixed = bool(attribute("mixed"));
+                        }
+                        readContent(def);
+                        break;
+                    default:
+                        readContentChild(def);
+                        break;
+                }
+            }
+            complexDefs.add(def);
+            complexDefsByNode.put(node, def);
+            return node;
+        }
+
+        /**
+         * Reads a simpleContent or complexContent.
+         *
+         * @param def
+         * @throws XMLStreamException
+         */
+        private void readContent(ComplexDef def) throws XMLStreamException {
+            while (nextTag() == XMLStreamConstants.START_ELEMENT) {
+                String name = xsdName();
+                if (name.equals("extension") || name.equals("restriction")) {
+                    def.extension = name.equals("extension");
+                    def.baseKey = qname(attribute("base"));
+                    while (nextTag() == XMLStreamConstants.START_ELEMENT) {
+                        readContentChild(def);
+                    }
+                } else {
+                    skip();
+                }
+            }
+        }
+
+        /**
+         * Reads the content model or an attribute of a complex type, or skips
+         * another child.
+         *
+         * @param def
+         * @throws XMLStreamException
+         */
+        private void readContentChild(ComplexDef def) throws XMLStreamException {
+            switch (xsdName()) {
+                case "group":
+                case "all":
+                case "choice":
+                case "sequence": {
+                    def.particle = readParticle();
+                    if (def.particle != null && def.particle.term instanceof ModelGroupNode) {
+                        // an all or sequence without particles, or an optional choice without them, is empty
+                        ModelGroupNode group = (ModelGroupNode) def.particle.term;
+                        if (group.particles.isEmpty() && (group.compositor != Compositor.CHOICE || def.particle.minOccurs == 0)) {
+                            def.particle = null;
+                        }
+                    }
+                    break;
+                }
+                case "attribute":
+                case "attributeGroup":
+                case "anyAttribute":
+                    readAttributeItem(def.attributes, wildcard -> def.attributeWildcard = wildcard);
+                    break;
+                default:
+                    skip();
+                    break;
+            }
+        }
+
+        /**
+         * @param name null for an anonymous type
+         * @return
+         * @throws XMLStreamException
+         */
+        private TypeNode readSimpleType(String name) throws XMLStreamException {
+            TypeNode node = new TypeNode();
+            node.name = name;
+            node.namespace = document.targetNamespace;
+            SimpleDef def = new SimpleDef(node, document);
+            while (nextTag() == XMLStreamConstants.START_ELEMENT) {
+                switch (xsdName()) {
+                    case "annotation":
+                        node.documentation = readAnnotation();
+                        break;
+                    case "restriction":
+                        def.baseKey = qname(attribute("base"));
+                        while (nextTag() == XMLStreamConstants.START_ELEMENT) {
+                            if (xsdName().equals("simpleType")) {
+                                def.inlineBase = readSimpleType(null);
+                            } else {
+                                skip();
+                            }
+                        }
+                        break;
+                    case "list":
+                    case "union":
+                        def.list = true;
+                        listTypes.add(node);
+                        skip();
+                        break;
+                    default:
+                        skip();
+                        break;
+                }
+            }
+            simpleDefs.add(def);
+            return node;
+        }
+
+        /**
+         * @return model group of a group definition
+         * @throws XMLStreamException
+         */
+        private ModelGroupNode readGroup() throws XMLStreamException {
+            ModelGroupNode group = null;
+            while (nextTag() == XMLStreamConstants.START_ELEMENT) {
+                switch (xsdName()) {
+                    case "all":
+                        group = readModelGroup(Compositor.ALL);
+                        break;
+                    case "choice":
+                        group = readModelGroup(Compositor.CHOICE);
+                        break;
+                    case "sequence":
+                        group = readModelGroup(Compositor.SEQUENCE);
+                        break;
+                    default:
+                        skip();
+                        break;
+                }
+            }
+            return group;
+        }
+
+        /**
+         * @return null for an unknown particle
+         * @throws XMLStreamException
+         */
+        private ParticleNode readParticle() throws XMLStreamException {
+            ParticleNode particle = new ParticleNode();
+            particle.minOccurs = occurs(attribute("minOccurs"));
+            String maxOccurs = attribute("maxOccurs");
+            if ("unbounded".equals(maxOccurs)) {
+                particle.unbounded = true;
+                particle.maxOccurs = -1;
+            } else {
+                particle.maxOccurs = occurs(maxOccurs);
+            }
+            switch (xsdName()) {
+                case "element": {
+                    String ref = qname(attribute("ref"));
+                    if (ref != null) {
+                        references.add(new Reference(particle, false, ref, document));
+                        skip();
+                    } else {
+                        particle.term = readElement(false);
+                    }
+                    break;
+                }
+                case "group": {
+                    String ref = qname(attribute("ref"));
+                    if (ref != null) {
+                        references.add(new Reference(particle, true, ref, document));
+                    }
+                    skip();
+                    break;
+                }
+                case "all":
+                    particle.term = readModelGroup(Compositor.ALL);
+                    break;
+                case "choice":
+                    particle.term = readModelGroup(Compositor.CHOICE);
+                    break;
+                case "sequence":
+                    particle.term = readModelGroup(Compositor.SEQUENCE);
+                    break;
+                case "any":
+                    particle.term = readWildcard();
+                    break;
+                default:
+                    skip();
+                    return null;
+            }
+            return particle;
+        }
+
+        /**
+         * @param compositor
+         * @return
+         * @throws XMLStreamException
+         */
+        private ModelGroupNode readModelGroup(Compositor compositor) throws XMLStreamException {
+            ModelGroupNode group = new ModelGroupNode();
+            group.compositor = compositor;
+            List<Particle> particles = new ArrayList<>();
+            while (nextTag() == XMLStreamConstants.START_ELEMENT) {
+                if (xsdName().equals("annotation")) {
+                    group.documentation = readAnnotation();
+                    continue;
+                }
+                ParticleNode particle = readParticle();
+                if (particle != null) {
+                    particles.add(particle);
+                }
+            }
+            group.particles = particles;
+            modelGroups.add(group);
+            return group;
+        }
+
+        /**
+         * @return
+         * @throws XMLStreamException
+         */
+        private WildcardNode readWildcard() throws XMLStreamException {
+            WildcardNode wildcard = new WildcardNode();
+            String namespace = attribute("namespace");
+            if ("##other".equals(namespace)) {
+                wildcard.constraint = NamespaceConstraint.NOT;
+                wildcard.namespaces = Arrays.asList(document.targetNamespace, null);
+            } else if (namespace != null && !namespace.equals("##any")) {
+                wildcard.constraint = NamespaceConstraint.LIST;
+                List<String> list = new ArrayList<>();
+                for (String token : namespace.split("\\s+")) {
+                    String uri = token.equals("##targetNamespace") ? document.targetNamespace
+                            : token.equals("##local") ? null : token;
+                    if (!token.isEmpty() && !list.contains(uri)) {
+                        list.add(uri);
+                    }
+                }
+                wildcard.namespaces = list;
+            }
+            String processContents = attribute("processContents");
+            wildcard.processContents = "lax".equals(processContents) ? ProcessContents.LAX
+                    : "skip".equals(processContents) ? ProcessContents.SKIP : ProcessContents.STRICT;
+            while (nextTag() == XMLStreamConstants.START_ELEMENT) {
+                if (xsdName().equals("annotation")) {
+                    wildcard.documentation = readAnnotation();
+                } else {
+                    skip();
+                }
+            }
+            return wildcard;
+        }
+
+        /**
+         * Reads the attributes of an attribute group definition.
+         *
+         * @param items
+         * @param wildcard receives the attribute wildcard
+         * @throws XMLStreamException
+         */
+        private void readAttributeItems(List<AttributeItem> items, java.util.function.Consumer<WildcardNode> wildcard) throws XMLStreamException {
+            while (nextTag() == XMLStreamConstants.START_ELEMENT) {
+                readAttributeItem(items, wildcard);
+            }
+        }
+
+        /**
+         * @param items
+         * @param wildcard receives an attribute wildcard
+         * @throws XMLStreamException
+         */
+        private void readAttributeItem(List<AttributeItem> items, java.util.function.Consumer<WildcardNode> wildcard) throws XMLStreamException {
+            switch (xsdName()) {
+                case "attribute":
+                    items.add(readAttribute());
+                    break;
+                case "attributeGroup": {
+                    AttributeItem item = new AttributeItem(document);
+                    item.groupKey = qname(attribute("ref"));
+                    if (item.groupKey != null) {
+                        items.add(item);
+                    }
+                    skip();
+                    break;
+                }
+                case "anyAttribute":
+                    wildcard.accept(readWildcard());
+                    break;
+                default:
+                    skip();
+                    break;
+            }
+        }
+
+        /**
+         * @return local attribute or attribute reference
+         * @throws XMLStreamException
+         */
+        private AttributeItem readAttribute() throws XMLStreamException {
+            AttributeItem item = new AttributeItem(document);
+            AttributeUseNode use = new AttributeUseNode();
+            item.use = use;
+            String useValue = attribute("use");
+            item.prohibited = "prohibited".equals(useValue);
+            use.required = "required".equals(useValue);
+            if (attribute("default") != null) {
+                use.valueConstraint = ValueConstraint.DEFAULT;
+                use.value = r.getAttributeValue(null, "default");
+            } else if (attribute("fixed") != null) {
+                use.valueConstraint = ValueConstraint.FIXED;
+                use.value = r.getAttributeValue(null, "fixed");
+            }
+            item.refKey = qname(attribute("ref"));
+            if (item.refKey == null) {
+                use.name = attribute("name");
+                use.namespace = qualified(attribute("form"), document.qualifiedAttributes) ? document.targetNamespace : null;
+                item.typeKey = qname(attribute("type"));
+            }
+            while (nextTag() == XMLStreamConstants.START_ELEMENT) {
+                switch (xsdName()) {
+                    case "annotation":
+                        use.documentation = readAnnotation();
+                        break;
+                    case "simpleType":
+                        item.inlineType = readSimpleType(null);
+                        break;
+                    default:
+                        skip();
+                        break;
+                }
+            }
+            attributeItems.add(item);
+            return item;
+        }
+
+        /**
+         * @param name
+         * @return global attribute declaration
+         * @throws XMLStreamException
+         */
+        private AttributeDef readAttributeDeclaration(String name) throws XMLStreamException {
+            AttributeDef def = new AttributeDef(document);
+            def.name = name;
+            def.namespace = document.targetNamespace;
+            def.typeKey = qname(attribute("type"));
+            while (nextTag() == XMLStreamConstants.START_ELEMENT) {
+                if (xsdName().equals("simpleType")) {
+                    def.inlineType = readSimpleType(null);
+                } else {
+                    skip();
+                }
+            }
+            return def;
+        }
+
+        /**
+         * @return text of the documentation elements of the annotation
+         * @throws XMLStreamException
+         */
+        private List<String> readAnnotation() throws XMLStreamException {
+            List<String> documentation = new ArrayList<>();
+            int depth = 1;
+            StringBuilder text = null;
+            int textDepth = 0;
+            while (depth > 0) {
+                switch (r.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        depth++;
+                        if (text == null && r.getLocalName().equals("documentation")) {
+                            text = new StringBuilder();
+                            textDepth = depth;
+                        }
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        if (text != null && depth == textDepth) {
+                            documentation.add(text.toString());
+                            text = null;
+                        }
+                        depth--;
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE:
+                        if (text != null) {
+                            text.append(r.getText());
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+            return documentation.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(documentation);
+        }
+
+        /**
+         * @return next start or end tag
+         * @throws XMLStreamException
+         */
+        private int nextTag() throws XMLStreamException {
+            while (r.hasNext()) {
+                int event = r.next();
+                if (event == XMLStreamConstants.START_ELEMENT || event == XMLStreamConstants.END_ELEMENT) {
+                    return event;
+                }
+            }
+            return XMLStreamConstants.END_DOCUMENT;
+        }
+
+        /**
+         * Skips the element to its end tag.
+         *
+         * @throws XMLStreamException
+         */
+        private void skip() throws XMLStreamException {
+            int depth = 1;
+            while (depth > 0) {
+                int event = r.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                }
+            }
+        }
+
+        /**
+         * @param name
+         * @return true if the current element is the schema element of the
+         * name
+         */
+        private boolean isXsd(String name) {
+            return XSD.equals(r.getNamespaceURI()) && name.equals(r.getLocalName());
+        }
+
+        /**
+         * @return local name of the current element, empty for another
+         * namespace
+         */
+        private String xsdName() {
+            return XSD.equals(r.getNamespaceURI()) ? r.getLocalName() : "";
+        }
+
+        /**
+         * @param name
+         * @return collapsed value of the unqualified attribute, or null
+         */
+        private String attribute(String name) {
+            String value = r.getAttributeValue(null, name);
+            return value == null ? null : value.trim();
+        }
+
+        /**
+         * @param value
+         * @return key of the component named by the QName, in the namespace of
+         * a chameleon include for no namespace, or null
+         */
+        private String qname(String value) {
+            if (value == null || value.isEmpty()) {
+                return null;
+            }
+            int colon = value.indexOf(':');
+            String prefix = colon < 0 ? XMLConstants.DEFAULT_NS_PREFIX : value.substring(0, colon);
+            String namespace = r.getNamespaceContext().getNamespaceURI(prefix);
+            if (namespace == null || namespace.isEmpty()) {
+                namespace = document.chameleon ? document.targetNamespace : null;
+            }
+            String key = key(namespace, value.substring(colon + 1));
+            return key.equals(redefining) ? key + ORIGINAL : key;
+        }
+
+        /**
+         * @param value
+         * @return the XPath of a selector or field as Xerces prints it, each
+         * path relative to the context node
+         */
+        private String xpath(String value) {
+            if (value == null) {
+                return null;
+            }
+            StringBuilder xpath = new StringBuilder();
+            for (String path : value.replaceAll("\\s+", "").replace("child::", "").replace("attribute::", "@").split("\\|", -1)) {
+                if (xpath.length() > 0) {
+                    xpath.append('|');
+                }
+                if (!path.startsWith(".") && !path.startsWith("/")) {
+                    xpath.append("./");
+                }
+                xpath.append(path);
+            }
+            return xpath.toString();
+        }
+
+        /**
+         * @param value
+         * @return
+         */
+        private int occurs(String value) {
+            if (value == null) {
+                return 1;
+            }
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException ex) {
+                return Integer.MAX_VALUE;
+            }
+        }
+
+        /**
+         * @param value
+         * @return
+         */
+        private boolean bool(String value) {
+            return "true".equals(value) || "1".equals(value);
+        }
+
+        /**
+         * @param form
+         * @param qualifiedDefault
+         * @return
+         */
+        private boolean qualified(String form, boolean qualifiedDefault) {
+            return form == null ? qualifiedDefault : form.equals("qualified");
+        }
+
+        //RESOLVING-----------------------------------------------------------//
+        /**
+         * Resolves the references once all documents are read.
+         */
+        private void resolve() {
+            applyRedefinitions();
+            for (SimpleDef def : simpleDefs) {
+                if (def.list) {
+                    def.node.baseType = builtin("anySimpleType");
+                } else if (def.inlineBase != null) {
+                    def.node.baseType = def.inlineBase;
+                } else {
+                    Type base = lookupType(def.baseKey, def.document);
+                    def.node.baseType = base != null ? base : builtin("anySimpleType");
+                }
+            }
+            for (Reference reference : references) {
+                if (reference.group) {
+                    reference.particle.term = groups.get(reference.key);
+                    if (reference.particle.term == null) {
+                        unresolved(reference.key, "group", reference.document);
+                    }
+                } else {
+                    reference.particle.term = elements.get(reference.key);
+                    if (reference.particle.term == null) {
+                        unresolved(reference.key, "element declaration", reference.document);
+                    }
+                }
+            }
+            // unresolved references are left out
+            for (ModelGroupNode group : modelGroups) {
+                group.particles.removeIf(particle -> particle.getTerm() == null);
+                group.particles = Collections.unmodifiableList(group.particles);
+            }
+            for (ElementDef def : elementDefs) {
+                if (def.substitutionKey != null) {
+                    def.node.substitutionGroup = elements.get(def.substitutionKey);
+                    if (def.node.substitutionGroup == null) {
+                        unresolved(def.substitutionKey, "element declaration", def.document);
+                    }
+                }
+            }
+            for (ElementDef def : elementDefs) {
+                resolveElementType(def);
+            }
+            for (AttributeItem item : attributeItems) {
+                resolveAttribute(item);
+            }
+            for (ComplexDef def : complexDefs) {
+                resolveComplexType(def);
+            }
+            // the built-in types are components of every schema, as in Xerces
+            for (String name : BUILTIN_TYPES) {
+                graph.types.add(builtin(name));
+            }
+        }
+
+        /**
+         * Replaces the redefined components, the originals are kept for the
+         * self references of the redefinitions.
+         */
+        @SuppressWarnings("unchecked")
+        private void applyRedefinitions() {
+            for (Object value : redefinitions.values()) {
+                Object[] redefinition = (Object[]) value;
+                Map<String, Object> map = (Map<String, Object>) redefinition[0];
+                String key = (String) redefinition[1];
+                Object original = map.put(key, redefinition[2]);
+                if (original != null) {
+                    map.put(key + ORIGINAL, original);
+                    int index = graph.types.indexOf(original);
+                    if (index >= 0) {
+                        graph.types.set(index, (Type) redefinition[2]);
+                    }
+                } else {
+                    logger.log(Level.SEVERE, "[xs-error]: src-redefine: No component ''{0}'' to redefine.", key);
+                }
+            }
+        }
+
+        /**
+         * @param key
+         * @param kind
+         * @param doc
+         */
+        private void unresolved(String key, String kind, Document doc) {
+            logger.log(Level.SEVERE, "[xs-error]: src-resolve: Cannot resolve the name ''{0}'' to a(n) ''{1}'' component. ({2})",
+                    new Object[]{key.replace(ORIGINAL, ""), kind, doc.systemId});
+        }
+
+        /**
+         * @param key
+         * @param doc
+         * @return the type, or null if there is no such type
+         */
+        private Type lookupType(String key, Document doc) {
+            if (key == null) {
+                return null;
+            }
+            Type type = types.get(key);
+            if (type == null && key.startsWith("{" + XSD + "}")) {
+                type = builtin(key.substring(XSD.length() + 2));
+            }
+            if (type == null) {
+                unresolved(key, "type definition", doc);
+            }
+            return type;
+        }
+
+        /**
+         * @param name
+         * @return the built-in type, or null if there is no such type
+         */
+        private TypeNode builtin(String name) {
+            TypeNode type = builtins.get(name);
+            if (type == null && BUILTIN_TYPES.contains(name)) {
+                type = new TypeNode();
+                type.name = name;
+                type.namespace = XSD;
+                builtins.put(name, type);
+                if (name.equals("anyType")) {
+                    // a sequence of any elements and any attributes, both lax
+                    type.complex = true;
+                    WildcardNode any = new WildcardNode();
+                    any.processContents = ProcessContents.LAX;
+                    ParticleNode anyParticle = new ParticleNode();
+                    anyParticle.minOccurs = 0;
+                    anyParticle.maxOccurs = -1;
+                    anyParticle.unbounded = true;
+                    anyParticle.term = any;
+                    ModelGroupNode sequence = new ModelGroupNode();
+                    sequence.compositor = Compositor.SEQUENCE;
+                    sequence.particles = Collections.singletonList(anyParticle);
+                    ParticleNode particle = new ParticleNode();
+                    particle.term = sequence;
+                    type.particle = particle;
+                    WildcardNode anyAttribute = new WildcardNode();
+                    anyAttribute.processContents = ProcessContents.LAX;
+                    type.attributeWildcard = anyAttribute;
+                } else if (!name.equals("anySimpleType")) {
+                    type.baseType = builtin("anySimpleType");
+                } else {
+                    type.baseType = builtin("anyType");
+                }
+            }
+            return type;
+        }
+
+        /**
+         * The type of an element without one is the type of the head of its
+         * substitution group, or anyType.
+         *
+         * @param def
+         * @return
+         */
+        private Type resolveElementType(ElementDef def) {
+            if (def.resolved) {
+                return def.node.type;
+            }
+            Type type = null;
+            if (!def.resolving) {
+                def.resolving = true;
+                if (def.typeKey != null) {
+                    type = lookupType(def.typeKey, def.document);
+                } else if (def.inlineType != null) {
+                    type = def.inlineType;
+                } else if (def.node.substitutionGroup != null) {
+                    type = resolveElementType(elementDefsByNode.get(def.node.substitutionGroup));
+                }
+            }
+            def.node.type = type != null ? type : builtin("anyType");
+            def.resolved = true;
+            return def.node.type;
+        }
+
+        /**
+         * @param item
+         */
+        private void resolveAttribute(AttributeItem item) {
+            AttributeUseNode use = item.use;
+            if (item.refKey != null) {
+                AttributeDef def = attributes.get(item.refKey);
+                if (def == null) {
+                    unresolved(item.refKey, "attribute declaration", item.document);
+                    // left out, as in Xerces
+                    item.use = null;
+                    return;
+                }
+                use.name = def.name;
+                use.namespace = def.namespace;
+                if (def.type == null) {
+                    Type type = def.inlineType != null ? def.inlineType : lookupType(def.typeKey, def.document);
+                    def.type = type != null ? type : builtin("anySimpleType");
+                }
+                use.type = def.type;
+            } else {
+                Type type = item.inlineType != null ? item.inlineType : lookupType(item.typeKey, item.document);
+                use.type = type != null ? type : builtin("anySimpleType");
+            }
+            if (use.value != null) {
+                use.value = normalize(use.value, use.type, item.document);
+                if (use.value == null) {
+                    use.valueConstraint = ValueConstraint.NONE;
+                }
+            }
+        }
+
+        /**
+         * The value of a built-in type or of a restriction of one is given as
+         * Xerces gives it, in the canonical form of the built-in type, e.g. 0
+         * of a boolean is false. Lists, unions and names keep their text
+         * normalized by the whitespace facet.
+         *
+         * @param value
+         * @param type
+         * @param doc
+         * @return the value, or null if it isn't a value of the type
+         */
+        private String normalize(String value, Type type, Document doc) {
+            Type builtin = type;
+            while (builtin != null && !listTypes.contains(builtin) && !XSD.equals(builtin.getNamespace())) {
+                builtin = builtin.getBaseType();
+            }
+            String name = builtin == null || listTypes.contains(builtin) ? null : builtin.getName();
+            if ("string".equals(name) || "anySimpleType".equals(name)) {
+                return value;
+            }
+            if (name != null && !name.equals("QName") && !name.equals("NOTATION")) {
+                ValidatedInfo info = new ValidatedInfo();
+                try {
+                    DATATYPES.getBuiltInType(name).validate(value, validationState, info);
+                    return info.stringValue();
+                } catch (InvalidDatatypeValueException ex) {
+                    logger.log(Level.SEVERE, "[xs-error]: a-props-correct.2: Invalid value constraint value ''{0}''. ({1})",
+                            new Object[]{value, doc.systemId});
+                    return null;
+                }
+            }
+            String replaced = value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+            return "normalizedString".equals(name) ? replaced : replaced.trim().replaceAll(" +", " ");
+        }
+
+        /**
+         * Computes the effective content and attributes of a complex type from
+         * its own and the ones of its base type.
+         *
+         * @param def
+         */
+        private void resolveComplexType(ComplexDef def) {
+            if (def.resolved) {
+                return;
+            }
+            TypeNode node = def.node;
+            if (def.resolving) {
+                logger.log(Level.SEVERE, "[xs-error]: ct-props-correct.3: Circular definitions detected for complex type ''{0}''. ({1})",
+                        new Object[]{node.name, def.document.systemId});
+                return;
+            }
+            def.resolving = true;
+            Type base = def.baseKey != null ? lookupType(def.baseKey, def.document) : null;
+            if (base == null) {
+                base = builtin("anyType");
+            }
+            ComplexDef baseDef = complexDefsByNode.get(base);
+            if (baseDef != null) {
+                resolveComplexType(baseDef);
+            }
+            node.baseType = base;
+
+            ParticleNode own = def.particle;
+            if (own != null && own.term == null) {
+                own = null;
+            }
+            if (own == null && def.mixed && !def.simpleContent) {
+                // mixed content without particles is an empty sequence
+                ModelGroupNode sequence = new ModelGroupNode();
+                sequence.compositor = Compositor.SEQUENCE;
+                own = new ParticleNode();
+                own.term = sequence;
+            }
+            Particle baseParticle = base.isComplex() ? base.getParticle() : null;
+            if (def.simpleContent) {
+                node.particle = null;
+            } else if (!def.extension || baseParticle == null) {
+                node.particle = own;
+            } else if (own == null) {
+                node.particle = baseParticle;
+            } else {
+                ModelGroupNode sequence = new ModelGroupNode();
+                sequence.compositor = Compositor.SEQUENCE;
+                sequence.particles = Collections.unmodifiableList(Arrays.asList(baseParticle, own));
+                ParticleNode particle = new ParticleNode();
+                particle.term = sequence;
+                node.particle = particle;
+            }
+
+            Attributes collected = collectAttributes(def.attributes, def.attributeWildcard, def.document);
+            if (base.isComplex()) {
+                for (AttributeUse use : base.getAttributeUses()) {
+                    String key = key(use.getNamespace(), use.getName());
+                    if (!collected.uses.containsKey(key) && !collected.prohibited.contains(key)) {
+                        collected.uses.put(key, use);
+                    }
+                }
+                if (def.extension && base.getAttributeWildcard() != null) {
+                    collected.wildcard = collected.wildcard == null ? base.getAttributeWildcard()
+                            : union(collected.wildcard, base.getAttributeWildcard());
+                }
+            }
+            node.attributeUses = Collections.unmodifiableList(new ArrayList<>(collected.uses.values()));
+            node.attributeWildcard = collected.wildcard;
+            def.resolved = true;
+        }
+
+        /**
+         * Collects the attributes in the order of the schema, the ones of an
+         * attribute group where it is referenced. The wildcard is the one of
+         * the component intersected with the ones of its attribute groups.
+         *
+         * @param items
+         * @param local
+         * @param doc
+         * @return
+         */
+        private Attributes collectAttributes(List<AttributeItem> items, WildcardNode local, Document doc) {
+            Attributes collected = new Attributes();
+            Wildcard groupWildcard = null;
+            for (AttributeItem item : items) {
+                if (item.groupKey != null) {
+                    AttributeGroupDef group = attributeGroups.get(item.groupKey);
+                    if (group == null) {
+                        unresolved(item.groupKey, "attribute group", doc);
+                        continue;
+                    }
+                    resolveAttributeGroup(group, doc);
+                    for (AttributeUse use : group.uses) {
+                        collected.uses.putIfAbsent(key(use.getNamespace(), use.getName()), use);
+                    }
+                    if (group.resolvedWildcard != null) {
+                        groupWildcard = groupWildcard == null ? group.resolvedWildcard
+                                : intersect(groupWildcard, group.resolvedWildcard);
+                    }
+                    continue;
+                }
+                if (item.use == null) {
+                    // an unresolved reference
+                    continue;
+                }
+                String key = key(item.use.getNamespace(), item.use.getName());
+                if (collected.uses.containsKey(key) || collected.prohibited.contains(key)) {
+                    logger.log(Level.SEVERE, "[xs-error]: ct-props-correct.4: Duplicate attribute uses with the same name ''{0}''. ({1})",
+                            new Object[]{key, doc.systemId});
+                } else if (item.prohibited) {
+                    collected.prohibited.add(key);
+                } else {
+                    collected.uses.put(key, item.use);
+                }
+            }
+            if (local == null) {
+                collected.wildcard = groupWildcard;
+            } else {
+                collected.wildcard = groupWildcard == null ? local : intersect(local, groupWildcard);
+            }
+            return collected;
+        }
+
+        /**
+         * @param group
+         * @param doc
+         */
+        private void resolveAttributeGroup(AttributeGroupDef group, Document doc) {
+            if (group.uses != null) {
+                return;
+            }
+            if (group.resolving) {
+                logger.log(Level.SEVERE, "[xs-error]: src-attribute_group.3: Circular definitions detected for attribute group. ({0})", doc.systemId);
+                group.uses = Collections.emptyList();
+                return;
+            }
+            group.resolving = true;
+            Attributes collected = collectAttributes(group.items, group.wildcard, doc);
+            group.uses = new ArrayList<>(collected.uses.values());
+            group.resolvedWildcard = collected.wildcard;
+        }
+
+        /**
+         * Union of the wildcard of an extension with the one of its base.
+         *
+         * @param derived
+         * @param base
+         * @return
+         */
+        private Wildcard union(Wildcard derived, Wildcard base) {
+            WildcardNode union = newWildcard(derived);
+            if (derived.getConstraint() == NamespaceConstraint.ANY || base.getConstraint() == NamespaceConstraint.ANY) {
+                union.constraint = NamespaceConstraint.ANY;
+            } else if (derived.getConstraint() == NamespaceConstraint.LIST && base.getConstraint() == NamespaceConstraint.LIST) {
+                List<String> namespaces = new ArrayList<>(derived.getNamespaces());
+                for (String namespace : base.getNamespaces()) {
+                    if (!namespaces.contains(namespace)) {
+                        namespaces.add(namespace);
+                    }
+                }
+                union.constraint = NamespaceConstraint.LIST;
+                union.namespaces = namespaces;
+            } else if (derived.getConstraint() == NamespaceConstraint.NOT && base.getConstraint() == NamespaceConstraint.NOT) {
+                union.constraint = NamespaceConstraint.NOT;
+                union.namespaces = derived.getNamespaces().equals(base.getNamespaces())
+                        ? derived.getNamespaces() : Collections.singletonList(null);
+            } else {
+                // a negation and a list: any if the list has all the negated namespaces
+                Wildcard not = derived.getConstraint() == NamespaceConstraint.NOT ? derived : base;
+                Wildcard list = not == derived ? base : derived;
+                if (list.getNamespaces().containsAll(not.getNamespaces())) {
+                    union.constraint = NamespaceConstraint.ANY;
+                } else {
+                    union.constraint = NamespaceConstraint.NOT;
+                    union.namespaces = not.getNamespaces();
+                }
+            }
+            return union;
+        }
+
+        /**
+         * Intersection of a wildcard with the one of an attribute group.
+         *
+         * @param wildcard gives the processing of the result
+         * @param other
+         * @return
+         */
+        private Wildcard intersect(Wildcard wildcard, Wildcard other) {
+            if (other.getConstraint() == NamespaceConstraint.ANY) {
+                return wildcard;
+            }
+            WildcardNode intersection = newWildcard(wildcard);
+            if (wildcard.getConstraint() == NamespaceConstraint.ANY) {
+                intersection.constraint = other.getConstraint();
+                intersection.namespaces = other.getNamespaces();
+            } else if (wildcard.getConstraint() == NamespaceConstraint.LIST || other.getConstraint() == NamespaceConstraint.LIST) {
+                Wildcard list = wildcard.getConstraint() == NamespaceConstraint.LIST ? wildcard : other;
+                Wildcard second = list == wildcard ? other : wildcard;
+                List<String> namespaces = new ArrayList<>();
+                for (String namespace : list.getNamespaces()) {
+                    boolean allowed = second.getConstraint() == NamespaceConstraint.LIST
+                            ? second.getNamespaces().contains(namespace)
+                            : namespace != null && !second.getNamespaces().contains(namespace);
+                    if (allowed) {
+                        namespaces.add(namespace);
+                    }
+                }
+                intersection.constraint = NamespaceConstraint.LIST;
+                intersection.namespaces = namespaces;
+            } else {
+                intersection.constraint = NamespaceConstraint.NOT;
+                intersection.namespaces = wildcard.getNamespaces();
+            }
+            return intersection;
+        }
+
+        /**
+         * @param from
+         * @return wildcard with the processing and documentation of the other
+         */
+        private WildcardNode newWildcard(Wildcard from) {
+            WildcardNode wildcard = new WildcardNode();
+            wildcard.processContents = from.getProcessContents();
+            wildcard.documentation = from.getDocumentation();
+            return wildcard;
+        }
+    }
+}
@@ -0,0 +1,519 @@
+package xsdvi.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.xerces.xs.StringList;
+import org.apache.xerces.xs.XSAnnotation;
+import org.apache.xerces.xs.XSAttributeDeclaration;
+import org.apache.xerces.xs.XSAttributeUse;
+import org.apache.xerces.xs.XSComplexTypeDefinition;
+import org.apache.xerces.xs.XSConstants;
+import org.apache.xerces.xs.XSElementDeclaration;
+import org.apache.xerces.xs.XSIDCDefinition;
+import org.apache.xerces.xs.XSModel;
+import org.apache.xerces.xs.XSModelGroup;
+import org.apache.xerces.xs.XSNamedMap;
+import org.apache.xerces.xs.XSNamespaceItemList;
+import org.apache.xerces.xs.XSObject;
+import org.apache.xerces.xs.XSObjectList;
+import org.apache.xerces.xs.XSParticle;
+import org.apache.xerces.xs.XSTerm;
+import org.apache.xerces.xs.XSTypeDefinition;
+import org.apache.xerces.xs.XSWildcard;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import xsdvi.utils.LoggerHelper;
+
+/**
+ * A Xerces {@link XSModel} seen as a {@link SchemaModel}. The components are
+ * wrapped when first reached and the wrappers kept, so a component is the
+ * same wrapper wherever it is reached. The documentation is parsed from the
+ * annotations each time it is asked for.
+ *
+ * @author Alexander Dyuzhev
+ */
+public final class XercesSchemaModel implements SchemaModel {
+
+    private static final Logger logger = Logger.getLogger(LoggerHelper.LOGGER_NAME);
+
+    // looked up once and a parser reused by each thread, the annotations of a
+    // schema are parsed by the thousands
+    private static final DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+    private static final ThreadLocal<DocumentBuilder> documentBuilders = new ThreadLocal<>();
+
+    // the adapter doesn't hold its model, it is dropped with the model
+    private static final Map<XSModel, XercesSchemaModel> adapters = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final Map<XSObject, Object> wrappers = Collections.synchronizedMap(new IdentityHashMap<>());
+    private final List<Element> elements = new ArrayList<>();
+    private final List<Type> types = new ArrayList<>();
+    private final List<String> documentLocations = new ArrayList<>();
+
+    /**
+     * @param model
+     */
+    private XercesSchemaModel(XSModel model) {
+        XSNamedMap elementMap = model.getComponents(XSConstants.ELEMENT_DECLARATION);
+        for (int i = 0; i < elementMap.getLength(); i++) {
+            elements.add(element((XSElementDeclaration) elementMap.item(i)));
+        }
+        XSNamedMap typeMap = model.getComponents(XSConstants.TYPE_DEFINITION);
+        for (int i = 0; i < typeMap.getLength(); i++) {
+            types.add(type((XSTypeDefinition) typeMap.item(i)));
+        }
+        XSNamespaceItemList namespaces = model.getNamespaceItems();
+        for (int i = 0; i < namespaces.getLength(); i++) {
+            StringList locations = namespaces.item(i).getDocumentLocations();
+            for (int j = 0; j < locations.getLength(); j++) {
+                documentLocations.add(locations.item(j));
+            }
+        }
+    }
+
+    /**
+     * @param model
+     * @return the adapter of the model, the same one while the model is in
+     * use
+     */
+    public static XercesSchemaModel of(XSModel model) {
+        return adapters.computeIfAbsent(model, XercesSchemaModel::new);
+    }
+
+    @Override
+    public List<Element> getElements() {
+        return Collections.unmodifiableList(elements);
+    }
+
+    @Override
+    public List<Type> getTypes() {
+        return Collections.unmodifiableList(types);
+    }
+
+    @Override
+    public List<String> getDocumentLocations() {
+        return Collections.unmodifiableList(documentLocations);
+    }
+
+    /**
+     * @param <T>
+     * @param object
+     * @param wrap
+     * @return the wrapper of the object, null for null
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T wrap(XSObject object, Function<XSObject, T> wrap) {
+        if (object == null) {
+            return null;
+        }
+        return (T) wrappers.computeIfAbsent(object, wrap);
+    }
+
+    private Element element(XSElementDeclaration declaration) {
+        return wrap(declaration, object -> new XercesElement((XSElementDeclaration) object));
+    }
+
+    private Type type(XSTypeDefinition definition) {
+        return wrap(definition, object -> new XercesType((XSTypeDefinition) object));
+    }
+
+    private Particle particle(XSParticle particle) {
+        return wrap(particle, object -> new XercesParticle((XSParticle) object));
+    }
+
+    private Wildcard wildcard(XSWildcard wildcard) {
+        return wrap(wildcard, object -> new XercesWildcard((XSWildcard) object));
+    }
+
+    /**
+     * @param term
+     * @return
+     */
+    private Term term(XSTerm term) {
+        switch (term.getType()) {
+            case XSConstants.MODEL_GROUP:
+                return wrap(term, object -> new XercesModelGroup((XSModelGroup) object));
+            case XSConstants.ELEMENT_DECLARATION:
+                return element((XSElementDeclaration) term);
+            case XSConstants.WILDCARD:
+                return wildcard((XSWildcard) term);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @param annotations
+     * @return text of the documentation elements
+     */
+    static List<String> documentation(XSObjectList annotations) {
+        List<String> documentation = new ArrayList<>();
+        if (annotations == null) {
+            return documentation;
+        }
+        for (int i = 0; i < annotations.getLength(); i++) {
+            String annotationString = ((XSAnnotation) annotations.item(i)).getAnnotationString();
+            try {
+                DocumentBuilder dBuilder = documentBuilders.get();
+                if (dBuilder == null) {
+                    synchronized (documentBuilderFactory) {
+                        // a factory isn't required to be thread-safe
+                        dBuilder = documentBuilderFactory.newDocumentBuilder();
+                    }
+                    documentBuilders.set(dBuilder);
+                }
+
+                ByteArrayInputStream input = new ByteArrayInputStream(annotationString.getBytes("UTF-8"));
+                Document doc = dBuilder.parse(input);
+                // the elements in document order, named with their prefix
+                NodeList nodeList = doc.getElementsByTagName("*");
+                for (int j = 0; j < nodeList.getLength(); j++) {
+                    String nodeName = nodeList.item(j).getNodeName();
+                    if (nodeName.equals("documentation") || nodeName.endsWith(":documentation")) {
+                        documentation.add(nodeList.item(j).getTextContent());
+                    }
+                }
+            } catch (ParserConfigurationException | SAXException | IOException e) {
+                logger.log(Level.SEVERE, "Can''t retrieve the documentation: {0}", e.toString());
+            }
+        }
+        return documentation;
+    }
+
+    /**
+     * Wrapper of a component.
+     *
+     * @param <T>
+     */
+    private abstract static class XercesComponent<T extends XSObject> implements Component {
+
+        final T object;
+
+        /**
+         * @param object
+         */
+        XercesComponent(T object) {
+            this.object = object;
+        }
+
+        @Override
+        public String getName() {
+            return object.getName();
+        }
+
+        @Override
+        public String getNamespace() {
+            return object.getNamespace();
+        }
+
+        @Override
+        public List<String> getDocumentation() {
+            return Collections.emptyList();
+        }
+    }
+
+    private final class XercesElement extends XercesComponent<XSElementDeclaration> implements Element {
+
+        XercesElement(XSElementDeclaration object) {
+            super(object);
+        }
+
+        @Override
+        public List<String> getDocumentation() {
+            return documentation(object.getAnnotations());
+        }
+
+        @Override
+        public Type getType() {
+            return type(object.getTypeDefinition());
+        }
+
+        @Override
+        public boolean isNillable() {
+            return object.getNillable();
+        }
+
+        @Override
+        public boolean isAbstract() {
+            return object.getAbstract();
+        }
+
+        @Override
+        public Element getSubstitutionGroup() {
+            return element(object.getSubstitutionGroupAffiliation());
+        }
+
+        @Override
+        public List<IdentityConstraint> getIdentityConstraints() {
+            XSNamedMap map = object.getIdentityConstraints();
+            List<IdentityConstraint> constraints = new ArrayList<>(map.getLength());
+            for (int i = 0; i < map.getLength(); i++) {
+                constraints.add(wrap(map.item(i), item -> new XercesIdentityConstraint((XSIDCDefinition) item)));
+            }
+            return constraints;
+        }
+    }
+
+    private final class XercesType extends XercesComponent<XSTypeDefinition> implements Type {
+
+        XercesType(XSTypeDefinition object) {
+            super(object);
+        }
+
+        @Override
+        public boolean isComplex() {
+            return object.getTypeCategory() == XSTypeDefinition.COMPLEX_TYPE;
+        }
+
+        @Override
+        public boolean isAnonymous() {
+            return object.getAnonymous();
+        }
+
+        @Override
+        public Type getBaseType() {
+            // the base of the ur-types is themselves
+            return object.getBaseType() == object ? null : type(object.getBaseType());
+        }
+
+        @Override
+        public Particle getParticle() {
+            return isComplex() ? particle(((XSComplexTypeDefinition) object).getParticle()) : null;
+        }
+
+        @Override
+        public List<AttributeUse> getAttributeUses() {
+            List<AttributeUse> uses = new ArrayList<>();
+            if (isComplex()) {
+                XSObjectList list = ((XSComplexTypeDefinition) object).getAttributeUses();
+                for (int i = 0; i < list.getLength(); i++) {
+                    uses.add(wrap(list.item(i), item -> new XercesAttributeUse((XSAttributeUse) item)));
+                }
+            }
+            return uses;
+        }
+
+        @Override
+        public Wildcard getAttributeWildcard() {
+            return isComplex() ? wildcard(((XSComplexTypeDefinition) object).getAttributeWildcard()) : null;
+        }
+    }
+
+    private final class XercesParticle implements Particle {
+
+        private final XSParticle particle;
+
+        XercesParticle(XSParticle particle) {
+            this.particle = particle;
+        }
+
+        @Override
+        public int getMinOccurs() {
+            return particle.getMinOccurs();
+        }
+
+        @Override
+        public int getMaxOccurs() {
+            return particle.getMaxOccurs();
+        }
+
+        @Override
+        public boolean isUnbounded() {
+            return particle.getMaxOccursUnbounded();
+        }
+
+        @Override
+        public Term getTerm() {
+            return term(particle.getTerm());
+        }
+    }
+
+    private final class XercesModelGroup extends XercesComponent<XSModelGroup> implements ModelGroup {
+
+        XercesModelGroup(XSModelGroup object) {
+            super(object);
+        }
+
+        @Override
+        public List<String> getDocumentation() {
+            return documentation(object.getAnnotations());
+        }
+
+        @Override
+        public Compositor getCompositor() {
+            switch (object.getCompositor()) {
+                case XSModelGroup.COMPOSITOR_ALL:
+                    return Compositor.ALL;
+                case XSModelGroup.COMPOSITOR_CHOICE:
+                    return Compositor.CHOICE;
+                default:
+                    return Compositor.SEQUENCE;
+            }
+        }
+
+        @Override
+        public List<Particle> getParticles() {
+            XSObjectList list = object.getParticles();
+            List<Particle> particles = new ArrayList<>(list.getLength());
+            for (int i = 0; i < list.getLength(); i++) {
+                particles.add(particle((XSParticle) list.item(i)));
+            }
+            return particles;
+        }
+    }
+
+    private final class XercesWildcard extends XercesComponent<XSWildcard> implements Wildcard {
+
+        XercesWildcard(XSWildcard object) {
+            super(object);
+        }
+
+        @Override
+        public List<String> getDocumentation() {
+            return documentation(object.getAnnotations());
+        }
+
+        @Override
+        public NamespaceConstraint getConstraint() {
+            switch (object.getConstraintType()) {
+                case XSWildcard.NSCONSTRAINT_ANY:
+                    return NamespaceConstraint.ANY;
+                case XSWildcard.NSCONSTRAINT_NOT:
+                    return NamespaceConstraint.NOT;
+                default:
+                    return NamespaceConstraint.LIST;
+            }
+        }
+
+        @Override
+        public List<String> getNamespaces() {
+            StringList list = object.getNsConstraintList();
+            List<String> namespaces = new ArrayList<>(list.getLength());
+            for (int i = 0; i < list.getLength(); i++) {
+                namespaces.add(list.item(i));
+            }
+            return namespaces;
+        }
+
+        @Override
+        public ProcessContents getProcessContents() {
+            switch (object.getProcessContents()) {
+                case XSWildcard.PC_SKIP:
+                    return ProcessContents.SKIP;
+                case XSWildcard.PC_LAX:
+                    return ProcessContents.LAX;
+                default:
+                    return ProcessContents.STRICT;
+            }
+        }
+    }
+
+    private final class XercesAttributeUse extends XercesComponent<XSAttributeUse> implements AttributeUse {
+
+        XercesAttributeUse(XSAttributeUse object) {
+            super(object);
+        }
+
+        @Override
+        public String getName() {
+            return object.getAttrDeclaration().getName();
+        }
+
+        @Override
+        public String getNamespace() {
+            return object.getAttrDeclaration().getNamespace();
+        }
+
+        @Override
+        public List<String> getDocumentation() {
+            return documentation(object.getAnnotations());
+        }
+
+        @Override
+        public Type getType() {
+            XSAttributeDeclaration declaration = object.getAttrDeclaration();
+            return type(declaration.getTypeDefinition());
+        }
+
+        @Override
+        public boolean isRequired() {
+            return object.getRequired();
+        }
+
+        @Override
+        public ValueConstraint getValueConstraint() {
+            switch (object.getConstraintType()) {
+                case XSConstants.VC_DEFAULT:
+                    return ValueConstraint.DEFAULT;
+                case XSConstants.VC_FIXED:
+                    return ValueConstraint.FIXED;
+                default:
+                    return ValueConstraint.NONE;
+            }
+        }
+
+        @Override
+        public String getValue() {
+            return getValueConstraint() == ValueConstraint.NONE ? null : object.getValueConstraintValue().getNormalizedValue();
+        }
+    }
+
+    private final class XercesIdentityConstraint extends XercesComponent<XSIDCDefinition> implements IdentityConstraint {
+
+        XercesIdentityConstraint(XSIDCDefinition object) {
+            super(object);
+        }
+
+        @Override
+        public List<String> getDocumentation() {
+            return documentation(object.getAnnotations());
+        }
+
+        @Override
+        public Category getCategory() {
+            switch (object.getCategory()) {
+                case XSIDCDefinition.IC_KEY:
+                    return Category.KEY;
+                case XSIDCDefinition.IC_KEYREF:
+                    return Category.KEYREF;
+                default:
+                    return Category.UNIQUE;
+            }
+        }
+
+        @Override
+        public String getRefer() {
+            return object.getRefKey() != null ? object.getRefKey().getName() : null;
+        }
+
+        @Override
+        public String getSelector() {
+            return object.getSelectorStr();
+        }
+
+        @Override
+        public List<String> getFields() {
+            StringList list = object.getFieldStrs();
+            List<String> fields = new ArrayList<>(list.getLength());
+            for (int i = 0; i < list.getLength(); i++) {
+                fields.add(list.item(i));
+            }
+            return fields;
+        }
+    }
+}
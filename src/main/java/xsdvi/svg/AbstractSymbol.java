@@ -22,15 +22,23 @@ public abstract class AbstractSymbol extends TreeElement {
     protected int height;
     protected int startYPosition = 50;
 
-    private static int highestYPosition;
+    private int serial = 1;
+    private int lastSerial = 1;
+
+    private Object contentKey = null;
+
+    private String blockId = null;
+    private int blockHeight;
+    private int blockDescriptionHeightRest;
+    private int blockDescriptionX;
+    private int blockMaxXPosition;
 
     protected String[] descriptionStringArray = new String[0];
     protected int y_shift = 14;
     private List<String> description = new ArrayList<>();
     protected int additionalHeight;
-    protected static int additionalHeightRest;
-    protected static int prevXPosition;
-    protected static int prevYPosition;
+    private int descriptionHeightRest;
+    private int descriptionX;
 
     /**
      *
@@ -155,17 +163,137 @@ public abstract class AbstractSymbol extends TreeElement {
         svg.print(string);
     }
 
+    /**
+     * Numbers this symbol and its descendants in document order.
+     *
+     * @param first number of this symbol
+     * @return the last number used in the subtree
+     */
+    public int numberSubtree(int first) {
+        serial = first;
+        int last = first;
+        for (TreeElement child : getChildren()) {
+            last = ((AbstractSymbol) child).numberSubtree(last + 1);
+        }
+        lastSerial = last;
+        return last;
+    }
+
+    /**
+     * @return id of the box, the tree path in the classic output or the
+     * base-36 document order number in the compact one
+     */
+    protected String boxId() {
+        if (svg.isCompact()) {
+            return "_" + Integer.toString(serial, 36);
+        }
+        return code();
+    }
+
+    /**
+     * @param key schema component the descendants of this box are drawn
+     * from, compared by identity
+     */
+    public void setContentKey(Object key) {
+        this.contentKey = key;
+    }
+
+    /**
+     * @return
+     */
+    public Object getContentKey() {
+        return contentKey;
+    }
+
+    /**
+     * @return the properties of this box {@link #draw()} depends on besides
+     * its layout: the class, the properties of
+     * {@link #appendFingerprint(StringBuilder)} and the description
+     */
+    public String getFingerprint() {
+        StringBuilder fingerprint = new StringBuilder(getClass().getSimpleName());
+        appendFingerprint(fingerprint);
+        appendProperties(fingerprint, description);
+        return fingerprint.toString();
+    }
+
+    /**
+     * Draws the descendants of this box as a reference to a block of the
+     * defs, see {@link SvgForXsd#setDedup(boolean)}.
+     *
+     * @param id id of the block
+     * @param last last descendant of this box in document order
+     */
+    public void setBlock(String id, AbstractSymbol last) {
+        blockId = id;
+        blockHeight = last.yPosition - yPosition;
+        blockDescriptionHeightRest = last.descriptionHeightRest;
+        blockDescriptionX = last.descriptionX;
+        blockMaxXPosition = maxXPosition();
+    }
+
+    /**
+     * @return the highest x position in the subtree of this box
+     */
+    private int maxXPosition() {
+        int max = xPosition;
+        for (TreeElement child : getChildren()) {
+            max = Math.max(max, ((AbstractSymbol) child).maxXPosition());
+        }
+        return max;
+    }
+
+    /**
+     * @return
+     */
+    private String blockAttributes() {
+        if (blockId == null) {
+            return "";
+        }
+        return " data-by='" + blockHeight + "' data-br='" + blockDescriptionHeightRest + "' data-bd='" + blockDescriptionX + "' data-bm='" + blockMaxXPosition + "'";
+    }
+
     /**
      *
      */
     protected void drawGStart() {
-        print("<g id='" + code() + "' class='box' transform='translate(" + xPosition + "," + yPosition + ")' data-desc-height='" + additionalHeight + "' data-desc-height-rest='" + additionalHeightRest + "' data-desc-x='" + prevXPosition + "'>");
+        if (svg.isInBlock()) {
+            // boxes of a block have no ids and are placed relative to the block
+            if (svg.isCompact()) {
+                svg.beginBox();
+            }
+            print("<g transform='translate(" + (xPosition - svg.getBlockX()) + "," + (yPosition - svg.getBlockY()) + ")'>");
+            return;
+        }
+        if (svg.isCompact()) {
+            svg.beginBox();
+            StringBuilder g = new StringBuilder("<g id='").append(boxId()).append("' class='box' transform='translate(").append(xPosition).append(',').append(yPosition).append(")'");
+            if (lastSerial > serial) {
+                g.append(" data-e='").append(Integer.toString(lastSerial, 36)).append('\'');
+            }
+            if (descriptionHeightRest != 0) {
+                g.append(' ').append(SvgCompactor.DESC_REST_ATTRIBUTE).append("='").append(descriptionHeightRest)
+                        .append("' ").append(SvgCompactor.DESC_X_ATTRIBUTE).append("='").append(descriptionX).append('\'');
+            }
+            print(g.append(blockAttributes()).append('>').toString());
+            return;
+        }
+        print("<g id='" + code() + "' class='box' transform='translate(" + xPosition + "," + yPosition + ")' data-desc-height='" + additionalHeight + "' data-desc-height-rest='" + descriptionHeightRest + "' data-desc-x='" + descriptionX + "'" + blockAttributes() + ">");
     }
 
     /**
      *
      */
     protected void drawGEnd() {
+        if (blockId != null) {
+            // blocks are drawn relative to the right edge of the box
+            print("<use" + (svg.isInBlock() ? "" : " id='b" + boxId() + "'") + " x='" + width + "' xlink:href='#" + blockId + "'/>");
+        }
+        if (svg.isCompact()) {
+            print("</g>");
+            svg.endBox();
+            return;
+        }
         print("</g>\n");
     }
 
@@ -174,7 +302,8 @@ public abstract class AbstractSymbol extends TreeElement {
      */
     protected void drawConnection() {
         if (isLastChild() && !isFirstChild()) {
-            print("<line class='connection' id='p" + code() + "' x1='" + (10 - X_INDENT) + "' y1='" + (((AbstractSymbol) getParent()).yPosition - yPosition + MAX_HEIGHT / 2) + "' x2='" + (10 - X_INDENT) + "' y2='" + (-15 - Y_INDENT) + "'/>");
+            String id = svg.isInBlock() ? "" : " id='p" + boxId() + "'";
+            print("<line class='connection'" + id + " x1='" + (10 - X_INDENT) + "' y1='" + (((AbstractSymbol) getParent()).yPosition - yPosition + MAX_HEIGHT / 2) + "' x2='" + (10 - X_INDENT) + "' y2='" + (-15 - Y_INDENT) + "'/>");
             print("<path class='connection' d='M" + (10 - X_INDENT) + "," + (-15 - Y_INDENT) + " Q" + (10 - X_INDENT) + ",15 0," + MAX_HEIGHT / 2 + "'/>");
         } else {
             if (hasParent()) {
@@ -187,8 +316,8 @@ public abstract class AbstractSymbol extends TreeElement {
      *
      */
     protected void drawUse() {
-        if (hasChildren()) {
-            String code = code();
+        if (hasChildren() && !svg.isInBlock()) {
+            String code = boxId();
             print("<use x='" + (width - 1) + "' y='" + (MAX_HEIGHT / 2 - 6) + "' xlink:href='#minus' id='s" + code + "' onclick='show(\"" + code + "\")'/>");
         }
     }
@@ -197,7 +326,22 @@ public abstract class AbstractSymbol extends TreeElement {
      *
      */
     protected void drawMouseover() {
-        print("onmouseover='makeVisible(\"" + code() + "\")' onmouseout='makeHidden(\"" + code() + "\")'/>");
+        print("onmouseover='makeVisible(\"" + boxId() + "\")' onmouseout='makeHidden(\"" + boxId() + "\")'/>");
+    }
+
+    /**
+     * Takes the place of a laid out symbol, e.g. the first one left out of a
+     * truncated diagram.
+     *
+     * @param symbol
+     */
+    public void takePlaceOf(AbstractSymbol symbol) {
+        xPosition = symbol.xPosition;
+        yPosition = symbol.yPosition;
+        serial = symbol.serial;
+        lastSerial = symbol.serial;
+        width = getWidth();
+        height = getHeight();
     }
 
     /**
@@ -207,9 +351,9 @@ public abstract class AbstractSymbol extends TreeElement {
         if (hasParent()) {
             xPosition = ((AbstractSymbol) getParent()).getXEnd() + X_INDENT;
             if (isFirstChild()) {
-                yPosition = highestYPosition;
+                yPosition = svg.highestYPosition;
             } else {
-                yPosition = highestYPosition + MAX_HEIGHT + Y_INDENT;
+                yPosition = svg.highestYPosition + MAX_HEIGHT + Y_INDENT;
             }
         } else {
             xPosition = 20;
@@ -217,7 +361,7 @@ public abstract class AbstractSymbol extends TreeElement {
         }
         width = getWidth();
         height = getHeight();
-        highestYPosition = yPosition;
+        svg.highestYPosition = yPosition;
     }
 
     /**
@@ -225,6 +369,54 @@ public abstract class AbstractSymbol extends TreeElement {
      */
     public abstract void draw();
 
+    /**
+     * Appends the properties {@link #draw()} prints, a symbol drawing any
+     * must override it.
+     *
+     * @param fingerprint
+     */
+    protected void appendFingerprint(StringBuilder fingerprint) {
+        // the class and the description only
+    }
+
+    /**
+     * @param fingerprint
+     * @param properties separated by a character XML text can't hold
+     */
+    protected static void appendProperties(StringBuilder fingerprint, Object... properties) {
+        for (Object property : properties) {
+            fingerprint.append('\0').append(property);
+        }
+    }
+
+    /**
+     * @return true if the box has a shadow, script.js reads its width
+     */
+    protected boolean hasShadow() {
+        return false;
+    }
+
+    /**
+     * @return
+     */
+    public int getShadowWidth() {
+        return hasShadow() ? width : 0;
+    }
+
+    /**
+     * @return height left over by the descriptions up to this box
+     */
+    public int getDescriptionHeightRest() {
+        return descriptionHeightRest;
+    }
+
+    /**
+     * @return x position of the last box with a description up to this box
+     */
+    public int getDescriptionX() {
+        return descriptionX;
+    }
+
     /**
      * @return
      */
@@ -243,6 +435,17 @@ public abstract class AbstractSymbol extends TreeElement {
         this.description = description;
     }
 
+    /**
+     * Lays out the description lines, after {@link #prepareBox()} and
+     * before {@link #draw()}. The height left over by descriptions of the
+     * previous boxes is kept for the box attributes read by script.js.
+     */
+    public void prepareDescription() {
+        processDescription();
+        descriptionHeightRest = svg.additionalHeightRest;
+        descriptionX = svg.prevXPosition;
+    }
+
     protected void processDescription() {
         int wrapLength = (int) Math.round(width / 5.5);
         List<String> stringsWithBreaks = new ArrayList<>();
@@ -254,23 +457,23 @@ public abstract class AbstractSymbol extends TreeElement {
             additionalHeight += y_shift * stringsWithBreaks.size(); //descriptionStringArray.length;
         }
         descriptionStringArray = stringsWithBreaks.toArray(new String[0]);
-        if (yPosition > prevYPosition && prevYPosition != 0) {
-            additionalHeightRest = additionalHeightRest - height;
-            if (additionalHeightRest < 0) {
-                additionalHeightRest = 0;
+        if (yPosition > svg.prevYPosition && svg.prevYPosition != 0) {
+            svg.additionalHeightRest = svg.additionalHeightRest - height;
+            if (svg.additionalHeightRest < 0) {
+                svg.additionalHeightRest = 0;
             }
-            if (additionalHeightRest < additionalHeight) {
-                additionalHeightRest = additionalHeight;
+            if (svg.additionalHeightRest < additionalHeight) {
+                svg.additionalHeightRest = additionalHeight;
             }
         } else { // prevYPosition = yPosition
             if (additionalHeight != 0) {
-                additionalHeightRest = additionalHeight;
+                svg.additionalHeightRest = additionalHeight;
             }
         }
         if (!description.isEmpty()) {
-            prevXPosition = xPosition;
+            svg.prevXPosition = xPosition;
         }
-        prevYPosition = yPosition;
+        svg.prevYPosition = yPosition;
     }
 
     protected void drawDescription(int y_start) {
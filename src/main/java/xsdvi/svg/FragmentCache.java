@@ -0,0 +1,327 @@
+package xsdvi.svg;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import xsdvi.utils.DiskCache;
+import xsdvi.utils.LoggerHelper;
+
+/**
+ * Bounded in-memory cache of drawn subtrees, shared by all diagrams of a run.
+ * A fragment holds the descendants of a box drawn relative to the box, so it
+ * can be spliced into any diagram reaching the same schema component with the
+ * same layout. The least recently used fragments are evicted first.
+ * <p>
+ * With a {@link DiskCache} the fragments are also kept across runs, keyed by
+ * the content of the subtree instead of the identity of the component.
+ *
+ * @author Alexander Dyuzhev
+ */
+public class FragmentCache {
+
+    /**
+     * Version of the drawing code, fragments drawn by other versions are not
+     * reused from the disk cache.
+     */
+    public static final String TOOL_VERSION = String.valueOf(FragmentCache.class.getPackage().getImplementationVersion());
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final Logger logger = Logger.getLogger(LoggerHelper.LOGGER_NAME);
+
+    private final int maxEntries;
+    private final Map<Key, Fragment> fragments;
+    private DiskCache diskCache = null;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param maxEntries
+     */
+    public FragmentCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        fragments = new LinkedHashMap<Key, Fragment>(16, 0.75f, true) {
+            private static final long serialVersionUID = 4923186581379215502L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Fragment> eldest) {
+                return size() > FragmentCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @param key
+     * @return cached fragment or null
+     */
+    public synchronized Fragment get(Key key) {
+        Fragment fragment = fragments.get(key);
+        if (fragment != null) {
+            hits++;
+            return fragment;
+        }
+        misses++;
+        if (diskCache != null && key.content != null) {
+            byte[] data = diskCache.get(key.diskKey());
+            if (data != null) {
+                try {
+                    fragment = Fragment.fromBytes(data);
+                    fragments.put(key, fragment);
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Invalid cached fragment: {0}", e.toString());
+                }
+            }
+        }
+        return fragment;
+    }
+
+    /**
+     * @param key
+     * @param fragment
+     */
+    public synchronized void put(Key key, Fragment fragment) {
+        fragments.put(key, fragment);
+        if (diskCache != null && key.content != null) {
+            diskCache.put(key.diskKey(), fragment.toBytes());
+        }
+    }
+
+    /**
+     * @param diskCache second level kept across runs, null disables it
+     */
+    public synchronized void setDiskCache(DiskCache diskCache) {
+        this.diskCache = diskCache;
+    }
+
+    /**
+     * @return
+     */
+    public synchronized DiskCache getDiskCache() {
+        return diskCache;
+    }
+
+    /**
+     *
+     */
+    public synchronized void clear() {
+        fragments.clear();
+    }
+
+    /**
+     * @return
+     */
+    public synchronized int size() {
+        return fragments.size();
+    }
+
+    /**
+     * @return
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @return
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Schema component, compared by identity, the layout of the subtree
+     * relative to its top box and the output mode. The disk cache uses the
+     * content of the subtree in place of the component.
+     */
+    public static final class Key {
+
+        private final Object component;
+        private final String content;
+        private final String layout;
+        private final boolean compact;
+
+        /**
+         * @param component
+         * @param content digest of the drawn properties of the boxes, null if
+         * the fragment is not kept on disk
+         * @param layout digest of the classes and relative positions of the boxes
+         * @param compact
+         */
+        public Key(Object component, String content, String layout, boolean compact) {
+            this.component = component;
+            this.content = content;
+            this.layout = layout;
+            this.compact = compact;
+        }
+
+        /**
+         * @return
+         */
+        private String diskKey() {
+            return "xsdvi " + TOOL_VERSION + " " + FORMAT_VERSION + "\n" + content + "\n" + layout + "\n" + compact;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return component == other.component && compact == other.compact && layout.equals(other.layout);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(component) + layout.hashCode() + (compact ? 1 : 0);
+        }
+    }
+
+    /**
+     * Drawn descendants of a box. The parts alternate between drawn text and
+     * references to block ids: the even parts are text, the odd ones the index
+     * of the block, 0 for the block itself and n for the n-th nested fragment.
+     */
+    public static final class Fragment {
+
+        private final List<String> parts;
+        private final List<Fragment> nested;
+        private final String hash;
+
+        /**
+         * @param parts
+         * @param nested
+         * @param hash digest of the text and of the nested fragments
+         */
+        public Fragment(List<String> parts, List<Fragment> nested, String hash) {
+            this.parts = Collections.unmodifiableList(parts);
+            this.nested = Collections.unmodifiableList(nested);
+            this.hash = hash;
+        }
+
+        /**
+         * @return
+         */
+        public List<String> getParts() {
+            return parts;
+        }
+
+        /**
+         * @return
+         */
+        public List<Fragment> getNested() {
+            return nested;
+        }
+
+        /**
+         * @return
+         */
+        public String getHash() {
+            return hash;
+        }
+
+        /**
+         * @return the fragment and its nested fragments serialized
+         */
+        public byte[] toBytes() {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                write(out);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return bytes.toByteArray();
+        }
+
+        /**
+         * @param data
+         * @return
+         * @throws IOException
+         */
+        public static Fragment fromBytes(byte[] data) throws IOException {
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+                return read(in);
+            }
+        }
+
+        /**
+         * @param out
+         * @throws IOException
+         */
+        private void write(DataOutputStream out) throws IOException {
+            writeString(out, hash);
+            out.writeInt(parts.size());
+            for (String part : parts) {
+                writeString(out, part);
+            }
+            out.writeInt(nested.size());
+            for (Fragment fragment : nested) {
+                fragment.write(out);
+            }
+        }
+
+        /**
+         * @param in
+         * @return
+         * @throws IOException
+         */
+        private static Fragment read(DataInputStream in) throws IOException {
+            String hash = readString(in);
+            int partCount = in.readInt();
+            List<String> parts = new ArrayList<>(partCount);
+            for (int i = 0; i < partCount; i++) {
+                parts.add(readString(in));
+            }
+            int nestedCount = in.readInt();
+            List<Fragment> nested = new ArrayList<>(nestedCount);
+            for (int i = 0; i < nestedCount; i++) {
+                nested.add(read(in));
+            }
+            return new Fragment(parts, nested, hash);
+        }
+
+        /**
+         * @param out
+         * @param string
+         * @throws IOException
+         */
+        private static void writeString(DataOutputStream out, String string) throws IOException {
+            // writeUTF is limited to 64 KB
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        /**
+         * @param in
+         * @return
+         * @throws IOException
+         */
+        private static String readString(DataInputStream in) throws IOException {
+            int length = in.readInt();
+            if (length < 0 || length > in.available()) {
+                throw new IOException("Truncated fragment");
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
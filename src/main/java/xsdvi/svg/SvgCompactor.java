@@ -0,0 +1,217 @@
+package xsdvi.svg;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rewrites generated SVG fragments for the compact output mode: empty and
+ * hidden text nodes are dropped, text lines of a box are merged into one text
+ * element, style classes get short names and whitespace between elements is
+ * removed.
+ *
+ * @author Alexander Dyuzhev
+ */
+public final class SvgCompactor {
+
+    private static final Map<String, String> CLASSES = new HashMap<>();
+
+    static {
+        // classes read by script.js ('box', 'shadow', 'hidden') keep their names,
+        // 'visible' is only read by the mouseover handlers not used by draw()
+        CLASSES.put("visible", "");
+        CLASSES.put("strong", "s");
+        CLASSES.put("small", "sm");
+        CLASSES.put("big", "b");
+        CLASSES.put("button", "bt");
+        CLASSES.put("connection", "c");
+        CLASSES.put("empty", "e");
+        CLASSES.put("filled", "f");
+        CLASSES.put("boxelement", "be");
+        CLASSES.put("boxelementoptional", "bo");
+        CLASSES.put("boxany", "ba");
+        CLASSES.put("boxattribute1", "a1");
+        CLASSES.put("boxattribute2", "a2");
+        CLASSES.put("boxanyattribute", "aa");
+        CLASSES.put("boxschema", "bs");
+        CLASSES.put("boxloop", "bl");
+        CLASSES.put("boxcompositor", "bc");
+        CLASSES.put("boxselector", "bsl");
+        CLASSES.put("boxfield", "bf");
+        CLASSES.put("boxidc", "bi");
+        CLASSES.put("boxtruncated", "btr");
+        CLASSES.put("lax", "lx");
+        CLASSES.put("skip", "sk");
+        CLASSES.put("strict", "st");
+        CLASSES.put("border", "bd");
+        CLASSES.put("elementlink", "l");
+        CLASSES.put("desc", "d");
+    }
+
+    /**
+     * Short name of the 'data-desc-height-rest' box attribute.
+     */
+    public static final String DESC_REST_ATTRIBUTE = "data-r";
+
+    /**
+     * Short name of the 'data-desc-x' box attribute.
+     */
+    public static final String DESC_X_ATTRIBUTE = "data-x";
+
+    private static final Pattern TEXT = Pattern.compile("<text([^>]*)>(.*?)</text>");
+    private static final Pattern CLASS_ATTRIBUTE = Pattern.compile(" class='([^']*)'");
+    private static final Pattern CLASS_SELECTOR = Pattern.compile("\\.([\\w-]+)");
+    private static final Pattern BETWEEN_TAGS = Pattern.compile(">\\s+<");
+    private static final Pattern ZERO_COORDINATE = Pattern.compile(" (?:x|y|x1|y1|x2|y2|cx|cy)='0'");
+
+    /**
+     *
+     */
+    private SvgCompactor() {
+        // no instances
+    }
+
+    /**
+     * @param box all fragments of one box, from its &lt;g&gt; to &lt;/g&gt;
+     * @return
+     */
+    public static String compactBox(String box) {
+        Matcher matcher = TEXT.matcher(box);
+        StringBuilder result = new StringBuilder(box.length());
+        StringBuilder text = new StringBuilder("<text>");
+        String single = null;
+        int lines = 0;
+        int textAt = -1;
+        int position = 0;
+        while (matcher.find()) {
+            result.append(box, position, matcher.start());
+            position = matcher.end();
+            // hidden texts are only shown by the mouseover handlers not used by draw()
+            if (matcher.group(2).isEmpty() || matcher.group(1).contains("visibility='hidden'")) {
+                continue;
+            }
+            if (textAt < 0) {
+                textAt = result.length();
+                single = matcher.group();
+            }
+            lines++;
+            text.append("<tspan").append(matcher.group(1)).append('>').append(matcher.group(2)).append("</tspan>");
+        }
+        result.append(box, position, box.length());
+        if (lines == 1) {
+            result.insert(textAt, single);
+        } else if (lines > 1) {
+            result.insert(textAt, text.append("</text>"));
+        }
+        return compactFragment(result.toString());
+    }
+
+    /**
+     * @param fragment
+     * @return fragment with short class names and no whitespace between elements
+     */
+    public static String compactFragment(String fragment) {
+        Matcher matcher = CLASS_ATTRIBUTE.matcher(fragment);
+        StringBuffer result = new StringBuffer(fragment.length());
+        while (matcher.find()) {
+            StringBuilder classes = new StringBuilder();
+            for (String name : matcher.group(1).split(" ")) {
+                String shortName = CLASSES.getOrDefault(name, name);
+                if (classes.length() > 0 && !shortName.isEmpty()) {
+                    classes.append(' ');
+                }
+                classes.append(shortName);
+            }
+            String attribute = classes.length() > 0 ? " class='" + classes + "'" : "";
+            matcher.appendReplacement(result, Matcher.quoteReplacement(attribute));
+        }
+        matcher.appendTail(result);
+        // zero is the initial value of all coordinates
+        String compacted = ZERO_COORDINATE.matcher(result.toString().trim()).replaceAll("");
+        return BETWEEN_TAGS.matcher(compacted).replaceAll("><");
+    }
+
+    /**
+     * @param css
+     * @return style sheet with short class names on one line
+     */
+    public static String compactStyle(String css) {
+        Matcher matcher = CLASS_SELECTOR.matcher(css);
+        StringBuffer result = new StringBuffer(css.length());
+        while (matcher.find()) {
+            matcher.appendReplacement(result, Matcher.quoteReplacement("." + CLASSES.getOrDefault(matcher.group(1), matcher.group(1))));
+        }
+        matcher.appendTail(result);
+        return result.toString().replaceAll("\\s*\\n\\s*", "");
+    }
+
+    /**
+     * Strips indentation and comment lines. Line breaks are kept, the script
+     * relies on them.
+     *
+     * @param script
+     * @return
+     */
+    public static String compactScript(String script) {
+        StringBuilder result = new StringBuilder(script.length());
+        appendScriptLines(result, script);
+        return result.toString().trim()
+                .replace("'data-desc-height-rest'", "'" + DESC_REST_ATTRIBUTE + "'")
+                .replace("'data-desc-x'", "'" + DESC_X_ATTRIBUTE + "'");
+    }
+
+    /**
+     * @param result
+     * @param lines
+     */
+    private static void appendScriptLines(StringBuilder result, String lines) {
+        for (String line : lines.split("\n")) {
+            String trimmed = line.trim();
+            if (!trimmed.isEmpty() && !trimmed.startsWith("//")) {
+                result.append(stripSpaces(trimmed)).append('\n');
+            }
+        }
+    }
+
+    /**
+     * @param line script line without comments
+     * @return line without spaces, except the ones separating two words
+     * and the ones in string literals
+     */
+    private static String stripSpaces(String line) {
+        StringBuilder result = new StringBuilder(line.length());
+        char quote = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (Character.isWhitespace(c)) {
+                int next = i + 1;
+                while (next < line.length() && Character.isWhitespace(line.charAt(next))) {
+                    next++;
+                }
+                if (result.length() > 0 && next < line.length()
+                        && isWordChar(result.charAt(result.length() - 1)) && isWordChar(line.charAt(next))) {
+                    result.append(' ');
+                }
+                i = next - 1;
+                continue;
+            }
+            result.append(c);
+        }
+        return result.toString();
+    }
+
+    /**
+     * @param c
+     * @return
+     */
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '%';
+    }
+}
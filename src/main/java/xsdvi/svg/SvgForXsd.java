@@ -1,6 +1,26 @@
 package xsdvi.svg;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 import xsdvi.utils.FileHelper;
+import xsdvi.utils.FlightEvents;
+import xsdvi.utils.LoggerHelper;
+import xsdvi.utils.Metrics;
+import xsdvi.utils.RenderBudget;
 import xsdvi.utils.TreeElement;
 import xsdvi.utils.WriterHelper;
 
@@ -10,11 +30,41 @@ import xsdvi.utils.WriterHelper;
  */
 public class SvgForXsd {
 
+    private static final Logger logger = Logger.getLogger(LoggerHelper.LOGGER_NAME);
+
     protected WriterHelper writer;
     private String styleUri = null;
     private boolean embodyStyle = true;
 
     private boolean hideMenuButtons = false;
+    private boolean compact = false;
+    private StringBuilder box = null;
+    private boolean dedup = false;
+    private StringBuilder capture = null;
+    private boolean inBlock = false;
+    private int blockX;
+    private int blockY;
+    private Map<AbstractSymbol, String> blockHashes;
+    private Map<String, String> blockIds;
+    private StringBuilder blocks;
+    private FragmentCache fragmentCache = null;
+    private Map<AbstractSymbol, FragmentCache.Fragment> fragments;
+    private Metrics metrics = new Metrics(false);
+    private String rootName = null;
+    private RenderBudget budget = null;
+    private long startChars;
+    private boolean truncated = false;
+
+    // layout state carried from box to box, see AbstractSymbol
+    int highestYPosition;
+    int additionalHeightRest;
+    int prevXPosition;
+    int prevYPosition;
+
+    private static final String REFERENCE = "\u0000";
+
+    private static final Pattern SCRIPT_SECTION = Pattern.compile("^////////// (\\w+)");
+    private static final Pattern FUNCTION = Pattern.compile("function (\\w+)\\(");
 
     /**
      *
@@ -61,6 +111,29 @@ public class SvgForXsd {
      */
     protected static final String SVG_END = new FileHelper().readStringFromResourceFile("svg/svg_end.txt");
 
+    /**
+     * Variants of the resources for compact and dedup output, derived on
+     * first use so a classic run doesn't read and compact them at startup.
+     */
+    private static final class Variants {
+
+        static final String COMPACT_IDS_SCRIPT = new FileHelper().readStringFromResourceFile("svg/script_compact.js");
+        static final String DEDUP_BLOCKS_SCRIPT = new FileHelper().readStringFromResourceFile("svg/script_dedup.js");
+        static final String COMPACT_SCRIPT = SvgCompactor.compactScript(overrideScript(SCRIPT, COMPACT_IDS_SCRIPT));
+        static final String DEDUP_SCRIPT = overrideScript(SCRIPT, DEDUP_BLOCKS_SCRIPT);
+        static final String COMPACT_DEDUP_SCRIPT = SvgCompactor.compactScript(overrideScript(overrideScript(SCRIPT, COMPACT_IDS_SCRIPT), DEDUP_BLOCKS_SCRIPT));
+        static final String COMPACT_STYLE = SvgCompactor.compactStyle(STYLE);
+        static final String COMPACT_DEFINED_SYMBOLS = SvgCompactor.compactFragment(DEFINED_SYMBOLS);
+        static final String COMPACT_MENU_BUTTONS = SvgCompactor.compactFragment(MENU_BUTTONS);
+
+        /**
+         *
+         */
+        private Variants() {
+            // constants only
+        }
+    }
+
     /**
      * @param w
      */
@@ -74,6 +147,9 @@ public class SvgForXsd {
     protected void printStyleRef() {
         String style_template = new FileHelper().readStringFromResourceFile("svg/style.xml");
         print(style_template.replaceAll("%STYLE_URI%", styleUri));
+        if (compact) {
+            print("\n");
+        }
     }
 
     /**
@@ -81,7 +157,11 @@ public class SvgForXsd {
      */
     protected void printEmbodiedStyle() {
         String style_template = new FileHelper().readStringFromResourceFile("svg/style.html");
-        print(style_template.replaceAll("%STYLE%", STYLE));
+        if (compact) {
+            print(style_template.replace("\n", "").replace("%STYLE%", Variants.COMPACT_STYLE));
+        } else {
+            print(style_template.replaceAll("%STYLE%", STYLE));
+        }
     }
 
     /**
@@ -94,7 +174,7 @@ public class SvgForXsd {
             printEmbodiedStyle();
         }
         if (symbols) {
-            print(DEFINED_SYMBOLS);
+            print(compact ? Variants.COMPACT_DEFINED_SYMBOLS : DEFINED_SYMBOLS);
         }
         print("</defs>");
     }
@@ -104,7 +184,7 @@ public class SvgForXsd {
      */
     public void printExternStyle() {
         writer.newWriter(styleUri);
-        print(STYLE);
+        print(compact ? Variants.COMPACT_STYLE : STYLE);
         writer.close();
     }
 
@@ -112,6 +192,10 @@ public class SvgForXsd {
      *
      */
     public void begin() {
+        if (compact) {
+            beginCompact();
+            return;
+        }
         print(XML_DECLARATION);
         if (!embodyStyle) {
             printStyleRef();
@@ -120,7 +204,7 @@ public class SvgForXsd {
         print(SVG_START);
         print(TITLE);
 
-        print(SCRIPT
+        print((hasBlocks() ? Variants.DEDUP_SCRIPT : SCRIPT)
                 .replaceAll("%HEIGHT_SUM%", String.valueOf(AbstractSymbol.MAX_HEIGHT + AbstractSymbol.Y_INDENT))
                 .replaceAll("%HEIGHT_HALF%", String.valueOf(AbstractSymbol.MAX_HEIGHT / 2)));
 
@@ -131,6 +215,26 @@ public class SvgForXsd {
         }
     }
 
+    /**
+     * Same as {@link #begin()} without doctype, script comments and
+     * whitespace between elements.
+     */
+    protected void beginCompact() {
+        print(XML_DECLARATION + "\n");
+        if (!embodyStyle) {
+            printStyleRef();
+        }
+        print(SVG_START);
+        print(TITLE);
+        print((hasBlocks() ? Variants.COMPACT_DEDUP_SCRIPT : Variants.COMPACT_SCRIPT)
+                .replace("%HEIGHT_SUM%", String.valueOf(AbstractSymbol.MAX_HEIGHT + AbstractSymbol.Y_INDENT))
+                .replace("%HEIGHT_HALF%", String.valueOf(AbstractSymbol.MAX_HEIGHT / 2)));
+        printDefs(embodyStyle, true);
+        if (!hideMenuButtons) {
+            print(Variants.COMPACT_MENU_BUTTONS);
+        }
+    }
+
     /**
      *
      */
@@ -139,11 +243,77 @@ public class SvgForXsd {
         writer.close();
     }
 
+    /**
+     * Replaces the script sections redefined in overrides, the overrides are
+     * added at the end of the script.
+     *
+     * @param script script.js, sections start with '////////// name('
+     * @param overrides functions replacing the script sections of the same name
+     * @return
+     */
+    protected static String overrideScript(String script, String overrides) {
+        Matcher functions = FUNCTION.matcher(overrides);
+        Set<String> overridden = new HashSet<>();
+        while (functions.find()) {
+            overridden.add(functions.group(1));
+        }
+        List<String> lines = new ArrayList<>();
+        boolean skip = false;
+        for (String line : script.split("\n")) {
+            Matcher section = SCRIPT_SECTION.matcher(line);
+            if (section.find()) {
+                skip = overridden.contains(section.group(1));
+            }
+            if (line.trim().equals("]]></script>")) {
+                lines.add(overrides);
+                lines.add("");
+                skip = false;
+            }
+            if (!skip) {
+                lines.add(line);
+            }
+        }
+        return String.join("\n", lines);
+    }
+
     /**
      * @param string
      */
     protected void print(String string) {
-        writer.append(string + "\n");
+        if (!compact) {
+            write(string + "\n");
+        } else if (box != null) {
+            box.append(string);
+        } else {
+            write(string);
+        }
+    }
+
+    /**
+     * @param string
+     */
+    private void write(CharSequence string) {
+        if (capture != null) {
+            capture.append(string);
+        } else {
+            writer.append(string.toString());
+        }
+    }
+
+    /**
+     * Starts collecting fragments of one box, compact mode only.
+     */
+    protected void beginBox() {
+        box = new StringBuilder();
+    }
+
+    /**
+     * Writes the collected box fragments compacted.
+     */
+    protected void endBox() {
+        String fragments = box.toString();
+        box = null;
+        write(SvgCompactor.compactBox(fragments));
     }
 
     /**
@@ -164,6 +334,110 @@ public class SvgForXsd {
         this.hideMenuButtons = hideMenuButtons;
     }
 
+    /**
+     * @param compact minified output with short class names and ids
+     */
+    public void setCompact(boolean compact) {
+        this.compact = compact;
+    }
+
+    /**
+     * @return
+     */
+    public boolean isCompact() {
+        return compact;
+    }
+
+    /**
+     * @param dedup draw repeated subtrees once and reference them with
+     * &lt;use&gt; elements
+     */
+    public void setDedup(boolean dedup) {
+        this.dedup = dedup;
+    }
+
+    /**
+     * @return
+     */
+    public boolean isDedup() {
+        return dedup;
+    }
+
+    /**
+     * @param cache cache of the drawn descendants of boxes drawn from a schema
+     * component, shared with the other diagrams; null disables it
+     */
+    public void setFragmentCache(FragmentCache cache) {
+        this.fragmentCache = cache;
+    }
+
+    /**
+     * @return
+     */
+    public FragmentCache getFragmentCache() {
+        return fragmentCache;
+    }
+
+    /**
+     * @param metrics receives the layout and draw times and the symbol counts
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param rootName name of the root of the diagram drawn next, for the
+     * flight recorder events
+     */
+    public void setRootName(String rootName) {
+        this.rootName = rootName;
+    }
+
+    /**
+     * @param budget limits the bytes and the time of drawing, started by the
+     * caller for each diagram; null for no limits
+     */
+    public void setBudget(RenderBudget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * @return true if the last diagram was cut off while drawing
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * @return true while drawing a block of the defs, see
+     * {@link #setDedup(boolean)}
+     */
+    public boolean isInBlock() {
+        return inBlock;
+    }
+
+    /**
+     * @return x position of the right edge of the box the current block
+     * belongs to
+     */
+    public int getBlockX() {
+        return blockX;
+    }
+
+    /**
+     * @return y position of the box the current block belongs to
+     */
+    public int getBlockY() {
+        return blockY;
+    }
+
     /**
      * @param embody
      */
@@ -192,24 +466,551 @@ public class SvgForXsd {
         return embodyStyle;
     }
 
+    /**
+     * @param rootSymbol
+     * @return digest of the drawn properties of the symbols of a diagram,
+     * equal for diagrams drawn alike with the same options
+     */
+    public String digest(AbstractSymbol rootSymbol) {
+        return digestContent(rootSymbol, new IdentityHashMap<>());
+    }
+
     /**
      * @param rootSymbol
      */
     public void draw(AbstractSymbol rootSymbol) {
+        // the diagram must not depend on the ones drawn before
+        highestYPosition = 0;
+        additionalHeightRest = 0;
+        prevXPosition = 0;
+        prevYPosition = 0;
+        if (compact) {
+            rootSymbol.numberSubtree(1);
+        }
+        boolean useBlocks = dedup || fragmentCache != null;
+        metrics.enter(Metrics.Phase.LAYOUT);
+        FlightEvents.Layout layoutEvent = new FlightEvents.Layout();
+        layoutEvent.begin();
+        List<AbstractSymbol> symbols = new ArrayList<>();
+        collectSymbols(rootSymbol, symbols);
+        for (AbstractSymbol symbol : symbols) {
+            symbol.setSvg(this);
+            symbol.prepareBox();
+            symbol.prepareDescription();
+            metrics.countSymbol(symbol.getClass().getSimpleName());
+        }
+        if (useBlocks) {
+            findBlocks(rootSymbol, symbols);
+        }
+        if (layoutEvent.shouldCommit()) {
+            layoutEvent.root = rootName;
+            layoutEvent.nodes = symbols.size();
+            layoutEvent.commit();
+        }
+        metrics.exit();
+        metrics.enter(Metrics.Phase.DRAW);
+        truncated = false;
+        startChars = writer.getCharsWritten();
+        if (budget != null) {
+            budget.startDrawing();
+        }
         begin();
-        drawSymbol(rootSymbol);
+        if (useBlocks) {
+            drawDeduplicated(rootSymbol);
+        } else {
+            // a box is drawn from its own layout and the one of its parent
+            rootSymbol.draw();
+            List<TreeElement> children = rootSymbol.getChildren();
+            for (int i = 0; i < children.size() && !truncate(rootSymbol, i); i++) {
+                drawSubtree((AbstractSymbol) children.get(i), false);
+            }
+        }
         end();
+        metrics.exit();
+    }
+
+    /**
+     * Draws a subtree below the root box, recorded as one flight recorder
+     * event.
+     *
+     * @param symbol
+     * @param useBlocks
+     */
+    private void drawSubtree(AbstractSymbol symbol, boolean useBlocks) {
+        FlightEvents.Draw event = new FlightEvents.Draw();
+        event.begin();
+        long chars = writer.getCharsWritten() + (blocks != null ? blocks.length() : 0);
+        if (useBlocks) {
+            drawBlocks(symbol);
+        } else {
+            drawSymbols(symbol);
+        }
+        if (event.shouldCommit()) {
+            event.root = rootName;
+            event.subtree = symbol.code();
+            event.nodes = countSymbols(symbol);
+            event.bytes = writer.getCharsWritten() + (blocks != null ? blocks.length() : 0) - chars;
+            event.commit();
+        }
     }
 
     /**
      * @param symbol
      */
-    private void drawSymbol(AbstractSymbol symbol) {
+    private void drawSymbols(AbstractSymbol symbol) {
+        symbol.draw();
+        List<TreeElement> children = symbol.getChildren();
+        for (int i = 0; i < children.size() && !truncate(symbol, i); i++) {
+            drawSymbols((AbstractSymbol) children.get(i));
+        }
+    }
+
+    /**
+     * Checks the budget before drawing a box. Once it is exceeded, the box is
+     * replaced by a truncation box in its place and the boxes after it are
+     * not drawn: its following siblings are removed from the tree, so the
+     * connections of the truncation box end the branch.
+     *
+     * @param parent
+     * @param index index of the child drawn next
+     * @return true if the diagram is cut off
+     */
+    private boolean truncate(AbstractSymbol parent, int index) {
+        if (truncated) {
+            return true;
+        }
+        if (budget == null || !budget.checkBytes(writer.getCharsWritten() - startChars + (blocks != null ? blocks.length() : 0))) {
+            return false;
+        }
+        truncated = true;
+        List<TreeElement> children = parent.getChildren();
+        SymbolTruncated symbol = new SymbolTruncated(budget.getExceeded());
         symbol.setSvg(this);
-        symbol.prepareBox();
+        symbol.takePlaceOf((AbstractSymbol) children.get(index));
+        children.subList(index + 1, children.size()).clear();
+        children.set(index, symbol);
+        symbol.setParent(parent);
         symbol.draw();
+        String warning = "Diagram " + (rootName == null ? "of the schema" : rootName) + " truncated at " + symbol.code() + ": " + budget.getExceeded();
+        logger.warning(warning);
+        metrics.addWarning(warning);
+        return true;
+    }
+
+    /**
+     * @param symbol
+     * @return number of symbols in the subtree
+     */
+    private static int countSymbols(AbstractSymbol symbol) {
+        int count = 1;
+        for (TreeElement s : symbol.getChildren()) {
+            count += countSymbols((AbstractSymbol) s);
+        }
+        return count;
+    }
+
+    /**
+     * @return true if the diagram being drawn has subtrees drawn as blocks,
+     * see {@link #setDedup(boolean)} and {@link #setFragmentCache(FragmentCache)}
+     */
+    protected boolean hasBlocks() {
+        return (blockHashes != null && !blockHashes.isEmpty()) || (fragments != null && !fragments.isEmpty());
+    }
+
+    /**
+     * Finds the boxes whose descendants are drawn once into the defs and
+     * referenced with &lt;use&gt;: in the dedup mode because the same subtree,
+     * with the same relative layout, appears again elsewhere in the diagram,
+     * with a fragment cache because the subtree is drawn from a schema
+     * component other diagrams reach too. Boxes are placed where script.js
+     * moves them on load, so the relative layout is the final one.
+     *
+     * @param rootSymbol
+     * @param symbols symbols in document order, laid out
+     */
+    private void findBlocks(AbstractSymbol rootSymbol, List<AbstractSymbol> symbols) {
+        alignToScript(symbols);
+
+        fragments = new IdentityHashMap<>();
+        if (fragmentCache != null) {
+            Map<AbstractSymbol, String> layouts = new IdentityHashMap<>();
+            digestLayout(rootSymbol, layouts);
+            Map<AbstractSymbol, String> contents = null;
+            if (fragmentCache.getDiskCache() != null) {
+                contents = new IdentityHashMap<>();
+                digestContent(rootSymbol, contents);
+            }
+            findFragments(rootSymbol, layouts, contents);
+        }
+        blockHashes = new IdentityHashMap<>();
+        if (!dedup) {
+            return;
+        }
+        Map<AbstractSymbol, String> subtreeHashes = new IdentityHashMap<>();
+        Map<String, Integer> occurrences = new HashMap<>();
+        hashSymbol(rootSymbol, subtreeHashes, occurrences);
+        Map<String, Integer> references = new HashMap<>();
+        countReferences(rootSymbol, subtreeHashes, occurrences, references, new HashSet<>());
+        for (Map.Entry<AbstractSymbol, String> entry : subtreeHashes.entrySet()) {
+            if (references.getOrDefault(entry.getValue(), 0) > 1) {
+                blockHashes.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Draws the diagram with the blocks found by
+     * {@link #findBlocks(AbstractSymbol)}.
+     *
+     * @param rootSymbol
+     */
+    private void drawDeduplicated(AbstractSymbol rootSymbol) {
+        blockIds = new HashMap<>();
+        blocks = new StringBuilder();
+        if (fragments.containsKey(rootSymbol) || blockHashes.containsKey(rootSymbol)) {
+            drawBlocks(rootSymbol);
+        } else {
+            rootSymbol.draw();
+            List<TreeElement> children = rootSymbol.getChildren();
+            for (int i = 0; i < children.size() && !truncate(rootSymbol, i); i++) {
+                drawSubtree((AbstractSymbol) children.get(i), true);
+            }
+        }
+        if (blocks.length() > 0) {
+            print("<defs>");
+            write(blocks);
+            print("</defs>");
+        }
+        blockHashes = null;
+        fragments = null;
+        blockIds = null;
+        blocks = null;
+    }
+
+    /**
+     * @param symbol
+     * @param symbols symbols in document order
+     */
+    private void collectSymbols(AbstractSymbol symbol, List<AbstractSymbol> symbols) {
+        symbols.add(symbol);
+        for (TreeElement s : symbol.getChildren()) {
+            collectSymbols((AbstractSymbol) s, symbols);
+        }
+    }
+
+    /**
+     * Sets the y positions computed by move() of script.js on load.
+     *
+     * @param symbols symbols in document order
+     */
+    private void alignToScript(List<AbstractSymbol> symbols) {
+        AbstractSymbol last = null;
+        for (AbstractSymbol symbol : symbols) {
+            if (last == null) {
+                last = symbol;
+                continue;
+            }
+            if (symbol.getParent() == last) {
+                symbol.setYPosition(last.getYPosition());
+            } else {
+                int descHeight = last.getDescriptionHeightRest();
+                int descX = last.getDescriptionX();
+                int x = symbol.getXPosition();
+                int heightAddon = 0;
+                if (descHeight != 0 && ((descX >= x && descX < x + symbol.getShadowWidth()) || x < descX)) {
+                    heightAddon = descHeight;
+                }
+                symbol.setYPosition(last.getYPosition() + AbstractSymbol.MAX_HEIGHT + AbstractSymbol.Y_INDENT + heightAddon);
+            }
+            last = symbol;
+        }
+    }
+
+    /**
+     * Hashes what a symbol draws inside a block, its fingerprint and width,
+     * and the layout of its descendants relative to its right edge, like
+     * {@link #digestContent(AbstractSymbol, Map)} and
+     * {@link #digestLayout(AbstractSymbol, Map)}.
+     *
+     * @param symbol
+     * @param subtreeHashes hashes of the descendants of the symbols with children
+     * @param occurrences
+     * @return hash of the symbol and its descendants
+     */
+    private String hashSymbol(AbstractSymbol symbol, Map<AbstractSymbol, String> subtreeHashes, Map<String, Integer> occurrences) {
+        String subtreeHash = "";
+        FragmentCache.Fragment fragment = fragments.get(symbol);
+        if (fragment != null) {
+            subtreeHash = fragment.getHash();
+        } else if (symbol.hasChildren()) {
+            StringBuilder children = new StringBuilder();
+            for (TreeElement s : symbol.getChildren()) {
+                AbstractSymbol child = (AbstractSymbol) s;
+                children.append(child.getXPosition() - symbol.getXEnd()).append(',')
+                        .append(child.getYPosition() - symbol.getYPosition()).append(',')
+                        .append(hashSymbol(child, subtreeHashes, occurrences)).append(';');
+            }
+            subtreeHash = digest(children);
+            subtreeHashes.put(symbol, subtreeHash);
+            occurrences.merge(subtreeHash, 1, Integer::sum);
+        }
+        return digest(symbol.getFingerprint() + ',' + (symbol.getXEnd() - symbol.getXPosition()) + ',' + subtreeHash);
+    }
+
+    /**
+     * Counts the references to repeated subtrees the way they are drawn: the
+     * content of a block is drawn only once, so a subtree repeated only
+     * inside one block needs no block of its own.
+     *
+     * @param symbol
+     * @param subtreeHashes
+     * @param occurrences
+     * @param references
+     * @param drawn
+     */
+    private void countReferences(AbstractSymbol symbol, Map<AbstractSymbol, String> subtreeHashes, Map<String, Integer> occurrences, Map<String, Integer> references, Set<String> drawn) {
+        String subtreeHash = subtreeHashes.get(symbol);
+        if (subtreeHash != null && occurrences.get(subtreeHash) > 1) {
+            references.merge(subtreeHash, 1, Integer::sum);
+            if (!drawn.add(subtreeHash)) {
+                return;
+            }
+        }
+        if (fragments.containsKey(symbol)) {
+            return;
+        }
         for (TreeElement s : symbol.getChildren()) {
-            drawSymbol((AbstractSymbol) s);
+            countReferences((AbstractSymbol) s, subtreeHashes, occurrences, references, drawn);
+        }
+    }
+
+    /**
+     * @param symbol
+     */
+    private void drawBlocks(AbstractSymbol symbol) {
+        FragmentCache.Fragment fragment = fragments.get(symbol);
+        if (fragment != null) {
+            symbol.setBlock(defineFragment(fragment), lastDescendant(symbol));
+            symbol.draw();
+            return;
+        }
+        String subtreeHash = blockHashes.get(symbol);
+        if (subtreeHash != null) {
+            symbol.setBlock(defineBlock(symbol, subtreeHash), lastDescendant(symbol));
+            symbol.draw();
+            return;
+        }
+        symbol.draw();
+        List<TreeElement> children = symbol.getChildren();
+        for (int i = 0; i < children.size() && !truncate(symbol, i); i++) {
+            drawBlocks((AbstractSymbol) children.get(i));
+        }
+    }
+
+    /**
+     * @param symbol
+     * @param subtreeHash
+     * @return id of the block with the descendants of the symbol
+     */
+    private String defineBlock(AbstractSymbol symbol, String subtreeHash) {
+        String id = blockIds.get(subtreeHash);
+        if (id != null) {
+            return id;
+        }
+        id = "d" + (blockIds.size() + 1);
+        blockIds.put(subtreeHash, id);
+        StringBuilder previousCapture = capture;
+        boolean previousInBlock = inBlock;
+        int previousX = blockX;
+        int previousY = blockY;
+        capture = new StringBuilder();
+        inBlock = true;
+        blockX = symbol.getXEnd();
+        blockY = symbol.getYPosition();
+        print("<g id='" + id + "'>");
+        for (TreeElement s : symbol.getChildren()) {
+            drawBlocks((AbstractSymbol) s);
+        }
+        print("</g>");
+        blocks.append(capture);
+        capture = previousCapture;
+        inBlock = previousInBlock;
+        blockX = previousX;
+        blockY = previousY;
+        return id;
+    }
+
+    /**
+     * @param symbol
+     * @return last descendant of the symbol in document order
+     */
+    private static AbstractSymbol lastDescendant(AbstractSymbol symbol) {
+        AbstractSymbol last = symbol;
+        while (last.hasChildren()) {
+            last = (AbstractSymbol) last.getLastChild();
+        }
+        return last;
+    }
+
+    /**
+     * @param symbol
+     * @param layouts digests of the classes and positions of the descendants
+     * of each symbol, relative to its right edge
+     * @return digest of the symbol and its descendants
+     */
+    private String digestLayout(AbstractSymbol symbol, Map<AbstractSymbol, String> layouts) {
+        StringBuilder layout = new StringBuilder();
+        for (TreeElement s : symbol.getChildren()) {
+            AbstractSymbol child = (AbstractSymbol) s;
+            layout.append(child.getXPosition() - symbol.getXEnd()).append(',')
+                    .append(child.getYPosition() - symbol.getYPosition()).append(',')
+                    .append(digestLayout(child, layouts)).append(';');
+        }
+        String digest = digest(layout);
+        layouts.put(symbol, digest);
+        return digest(symbol.getClass().getSimpleName() + digest);
+    }
+
+    /**
+     * @param symbol
+     * @param contents digests of the fingerprints of the descendants of each
+     * symbol, see {@link AbstractSymbol#getFingerprint()}
+     * @return digest of the symbol and its descendants
+     */
+    private String digestContent(AbstractSymbol symbol, Map<AbstractSymbol, String> contents) {
+        StringBuilder content = new StringBuilder();
+        for (TreeElement s : symbol.getChildren()) {
+            content.append(digestContent((AbstractSymbol) s, contents)).append(';');
+        }
+        String digest = digest(content);
+        contents.put(symbol, digest);
+        return digest(symbol.getFingerprint() + digest);
+    }
+
+    /**
+     * @param symbol
+     * @param layouts
+     * @param contents null if the fragments are not kept on disk
+     */
+    private void findFragments(AbstractSymbol symbol, Map<AbstractSymbol, String> layouts, Map<AbstractSymbol, String> contents) {
+        if (symbol.getContentKey() != null && symbol.hasChildren()) {
+            fragments.put(symbol, fragmentOf(symbol, layouts, contents));
+            return;
+        }
+        for (TreeElement s : symbol.getChildren()) {
+            findFragments((AbstractSymbol) s, layouts, contents);
+        }
+    }
+
+    /**
+     * @param symbol
+     * @param layouts
+     * @param contents
+     * @return cached descendants of the symbol, drawn on a cache miss
+     */
+    private FragmentCache.Fragment fragmentOf(AbstractSymbol symbol, Map<AbstractSymbol, String> layouts, Map<AbstractSymbol, String> contents) {
+        String content = contents == null ? null : contents.get(symbol);
+        FragmentCache.Key key = new FragmentCache.Key(symbol.getContentKey(), content, layouts.get(symbol), compact);
+        FragmentCache.Fragment fragment = fragmentCache.get(key);
+        if (fragment == null) {
+            metrics.enter(Metrics.Phase.DRAW);
+            fragment = drawFragment(symbol, layouts, contents);
+            metrics.exit();
+            fragmentCache.put(key, fragment);
+        }
+        return fragment;
+    }
+
+    /**
+     * @param symbol
+     * @param layouts
+     * @param contents
+     * @return descendants of the symbol drawn relative to its right edge
+     */
+    private FragmentCache.Fragment drawFragment(AbstractSymbol symbol, Map<AbstractSymbol, String> layouts, Map<AbstractSymbol, String> contents) {
+        List<FragmentCache.Fragment> nested = new ArrayList<>();
+        StringBuilder previousCapture = capture;
+        boolean previousInBlock = inBlock;
+        int previousX = blockX;
+        int previousY = blockY;
+        capture = new StringBuilder();
+        inBlock = true;
+        blockX = symbol.getXEnd();
+        blockY = symbol.getYPosition();
+        print("<g id='" + REFERENCE + 0 + REFERENCE + "'>");
+        for (TreeElement s : symbol.getChildren()) {
+            drawFragmentSymbol((AbstractSymbol) s, layouts, contents, nested);
+        }
+        print("</g>");
+        String drawn = capture.toString();
+        capture = previousCapture;
+        inBlock = previousInBlock;
+        blockX = previousX;
+        blockY = previousY;
+        StringBuilder content = new StringBuilder(drawn);
+        for (FragmentCache.Fragment fragment : nested) {
+            content.append(fragment.getHash());
+        }
+        return new FragmentCache.Fragment(Arrays.asList(drawn.split(REFERENCE, -1)), nested, digest(content));
+    }
+
+    /**
+     * @param symbol
+     * @param layouts
+     * @param contents
+     * @param nested fragments referenced by the fragment being drawn
+     */
+    private void drawFragmentSymbol(AbstractSymbol symbol, Map<AbstractSymbol, String> layouts, Map<AbstractSymbol, String> contents, List<FragmentCache.Fragment> nested) {
+        if (symbol.getContentKey() != null && symbol.hasChildren()) {
+            nested.add(fragmentOf(symbol, layouts, contents));
+            symbol.setBlock(REFERENCE + nested.size() + REFERENCE, lastDescendant(symbol));
+            symbol.draw();
+            return;
+        }
+        symbol.draw();
+        for (TreeElement s : symbol.getChildren()) {
+            drawFragmentSymbol((AbstractSymbol) s, layouts, contents, nested);
+        }
+    }
+
+    /**
+     * @param fragment
+     * @return id of the block with the fragment and its nested fragments
+     */
+    private String defineFragment(FragmentCache.Fragment fragment) {
+        String key = "f" + fragment.getHash();
+        String id = blockIds.get(key);
+        if (id != null) {
+            return id;
+        }
+        List<String> nestedIds = new ArrayList<>();
+        for (FragmentCache.Fragment nested : fragment.getNested()) {
+            nestedIds.add(defineFragment(nested));
+        }
+        id = "d" + (blockIds.size() + 1);
+        blockIds.put(key, id);
+        List<String> parts = fragment.getParts();
+        for (int i = 0; i < parts.size(); i++) {
+            if (i % 2 == 0) {
+                blocks.append(parts.get(i));
+            } else {
+                int reference = Integer.parseInt(parts.get(i));
+                blocks.append(reference == 0 ? id : nestedIds.get(reference - 1));
+            }
+        }
+        return id;
+    }
+
+    /**
+     * @param string
+     * @return
+     */
+    private static String digest(CharSequence string) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(digest.digest(string.toString().getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
         }
     }
 }
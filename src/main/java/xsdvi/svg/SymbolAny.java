@@ -78,7 +78,6 @@ public class SymbolAny extends AbstractSymbol {
      */
     @Override
     public void draw() {
-        processDescription();
         drawGStart();
         print("<rect class='shadow' x='3' y='3' width='" + width + "' height='" + height + "'/>");
         print("<rect class='boxany' x='0' y='0' width='" + width + "' height='" + height + "'/>");
@@ -103,6 +102,22 @@ public class SymbolAny extends AbstractSymbol {
         drawGEnd();
     }
 
+    /* (non-Javadoc)
+	 * @see xsdvi.svg.AbstractSymbol#appendFingerprint(java.lang.StringBuilder)
+     */
+    @Override
+    protected void appendFingerprint(StringBuilder fingerprint) {
+        appendProperties(fingerprint, namespace, processContents, cardinality);
+    }
+
+    /* (non-Javadoc)
+	 * @see xsdvi.svg.AbstractSymbol#hasShadow()
+     */
+    @Override
+    protected boolean hasShadow() {
+        return true;
+    }
+
     /* (non-Javadoc)
 	 * @see xsdvi.svg.AbstractSymbol#getWidth()
      */
@@ -61,7 +61,6 @@ public class SymbolAnyAttribute extends AbstractSymbol {
      */
     @Override
     public void draw() {
-        processDescription();
         drawGStart();
         print("<rect class='shadow' x='3' y='3' width='" + width + "' height='" + height + "' rx='9'/>");
         print("<rect class='boxanyattribute' x='0' y='0' width='" + width + "' height='" + height + "' rx='9'/>");
@@ -83,6 +82,22 @@ public class SymbolAnyAttribute extends AbstractSymbol {
         drawGEnd();
     }
 
+    /* (non-Javadoc)
+	 * @see xsdvi.svg.AbstractSymbol#appendFingerprint(java.lang.StringBuilder)
+     */
+    @Override
+    protected void appendFingerprint(StringBuilder fingerprint) {
+        appendProperties(fingerprint, namespace, processContents);
+    }
+
+    /* (non-Javadoc)
+	 * @see xsdvi.svg.AbstractSymbol#hasShadow()
+     */
+    @Override
+    protected boolean hasShadow() {
+        return true;
+    }
+
     /* (non-Javadoc)
 	 * @see xsdvi.svg.AbstractSymbol#getWidth()
      */
@@ -114,7 +114,6 @@ public class SymbolAttribute extends AbstractSymbol {
      */
     @Override
     public void draw() {
-        processDescription();
         drawGStart();
         print("<rect class='shadow' x='3' y='3' width='" + width + "' height='" + height + "' rx='9'/>");
         if (required) {
@@ -151,6 +150,14 @@ public class SymbolAttribute extends AbstractSymbol {
         drawGEnd();
     }
 
+    /* (non-Javadoc)
+	 * @see xsdvi.svg.AbstractSymbol#appendFingerprint(java.lang.StringBuilder)
+     */
+    @Override
+    protected void appendFingerprint(StringBuilder fingerprint) {
+        appendProperties(fingerprint, name, namespace, type, required, constraint);
+    }
+
     /**
      *
      */
@@ -180,6 +187,14 @@ public class SymbolAttribute extends AbstractSymbol {
         drawGEnd();
     }
 
+    /* (non-Javadoc)
+	 * @see xsdvi.svg.AbstractSymbol#hasShadow()
+     */
+    @Override
+    protected boolean hasShadow() {
+        return true;
+    }
+
     /* (non-Javadoc)
 	 * @see xsdvi.svg.AbstractSymbol#getWidth()
      */
@@ -44,7 +44,6 @@ public class SymbolChoice extends AbstractSymbol {
      */
     @Override
     public void draw() {
-        processDescription();
         drawGStart();
         print("<rect class='boxcompositor' x='0' y='8' width='" + width + "' height='" + height + "' rx='9'/>");
         print("<circle cx='" + (width / 2 + 12) + "' cy='14' r='2'/>");
@@ -60,6 +59,14 @@ public class SymbolChoice extends AbstractSymbol {
         drawGEnd();
     }
 
+    /* (non-Javadoc)
+	 * @see xsdvi.svg.AbstractSymbol#appendFingerprint(java.lang.StringBuilder)
+     */
+    @Override
+    protected void appendFingerprint(StringBuilder fingerprint) {
+        appendProperties(fingerprint, cardinality);
+    }
+
     /* (non-Javadoc)
 	 * @see xsdvi.svg.AbstractSymbol#getWidth()
      */
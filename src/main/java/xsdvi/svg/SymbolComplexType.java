@@ -123,8 +123,6 @@ public class SymbolComplexType extends AbstractSymbol {
     public void draw() {
         // print("<a href=\"#\" onclick=\"window.parent.location.href = window.parent.location.href.split('#')[0]  + '#type_" + name + "'\">");
 
-        processDescription();
-
         drawGStart();
         print("<rect class='shadow' x='3' y='3' width='" + width + "' height='" + height + "'/>");
         if (optional) {
@@ -171,6 +169,22 @@ public class SymbolComplexType extends AbstractSymbol {
         //print("</a>");
     }
 
+    /* (non-Javadoc)
+	 * @see xsdvi.svg.AbstractSymbol#appendFingerprint(java.lang.StringBuilder)
+     */
+    @Override
+    protected void appendFingerprint(StringBuilder fingerprint) {
+        appendProperties(fingerprint, name, namespace, cardinality, optional, abstr, substitution);
+    }
+
+    /* (non-Javadoc)
+	 * @see xsdvi.svg.AbstractSymbol#hasShadow()
+     */
+    @Override
+    protected boolean hasShadow() {
+        return true;
+    }
+
     /* (non-Javadoc)
 	 * @see xsdvi.svg.AbstractSymbol#getWidth()
      */
@@ -155,8 +155,6 @@ public class SymbolElement extends AbstractSymbol {
     public void draw() {
         // print("<a href=\"#\" onclick=\"window.parent.postMessage('changeLocation#element_" + name + "', *)\">");
 
-        processDescription();
-
         drawGStart();
         print("<rect class='shadow' x='3' y='3' width='" + width + "' height='" + height + "'/>");
         if (optional) {
@@ -209,6 +207,14 @@ public class SymbolElement extends AbstractSymbol {
         //print("</a>");
     }
 
+    /* (non-Javadoc)
+	 * @see xsdvi.svg.AbstractSymbol#appendFingerprint(java.lang.StringBuilder)
+     */
+    @Override
+    protected void appendFingerprint(StringBuilder fingerprint) {
+        appendProperties(fingerprint, name, namespace, type, cardinality, optional, nillable, abstr, substitution);
+    }
+
     /**
      *
      */
@@ -241,6 +247,14 @@ public class SymbolElement extends AbstractSymbol {
         drawGEnd();
     }
 
+    /* (non-Javadoc)
+	 * @see xsdvi.svg.AbstractSymbol#hasShadow()
+     */
+    @Override
+    protected boolean hasShadow() {
+        return true;
+    }
+
     /* (non-Javadoc)
 	 * @see xsdvi.svg.AbstractSymbol#getWidth()
      */
@@ -44,7 +44,6 @@ public class SymbolField extends AbstractSymbol {
      */
     @Override
     public void draw() {
-        processDescription();
         drawGStart();
         print("<rect class='boxfield' x='0' y='8' width='" + width + "' height='" + height + "' rx='9'/>");
         print("<rect class='empty' x='6' y='17' width='12' height='12'/>");
@@ -57,6 +56,14 @@ public class SymbolField extends AbstractSymbol {
         drawGEnd();
     }
 
+    /* (non-Javadoc)
+	 * @see xsdvi.svg.AbstractSymbol#appendFingerprint(java.lang.StringBuilder)
+     */
+    @Override
+    protected void appendFingerprint(StringBuilder fingerprint) {
+        appendProperties(fingerprint, xpath);
+    }
+
     /* (non-Javadoc)
 	 * @see xsdvi.svg.AbstractSymbol#getWidth()
      */
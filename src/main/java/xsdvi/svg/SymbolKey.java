@@ -61,7 +61,6 @@ public class SymbolKey extends AbstractSymbol {
      */
     @Override
     public void draw() {
-        processDescription();
         drawGStart();
         print("<rect class='boxidc' x='0' y='0' width='" + width + "' height='" + height + "' rx='9'/>");
         print("<circle class='empty' cx='9' cy='8' r='3'/>");
@@ -80,6 +79,14 @@ public class SymbolKey extends AbstractSymbol {
         drawGEnd();
     }
 
+    /* (non-Javadoc)
+	 * @see xsdvi.svg.AbstractSymbol#appendFingerprint(java.lang.StringBuilder)
+     */
+    @Override
+    protected void appendFingerprint(StringBuilder fingerprint) {
+        appendProperties(fingerprint, name, namespace);
+    }
+
     /* (non-Javadoc)
 	 * @see xsdvi.svg.AbstractSymbol#getWidth()
      */
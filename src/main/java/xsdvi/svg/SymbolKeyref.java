@@ -78,7 +78,6 @@ public class SymbolKeyref extends AbstractSymbol {
      */
     @Override
     public void draw() {
-        processDescription();
         drawGStart();
         print("<rect class='boxidc' x='0' y='0' width='" + width + "' height='" + height + "' rx='9'/>");
         print("<circle class='empty' cx='9' cy='8' r='3'/>");
@@ -102,6 +101,14 @@ public class SymbolKeyref extends AbstractSymbol {
         drawGEnd();
     }
 
+    /* (non-Javadoc)
+	 * @see xsdvi.svg.AbstractSymbol#appendFingerprint(java.lang.StringBuilder)
+     */
+    @Override
+    protected void appendFingerprint(StringBuilder fingerprint) {
+        appendProperties(fingerprint, name, namespace, refer);
+    }
+
     /* (non-Javadoc)
 	 * @see xsdvi.svg.AbstractSymbol#getWidth()
      */
@@ -15,6 +15,14 @@ public class SymbolLoop extends AbstractSymbol {
         super();
     }
 
+    /* (non-Javadoc)
+	 * @see xsdvi.svg.AbstractSymbol#processDescription()
+     */
+    @Override
+    protected void processDescription() {
+        // no description
+    }
+
     /* (non-Javadoc)
 	 * @see xsdvi.svg.AbstractSymbol#draw()
      */
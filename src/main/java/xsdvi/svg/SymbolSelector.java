@@ -44,7 +44,6 @@ public class SymbolSelector extends AbstractSymbol {
      */
     @Override
     public void draw() {
-        processDescription();
         drawGStart();
         print("<rect class='boxselector' x='0' y='8' width='" + width + "' height='" + height + "' rx='9'/>");
         print("<circle cx='12' cy='17' r='3'/>");
@@ -59,6 +58,14 @@ public class SymbolSelector extends AbstractSymbol {
         drawGEnd();
     }
 
+    /* (non-Javadoc)
+	 * @see xsdvi.svg.AbstractSymbol#appendFingerprint(java.lang.StringBuilder)
+     */
+    @Override
+    protected void appendFingerprint(StringBuilder fingerprint) {
+        appendProperties(fingerprint, xpath);
+    }
+
     /* (non-Javadoc)
 	 * @see xsdvi.svg.AbstractSymbol#getWidth()
      */
@@ -0,0 +1,86 @@
+package xsdvi.svg;
+
+import xsdvi.utils.WidthCalculator;
+
+/**
+ * Box drawn where a diagram was cut off because it exceeded its budget of
+ * boxes, output size or time, see {@link xsdvi.utils.RenderBudget}.
+ *
+ * @author Alexander Dyuzhev
+ */
+public class SymbolTruncated extends AbstractSymbol {
+
+    private String reason = null;
+
+    /**
+     * @param reason the limit exceeded, e.g. 'max 1000 boxes'
+     */
+    public SymbolTruncated(String reason) {
+        this();
+        this.reason = reason;
+    }
+
+    /**
+     *
+     */
+    public SymbolTruncated() {
+        super();
+    }
+
+    /**
+     * @return
+     */
+    public String getReason() {
+        return reason;
+    }
+
+    /* (non-Javadoc)
+	 * @see xsdvi.svg.AbstractSymbol#processDescription()
+     */
+    @Override
+    protected void processDescription() {
+        // no description
+    }
+
+    /* (non-Javadoc)
+	 * @see xsdvi.svg.AbstractSymbol#draw()
+     */
+    @Override
+    public void draw() {
+        drawGStart();
+        print("<rect class='boxtruncated' x='0' y='8' width='" + width + "' height='" + height + "' rx='9'/>");
+        print("<text class='strong' x='10' y='22'>TRUNCATED</text>");
+        if (reason != null) {
+            print("<text class='small' x='10' y='34'>" + reason + "</text>");
+        }
+        drawConnection();
+        drawGEnd();
+    }
+
+    /* (non-Javadoc)
+	 * @see xsdvi.svg.AbstractSymbol#appendFingerprint(java.lang.StringBuilder)
+     */
+    @Override
+    protected void appendFingerprint(StringBuilder fingerprint) {
+        appendProperties(fingerprint, reason);
+    }
+
+    /* (non-Javadoc)
+	 * @see xsdvi.svg.AbstractSymbol#getWidth()
+     */
+    @Override
+    public int getWidth() {
+        WidthCalculator calc = new WidthCalculator(MIN_WIDTH);
+        calc.newWidth(20, 10);
+        calc.newWidth(20, reason);
+        return calc.getWidth();
+    }
+
+    /* (non-Javadoc)
+	 * @see xsdvi.svg.AbstractSymbol#getHeight()
+     */
+    @Override
+    public int getHeight() {
+        return MID_HEIGHT;
+    }
+}
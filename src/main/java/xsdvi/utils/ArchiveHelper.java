@@ -0,0 +1,269 @@
+package xsdvi.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streams all generated files into a single ZIP or TAR archive, so a batch run
+ * touches the file system once instead of once per diagram.
+ *
+ * @author Alexander Dyuzhev
+ */
+public class ArchiveHelper {
+
+    /**
+     *
+     */
+    public static final String INDEX_ENTRY = "index.txt";
+
+    /**
+     *
+     */
+    public static final int BUFFER_SIZE = 1 << 16;
+
+    private static final int TAR_BLOCK = 512;
+    private static final int TAR_NAME = 100;
+    private static final int TAR_PREFIX = 155;
+
+    private final OutputStream out;
+    private final ZipOutputStream zip;
+    // root names by entry name
+    private final Map<String, String> index = new LinkedHashMap<>();
+    private final Set<String> entryNames = new HashSet<>();
+    private boolean entryOpen = false;
+
+    /**
+     * @param uri archive file, '.tar' selects TAR format, anything else ZIP
+     * @throws IOException
+     */
+    public ArchiveHelper(String uri) throws IOException {
+        Path path = Paths.get(uri);
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        OutputStream buffered = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+        if (isTar(uri)) {
+            out = buffered;
+            zip = null;
+        } else {
+            zip = new ZipOutputStream(buffered);
+            out = zip;
+        }
+    }
+
+    /**
+     * @param uri
+     * @return
+     */
+    public static boolean isTar(String uri) {
+        return uri.toLowerCase().endsWith(".tar");
+    }
+
+    /**
+     * Opens a new archive entry. Closing the returned stream finishes the
+     * entry, the archive itself stays open. A TAR entry name longer than its
+     * header field is split into the ustar prefix, or else written in a PAX
+     * extended header.
+     *
+     * @param name
+     * @return
+     * @throws IOException if an entry is still open or the name is already
+     * taken, the archive is left as it was
+     */
+    public OutputStream newEntry(String name) throws IOException {
+        if (entryOpen) {
+            throw new IOException("Previous archive entry is still open");
+        }
+        if (name.isEmpty()) {
+            throw new IOException("Empty archive entry name");
+        }
+        if (!entryNames.add(name)) {
+            throw new IOException("Duplicate archive entry " + name);
+        }
+        if (zip != null) {
+            zip.putNextEntry(new ZipEntry(name));
+            entryOpen = true;
+            return new FilterOutputStream(zip) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    zip.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        zip.closeEntry();
+                    } finally {
+                        entryOpen = false;
+                    }
+                }
+            };
+        }
+        // TAR headers carry the entry size, so the entry is collected first
+        entryOpen = true;
+        return new ByteArrayOutputStream() {
+            @Override
+            public void close() throws IOException {
+                try {
+                    writeTarEntry(name, buf, count);
+                } finally {
+                    entryOpen = false;
+                }
+            }
+        };
+    }
+
+    /**
+     * @param rootName
+     * @param entryName
+     */
+    public void addIndexEntry(String rootName, String entryName) {
+        index.put(entryName, rootName);
+    }
+
+    /**
+     * Writes the root name to entry index and closes the archive. The archive
+     * is finished and closed even if the index can't be written.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        StringBuilder buffer = new StringBuilder();
+        for (Map.Entry<String, String> entry : index.entrySet()) {
+            buffer.append(entry.getValue()).append('\t').append(entry.getKey()).append('\n');
+        }
+        try (OutputStream entry = newEntry(INDEX_ENTRY)) {
+            entry.write(buffer.toString().getBytes(StandardCharsets.UTF_8));
+        } finally {
+            try {
+                if (zip == null) {
+                    // two empty blocks mark the end of a TAR archive
+                    out.write(new byte[TAR_BLOCK * 2]);
+                }
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * @param name
+     * @param data
+     * @param length
+     * @throws IOException
+     */
+    private void writeTarEntry(String name, byte[] data, int length) throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        int split = prefixSplit(nameBytes);
+        if (nameBytes.length <= TAR_NAME) {
+            writeTarHeader(nameBytes, new byte[0], '0', length);
+        } else if (split > 0) {
+            writeTarHeader(Arrays.copyOfRange(nameBytes, split + 1, nameBytes.length), Arrays.copyOf(nameBytes, split), '0', length);
+        } else {
+            // a PAX record "<length> path=<name>\n", the length counting its own digits
+            byte[] body = (" path=" + name + "\n").getBytes(StandardCharsets.UTF_8);
+            int digits = 1;
+            while (String.valueOf(body.length + digits).length() > digits) {
+                digits++;
+            }
+            byte[] record = ((body.length + digits) + new String(body, StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8);
+            byte[] shortName = ("PaxHeaders/" + name.substring(name.lastIndexOf('/') + 1)).getBytes(StandardCharsets.UTF_8);
+            writeTarHeader(Arrays.copyOf(shortName, Math.min(shortName.length, TAR_NAME)), new byte[0], 'x', record.length);
+            writeTarData(record, record.length);
+            writeTarHeader(Arrays.copyOf(nameBytes, TAR_NAME), new byte[0], '0', length);
+        }
+        writeTarData(data, length);
+    }
+
+    /**
+     * @param name
+     * @return index of the '/' splitting the name into a ustar prefix and a
+     * name that fit their fields, or -1
+     */
+    private static int prefixSplit(byte[] name) {
+        for (int i = Math.min(name.length - 1, TAR_PREFIX); i > 0; i--) {
+            if (name[i] == '/' && name.length - i - 1 <= TAR_NAME && name.length - i - 1 > 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param name at most 100 bytes
+     * @param prefix at most 155 bytes
+     * @param type
+     * @param size
+     * @throws IOException
+     */
+    private void writeTarHeader(byte[] name, byte[] prefix, char type, long size) throws IOException {
+        byte[] header = new byte[TAR_BLOCK];
+        System.arraycopy(name, 0, header, 0, name.length);
+        putOctal(header, 100, 8, 0644);
+        putOctal(header, 108, 8, 0);
+        putOctal(header, 116, 8, 0);
+        putOctal(header, 124, 12, size);
+        putOctal(header, 136, 12, System.currentTimeMillis() / 1000);
+        header[156] = (byte) type;
+        System.arraycopy("ustar\u000000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+        System.arraycopy(prefix, 0, header, 345, prefix.length);
+        // checksum is computed with its own field filled with spaces
+        for (int i = 148; i < 156; i++) {
+            header[i] = ' ';
+        }
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xff;
+        }
+        putOctal(header, 148, 7, checksum);
+        out.write(header);
+    }
+
+    /**
+     * @param data
+     * @param length
+     * @throws IOException
+     */
+    private void writeTarData(byte[] data, int length) throws IOException {
+        out.write(data, 0, length);
+        int padding = (TAR_BLOCK - length % TAR_BLOCK) % TAR_BLOCK;
+        out.write(new byte[padding]);
+    }
+
+    /**
+     * @param header
+     * @param offset
+     * @param length
+     * @param value
+     */
+    private static void putOctal(byte[] header, int offset, int length, long value) {
+        String octal = Long.toOctalString(value);
+        StringBuilder field = new StringBuilder();
+        for (int i = octal.length(); i < length - 1; i++) {
+            field.append('0');
+        }
+        field.append(octal);
+        byte[] bytes = field.toString().getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(bytes, 0, header, offset, length - 1);
+        header[offset + length - 1] = 0;
+    }
+}
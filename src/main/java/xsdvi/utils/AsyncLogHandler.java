@@ -0,0 +1,225 @@
+package xsdvi.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.ErrorManager;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.SimpleFormatter;
+
+/**
+ * Appends the log records to a file from a background thread. The logging
+ * threads only put the record and their context, see
+ * {@link LoggerHelper#setContext(String, String)}, into a bounded ring buffer;
+ * the background thread formats and writes them in batches with one flush per
+ * batch. When the buffer is full, records below {@link Level#WARNING} are
+ * dropped and counted, the others wait for room.
+ *
+ * @author Alexander Dyuzhev
+ */
+public class AsyncLogHandler extends Handler {
+
+    /**
+     *
+     */
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    private static final int BATCH_SIZE = 256;
+    private static final long POLL_MILLIS = 200;
+
+    private final Path path;
+    private final Formatter formatter = new SimpleFormatter();
+    private final BlockingQueue<Entry> buffer;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writerThread;
+    private volatile boolean closed = false;
+
+    /**
+     * A record with the context of the thread that logged it.
+     */
+    private static final class Entry {
+
+        final LogRecord record;
+        final String context;
+
+        /**
+         * @param record
+         * @param context
+         */
+        Entry(LogRecord record, String context) {
+            this.record = record;
+            this.context = context;
+        }
+    }
+
+    /**
+     * @param uri
+     * @throws IOException
+     */
+    public AsyncLogHandler(String uri) throws IOException {
+        this(uri, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param uri
+     * @param capacity records buffered before dropping or waiting
+     * @throws IOException
+     */
+    public AsyncLogHandler(String uri, int capacity) throws IOException {
+        path = Paths.get(uri).toAbsolutePath();
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        // fail here rather than on the background thread
+        Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND).close();
+        buffer = new ArrayBlockingQueue<>(capacity);
+        writerThread = new Thread(this::run, "xsdvi-log");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (closed || !isLoggable(record)) {
+            return;
+        }
+        Entry entry = new Entry(record, LoggerHelper.getContext());
+        if (buffer.offer(entry)) {
+            return;
+        }
+        if (record.getLevel().intValue() < Level.WARNING.intValue()) {
+            dropped.incrementAndGet();
+            return;
+        }
+        try {
+            buffer.put(entry);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes the batches until closed and the buffer is empty.
+     */
+    private void run() {
+        List<Entry> batch = new ArrayList<>(BATCH_SIZE);
+        try (OutputStream out = Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+            while (!closed || !buffer.isEmpty()) {
+                Entry first = buffer.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                buffer.drainTo(batch, BATCH_SIZE - 1);
+                write(writer, batch);
+                batch.clear();
+                writer.flush();
+            }
+            long lost = dropped.get();
+            if (lost > 0) {
+                writer.write("[xsdvi-log] " + lost + " records dropped, the log buffer was full" + System.lineSeparator());
+            }
+        } catch (IOException ex) {
+            reportError(ex.toString(), ex, ErrorManager.WRITE_FAILURE);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @param writer
+     * @param batch
+     * @throws IOException
+     */
+    private void write(Writer writer, List<Entry> batch) throws IOException {
+        for (Entry entry : batch) {
+            try {
+                writer.write(format(entry));
+            } catch (RuntimeException ex) {
+                reportError(null, ex, ErrorManager.FORMAT_FAILURE);
+            }
+        }
+    }
+
+    /**
+     * Formats as {@link LoggerHelper#FORMAT} with the context before the
+     * message, e.g. '[..] [INFO] [a.xsd UnitsML] Done.'.
+     *
+     * @param entry
+     * @return
+     */
+    private String format(Entry entry) {
+        LogRecord record = entry.record;
+        String message = formatter.formatMessage(record);
+        if (entry.context != null) {
+            message = "[" + entry.context + "] " + message;
+        }
+        String thrown = "";
+        if (record.getThrown() != null) {
+            StringWriter stackTrace = new StringWriter();
+            PrintWriter printWriter = new PrintWriter(stackTrace);
+            printWriter.println();
+            record.getThrown().printStackTrace(printWriter);
+            printWriter.close();
+            thrown = stackTrace.toString();
+        }
+        return String.format(LoggerHelper.FORMAT, ZonedDateTime.ofInstant(record.getInstant(), ZoneId.systemDefault()),
+                record.getLoggerName(), record.getLoggerName(), record.getLevel().getLocalizedName(), message, thrown);
+    }
+
+    /**
+     * The records are flushed by the background thread after each batch, see
+     * {@link #close()} to wait for them.
+     */
+    @Override
+    public void flush() {
+        // nothing to do on the logging thread
+    }
+
+    /**
+     * Writes the buffered records and stops the background thread.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            writerThread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return records dropped because the buffer was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return
+     */
+    public Path getPath() {
+        return path;
+    }
+}
@@ -0,0 +1,239 @@
+package xsdvi.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Output of a file that is left untouched, with its modification time, if the
+ * new content equals it. The bytes are compared with the file as they come,
+ * nothing is written while they match. From the first difference on they go
+ * to a temporary file next to it, with the matched part copied from the file,
+ * and the temporary file replaces the file atomically on close. So readers
+ * never see a partial file and tools watching the modification times only
+ * see the files that changed.
+ *
+ * @author Alexander Dyuzhev
+ */
+public class CompareOutputStream extends OutputStream {
+
+    private static final Logger logger = Logger.getLogger(LoggerHelper.LOGGER_NAME);
+
+    private static final int COMPARE_SIZE = 1 << 16;
+    private static final AtomicLong tempCounter = new AtomicLong();
+
+    private final Path path;
+    // open while the bytes match the file
+    private FileChannel existing = null;
+    // open once they differ
+    private FileChannel temp = null;
+    private Path tempPath = null;
+    private ByteBuffer compareBuffer = null;
+    private long length = 0;
+    private boolean closed = false;
+    private boolean changed = false;
+
+    /**
+     * @param path
+     * @throws IOException if the temporary file can't be created for a new
+     * file
+     */
+    public CompareOutputStream(Path path) throws IOException {
+        this.path = path;
+        if (Files.isRegularFile(path)) {
+            existing = FileChannel.open(path, StandardOpenOption.READ);
+            compareBuffer = ByteBuffer.allocate(COMPARE_SIZE);
+        } else {
+            diverge();
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        write(new ByteBuffer[]{ByteBuffer.wrap(b, off, len)});
+    }
+
+    /**
+     * Compares or writes the buffers in one gathering write, their positions
+     * are advanced.
+     *
+     * @param buffers
+     * @throws IOException
+     */
+    public void write(ByteBuffer[] buffers) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed: " + path);
+        }
+        long total = 0;
+        for (ByteBuffer buffer : buffers) {
+            total += buffer.remaining();
+        }
+        if (existing != null) {
+            long position = length;
+            boolean same = true;
+            for (int i = 0; i < buffers.length && same; i++) {
+                same = matches(buffers[i].duplicate(), position);
+                position += buffers[i].remaining();
+            }
+            if (same) {
+                for (ByteBuffer buffer : buffers) {
+                    buffer.position(buffer.limit());
+                }
+                length += total;
+                return;
+            }
+            diverge();
+        }
+        long written = 0;
+        while (written < total) {
+            written += temp.write(buffers);
+        }
+        length += total;
+    }
+
+    /**
+     * @param data
+     * @param position position of the data in the file
+     * @return true if the file has the data at the position
+     * @throws IOException
+     */
+    private boolean matches(ByteBuffer data, long position) throws IOException {
+        while (data.hasRemaining()) {
+            compareBuffer.clear();
+            compareBuffer.limit(Math.min(compareBuffer.capacity(), data.remaining()));
+            while (compareBuffer.hasRemaining()) {
+                if (existing.read(compareBuffer, position + compareBuffer.position()) < 0) {
+                    return false;
+                }
+            }
+            compareBuffer.flip();
+            ByteBuffer part = data.duplicate();
+            part.limit(part.position() + compareBuffer.remaining());
+            if (!part.equals(compareBuffer)) {
+                return false;
+            }
+            position += compareBuffer.remaining();
+            data.position(part.limit());
+        }
+        return true;
+    }
+
+    /**
+     * Opens the temporary file with the part of the file matched so far.
+     *
+     * @throws IOException
+     */
+    private void diverge() throws IOException {
+        Path folder = path.toAbsolutePath().getParent();
+        while (temp == null) {
+            // default permissions, unlike Files.createTempFile
+            tempPath = folder.resolve("." + path.getFileName() + "." + Long.toHexString(System.nanoTime() + tempCounter.incrementAndGet()) + ".tmp");
+            try {
+                temp = FileChannel.open(tempPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            } catch (FileAlreadyExistsException ex) {
+                // taken by another writer, try the next name
+            }
+        }
+        if (existing != null) {
+            long copied = 0;
+            while (copied < length) {
+                copied += existing.transferTo(copied, length - copied, temp);
+            }
+            existing.close();
+            existing = null;
+            compareBuffer = null;
+        }
+    }
+
+    /**
+     * Keeps the file if it has the same content, or else replaces it.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (existing != null) {
+                if (existing.size() == length) {
+                    existing.close();
+                    existing = null;
+                    return;
+                }
+                // the file is longer
+                diverge();
+            }
+            temp.close();
+            try {
+                Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+            changed = true;
+        } catch (IOException ex) {
+            discard();
+            throw ex;
+        }
+    }
+
+    /**
+     * Drops the output, the file is left as it was.
+     */
+    public void abort() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        discard();
+    }
+
+    /**
+     *
+     */
+    private void discard() {
+        try {
+            if (existing != null) {
+                existing.close();
+            }
+            if (temp != null) {
+                temp.close();
+                Files.deleteIfExists(tempPath);
+            }
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Can''t delete {0}: {1}", new Object[]{tempPath, ex.toString()});
+        }
+    }
+
+    /**
+     * @return true if the file was written on close, false if it had the
+     * same content
+     */
+    public boolean isChanged() {
+        return changed;
+    }
+
+    /**
+     * @return bytes of the content
+     */
+    public long getLength() {
+        return length;
+    }
+}
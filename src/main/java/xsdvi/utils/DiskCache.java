@@ -0,0 +1,234 @@
+package xsdvi.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Size-capped cache of byte arrays in a directory, one file per entry, shared
+ * by subsequent runs and by processes running at the same time. Entries are
+ * written to a temporary file and renamed into place, so readers never see a
+ * partial entry. Reading an entry updates its modification time, the entries
+ * read least recently are evicted first when the cache exceeds its size.
+ *
+ * @author Alexander Dyuzhev
+ */
+public class DiskCache {
+
+    /**
+     *
+     */
+    public static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+    private static final Logger logger = Logger.getLogger(LoggerHelper.LOGGER_NAME);
+
+    private static final String ENTRY_SUFFIX = ".bin";
+    private static final String TEMP_SUFFIX = ".part";
+    // temporary files older than this are left over by killed processes
+    private static final long STALE_TEMP_MILLIS = 60 * 60 * 1000;
+
+    private final Path directory;
+    private final long maxBytes;
+    private long hits = 0;
+    private long misses = 0;
+    private long bytesRead = 0;
+    private long bytesWritten = 0;
+
+    /**
+     * @param directory created if missing
+     * @param maxBytes
+     * @throws IOException
+     */
+    public DiskCache(String directory, long maxBytes) throws IOException {
+        this.directory = Paths.get(directory);
+        this.maxBytes = maxBytes;
+        Files.createDirectories(this.directory);
+    }
+
+    /**
+     * @param key any string, the file name is derived from its digest
+     * @return cached bytes or null
+     */
+    public synchronized byte[] get(String key) {
+        Path entry = entryPath(key);
+        try {
+            byte[] data = Files.readAllBytes(entry);
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            hits++;
+            bytesRead += data.length;
+            return data;
+        } catch (NoSuchFileException e) {
+            // not cached yet or evicted by another process
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Can''t read cache entry {0}: {1}", new Object[]{entry, e.toString()});
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * @param key
+     * @param data
+     */
+    public synchronized void put(String key, byte[] data) {
+        Path entry = entryPath(key);
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(directory, "entry", TEMP_SUFFIX);
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                out.write(data);
+            }
+            try {
+                Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING);
+            }
+            bytesWritten += data.length;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Can''t write cache entry {0}: {1}", new Object[]{entry, e.toString()});
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ex) {
+                    // left for the eviction of stale temporary files
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache fits its size.
+     * Entries deleted meanwhile by another process are skipped.
+     *
+     * @return number of deleted entries
+     */
+    public synchronized int evict() {
+        List<Path> entries = new ArrayList<>();
+        long size = 0;
+        long now = System.currentTimeMillis();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                try {
+                    if (name.endsWith(ENTRY_SUFFIX)) {
+                        size += Files.size(path);
+                        entries.add(path);
+                    } else if (name.endsWith(TEMP_SUFFIX) && now - Files.getLastModifiedTime(path).toMillis() > STALE_TEMP_MILLIS) {
+                        Files.deleteIfExists(path);
+                    }
+                } catch (IOException e) {
+                    // deleted by another process
+                }
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Can''t list cache directory {0}: {1}", new Object[]{directory, e.toString()});
+            return 0;
+        }
+        if (size <= maxBytes) {
+            return 0;
+        }
+        entries.sort(Comparator.comparingLong(DiskCache::lastModified));
+        int deleted = 0;
+        for (Path path : entries) {
+            if (size <= maxBytes) {
+                break;
+            }
+            try {
+                long entrySize = Files.size(path);
+                if (Files.deleteIfExists(path)) {
+                    deleted++;
+                }
+                size -= entrySize;
+            } catch (IOException e) {
+                // deleted by another process
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * @param path
+     * @return
+     */
+    private static long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @param key
+     * @return
+     */
+    private Path entryPath(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (byte b : digest) {
+                name.append(String.format("%02x", b & 0xff));
+            }
+            return directory.resolve(name.append(ENTRY_SUFFIX).toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return
+     */
+    public String getDirectory() {
+        return directory.toString();
+    }
+
+    /**
+     * @return
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return
+     */
+    public synchronized long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return
+     */
+    public synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+}
@@ -0,0 +1,149 @@
+package xsdvi.utils;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events of the render phases, recorded with e.g.
+ * '-XX:StartFlightRecording:filename=xsdvi.jfr'. Events are only committed
+ * while a recording enables them, the counts are computed after checking
+ * {@link Event#shouldCommit()}.
+ *
+ * @author Alexander Dyuzhev
+ */
+public final class FlightEvents {
+
+    /**
+     *
+     */
+    private FlightEvents() {
+        // no instances
+    }
+
+    /**
+     * Loading and validating a schema with its includes and imports.
+     */
+    @Name("xsdvi.SchemaLoad")
+    @Label("Schema Load")
+    @Category("XsdVi")
+    @StackTrace(false)
+    public static final class SchemaLoad extends Event {
+
+        @Label("Input")
+        public String input;
+
+        @Label("Nodes")
+        @Description("Global element declarations and type definitions")
+        public int nodes;
+
+        @Label("Bytes")
+        @Description("Size of the input file")
+        @DataAmount
+        public long bytes;
+    }
+
+    /**
+     * Building the symbol tree of one root, or of the whole schema.
+     */
+    @Name("xsdvi.Traversal")
+    @Label("Traversal")
+    @Category("XsdVi")
+    @StackTrace(false)
+    public static final class Traversal extends Event {
+
+        @Label("Root")
+        public String root;
+
+        @Label("Nodes")
+        @Description("Symbols in the tree")
+        public int nodes;
+    }
+
+    /**
+     * Parsing the documentation annotations of one schema component.
+     */
+    @Name("xsdvi.Annotation")
+    @Label("Annotation Parsing")
+    @Category("XsdVi")
+    @StackTrace(false)
+    public static final class Annotation extends Event {
+
+        @Label("Component")
+        public String component;
+
+        @Label("Nodes")
+        @Description("Documentation elements found")
+        public int nodes;
+
+        @Label("Bytes")
+        @Description("Length of the annotation sources")
+        @DataAmount
+        public long bytes;
+    }
+
+    /**
+     * Placing the boxes of a diagram.
+     */
+    @Name("xsdvi.Layout")
+    @Label("Layout")
+    @Category("XsdVi")
+    @StackTrace(false)
+    public static final class Layout extends Event {
+
+        @Label("Root")
+        public String root;
+
+        @Label("Nodes")
+        @Description("Boxes laid out")
+        public int nodes;
+    }
+
+    /**
+     * Drawing one subtree below the root box of a diagram.
+     */
+    @Name("xsdvi.Draw")
+    @Label("Draw")
+    @Category("XsdVi")
+    @StackTrace(false)
+    public static final class Draw extends Event {
+
+        @Label("Root")
+        public String root;
+
+        @Label("Subtree")
+        @Description("Id of the top box of the subtree")
+        public String subtree;
+
+        @Label("Nodes")
+        @Description("Boxes in the subtree")
+        public int nodes;
+
+        @Label("Bytes")
+        @Description("Characters generated, equal to the bytes written for ASCII text")
+        @DataAmount
+        public long bytes;
+    }
+
+    /**
+     * Flushing and closing an output file or archive entry.
+     */
+    @Name("xsdvi.Flush")
+    @Label("Flush")
+    @Category("XsdVi")
+    @StackTrace(false)
+    public static final class Flush extends Event {
+
+        @Label("Output")
+        public String output;
+
+        @Label("Bytes")
+        @Description("Bytes written to the output, including the ones written before the flush")
+        @DataAmount
+        public long bytes;
+    }
+}
@@ -1,10 +1,8 @@
 package xsdvi.utils;
 
 import java.io.IOException;
-import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.logging.SimpleFormatter;
 
 import xsdvi.XsdVi;
 
@@ -24,8 +22,23 @@ public final class LoggerHelper {
      */
     public static final String DEFAULT_URI = "xsdvi.log";
 
+    /**
+     * Format of the log lines, see {@link java.util.logging.SimpleFormatter}.
+     */
+    public static final String FORMAT = "[%1$tF %1$tT] [%4$s] %5$s%6$s%n";
+
     private static final Logger logger = Logger.getLogger(LOGGER_NAME);
 
+    // input and root rendered by the current thread
+    private static final ThreadLocal<String> context = new ThreadLocal<>();
+
+    private static AsyncLogHandler handler = null;
+
+    static {
+        // writes the buffered records on System.exit too
+        Runtime.getRuntime().addShutdownHook(new Thread(LoggerHelper::closeLogger, "xsdvi-log-close"));
+    }
+
     /**
      *
      */
@@ -34,24 +47,72 @@ public final class LoggerHelper {
     }
 
     /**
+     * Replaces the log file of a previous setup, the records are written
+     * asynchronously, see {@link AsyncLogHandler}.
+     *
      * @param uri
+     * @param level
      */
-    public static void setupLogger(String uri) {
+    public static synchronized void setupLogger(String uri, Level level) {
+        System.setProperty("java.util.logging.SimpleFormatter.format", FORMAT);
+        closeLogger();
+        logger.setLevel(level);
         try {
-            System.setProperty("java.util.logging.SimpleFormatter.format", "[%1$tF %1$tT] [%4$s] %5$s%6$s%n");
-            FileHandler fileHandler = new FileHandler(uri, true);
-            logger.addHandler(fileHandler);
-            logger.setLevel(Level.ALL);
-            SimpleFormatter formatter = new SimpleFormatter();
-            fileHandler.setFormatter(formatter);
+            handler = new AsyncLogHandler(uri);
+            handler.setLevel(level);
+            logger.addHandler(handler);
         } catch (SecurityException | IOException e) {
+            logger.log(Level.WARNING, "Can''t write log {0}: {1}", new Object[]{uri, e.toString()});
         }
     }
 
+    /**
+     * @param uri
+     */
+    public static void setupLogger(String uri) {
+        setupLogger(uri, Level.ALL);
+    }
+
     /**
      *
      */
     public static void setupLogger() {
         setupLogger(DEFAULT_URI);
     }
+
+    /**
+     * Writes the buffered records and closes the log file.
+     */
+    public static synchronized void closeLogger() {
+        if (handler != null) {
+            logger.removeHandler(handler);
+            handler.close();
+            handler = null;
+        }
+    }
+
+    /**
+     * Sets the context of the records logged by the current thread.
+     *
+     * @param input
+     * @param root null for the whole schema
+     */
+    public static void setContext(String input, String root) {
+        String name = input.substring(Math.max(input.lastIndexOf('/'), input.lastIndexOf('\\')) + 1);
+        context.set(root == null ? name : name + " " + root);
+    }
+
+    /**
+     *
+     */
+    public static void clearContext() {
+        context.remove();
+    }
+
+    /**
+     * @return the context of the current thread, e.g. 'a.xsd UnitsML', or null
+     */
+    public static String getContext() {
+        return context.get();
+    }
 }
@@ -0,0 +1,506 @@
+package xsdvi.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import xsdvi.RenderMonitor;
+
+/**
+ * Collects wall and CPU time per phase and counters of each input and root of
+ * a run, for the '-metrics' JSON report. Phases nest: entering a phase pauses
+ * the enclosing one, so the times of a record are exclusive and add up to the
+ * time spent in all phases. A disabled instance ignores all calls. With a
+ * {@link RenderMonitor} the finished records also update its statistics.
+ *
+ * @author Alexander Dyuzhev
+ */
+public class Metrics {
+
+    /**
+     *
+     */
+    public enum Phase {
+        /**
+         * loading and validating the schema
+         */
+        PARSE,
+        /**
+         * building the symbol tree in XsdHandler
+         */
+        TRAVERSE,
+        /**
+         * parsing documentation annotations
+         */
+        ANNOTATIONS,
+        /**
+         * placing the boxes
+         */
+        LAYOUT,
+        /**
+         * generating the SVG text
+         */
+        DRAW,
+        /**
+         * writing encoded bytes to files or archive entries
+         */
+        WRITE;
+
+        /**
+         * @return
+         */
+        public String jsonName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static final double[] PERCENTILES = {50, 90, 99, 100};
+
+    private final boolean report;
+    private boolean enabled;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private boolean cpuTime;
+    private RenderMonitor monitor = null;
+    private Metrics parent = null;
+    private final long startNanos = System.nanoTime();
+    private final List<Record> records = new ArrayList<>();
+    private final List<String> warnings = new ArrayList<>();
+    private final Deque<Phase> phases = new ArrayDeque<>();
+    private Record current = null;
+    private int filesChanged = 0;
+    private int filesUnchanged = 0;
+    private long lastNanos;
+    private long lastCpuNanos;
+    private long lastAllocated;
+
+    /**
+     * @param enabled keep the records for the report
+     */
+    public Metrics(boolean enabled) {
+        this.report = enabled;
+        this.enabled = enabled;
+        this.cpuTime = enabled && threads.isCurrentThreadCpuTimeSupported();
+    }
+
+    /**
+     * @param monitor receives the finished records, null to stop it
+     */
+    public void setMonitor(RenderMonitor monitor) {
+        this.monitor = monitor;
+        enabled = report || monitor != null;
+        cpuTime = enabled && threads.isCurrentThreadCpuTimeSupported();
+    }
+
+    /**
+     * @return metrics of another thread, its records and warnings are added
+     * to these ones
+     */
+    public Metrics fork() {
+        Metrics child = new Metrics(report);
+        child.setMonitor(monitor);
+        child.parent = this;
+        return child;
+    }
+
+    /**
+     * @return
+     */
+    public RenderMonitor getMonitor() {
+        return monitor;
+    }
+
+    /**
+     * @return
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts the record of an input, or of one of its roots.
+     *
+     * @param input
+     * @param root null for the phases of the whole input, e.g. parsing
+     */
+    public void begin(String input, String root) {
+        if (!enabled) {
+            return;
+        }
+        current = new Record(input, root);
+        current.startNanos = System.nanoTime();
+        current.startAllocated = allocatedBytes();
+        phases.clear();
+    }
+
+    /**
+     * Finishes the current record.
+     */
+    public void end() {
+        if (!enabled || current == null) {
+            return;
+        }
+        while (!phases.isEmpty()) {
+            exit();
+        }
+        current.wallNanos = System.nanoTime() - current.startNanos;
+        long allocated = allocatedBytes();
+        current.allocatedBytes = allocated < 0 || current.startAllocated < 0 ? -1 : allocated - current.startAllocated;
+        if (monitor != null) {
+            monitor.recordFinished(current.root, current.wallNanos, current.times, current.symbols.values().stream().mapToLong(Integer::longValue).sum());
+        }
+        if (report) {
+            Metrics target = parent != null ? parent : this;
+            synchronized (target) {
+                target.records.add(current);
+            }
+        }
+        current = null;
+    }
+
+    /**
+     * @param phase
+     */
+    public void enter(Phase phase) {
+        if (!enabled || current == null) {
+            return;
+        }
+        account();
+        phases.push(phase);
+    }
+
+    /**
+     * Leaves the phase entered last.
+     */
+    public void exit() {
+        if (!enabled || current == null || phases.isEmpty()) {
+            return;
+        }
+        account();
+        phases.pop();
+    }
+
+    /**
+     * Adds the time since the last transition to the current phase.
+     */
+    private void account() {
+        long nanos = System.nanoTime();
+        long cpuNanos = cpuTime ? threads.getCurrentThreadCpuTime() : 0;
+        long allocated = allocatedBytes();
+        Phase phase = phases.peek();
+        if (phase != null) {
+            long[] times = current.times(phase);
+            times[0] += nanos - lastNanos;
+            times[1] += cpuNanos - lastCpuNanos;
+            times[2] += allocated - lastAllocated;
+        }
+        lastNanos = nanos;
+        lastCpuNanos = cpuNanos;
+        lastAllocated = allocated;
+    }
+
+    /**
+     * @param symbolClass simple name of the symbol class
+     */
+    public void countSymbol(String symbolClass) {
+        if (enabled && current != null) {
+            current.symbols.merge(symbolClass, 1, Integer::sum);
+        }
+    }
+
+    /**
+     *
+     */
+    public void countLoop() {
+        if (enabled && current != null) {
+            current.loops++;
+        }
+    }
+
+    /**
+     *
+     */
+    public void countAnnotation() {
+        if (enabled && current != null) {
+            current.annotations++;
+        }
+    }
+
+    /**
+     * Records a warning of the current record, e.g. a truncated diagram. The
+     * warnings are kept even if the metrics are disabled.
+     *
+     * @param warning
+     */
+    public void addWarning(String warning) {
+        Metrics target = parent != null ? parent : this;
+        synchronized (target) {
+            target.warnings.add(warning);
+        }
+        if (enabled && current != null) {
+            current.warnings.add(warning);
+        }
+    }
+
+    /**
+     * @return warnings of all records
+     */
+    public List<String> getWarnings() {
+        return warnings;
+    }
+
+    /**
+     * @param bytes
+     */
+    public void addBytesWritten(long bytes) {
+        if (enabled && current != null) {
+            current.bytesWritten += bytes;
+        }
+    }
+
+    /**
+     * @param changed files written because their content changed
+     * @param unchanged files left untouched because they had the same content
+     */
+    public void setFiles(int changed, int unchanged) {
+        filesChanged = changed;
+        filesUnchanged = unchanged;
+    }
+
+    /**
+     * @return bytes allocated by the current thread, -1 if not supported
+     */
+    private long allocatedBytes() {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+            if (sunThreads.isThreadAllocatedMemorySupported() && sunThreads.isThreadAllocatedMemoryEnabled()) {
+                return sunThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return
+     */
+    public int getRecordCount() {
+        return records.size();
+    }
+
+    /**
+     * @return one line per phase with the percentiles of its wall time per root
+     */
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format(Locale.ROOT, "%d records in %.1f ms, %d bytes written, %d files changed, %d unchanged, %d warnings%n",
+                records.size(), (System.nanoTime() - startNanos) / 1e6, totalBytesWritten(), filesChanged, filesUnchanged, warnings.size()));
+        summary.append(String.format(Locale.ROOT, "%-12s %10s %10s %10s %10s %10s%n", "phase", "total ms", "p50 ms", "p90 ms", "p99 ms", "max ms"));
+        for (Phase phase : Phase.values()) {
+            double[] values = phaseValues(phase);
+            double total = Arrays.stream(values).sum();
+            summary.append(String.format(Locale.ROOT, "%-12s %10.1f", phase.jsonName(), total));
+            for (double percentile : PERCENTILES) {
+                summary.append(String.format(Locale.ROOT, " %10.2f", percentile(values, percentile)));
+            }
+            summary.append(String.format("%n"));
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Writes the records and the summary as JSON.
+     *
+     * @param uri
+     * @throws IOException
+     */
+    public void writeReport(String uri) throws IOException {
+        try (OutputStream out = Files.newOutputStream(Paths.get(uri));
+                Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+            writer.write(toJson());
+        }
+    }
+
+    /**
+     * @return
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"wallMs\": ").append(millis(System.nanoTime() - startNanos)).append(",\n");
+        json.append("  \"records\": [");
+        for (int i = 0; i < records.size(); i++) {
+            json.append(i == 0 ? "\n" : ",\n");
+            records.get(i).appendJson(json);
+        }
+        json.append("\n  ],\n");
+        json.append("  \"summary\": {\n");
+        json.append("    \"records\": ").append(records.size()).append(",\n");
+        json.append("    \"bytesWritten\": ").append(totalBytesWritten()).append(",\n");
+        json.append("    \"filesChanged\": ").append(filesChanged).append(",\n");
+        json.append("    \"filesUnchanged\": ").append(filesUnchanged).append(",\n");
+        json.append("    \"warnings\": ").append(warnings.size()).append(",\n");
+        json.append("    \"phases\": {");
+        for (Phase phase : Phase.values()) {
+            double[] values = phaseValues(phase);
+            json.append(phase.ordinal() == 0 ? "\n" : ",\n");
+            json.append("      \"").append(phase.jsonName()).append("\": {\"totalMs\": ").append(format(Arrays.stream(values).sum()));
+            for (double percentile : PERCENTILES) {
+                json.append(", \"").append(percentile == 100 ? "max" : "p" + (int) percentile).append("Ms\": ").append(format(percentile(values, percentile)));
+            }
+            json.append('}');
+        }
+        json.append("\n    }\n  }\n}\n");
+        return json.toString();
+    }
+
+    /**
+     * @param phase
+     * @return wall times of the phase in the records that entered it, in
+     * milliseconds
+     */
+    private double[] phaseValues(Phase phase) {
+        return records.stream().filter(record -> record.times.containsKey(phase)).mapToDouble(record -> record.times.get(phase)[0] / 1e6).toArray();
+    }
+
+    /**
+     * @return
+     */
+    private long totalBytesWritten() {
+        return records.stream().mapToLong(record -> record.bytesWritten).sum();
+    }
+
+    /**
+     * @param values
+     * @param percentile
+     * @return nearest-rank percentile
+     */
+    static double percentile(double[] values, double percentile) {
+        if (values.length == 0) {
+            return 0;
+        }
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+    }
+
+    /**
+     * @param nanos
+     * @return
+     */
+    private static String millis(long nanos) {
+        return format(nanos / 1e6);
+    }
+
+    /**
+     * @param value
+     * @return
+     */
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    /**
+     * @param string
+     * @return JSON string literal
+     */
+    private static String quote(String string) {
+        if (string == null) {
+            return "null";
+        }
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : string.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * Metrics of one input or root.
+     */
+    private static final class Record {
+
+        private final String input;
+        private final String root;
+        // wall and CPU nanoseconds and allocated bytes of each phase
+        private final Map<Phase, long[]> times = new EnumMap<>(Phase.class);
+        private final Map<String, Integer> symbols = new TreeMap<>();
+        private final List<String> warnings = new ArrayList<>();
+        private long startNanos;
+        private long wallNanos;
+        private long startAllocated;
+        private long allocatedBytes;
+        private int loops;
+        private int annotations;
+        private long bytesWritten;
+
+        /**
+         * @param input
+         * @param root
+         */
+        Record(String input, String root) {
+            this.input = input;
+            this.root = root;
+        }
+
+        /**
+         * @param phase
+         * @return
+         */
+        long[] times(Phase phase) {
+            return times.computeIfAbsent(phase, p -> new long[3]);
+        }
+
+        /**
+         * @param json
+         */
+        void appendJson(StringBuilder json) {
+            json.append("    {\"input\": ").append(quote(input))
+                    .append(", \"root\": ").append(quote(root))
+                    .append(", \"wallMs\": ").append(millis(wallNanos))
+                    .append(", \"phases\": {");
+            boolean first = true;
+            for (Map.Entry<Phase, long[]> entry : times.entrySet()) {
+                json.append(first ? "" : ", ").append('"').append(entry.getKey().jsonName())
+                        .append("\": {\"wallMs\": ").append(millis(entry.getValue()[0]))
+                        .append(", \"cpuMs\": ").append(millis(entry.getValue()[1]))
+                        .append(", \"allocatedBytes\": ").append(entry.getValue()[2]).append('}');
+                first = false;
+            }
+            json.append("}, \"symbols\": {");
+            first = true;
+            for (Map.Entry<String, Integer> entry : symbols.entrySet()) {
+                json.append(first ? "" : ", ").append(quote(entry.getKey())).append(": ").append(entry.getValue());
+                first = false;
+            }
+            json.append("}, \"loops\": ").append(loops)
+                    .append(", \"annotations\": ").append(annotations)
+                    .append(", \"bytesWritten\": ").append(bytesWritten)
+                    .append(", \"allocatedBytes\": ").append(allocatedBytes)
+                    .append(", \"warnings\": [");
+            for (int i = 0; i < warnings.size(); i++) {
+                json.append(i == 0 ? "" : ", ").append(quote(warnings.get(i)));
+            }
+            json.append("]}");
+        }
+    }
+}
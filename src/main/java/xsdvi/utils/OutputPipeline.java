@@ -0,0 +1,436 @@
+package xsdvi.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writer stage of the rendering: render threads fill chunks of the outputs
+ * opened by {@link #open(String)} and queue them, one I/O thread writes them
+ * with gathering channel writes. The queue is bounded, a render thread waits
+ * when the I/O thread falls behind. Files are written as their chunks come,
+ * archive entries once complete since the entries of an archive can't
+ * interleave. A file is only replaced if its content changed, see
+ * {@link CompareOutputStream}.
+ * <p>
+ * A failed output is recorded and the others are still written. After an
+ * error of the I/O thread itself, e.g. out of memory, the queued chunks are
+ * dropped, the outputs still open fail and no more chunks are accepted, so
+ * the render threads never wait for it.
+ *
+ * @author Alexander Dyuzhev
+ */
+public class OutputPipeline {
+
+    /**
+     *
+     */
+    public static final int CHUNK_SIZE = 1 << 16;
+
+    /**
+     * Chunks queued by default, 16 MB.
+     */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private static final Logger logger = Logger.getLogger(LoggerHelper.LOGGER_NAME);
+
+    // chunks taken from the queue at once
+    private static final int MAX_BATCH = 64;
+
+    // a render thread waiting for room in the queue checks the I/O thread that often
+    private static final long PUT_WAIT_MILLIS = 100;
+
+    private static final int DATA = 0;
+    private static final int END = 1;
+    private static final int ABORT = 2;
+
+    private final BlockingQueue<Chunk> queue;
+    private final ArchiveHelper archive;
+    private final Thread writerThread;
+    private final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+    private final Set<String> failedOutputs = ConcurrentHashMap.newKeySet();
+    // error that stopped the I/O thread from writing
+    private volatile Throwable fatal = null;
+    private volatile long bytesWritten = 0;
+    private volatile int filesChanged = 0;
+    private volatile int filesUnchanged = 0;
+
+    /**
+     * A chunk of an output, or its end.
+     */
+    private static final class Chunk {
+
+        final String uri;
+        final ByteBuffer data;
+        final int kind;
+
+        /**
+         * @param uri
+         * @param data
+         * @param kind
+         */
+        Chunk(String uri, ByteBuffer data, int kind) {
+            this.uri = uri;
+            this.data = data;
+            this.kind = kind;
+        }
+    }
+
+    /**
+     * Output of one render thread.
+     */
+    public final class Stream extends OutputStream {
+
+        private final String uri;
+        private byte[] buffer = new byte[CHUNK_SIZE];
+        private int length = 0;
+        private boolean closed = false;
+
+        /**
+         * @param uri
+         */
+        private Stream(String uri) {
+            this.uri = uri;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed: " + uri);
+            }
+            while (len > 0) {
+                int n = Math.min(len, CHUNK_SIZE - length);
+                System.arraycopy(b, off, buffer, length, n);
+                length += n;
+                off += n;
+                len -= n;
+                if (length == CHUNK_SIZE) {
+                    queueBuffer();
+                }
+            }
+        }
+
+        /**
+         * @throws IOException
+         */
+        private void queueBuffer() throws IOException {
+            put(new Chunk(uri, ByteBuffer.wrap(buffer, 0, length), DATA));
+            buffer = new byte[CHUNK_SIZE];
+            length = 0;
+        }
+
+        /**
+         * Queues the rest and the end of the output.
+         *
+         * @throws IOException
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            if (length > 0) {
+                queueBuffer();
+            }
+            closed = true;
+            put(new Chunk(uri, null, END));
+        }
+
+        /**
+         * Drops the output, the part already written is deleted.
+         */
+        public void abort() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            buffer = null;
+            try {
+                put(new Chunk(uri, null, ABORT));
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, "Can''t abort {0}: {1}", new Object[]{uri, ex.toString()});
+            }
+        }
+    }
+
+    /**
+     * @param capacity chunks queued before the render threads wait
+     * @param archive the archive of the outputs, or null for files
+     */
+    public OutputPipeline(int capacity, ArchiveHelper archive) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.archive = archive;
+        writerThread = new Thread(this::run, "xsdvi-write");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * @param uri file or archive entry
+     * @return
+     */
+    public Stream open(String uri) {
+        return new Stream(uri);
+    }
+
+    /**
+     * @param chunk
+     * @throws IOException if interrupted, or if the I/O thread failed
+     */
+    private void put(Chunk chunk) throws IOException {
+        try {
+            checkWriter(chunk.uri);
+            while (!queue.offer(chunk, PUT_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                checkWriter(chunk.uri);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted writing " + chunk.uri, ex);
+        }
+    }
+
+    /**
+     * @param uri
+     * @throws IOException if the I/O thread failed or stopped
+     */
+    private void checkWriter(String uri) throws IOException {
+        if (fatal != null || !writerThread.isAlive()) {
+            throw new IOException("Can't write " + uri + ", the output thread " + (fatal != null ? "failed: " + fatal : "stopped"), fatal);
+        }
+    }
+
+    /**
+     * Writes the queued chunks until the stop chunk, after a fatal error
+     * drops them.
+     */
+    private void run() {
+        Map<String, CompareOutputStream> files = new HashMap<>();
+        Map<String, List<ByteBuffer>> entries = new HashMap<>();
+        Set<String> failed = new HashSet<>();
+        List<Chunk> batch = new ArrayList<>(MAX_BATCH);
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException ex) {
+                break;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+            int i = 0;
+            while (i < batch.size()) {
+                Chunk chunk = batch.get(i);
+                if (chunk.uri == null) {
+                    return;
+                }
+                // consecutive chunks of the same output go into one write
+                int j = i;
+                while (j < batch.size() && batch.get(j).kind == DATA && chunk.uri.equals(batch.get(j).uri)) {
+                    j++;
+                }
+                try {
+                    if (fatal != null) {
+                        if (j == i && chunk.kind == END) {
+                            fail(chunk.uri, fatal);
+                        }
+                    } else if (failed.contains(chunk.uri)) {
+                        // the rest of a failed output is dropped
+                    } else if (j > i) {
+                        ByteBuffer[] buffers = new ByteBuffer[j - i];
+                        for (int k = i; k < j; k++) {
+                            buffers[k - i] = batch.get(k).data;
+                        }
+                        write(chunk.uri, buffers, files, entries);
+                    } else {
+                        finish(chunk, files, entries);
+                    }
+                } catch (IOException | RuntimeException ex) {
+                    logger.log(Level.SEVERE, "Can''t write " + chunk.uri, ex);
+                    fail(chunk.uri, ex);
+                    discard(chunk.uri, files, entries);
+                    failed.add(chunk.uri);
+                } catch (Throwable ex) {
+                    logger.log(Level.SEVERE, "Output thread failed writing " + chunk.uri, ex);
+                    fatal = ex;
+                    fail(chunk.uri, ex);
+                    // the partial outputs are dropped, they fail at their end
+                    for (String uri : new ArrayList<>(files.keySet())) {
+                        discard(uri, files, entries);
+                    }
+                    entries.clear();
+                }
+                if (j == i) {
+                    // the end or abort of the output
+                    failed.remove(chunk.uri);
+                    i++;
+                } else {
+                    i = j;
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * @param uri
+     * @param buffers
+     * @param files
+     * @param entries
+     * @throws IOException
+     */
+    private void write(String uri, ByteBuffer[] buffers, Map<String, CompareOutputStream> files, Map<String, List<ByteBuffer>> entries) throws IOException {
+        long length = 0;
+        for (ByteBuffer buffer : buffers) {
+            length += buffer.remaining();
+        }
+        if (archive != null) {
+            Collections.addAll(entries.computeIfAbsent(uri, k -> new ArrayList<>()), buffers);
+            return;
+        }
+        CompareOutputStream file = files.get(uri);
+        if (file == null) {
+            file = new CompareOutputStream(Paths.get(uri));
+            files.put(uri, file);
+        }
+        file.write(buffers);
+        bytesWritten += length;
+    }
+
+    /**
+     * @param chunk end or abort chunk
+     * @param files
+     * @param entries
+     * @throws IOException
+     */
+    private void finish(Chunk chunk, Map<String, CompareOutputStream> files, Map<String, List<ByteBuffer>> entries) throws IOException {
+        if (chunk.kind == ABORT) {
+            discard(chunk.uri, files, entries);
+            return;
+        }
+        if (archive != null) {
+            List<ByteBuffer> buffers = entries.remove(chunk.uri);
+            try (OutputStream out = archive.newEntry(chunk.uri)) {
+                if (buffers != null) {
+                    for (ByteBuffer buffer : buffers) {
+                        out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                        bytesWritten += buffer.remaining();
+                    }
+                }
+            }
+            return;
+        }
+        CompareOutputStream file = files.remove(chunk.uri);
+        if (file == null) {
+            // an empty output
+            file = new CompareOutputStream(Paths.get(chunk.uri));
+        }
+        file.close();
+        if (file.isChanged()) {
+            filesChanged++;
+        } else {
+            filesUnchanged++;
+        }
+    }
+
+    /**
+     * @param uri
+     * @param ex
+     */
+    private void fail(String uri, Throwable ex) {
+        if (failedOutputs.add(uri)) {
+            failures.add(uri + ": " + ex);
+        }
+    }
+
+    /**
+     * Drops a partial output, its file is left as it was.
+     *
+     * @param uri
+     * @param files
+     * @param entries
+     */
+    private void discard(String uri, Map<String, CompareOutputStream> files, Map<String, List<ByteBuffer>> entries) {
+        entries.remove(uri);
+        CompareOutputStream file = files.remove(uri);
+        if (file != null) {
+            try {
+                file.abort();
+            } catch (RuntimeException ex) {
+                logger.log(Level.WARNING, "Can''t delete the part of {0} written: {1}", new Object[]{uri, ex.toString()});
+            }
+        }
+    }
+
+    /**
+     * Writes the queued chunks and stops the I/O thread.
+     */
+    public void close() {
+        try {
+            Chunk stop = new Chunk(null, null, END);
+            while (!queue.offer(stop, PUT_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (!writerThread.isAlive()) {
+                    break;
+                }
+            }
+            writerThread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return outputs that couldn't be written, with the error
+     */
+    public List<String> getFailures() {
+        return new ArrayList<>(failures);
+    }
+
+    /**
+     * @param uri
+     * @return true if the output couldn't be written, read after
+     * {@link #close()}
+     */
+    public boolean isFailed(String uri) {
+        return failedOutputs.contains(uri);
+    }
+
+    /**
+     * @return bytes written, read after {@link #close()}
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @return files written because their content changed, read after
+     * {@link #close()}
+     */
+    public int getFilesChanged() {
+        return filesChanged;
+    }
+
+    /**
+     * @return files left untouched because they had the same content, read
+     * after {@link #close()}
+     */
+    public int getFilesUnchanged() {
+        return filesUnchanged;
+    }
+}
@@ -0,0 +1,127 @@
+package xsdvi.utils;
+
+/**
+ * Limits of one diagram: boxes built by the traversal, bytes written and wall
+ * time, the time of the traversal since {@link #start()} and the one of the
+ * drawing since {@link #startDrawing()}. A limit of 0 is no limit. The
+ * traversal also stops when its boxes can't be drawn within the bytes, so a
+ * limit of bytes alone bounds the memory too.
+ *
+ * @author Alexander Dyuzhev
+ */
+public class RenderBudget {
+
+    // less than the smallest box drawn in the compact mode
+    private static final long MIN_BOX_BYTES = 100;
+
+    private final long maxNodes;
+    private final long maxBytes;
+    private final long maxMillis;
+    private long startNanos = System.nanoTime();
+    private String exceeded = null;
+
+    /**
+     * @param maxNodes
+     * @param maxBytes
+     * @param maxMillis
+     */
+    public RenderBudget(long maxNodes, long maxBytes, long maxMillis) {
+        this.maxNodes = maxNodes;
+        this.maxBytes = maxBytes;
+        this.maxMillis = maxMillis;
+    }
+
+    /**
+     * Starts the budget of the next diagram.
+     */
+    public void start() {
+        startNanos = System.nanoTime();
+        exceeded = null;
+    }
+
+    /**
+     * Starts the time of drawing the diagram.
+     */
+    public void startDrawing() {
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * @return true if any limit is set
+     */
+    public boolean isLimited() {
+        return maxNodes > 0 || maxBytes > 0 || maxMillis > 0;
+    }
+
+    /**
+     * @param nodes boxes built so far
+     * @return true if the boxes, their bytes or the time exceed their limits
+     */
+    public boolean checkNodes(long nodes) {
+        if (maxNodes > 0 && nodes >= maxNodes) {
+            return exceed("max " + maxNodes + " boxes");
+        }
+        if (maxBytes > 0 && nodes * MIN_BOX_BYTES >= maxBytes) {
+            return exceed("max " + maxBytes + " bytes");
+        }
+        return checkTime();
+    }
+
+    /**
+     * @param bytes bytes written so far
+     * @return true if the bytes or the time exceed their limits
+     */
+    public boolean checkBytes(long bytes) {
+        if (maxBytes > 0 && bytes >= maxBytes) {
+            return exceed("max " + maxBytes + " bytes");
+        }
+        return checkTime();
+    }
+
+    /**
+     * @return true if the time exceeds its limit
+     */
+    private boolean checkTime() {
+        if (maxMillis > 0 && System.nanoTime() - startNanos >= maxMillis * 1000000) {
+            return exceed("max " + maxMillis + " ms");
+        }
+        return false;
+    }
+
+    /**
+     * @param reason
+     * @return true
+     */
+    private boolean exceed(String reason) {
+        exceeded = reason;
+        return true;
+    }
+
+    /**
+     * @return the limit exceeded last, e.g. 'max 1000 boxes', or null
+     */
+    public String getExceeded() {
+        return exceeded;
+    }
+
+    /**
+     * @return
+     */
+    public long getMaxNodes() {
+        return maxNodes;
+    }
+
+    /**
+     * @return
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return
+     */
+    public long getMaxMillis() {
+        return maxMillis;
+    }
+}
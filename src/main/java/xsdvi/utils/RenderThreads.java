@@ -0,0 +1,64 @@
+package xsdvi.utils;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Threads of the render tasks. This is the baseline version, the one in
+ * META-INF/versions/21 of the multi-release jar runs the tasks on virtual
+ * threads when asked to.
+ *
+ * @author Alexander Dyuzhev
+ */
+public final class RenderThreads {
+
+    private static final Logger logger = Logger.getLogger(LoggerHelper.LOGGER_NAME);
+
+    /**
+     *
+     */
+    private RenderThreads() {
+        // no instances
+    }
+
+    /**
+     * @return true if {@link #newExecutor(int, boolean)} can use virtual
+     * threads
+     */
+    public static boolean isVirtualSupported() {
+        return false;
+    }
+
+    /**
+     * @param threads tasks run at once
+     * @param virtual run the tasks on virtual threads, from Java 21
+     * @return a fixed pool, resizable with
+     * {@link ThreadPoolExecutor#setCorePoolSize(int)} and
+     * {@link ThreadPoolExecutor#setMaximumPoolSize(int)}
+     */
+    public static ThreadPoolExecutor newExecutor(int threads, boolean virtual) {
+        if (virtual) {
+            logger.warning("Virtual threads need Java 21, using platform threads");
+        }
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = task -> {
+            Thread thread = new Thread(task, "xsdvi-render-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return newFixedPool(threads, factory);
+    }
+
+    /**
+     * @param threads
+     * @param factory
+     * @return
+     */
+    private static ThreadPoolExecutor newFixedPool(int threads, ThreadFactory factory) {
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), factory);
+    }
+}
@@ -0,0 +1,269 @@
+package xsdvi.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.xml.catalog.CatalogException;
+import javax.xml.catalog.CatalogFeatures;
+import javax.xml.catalog.CatalogManager;
+import javax.xml.catalog.CatalogResolver;
+import javax.xml.transform.Source;
+
+import org.apache.xerces.dom.DOMInputImpl;
+import org.w3c.dom.ls.LSInput;
+import org.w3c.dom.ls.LSResourceResolver;
+import org.xml.sax.InputSource;
+
+/**
+ * Resolves the remote schema documents of includes and imports to local files
+ * without the network. A remote location, or the namespace of an import
+ * without one, is looked up in the OASIS XML catalogs, then in the mirror
+ * directory, either as host and path, e.g.
+ * 'www.w3.org/2001/xml.xsd', or as the file name alone. A remote location
+ * found nowhere is not fetched, reading it fails and the loader reports the
+ * missing document. Local locations are left to the loader, so edited files
+ * are read again.
+ * <p>
+ * The resolved documents are read once per process and kept as bytes, shared
+ * by all resolvers.
+ *
+ * @author Alexander Dyuzhev
+ */
+public class SchemaResolver implements LSResourceResolver {
+
+    private static final Logger logger = Logger.getLogger(LoggerHelper.LOGGER_NAME);
+
+    // resolved documents by local URI
+    private static final Map<String, byte[]> documents = new ConcurrentHashMap<>();
+
+    private final CatalogResolver catalog;
+    private final Path mirror;
+
+    /**
+     * @param catalogs paths or URIs of the catalog files, may be empty
+     * @param mirror directory of local copies of remote documents, or null
+     * @throws IllegalArgumentException if a catalog can't be read or the
+     * mirror is not a directory
+     */
+    public SchemaResolver(List<String> catalogs, String mirror) {
+        if (catalogs.isEmpty()) {
+            catalog = null;
+        } else {
+            URI[] uris = new URI[catalogs.size()];
+            for (int i = 0; i < uris.length; i++) {
+                uris[i] = toUri(catalogs.get(i));
+            }
+            try {
+                // an entry not in the catalogs is left to the mirror
+                catalog = CatalogManager.catalogResolver(CatalogFeatures.builder()
+                        .with(CatalogFeatures.Feature.RESOLVE, "continue").build(), uris);
+            } catch (CatalogException ex) {
+                throw new IllegalArgumentException("Can't read catalog " + catalogs + ": " + ex.getMessage(), ex);
+            }
+        }
+        if (mirror != null && !Files.isDirectory(Paths.get(mirror))) {
+            throw new IllegalArgumentException("Mirror " + mirror + " is not a directory");
+        }
+        this.mirror = mirror == null ? null : Paths.get(mirror).toAbsolutePath().normalize();
+    }
+
+    /**
+     * @param location
+     * @return
+     */
+    private static URI toUri(String location) {
+        try {
+            URI uri = new URI(location);
+            if (uri.isAbsolute() && uri.getScheme().length() > 1) {
+                return uri;
+            }
+        } catch (URISyntaxException ex) {
+            // a file path
+        }
+        return Paths.get(location).toAbsolutePath().toUri();
+    }
+
+    @Override
+    public LSInput resolveResource(String type, String namespaceURI, String publicId, String systemId, String baseURI) {
+        String location = absolute(systemId, baseURI);
+        if (location == null) {
+            // an import by namespace alone
+            String local = namespaceURI != null ? lookup(null, namespaceURI) : null;
+            return local != null ? input(publicId, namespaceURI, local) : null;
+        }
+        if (!isRemote(location)) {
+            return null;
+        }
+        String local = lookup(publicId, location);
+        if (local == null || isRemote(local)) {
+            local = mirrored(local != null ? local : location);
+        }
+        if (local == null) {
+            logger.log(Level.WARNING, "{0} is neither in the catalogs nor in the mirror, not fetched", location);
+            return missing(publicId, location);
+        }
+        return input(publicId, location, local);
+    }
+
+    /**
+     * @param systemId
+     * @param baseURI
+     * @return absolute location, or null
+     */
+    private static String absolute(String systemId, String baseURI) {
+        if (systemId == null) {
+            return null;
+        }
+        try {
+            URI uri = new URI(systemId);
+            if (!uri.isAbsolute() && baseURI != null) {
+                return new URI(baseURI).resolve(uri).toString();
+            }
+        } catch (URISyntaxException | IllegalArgumentException ex) {
+            // left to the loader
+        }
+        return systemId;
+    }
+
+    /**
+     * @param location
+     * @return true if the location is read over the network
+     */
+    private static boolean isRemote(String location) {
+        String lower = location.toLowerCase();
+        return lower.startsWith("http:") || lower.startsWith("https:") || lower.startsWith("ftp:");
+    }
+
+    /**
+     * @param publicId
+     * @param location location or namespace
+     * @return the location mapped by a system, public, uri or rewrite entry of
+     * the catalogs, or null
+     */
+    private String lookup(String publicId, String location) {
+        if (catalog == null) {
+            return null;
+        }
+        try {
+            InputSource entity = catalog.resolveEntity(publicId, location);
+            if (entity != null && entity.getSystemId() != null) {
+                return entity.getSystemId();
+            }
+            // an unmatched href comes back as it is
+            Source source = catalog.resolve(location, null);
+            if (source != null && source.getSystemId() != null && !source.getSystemId().equals(location)) {
+                return source.getSystemId();
+            }
+        } catch (CatalogException ex) {
+            // e.g. a namespace that is no URL
+            logger.log(Level.FINE, "Can''t look up {0} in the catalogs: {1}", new Object[]{location, ex.toString()});
+        }
+        return null;
+    }
+
+    /**
+     * @param location remote location
+     * @return URI of the copy in the mirror, or null
+     */
+    private String mirrored(String location) {
+        if (mirror == null) {
+            return null;
+        }
+        URI uri;
+        try {
+            uri = new URI(location);
+        } catch (URISyntaxException ex) {
+            return null;
+        }
+        String path = uri.getPath() != null ? uri.getPath() : "";
+        Path copy = uri.getHost() != null ? mirror.resolve(uri.getHost() + path).normalize() : null;
+        if (copy == null || !copy.startsWith(mirror) || !Files.isRegularFile(copy)) {
+            String fileName = path.substring(path.lastIndexOf('/') + 1);
+            copy = fileName.isEmpty() ? null : mirror.resolve(fileName);
+        }
+        return copy != null && Files.isRegularFile(copy) ? copy.toUri().toString() : null;
+    }
+
+    /**
+     * @param publicId
+     * @param location the location asked for
+     * @param local the location read
+     * @return
+     */
+    private static LSInput input(String publicId, String location, String local) {
+        byte[] data = documents.get(local);
+        if (data == null) {
+            try {
+                data = read(local);
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, "Can''t read {0} for {1}: {2}", new Object[]{local, location, ex.toString()});
+                return missing(publicId, location);
+            }
+            byte[] previous = documents.putIfAbsent(local, data);
+            if (previous != null) {
+                data = previous;
+            } else {
+                logger.log(Level.INFO, "Resolved {0} to {1}", new Object[]{location, local});
+            }
+        }
+        // relative locations in the document are resolved against the local copy
+        return new DOMInputImpl(publicId, local, null, new ByteArrayInputStream(data), null);
+    }
+
+    /**
+     * @param local
+     * @return
+     * @throws IOException
+     */
+    private static byte[] read(String local) throws IOException {
+        if (isRemote(local)) {
+            throw new IOException("not read over the network");
+        }
+        URI uri = URI.create(local);
+        if ("file".equals(uri.getScheme())) {
+            return Files.readAllBytes(Paths.get(uri));
+        }
+        try (InputStream in = uri.toURL().openStream()) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * @param publicId
+     * @param location
+     * @return input failing on read, the loader reports it without fetching
+     * the location
+     */
+    private static LSInput missing(String publicId, String location) {
+        return new DOMInputImpl(publicId, location, null, new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException(location + " is not available offline");
+            }
+        }, null);
+    }
+
+    /**
+     * @return documents kept in memory
+     */
+    public static int getDocumentCount() {
+        return documents.size();
+    }
+
+    /**
+     * Drops the documents kept in memory.
+     */
+    public static void clearDocuments() {
+        documents.clear();
+    }
+}
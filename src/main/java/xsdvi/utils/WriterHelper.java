@@ -1,12 +1,12 @@
 package xsdvi.utils;
 
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
+import java.nio.file.Paths;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -18,6 +18,19 @@ public class WriterHelper {
 
     private static final Logger logger = Logger.getLogger(LoggerHelper.LOGGER_NAME);
     private Writer writer;
+    private ArchiveHelper archive = null;
+    private Metrics metrics = new Metrics(false);
+    private String uri = null;
+    private long charsWritten = 0;
+    private long bytesWritten = 0;
+    private long bytesOpened = 0;
+    private IOException error = null;
+    // failures of the current writer after the first one
+    private int errorsFollowing = 0;
+    // the file of the current writer, null for archive entries and streams
+    private CompareOutputStream file = null;
+    private int filesChanged = 0;
+    private int filesUnchanged = 0;
 
     /**
      *
@@ -65,22 +78,51 @@ public class WriterHelper {
      *
      */
     public void close() {
+        FlightEvents.Flush event = new FlightEvents.Flush();
+        event.begin();
         try {
             writer.close();
+            if (file != null) {
+                if (file.isChanged()) {
+                    filesChanged++;
+                } else {
+                    filesUnchanged++;
+                }
+            }
         } catch (IOException e) {
-            logger.log(Level.SEVERE, e.getLocalizedMessage(), e);
+            fail(e);
+        }
+        file = null;
+        if (event.shouldCommit()) {
+            event.output = uri;
+            event.bytes = bytesWritten - bytesOpened;
+            event.commit();
         }
     }
 
+    /**
+     * Ends the current writer after a failure: a file is left as it was, an
+     * archive entry or stream is closed.
+     */
+    public void abort() {
+        if (file == null) {
+            close();
+            return;
+        }
+        file.abort();
+        file = null;
+    }
+
     /**
      * @param csq
      * @return
      */
     public Writer append(CharSequence csq) {
         try {
+            charsWritten += csq.length();
             writer.append(csq);
         } catch (IOException e) {
-            logger.log(Level.SEVERE, e.getLocalizedMessage(), e);
+            fail(e);
         }
         return writer;
     }
@@ -99,6 +141,63 @@ public class WriterHelper {
         this.writer = w;
     }
 
+    /**
+     * @return
+     */
+    public ArchiveHelper getArchive() {
+        return archive;
+    }
+
+    /**
+     * @param archive when set, new writers open archive entries instead of files
+     */
+    public void setArchive(ArchiveHelper archive) {
+        this.archive = archive;
+    }
+
+    /**
+     * @return characters appended to all writers
+     */
+    public long getCharsWritten() {
+        return charsWritten;
+    }
+
+    /**
+     * @return bytes written by all writers opened by uri
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @return files written because their content changed
+     */
+    public int getFilesChanged() {
+        return filesChanged;
+    }
+
+    /**
+     * @return files left untouched because they had the same content
+     */
+    public int getFilesUnchanged() {
+        return filesUnchanged;
+    }
+
+    /**
+     * @return
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param metrics receives the bytes written and the time spent writing
+     * them by new writers
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
     /**
      * @param uri
      */
@@ -107,27 +206,110 @@ public class WriterHelper {
     }
 
     /**
+     * Opens an archive entry, or a file that is only replaced on close if its
+     * content changed, see {@link CompareOutputStream}.
+     *
      * @param uri
      * @param charsetName
      */
     public final void newWriter(String uri, String charsetName) {
+        this.uri = uri;
+        bytesOpened = bytesWritten;
+        error = null;
+        errorsFollowing = 0;
+        file = null;
         try {
-            OutputStream foStream = new FileOutputStream(uri);
-            writer = new OutputStreamWriter(foStream, charsetName);
-        } catch (UnsupportedEncodingException | FileNotFoundException e) {
+            OutputStream foStream;
+            if (archive != null) {
+                foStream = archive.newEntry(uri);
+            } else {
+                file = new CompareOutputStream(Paths.get(uri));
+                foStream = file;
+            }
+            writer = new OutputStreamWriter(meter(foStream), charsetName);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Logs the first failure of the current writer, the following ones,
+     * usually of the appends to a broken output, are only counted.
+     *
+     * @param e
+     */
+    private void fail(IOException e) {
+        if (error == null) {
             logger.log(Level.SEVERE, e.getLocalizedMessage(), e);
+            error = e;
+        } else {
+            errorsFollowing++;
+            logger.log(Level.FINE, "Failure {0} writing {1}: {2}", new Object[]{errorsFollowing + 1, uri, e.toString()});
         }
     }
 
+    /**
+     * @return the first error of the current writer, or null
+     */
+    public IOException getError() {
+        return error;
+    }
+
+    /**
+     * @return number of failures of the current writer after the first one
+     */
+    public int getErrorsFollowing() {
+        return errorsFollowing;
+    }
+
+    /**
+     * @param out
+     * @return stream counting the bytes and reporting them and the time spent
+     * writing them to the metrics
+     */
+    private OutputStream meter(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                metrics.enter(Metrics.Phase.WRITE);
+                try {
+                    out.write(b, off, len);
+                    bytesWritten += len;
+                    metrics.addBytesWritten(len);
+                } finally {
+                    metrics.exit();
+                }
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void close() throws IOException {
+                metrics.enter(Metrics.Phase.WRITE);
+                try {
+                    super.close();
+                } finally {
+                    metrics.exit();
+                }
+            }
+        };
+    }
+
     /**
      * @param oStream
      * @param charsetName
      */
     public final void newWriter(OutputStream oStream, String charsetName) {
+        error = null;
+        errorsFollowing = 0;
+        file = null;
         try {
             writer = new OutputStreamWriter(oStream, charsetName);
         } catch (UnsupportedEncodingException e) {
-            logger.log(Level.SEVERE, e.getLocalizedMessage(), e);
+            fail(e);
         }
     }
 }
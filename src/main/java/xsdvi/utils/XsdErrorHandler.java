@@ -23,7 +23,8 @@ public class XsdErrorHandler implements DOMErrorHandler {
         switch (severity) {
             case DOMError.SEVERITY_FATAL_ERROR:
                 logger.log(Level.SEVERE, "[xs-fatal-error]: {0}", errorMessage(error));
-                System.exit(1);
+                // stops loading, the loader returns no model and the input is skipped
+                return false;
             case DOMError.SEVERITY_ERROR:
                 logger.log(Level.SEVERE, "[xs-error]: {0}", errorMessage(error));
                 break;
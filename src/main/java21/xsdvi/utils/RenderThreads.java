@@ -0,0 +1,62 @@
+package xsdvi.utils;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Threads of the render tasks, the Java 21 version of the multi-release jar.
+ * Virtual threads are still limited to the given number of tasks at once so
+ * the symbol trees in memory stay bounded, they make the waits of the render
+ * tasks on the writer stage cheap.
+ *
+ * @author Alexander Dyuzhev
+ */
+public final class RenderThreads {
+
+    /**
+     *
+     */
+    private RenderThreads() {
+        // no instances
+    }
+
+    /**
+     * @return true if {@link #newExecutor(int, boolean)} can use virtual
+     * threads
+     */
+    public static boolean isVirtualSupported() {
+        return true;
+    }
+
+    /**
+     * @param threads tasks run at once
+     * @param virtual run the tasks on virtual threads
+     * @return a fixed pool, resizable with
+     * {@link ThreadPoolExecutor#setCorePoolSize(int)} and
+     * {@link ThreadPoolExecutor#setMaximumPoolSize(int)}
+     */
+    public static ThreadPoolExecutor newExecutor(int threads, boolean virtual) {
+        if (virtual) {
+            return newFixedPool(threads, Thread.ofVirtual().name("xsdvi-render-", 1).factory());
+        }
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = task -> {
+            Thread thread = new Thread(task, "xsdvi-render-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return newFixedPool(threads, factory);
+    }
+
+    /**
+     * @param threads
+     * @param factory
+     * @return
+     */
+    private static ThreadPoolExecutor newFixedPool(int threads, ThreadFactory factory) {
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), factory);
+    }
+}
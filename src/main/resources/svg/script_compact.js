@@ -0,0 +1,47 @@
+////////// compactIds
+// Box ids are base-36 document order numbers, 'data-e' holds the number of
+// the last descendant of a box with children.
+
+  var parents = null;
+
+////////// serial(string)
+  function serial(sId) {
+    return parseInt(sId.substring(1), 36);
+  }
+
+////////// lastSerial(string)
+  function lastSerial(sId) {
+    var last = document.getElementById(sId).getAttribute('data-e');
+    return last ? parseInt(last, 36) : serial(sId);
+  }
+
+////////// isHigherBranch(string, string)
+  function isHigherBranch(sSerialLower, sSerialHigher) {
+    return serial(sSerialHigher) > lastSerial(sSerialLower);
+  }
+
+////////// isOnHigherLevel(element, element)
+  function isOnHigherLevel(eBoxLower, eBoxHigher) {
+    return !isDescendant(eBoxLower.id, eBoxHigher.id);
+  }
+
+////////// isDescendant(string, string)
+  function isDescendant(sSerialAsc, sSerialDesc) {
+    var n = serial(sSerialDesc);
+    return n > serial(sSerialAsc) && n <= lastSerial(sSerialAsc);
+  }
+
+////////// getParent(element)
+  function getParent(eBox) {
+    if (!parents) {
+      parents = {};
+      var stack = [];
+      for (var i=0; i<efBoxes.length; i++) {
+        var n = serial(efBoxes[i].id);
+        while (stack.length && lastSerial(stack[stack.length-1].id) < n) stack.pop();
+        if (stack.length) parents[efBoxes[i].id] = stack[stack.length-1];
+        stack.push(efBoxes[i]);
+      }
+    }
+    return parents[eBox.id];
+  }
@@ -0,0 +1,83 @@
+////////// dedupBlocks
+// Repeated subtrees are drawn once as a block in the defs, the box on top of
+// a subtree references it with <use id='b'+box id>. 'data-by' is the offset of
+// the last box of the block, 'data-br' and 'data-bd' its description attributes
+// and 'data-bm' the highest x position in the block.
+
+////////// setBlockVisibility(element, string)
+  function setBlockVisibility(eUseElement, sVisibility) {
+    var block = document.getElementById('b'+eUseElement.id.substring(1));
+    if (block) block.setAttribute('visibility', sVisibility);
+  }
+
+////////// visibleBlock(element)
+  function visibleBlock(eBox) {
+    var block = document.getElementById('b'+eBox.id);
+    return (block && block.getAttribute('visibility') != 'hidden') ? block : null;
+  }
+
+////////// move(element, element)
+  function move(eBoxLast, eBox) {
+    if (!eBoxLast) return;
+    if (isOnHigherLevel(eBoxLast, eBox)) {
+      var block = visibleBlock(eBoxLast);
+      var attDescHeight = eBoxLast.getAttribute(block ? 'data-br' : 'data-desc-height-rest');
+      var attDescX = Number(eBoxLast.getAttribute(block ? 'data-bd' : 'data-desc-x'));
+      var blockHeight = block ? Number(eBoxLast.getAttribute('data-by')) : 0;
+      var attX = xTrans(eBox);
+      var descHeight = Number(attDescHeight);
+      var heightAddon = 0;
+
+      var currWidth = eBox.getElementsByClassName("shadow")[0];
+      if (currWidth) {
+        currWidth = Number(currWidth.getAttribute("width"));
+      } else {
+        currWidth = 0;
+      }
+      if(descHeight && ((attDescX >= attX && attDescX < attX + currWidth) || (attX < attDescX))) heightAddon = descHeight;
+
+      setYTrans(eBox, yTrans(eBoxLast)+blockHeight+%HEIGHT_SUM%+heightAddon);
+      var parent = getParent(eBox);
+      var line = document.getElementById('p'+eBox.id);
+      if (!parent || !line) return;
+      line.setAttribute('y1', String(yTrans(parent)-yTrans(eBox)+%HEIGHT_HALF%));
+    }
+    else {
+      setYTrans(eBox, yTrans(eBoxLast));
+    }
+  }
+
+////////// setPlus(element)
+  function setPlus(eUseElement) {
+    eUseElement.setAttributeNS('http://www.w3.org/1999/xlink', 'href', '#plus');
+    setBlockVisibility(eUseElement, 'hidden');
+  }
+
+////////// setMinus(element)
+  function setMinus(eUseElement) {
+    eUseElement.setAttributeNS('http://www.w3.org/1999/xlink', 'href', '#minus');
+    setBlockVisibility(eUseElement, 'visible');
+  }
+
+
+////////// setHeight(number)
+  function setHeight(nHeight) {
+    for (var i=0; i<efBoxes.length; i++) {
+      var eBox = efBoxes[i];
+      if (eBox.getAttribute('visibility') != 'hidden' && visibleBlock(eBox)) {
+        nHeight = Math.max(nHeight, yTrans(eBox)+Number(eBox.getAttribute('data-by'))+%HEIGHT_SUM%);
+      }
+    }
+    eSvg.setAttribute('height', nHeight);
+  }
+
+////////// setWidth(number)
+  function setWidth(nWidth) {
+    for (var i=0; i<efBoxes.length; i++) {
+      var eBox = efBoxes[i];
+      if (eBox.getAttribute('visibility') != 'hidden' && visibleBlock(eBox)) {
+        nWidth = Math.max(nWidth, Number(eBox.getAttribute('data-bm'))+360);
+      }
+    }
+    eSvg.setAttribute('width', nWidth);
+  }
\ No newline at end of file
@@ -0,0 +1,784 @@
+package xsdvi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.apache.xerces.xs.XSModel;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.contrib.java.lang.system.ExpectedSystemExit;
+import org.junit.rules.TestName;
+import xsdvi.model.SchemaGraph;
+import xsdvi.model.SchemaModel;
+import xsdvi.svg.SvgCompactor;
+import xsdvi.utils.DiskCache;
+import xsdvi.utils.FileHelper;
+
+/**
+ * Differential tests of the optimized output modes against the classic
+ * serial rendering. The corpus is the bundled schema and generated schemas,
+ * each drawn one diagram per root by the command line without options. Modes
+ * that must not change the output are compared byte for byte. The compact and
+ * block modes draw the same boxes in other markup, they are compared box by
+ * box. A difference names the box by its code() in the classic diagram. The
+ * remote documents, xml.xsd of the bundled schema, are read from the mirror
+ * in the test resources.
+ */
+public class xsdviGoldenTests {
+
+    static String XSDFILE_IN = "UnitsML-v1.0-csd04.xsd";
+
+    static final int GENERATED_SCHEMAS = 3;
+    static final int GENERATED_TYPES = 10;
+    // uses of the blocks of repeated subtrees in the full diagram of UnitsML
+    static final int FULL_BLOCKS_USED = 25;
+
+    private static final Pattern BOX_ID = Pattern.compile("<g id='([^']*)' class='box'");
+    private static final Pattern TRANSLATE_X = Pattern.compile("translate\\((-?\\d+),");
+    private static final Pattern BLOCK_USE = Pattern.compile("<use[^>]* xlink:href='#d\\d+'");
+    private static final Pattern CLASS_ATTRIBUTE = Pattern.compile("class='([^']*)'");
+
+    private static Path goldenPath;
+    private static String mirror;
+    private static final List<String> corpus = new ArrayList<>();
+    // classic diagrams of each schema by root, drawn on first use
+    private static final Map<String, Map<String, byte[]>> classic = new HashMap<>();
+
+    @Rule
+    public final ExpectedSystemExit exitRule = ExpectedSystemExit.none();
+
+    @Rule public TestName name = new TestName();
+
+    /**
+     * One box of a diagram as drawn: its x position, its shapes and its
+     * visible text lines.
+     */
+    private static final class Box {
+
+        final String code;
+        final String content;
+
+        Box(String code, String content) {
+            this.code = code;
+            this.content = content;
+        }
+    }
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        String xsd = xsdviGoldenTests.class.getClassLoader().getResource(XSDFILE_IN).getFile();
+        goldenPath = Paths.get(new File(xsd).getParent(), "SVG.golden");
+        mirror = xsdviGoldenTests.class.getClassLoader().getResource("mirror").getFile();
+        new FileHelper().deleteFolder(goldenPath);
+        Files.createDirectories(goldenPath);
+        corpus.add(xsd);
+        for (int seed = 1; seed <= GENERATED_SCHEMAS; seed++) {
+            Path generated = goldenPath.resolve("generated" + seed + ".xsd");
+            Files.write(generated, generateSchema(seed, GENERATED_TYPES).getBytes(StandardCharsets.UTF_8));
+            corpus.add(generated.toString());
+        }
+    }
+
+    @Test
+    public void threadsMatchClassicByteForByte() throws Exception {
+        System.out.println(name.getMethodName());
+        List<String> differences = new ArrayList<>();
+        for (String schema : corpus) {
+            Path parallel = outputPath(schema, "threads");
+            xsdviTests.runXsdVi(new String[]{schema, "-rootNodeName", "all", "-outputPath", parallel.toString(), "-threads", "4", "-schemaMirror", mirror});
+            compareBytes("threads", schema, classic(schema), readDiagrams(parallel), differences);
+        }
+        assertNoDifferences(differences);
+    }
+
+    @Test
+    public void libraryAndPublisherMatchClassicByteForByte() throws Exception {
+        System.out.println(name.getMethodName());
+        List<String> differences = new ArrayList<>();
+        XsdRenderer renderer = new XsdRenderer(options().build());
+        for (String schema : corpus) {
+            XSModel model = renderer.load(schema);
+            Map<String, byte[]> rendered = new TreeMap<>();
+            Map<String, byte[]> published = new TreeMap<>();
+            for (String root : renderer.getRootNames(model)) {
+                rendered.put(root, renderer.render(model, root));
+                published.put(root, publish(renderer, model, root));
+            }
+            compareBytes("library", schema, classic(schema), rendered, differences);
+            compareBytes("publisher", schema, classic(schema), published, differences);
+        }
+        assertNoDifferences(differences);
+    }
+
+    @Test
+    public void compactMatchesClassicStructurally() throws Exception {
+        System.out.println(name.getMethodName());
+        List<String> differences = new ArrayList<>();
+        for (String schema : corpus) {
+            compareBoxes("compact", schema, classic(schema),
+                    renderAll(options().compact(true).build(), schema), differences);
+        }
+        assertNoDifferences(differences);
+    }
+
+    @Test
+    public void blockModesMatchClassicStructurally() throws Exception {
+        System.out.println(name.getMethodName());
+        List<String> differences = new ArrayList<>();
+        for (String schema : corpus) {
+            compareBoxes("dedup", schema, classic(schema),
+                    renderAll(options().dedup(true).build(), schema), differences);
+            compareBoxes("fragmentCache", schema, classic(schema),
+                    renderAll(options().fragmentCacheSize(100).build(), schema), differences);
+            compareBoxes("compact dedup", schema, classic(schema),
+                    renderAll(options().compact(true).dedup(true).build(), schema), differences);
+        }
+        // a diagram of one root has no repeated subtree, the full diagram of UnitsML has
+        String schema = corpus.get(0);
+        Map<String, byte[]> full = classicFull(schema, "UnitsML");
+        Map<String, byte[]> dedup = renderFull(RenderOptions.builder().schemaMirror(mirror).dedup(true).build(), schema, "UnitsML");
+        compareBoxes("dedup full", schema, full, dedup, differences);
+        compareBoxes("compact dedup full", schema, full,
+                renderFull(RenderOptions.builder().schemaMirror(mirror).compact(true).dedup(true).build(), schema, "UnitsML"), differences);
+        assertNoDifferences(differences);
+        Matcher uses = BLOCK_USE.matcher(new String(dedup.get("UnitsML"), StandardCharsets.UTF_8));
+        int count = 0;
+        while (uses.find()) {
+            count++;
+        }
+        assertTrue(count + " blocks used", count == FULL_BLOCKS_USED);
+    }
+
+    @Test
+    public void lightReaderMatchesClassicByteForByte() throws Exception {
+        System.out.println(name.getMethodName());
+        List<String> differences = new ArrayList<>();
+        for (String schema : corpus) {
+            compareBytes("lightReader", schema, classic(schema),
+                    renderAll(options().lightweight(true).build(), schema), differences);
+        }
+        assertNoDifferences(differences);
+    }
+
+    @Test
+    public void snapshotRenderedInParallelMatchesClassic() throws Exception {
+        System.out.println(name.getMethodName());
+        List<String> differences = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (String schema : corpus) {
+                XsdRenderer renderer = new XsdRenderer(options().snapshot(true).build());
+                SchemaModel model = renderer.read(schema);
+                assertTrue(model instanceof SchemaGraph);
+                // the threads share the snapshot and the renderer
+                Map<String, Future<byte[]>> futures = new TreeMap<>();
+                for (String root : renderer.getRootNames(model)) {
+                    futures.put(root, executor.submit(() -> renderer.render(model, root)));
+                }
+                Map<String, byte[]> diagrams = new TreeMap<>();
+                for (Map.Entry<String, Future<byte[]>> future : futures.entrySet()) {
+                    diagrams.put(future.getKey(), future.getValue().get());
+                }
+                compareBytes("snapshot", schema, classic(schema), diagrams, differences);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertNoDifferences(differences);
+    }
+
+    @Test
+    public void snapshotFileMatchesClassicWrittenAndRead() throws Exception {
+        System.out.println(name.getMethodName());
+        List<String> differences = new ArrayList<>();
+        for (String schema : corpus) {
+            RenderOptions options = options()
+                    .snapshotDir(outputPath(schema, "snapshot").toString()).build();
+            // drawn from the graph written, then from the graph read back
+            compareBytes("snapshotDir", schema, classic(schema), renderAll(options, schema), differences);
+            compareBytes("snapshotDir read", schema, classic(schema), renderAll(options, schema), differences);
+        }
+        assertNoDifferences(differences);
+    }
+
+    @Test
+    public void diskCacheMatchesClassicWarmAndCold() throws Exception {
+        System.out.println(name.getMethodName());
+        List<String> differences = new ArrayList<>();
+        for (String schema : corpus) {
+            String cacheDir = outputPath(schema, "cache").toString();
+            RenderOptions options = options().cacheDir(cacheDir).build();
+            Map<String, byte[]> cold = renderAll(options, schema);
+            compareBoxes("cacheDir", schema, classic(schema), cold, differences);
+
+            // a new renderer reads the fragments drawn by the first one
+            XsdRenderer renderer = new XsdRenderer(options);
+            XSModel model = renderer.load(schema);
+            Map<String, byte[]> warm = new TreeMap<>();
+            for (String root : renderer.getRootNames(model)) {
+                warm.put(root, renderer.render(model, root));
+            }
+            DiskCache diskCache = renderer.getFragmentCache().getDiskCache();
+            assertTrue(diskCache.getHits() > 0 && diskCache.getMisses() == 0);
+            compareBytes("cacheDir warm", schema, cold, warm, differences);
+        }
+        assertNoDifferences(differences);
+    }
+
+    /**
+     * @return options drawing one diagram per root, as the classic diagrams
+     */
+    private static RenderOptions.Builder options() {
+        return RenderOptions.builder().oneNodeOnly(true).schemaMirror(mirror);
+    }
+
+    /**
+     * @param schema
+     * @param mode
+     * @return folder of the files of a schema in a mode
+     */
+    private static Path outputPath(String schema, String mode) {
+        return goldenPath.resolve(schemaName(schema)).resolve(mode);
+    }
+
+    /**
+     * @param schema
+     * @return
+     */
+    private static String schemaName(String schema) {
+        String fileName = Paths.get(schema).getFileName().toString();
+        return fileName.substring(0, fileName.length() - 4);
+    }
+
+    /**
+     * @param schema
+     * @return diagrams of the roots drawn by the command line without options
+     * @throws IOException
+     */
+    private static Map<String, byte[]> classic(String schema) throws IOException {
+        Map<String, byte[]> diagrams = classic.get(schema);
+        if (diagrams == null) {
+            Path path = outputPath(schema, "classic");
+            xsdviTests.runXsdVi(new String[]{schema, "-rootNodeName", "all", "-outputPath", path.toString(), "-schemaMirror", mirror});
+            diagrams = readDiagrams(path);
+            assertTrue(!diagrams.isEmpty());
+            classic.put(schema, diagrams);
+        }
+        return diagrams;
+    }
+
+    /**
+     * @param schema
+     * @param root
+     * @return the diagram of the root with its whole tree, drawn by the
+     * command line without options
+     * @throws IOException
+     */
+    private static Map<String, byte[]> classicFull(String schema, String root) throws IOException {
+        Path path = outputPath(schema, "classic-" + root);
+        xsdviTests.runXsdVi(new String[]{schema, "-rootNodeName", root, "-outputPath", path.toString(), "-schemaMirror", mirror});
+        Map<String, byte[]> diagrams = new TreeMap<>();
+        diagrams.put(root, readDiagrams(path).get(schemaName(schema)));
+        return diagrams;
+    }
+
+    /**
+     * @param path
+     * @return the diagrams in the folder by root
+     * @throws IOException
+     */
+    private static Map<String, byte[]> readDiagrams(Path path) throws IOException {
+        Map<String, byte[]> diagrams = new TreeMap<>();
+        try (Stream<Path> files = Files.list(path)) {
+            for (Path file : files.collect(Collectors.toList())) {
+                String fileName = file.getFileName().toString();
+                if (fileName.endsWith(".svg")) {
+                    diagrams.put(fileName.substring(0, fileName.length() - 4), Files.readAllBytes(file));
+                }
+            }
+        }
+        return diagrams;
+    }
+
+    /**
+     * @param options
+     * @param schema
+     * @return the diagrams of all roots drawn by one renderer, by root
+     * @throws IOException
+     */
+    private static Map<String, byte[]> renderAll(RenderOptions options, String schema) throws IOException {
+        XsdRenderer renderer = new XsdRenderer(options);
+        SchemaModel model = renderer.read(schema);
+        Map<String, byte[]> diagrams = new TreeMap<>();
+        for (String root : renderer.getRootNames(model)) {
+            diagrams.put(root, renderer.render(model, root));
+        }
+        return diagrams;
+    }
+
+    /**
+     * @param options
+     * @param schema
+     * @param root
+     * @return the diagram of the root with its whole tree, by root
+     * @throws IOException
+     */
+    private static Map<String, byte[]> renderFull(RenderOptions options, String schema, String root) throws IOException {
+        XsdRenderer renderer = new XsdRenderer(options);
+        Map<String, byte[]> diagrams = new TreeMap<>();
+        diagrams.put(root, renderer.render(renderer.read(schema), root));
+        return diagrams;
+    }
+
+    /**
+     * @param renderer
+     * @param model
+     * @param root
+     * @return the chunks of the publisher
+     * @throws Exception
+     */
+    private static byte[] publish(XsdRenderer renderer, XSModel model, String root) throws Exception {
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        CompletableFuture<Void> completed = new CompletableFuture<>();
+        renderer.publish(model, root).subscribe(new Flow.Subscriber<ByteBuffer>() {
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            public void onNext(ByteBuffer item) {
+                received.write(item.array(), item.arrayOffset() + item.position(), item.remaining());
+            }
+
+            public void onError(Throwable throwable) {
+                completed.completeExceptionally(throwable);
+            }
+
+            public void onComplete() {
+                completed.complete(null);
+            }
+        });
+        completed.get(60, TimeUnit.SECONDS);
+        return received.toByteArray();
+    }
+
+    /**
+     * @param differences
+     */
+    private static void assertNoDifferences(List<String> differences) {
+        assertTrue(differences.size() + " diagrams differ:\n  " + String.join("\n  ", differences), differences.isEmpty());
+    }
+
+    /**
+     * @param mode
+     * @param schema
+     * @param expected
+     * @param actual
+     * @param differences
+     * @return true if both have the same roots
+     */
+    private static boolean compareRoots(String mode, String schema, Map<String, byte[]> expected, Map<String, byte[]> actual, List<String> differences) {
+        if (expected.keySet().equals(actual.keySet())) {
+            return true;
+        }
+        differences.add(mode + ", " + schemaName(schema) + ": roots " + actual.keySet() + " instead of " + expected.keySet());
+        return false;
+    }
+
+    /**
+     * Adds the first differing byte of each diagram, with the box it is in.
+     *
+     * @param mode
+     * @param schema
+     * @param expected
+     * @param actual
+     * @param differences
+     */
+    private static void compareBytes(String mode, String schema, Map<String, byte[]> expected, Map<String, byte[]> actual, List<String> differences) {
+        if (!compareRoots(mode, schema, expected, actual, differences)) {
+            return;
+        }
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            int offset = Arrays.mismatch(entry.getValue(), actual.get(entry.getKey()));
+            if (offset >= 0) {
+                differences.add(String.format("%s, %s [%s]: differs at byte %d in box %s",
+                        mode, schemaName(schema), entry.getKey(), offset, boxAt(entry.getValue(), offset)));
+            }
+        }
+    }
+
+    /**
+     * @param svg classic diagram
+     * @param offset
+     * @return code of the box drawn at the offset
+     */
+    private static String boxAt(byte[] svg, int offset) {
+        Matcher matcher = BOX_ID.matcher(new String(svg, 0, Math.min(offset, svg.length), StandardCharsets.UTF_8));
+        String code = "before the first box";
+        while (matcher.find()) {
+            code = matcher.group(1);
+        }
+        return code;
+    }
+
+    /**
+     * Adds the first differing box of each diagram.
+     *
+     * @param mode
+     * @param schema
+     * @param expected classic diagrams
+     * @param actual
+     * @param differences
+     * @throws Exception
+     */
+    private static void compareBoxes(String mode, String schema, Map<String, byte[]> expected, Map<String, byte[]> actual, List<String> differences) throws Exception {
+        if (!compareRoots(mode, schema, expected, actual, differences)) {
+            return;
+        }
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            List<Box> classicBoxes = boxes(entry.getValue());
+            List<Box> boxes = boxes(actual.get(entry.getKey()));
+            int shared = Math.min(classicBoxes.size(), boxes.size());
+            int i = 0;
+            while (i < shared && classicBoxes.get(i).content.equals(boxes.get(i).content)) {
+                i++;
+            }
+            String prefix = mode + ", " + schemaName(schema) + " [" + entry.getKey() + "]: ";
+            if (i < shared) {
+                differences.add(prefix + "box " + classicBoxes.get(i).code + " is '" + boxes.get(i).content + "' instead of '" + classicBoxes.get(i).content + "'");
+            } else if (boxes.size() != classicBoxes.size()) {
+                differences.add(prefix + boxes.size() + " boxes instead of " + classicBoxes.size() + ", from "
+                        + (i < classicBoxes.size() ? "box " + classicBoxes.get(i).code : "after box " + classicBoxes.get(i - 1).code));
+            }
+        }
+    }
+
+    /**
+     * @param svg
+     * @return the boxes in document order of the tree, the boxes of a block
+     * where it is used
+     * @throws Exception
+     */
+    private static List<Box> boxes(byte[] svg) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        // offline, the SVG DTD isn't read
+        factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+        Document document = factory.newDocumentBuilder().parse(new ByteArrayInputStream(svg));
+        Map<String, Element> blocks = new HashMap<>();
+        for (Element defs : children(document.getDocumentElement())) {
+            if (defs.getTagName().equals("defs")) {
+                for (Element block : children(defs)) {
+                    if (block.getTagName().equals("g") && block.hasAttribute("id")) {
+                        blocks.put(block.getAttribute("id"), block);
+                    }
+                }
+            }
+        }
+        List<Box> boxes = new ArrayList<>();
+        collectBoxes(document.getDocumentElement(), blocks, boxes);
+        return boxes;
+    }
+
+    /**
+     * @param element
+     * @param blocks
+     * @param boxes
+     */
+    private static void collectBoxes(Element element, Map<String, Element> blocks, List<Box> boxes) {
+        for (Element child : children(element)) {
+            if (child.getTagName().equals("defs")) {
+                continue;
+            }
+            if (child.getTagName().equals("g") && child.getAttribute("class").equals("box")) {
+                addBox(child, 0, blocks, boxes);
+            } else {
+                collectBoxes(child, blocks, boxes);
+            }
+        }
+    }
+
+    /**
+     * Adds a box and the boxes of the blocks it uses. The y positions are left
+     * out, script.js moves the classic boxes on load while the boxes of blocks
+     * are drawn where it moves them.
+     *
+     * @param box
+     * @param originX x the box is translated from
+     * @param blocks
+     * @param boxes
+     */
+    private static void addBox(Element box, int originX, Map<String, Element> blocks, List<Box> boxes) {
+        Matcher translate = TRANSLATE_X.matcher(box.getAttribute("transform"));
+        int x = originX + (translate.find() ? Integer.parseInt(translate.group(1)) : 0);
+        StringBuilder shapes = new StringBuilder();
+        StringBuilder lines = new StringBuilder();
+        List<Element> uses = new ArrayList<>();
+        for (Element child : children(box)) {
+            if (child.getTagName().equals("text")) {
+                addLines(child, lines);
+            } else if (child.getTagName().equals("use")) {
+                // the collapse button has a handler, a block doesn't
+                if (!child.hasAttribute("onclick")) {
+                    uses.add(child);
+                }
+            } else {
+                shapes.append(' ').append(child.getTagName()).append(shortClasses(child.getAttribute("class")));
+            }
+        }
+        boxes.add(new Box(box.getAttribute("id"), "x=" + x + shapes + " |" + lines));
+        for (Element use : uses) {
+            Element block = blocks.get(use.getAttribute("xlink:href").substring(1));
+            if (block == null) {
+                continue;
+            }
+            int blockX = x + (use.hasAttribute("x") ? Integer.parseInt(use.getAttribute("x")) : 0);
+            for (Element child : children(block)) {
+                addBox(child, blockX, blocks, boxes);
+            }
+        }
+    }
+
+    /**
+     * Adds the visible lines of a text. The compact mode drops the empty and
+     * hidden texts of a box and joins the others into the tspans of one text
+     * without attributes.
+     *
+     * @param text
+     * @param lines
+     */
+    private static void addLines(Element text, StringBuilder lines) {
+        if (text.getAttribute("visibility").equals("hidden")) {
+            return;
+        }
+        List<Element> tspans = children(text);
+        boolean joined = text.getAttributes().getLength() == 0 && !tspans.isEmpty()
+                && tspans.size() == text.getChildNodes().getLength();
+        if (!joined) {
+            if (!text.getTextContent().isEmpty()) {
+                lines.append(text.getTextContent()).append('|');
+            }
+            return;
+        }
+        for (Element tspan : tspans) {
+            lines.append(tspan.getTextContent()).append('|');
+        }
+    }
+
+    /**
+     * @param classes
+     * @return the classes as named in the compact mode, dot separated
+     */
+    private static String shortClasses(String classes) {
+        if (classes.isEmpty()) {
+            return "";
+        }
+        Matcher matcher = CLASS_ATTRIBUTE.matcher(SvgCompactor.compactFragment("<g class='" + classes + "'/>"));
+        return matcher.find() ? "." + matcher.group(1).replace(' ', '.') : "";
+    }
+
+    /**
+     * @param element
+     * @return the child elements
+     */
+    private static List<Element> children(Element element) {
+        List<Element> children = new ArrayList<>();
+        for (Node node = element.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node.getNodeType() == Node.ELEMENT_NODE) {
+                children.add((Element) node);
+            }
+        }
+        return children;
+    }
+
+    /**
+     * @param seed
+     * @param types complex types of the schema
+     * @return schema with nested compositors, types referenced from several
+     * places, a recursive type, extensions, attribute groups, wildcards,
+     * documentation and identity constraints
+     */
+    static String generateSchema(int seed, int types) {
+        Random random = new Random(seed);
+        String namespace = "urn:xsdvi:golden:" + seed;
+        StringBuilder xsd = new StringBuilder("<?xml version='1.0' encoding='UTF-8'?>\n");
+        xsd.append("<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema' xmlns:g='").append(namespace)
+                .append("' targetNamespace='").append(namespace).append("' elementFormDefault='qualified'>\n");
+        xsd.append("  <xs:attributeGroup name='Common'>\n");
+        xsd.append("    <xs:attribute name='id' type='xs:ID'/>\n");
+        xsd.append("    <xs:attribute name='lang' type='xs:language'/>\n");
+        xsd.append("    <xs:anyAttribute namespace='##other' processContents='lax'/>\n");
+        xsd.append("  </xs:attributeGroup>\n");
+        xsd.append("  <xs:simpleType name='Code'>\n");
+        xsd.append("    <xs:restriction base='xs:string'>\n");
+        xsd.append("      <xs:maxLength value='8'/>\n");
+        xsd.append("    </xs:restriction>\n");
+        xsd.append("  </xs:simpleType>\n");
+
+        // every fourth type extends a later one, an extension can't add to an 'all' group
+        String[] compositors = new String[types];
+        for (int i = 0; i < types; i++) {
+            compositors[i] = i % 4 == 3 ? "sequence" : i % 5 == 4 ? "all" : random.nextBoolean() ? "sequence" : "choice";
+        }
+        for (int i = 0; i < types; i++) {
+            xsd.append("  <xs:complexType name='T").append(i).append("'>\n");
+            if (random.nextInt(3) == 0) {
+                xsd.append("    <xs:annotation>\n");
+                xsd.append("      <xs:documentation>Type ").append(i).append(" of generated schema ").append(seed).append(".</xs:documentation>\n");
+                xsd.append("    </xs:annotation>\n");
+            }
+            int base = -1;
+            for (int j = i + 1; i % 4 == 3 && j < types && base < 0; j++) {
+                if (!compositors[j].equals("all")) {
+                    base = j;
+                }
+            }
+            if (base >= 0) {
+                xsd.append("    <xs:complexContent>\n");
+                xsd.append("      <xs:extension base='g:T").append(base).append("'>\n");
+                xsd.append("        <xs:sequence>\n");
+                int elements = 1 + random.nextInt(2);
+                for (int k = 0; k < elements; k++) {
+                    xsd.append("          <xs:element name='c").append(i).append('_').append(k).append("' type='").append(simpleType(random))
+                            .append('\'').append(occurs(random, false)).append("/>\n");
+                }
+                xsd.append("        </xs:sequence>\n");
+                xsd.append("        <xs:attribute name='a").append(i).append("_0' type='xs:int'/>\n");
+                xsd.append("      </xs:extension>\n");
+                xsd.append("    </xs:complexContent>\n");
+                xsd.append("  </xs:complexType>\n");
+                continue;
+            }
+            String compositor = compositors[i];
+            boolean all = compositor.equals("all");
+            xsd.append("    <xs:").append(compositor).append(">\n");
+            int complexChildren = 0;
+            boolean wildcard = false;
+            int particles = 2 + random.nextInt(3);
+            for (int k = 0; k < particles; k++) {
+                int kind = random.nextInt(10);
+                if (kind < 4 && i + 1 < types && complexChildren < 2) {
+                    // the near types are referenced from several types
+                    int type = i + 1 + random.nextInt(Math.min(3, types - i - 1));
+                    complexChildren++;
+                    xsd.append("      <xs:element name='c").append(i).append('_').append(k).append("' type='g:T").append(type)
+                            .append('\'').append(occurs(random, all)).append("/>\n");
+                } else if (kind == 8 && !all && !wildcard) {
+                    String[] processContents = {"lax", "skip", "strict"};
+                    wildcard = true;
+                    xsd.append("      <xs:any namespace='##other' processContents='").append(processContents[random.nextInt(3)]).append("' minOccurs='0'/>\n");
+                } else if (kind == 9 && !all) {
+                    String nested = compositor.equals("sequence") ? "choice" : "sequence";
+                    xsd.append("      <xs:").append(nested).append(occurs(random, false)).append(">\n");
+                    for (int m = 0; m < 2; m++) {
+                        xsd.append("        <xs:element name='n").append(i).append('_').append(k).append('_').append(m).append("' type='")
+                                .append(simpleType(random)).append("'/>\n");
+                    }
+                    xsd.append("      </xs:").append(nested).append(">\n");
+                } else {
+                    xsd.append("      <xs:element name='c").append(i).append('_').append(k).append("' type='").append(simpleType(random))
+                            .append('\'').append(occurs(random, all)).append("/>\n");
+                }
+            }
+            if (i == 1) {
+                // a loop
+                xsd.append("      <xs:element name='self' type='g:T1' minOccurs='0'/>\n");
+            }
+            xsd.append("    </xs:").append(compositor).append(">\n");
+            int attributes = random.nextInt(3);
+            for (int k = 0; k < attributes; k++) {
+                xsd.append("    <xs:attribute name='a").append(i).append('_').append(k).append("' type='xs:int' use='required'/>\n");
+            }
+            if (random.nextBoolean()) {
+                xsd.append("    <xs:attributeGroup ref='g:Common'/>\n");
+            }
+            xsd.append("  </xs:complexType>\n");
+        }
+
+        for (int k = 0; k < 3; k++) {
+            xsd.append("  <xs:element name='Root").append(k).append("' type='g:T").append(k).append("'/>\n");
+        }
+        xsd.append("  <xs:element name='Catalog'>\n");
+        xsd.append("    <xs:annotation>\n");
+        xsd.append("      <xs:documentation>Root of generated schema ").append(seed).append(" with identity constraints.</xs:documentation>\n");
+        xsd.append("    </xs:annotation>\n");
+        xsd.append("    <xs:complexType>\n");
+        xsd.append("      <xs:sequence>\n");
+        xsd.append("        <xs:element ref='g:Root0' maxOccurs='unbounded'/>\n");
+        xsd.append("        <xs:element ref='g:Root1' minOccurs='0' maxOccurs='unbounded'/>\n");
+        xsd.append("      </xs:sequence>\n");
+        xsd.append("    </xs:complexType>\n");
+        xsd.append("    <xs:key name='RootKey'>\n");
+        xsd.append("      <xs:selector xpath='g:Root0'/>\n");
+        xsd.append("      <xs:field xpath='@id'/>\n");
+        xsd.append("    </xs:key>\n");
+        xsd.append("    <xs:keyref name='RootRef' refer='g:RootKey'>\n");
+        xsd.append("      <xs:selector xpath='g:Root1'/>\n");
+        xsd.append("      <xs:field xpath='@id'/>\n");
+        xsd.append("    </xs:keyref>\n");
+        xsd.append("    <xs:unique name='RootLang'>\n");
+        xsd.append("      <xs:selector xpath='.//g:Root1'/>\n");
+        xsd.append("      <xs:field xpath='@lang'/>\n");
+        xsd.append("    </xs:unique>\n");
+        xsd.append("  </xs:element>\n");
+        xsd.append("</xs:schema>\n");
+        return xsd.toString();
+    }
+
+    /**
+     * @param random
+     * @return
+     */
+    private static String simpleType(Random random) {
+        String[] types = {"xs:string", "xs:int", "xs:date", "g:Code"};
+        return types[random.nextInt(types.length)];
+    }
+
+    /**
+     * @param random
+     * @param all in an 'all' group, at most once
+     * @return occurrence attributes
+     */
+    private static String occurs(Random random, boolean all) {
+        int occurs = random.nextInt(all ? 2 : 4);
+        switch (occurs) {
+            case 1:
+                return " minOccurs='0'";
+            case 2:
+                return " maxOccurs='unbounded'";
+            case 3:
+                return " minOccurs='0' maxOccurs='3'";
+            default:
+                return "";
+        }
+    }
+}
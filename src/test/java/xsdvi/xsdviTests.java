@@ -1,13 +1,48 @@
 package xsdvi;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Handler;
 import java.util.logging.Level;
+import java.util.logging.LogRecord;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipFile;
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+import javax.xml.parsers.DocumentBuilderFactory;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import org.apache.commons.cli.ParseException;
+import org.apache.xerces.xs.XSModel;
 
 import org.junit.BeforeClass;
 import org.junit.Rule;
@@ -19,8 +54,19 @@ import org.junit.contrib.java.lang.system.EnvironmentVariables;
 import org.junit.contrib.java.lang.system.ExpectedSystemExit;
 import org.junit.contrib.java.lang.system.SystemOutRule;
 import org.junit.rules.TestName;
+import xsdvi.RenderMonitor;
+import xsdvi.RenderOptions;
+import xsdvi.XsdRenderer;
 import xsdvi.XsdVi;
+import xsdvi.model.SchemaModel;
+import xsdvi.utils.ArchiveHelper;
 import xsdvi.utils.FileHelper;
+import xsdvi.utils.LoggerHelper;
+import xsdvi.utils.Metrics;
+import xsdvi.utils.OutputPipeline;
+import xsdvi.utils.RenderThreads;
+import xsdvi.utils.SchemaResolver;
+import xsdvi.utils.WriterHelper;
 
 public class xsdviTests {
 
@@ -37,6 +83,10 @@ public class xsdviTests {
 
     @Rule public TestName name = new TestName();
     
+    // the log of the command line, under target/ rather than in the working tree
+    static final String LOG_FILE = Paths.get(xsdviTests.class.getClassLoader().getResource(XSDFILE_IN).getFile())
+            .getParent().resolveSibling("xsdvi.log").toString();
+
     @BeforeClass
     public static void setUpBeforeClass() throws Exception {
         //XSDFILE_IN = System.getProperty("inputXML");        
@@ -47,7 +97,7 @@ public class xsdviTests {
         System.out.println(name.getMethodName());
         exitRule.expectSystemExitWithStatus(-1);
         String[] args = new String[]{""};
-        XsdVi.main(args);
+        runXsdVi(args);
     }
 
     
@@ -56,7 +106,7 @@ public class xsdviTests {
         System.out.println(name.getMethodName());
         exitRule.expectSystemExitWithStatus(-1);
         String[] args = new String[]{"nonexist.xsd"};
-        XsdVi.main(args);
+        runXsdVi(args);
     }
 
     @Test
@@ -75,7 +125,7 @@ public class xsdviTests {
             }
         }
         String[] args = new String[]{xsd, "-outputPath", outputPath};
-        XsdVi.main(args);
+        runXsdVi(args);
         
         assertTrue(Files.exists(fileout));        
     }
@@ -96,7 +146,7 @@ public class xsdviTests {
             }
         }
         String[] args = new String[]{xsd, "-rootNodeName", "UnitsML", "-outputPath", outputPath};
-        XsdVi.main(args);
+        runXsdVi(args);
         
         assertTrue(Files.exists(fileout));        
     }
@@ -117,7 +167,7 @@ public class xsdviTests {
             }
         }
         String[] args = new String[]{xsd, "-rootNodeName", "ElectricCurrent", "-oneNodeOnly", "-outputPath", outputPath};
-        XsdVi.main(args);
+        runXsdVi(args);
         
         assertTrue(Files.exists(fileout));        
     }
@@ -134,7 +184,7 @@ public class xsdviTests {
         new FileHelper().deleteFolder(fileout);
         
         String[] args = new String[]{xsd, "-rootNodeName", "all", "-outputPath", outputPath};
-        XsdVi.main(args);
+        runXsdVi(args);
         long countFiles = 0;
         try {
             countFiles = Files.list(fileout).count();
@@ -143,4 +193,938 @@ public class xsdviTests {
         }
         assertTrue(countFiles == 54);
     }
+
+    @Test
+    public void successCreateCompactSVG() throws Exception {
+        System.out.println(name.getMethodName());
+        ClassLoader classLoader = getClass().getClassLoader();
+
+        String xsd = classLoader.getResource(XSDFILE_IN).getFile();
+        String outputPath = new File(xsd).getParent() + File.separator + "SVG.test6";
+        Path fileout = Paths.get(outputPath, File.separator + XSDFILE_IN.substring(0, XSDFILE_IN.indexOf(".xsd")) + ".svg");
+        new FileHelper().deleteFolder(Paths.get(outputPath));
+
+        String[] args = new String[]{xsd, "-rootNodeName", "UnitsML", "-compact", "-outputPath", outputPath};
+        runXsdVi(args);
+
+        assertTrue(Files.exists(fileout));
+        String svg = new String(Files.readAllBytes(fileout), "UTF-8");
+        assertTrue(svg.contains("<g id='_1' class='box'"));
+        assertTrue(!svg.contains("</g>\n"));
+        // well-formed
+        DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(fileout.toFile());
+    }
+
+    @Test
+    public void successCreateDedupSVG() throws Exception {
+        System.out.println(name.getMethodName());
+        ClassLoader classLoader = getClass().getClassLoader();
+
+        String xsd = classLoader.getResource(XSDFILE_IN).getFile();
+        String outputPath = new File(xsd).getParent() + File.separator + "SVG.test7";
+        Path fileout = Paths.get(outputPath, File.separator + XSDFILE_IN.substring(0, XSDFILE_IN.indexOf(".xsd")) + ".svg");
+        new FileHelper().deleteFolder(Paths.get(outputPath));
+
+        String[] args = new String[]{xsd, "-rootNodeName", "UnitsML", "-dedup", "-outputPath", outputPath};
+        runXsdVi(args);
+
+        assertTrue(Files.exists(fileout));
+        String svg = new String(Files.readAllBytes(fileout), "UTF-8");
+        assertTrue(svg.contains("<g id='d1'>"));
+        assertTrue(svg.contains("xlink:href='#d1'/>"));
+        assertTrue(svg.contains("data-by='"));
+        // well-formed, without fetching the SVG DTD
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+        factory.newDocumentBuilder().parse(fileout.toFile());
+    }
+
+    @Test
+    public void successReuseFragmentsForAllNodes() throws Exception {
+        System.out.println(name.getMethodName());
+        ClassLoader classLoader = getClass().getClassLoader();
+
+        String xsd = classLoader.getResource(XSDFILE_IN).getFile();
+        String outputPath = new File(xsd).getParent() + File.separator + "SVG.test8";
+        Path cached = Paths.get(outputPath, "cached");
+        Path cold = Paths.get(outputPath, "cold");
+        new FileHelper().deleteFolder(Paths.get(outputPath));
+
+        runXsdVi(new String[]{xsd, "-rootNodeName", "all", "-rootTypes", "element,type", "-fragmentCache", "1000", "-outputPath", cached.toString()});
+        // a single entry cache misses almost always
+        runXsdVi(new String[]{xsd, "-rootNodeName", "all", "-rootTypes", "element,type", "-fragmentCache", "1", "-outputPath", cold.toString()});
+
+        List<Path> files = Files.list(cached).collect(Collectors.toList());
+        assertTrue(files.size() == 91);
+        for (Path file : files) {
+            assertTrue(Arrays.equals(Files.readAllBytes(file), Files.readAllBytes(cold.resolve(file.getFileName()))));
+        }
+        String svg = new String(Files.readAllBytes(cached.resolve("UnitsML.svg")), "UTF-8");
+        assertTrue(svg.contains("<use id='b_1' x='"));
+    }
+
+    @Test
+    public void successReuseFragmentsFromCacheDirectory() throws Exception {
+        System.out.println(name.getMethodName());
+        ClassLoader classLoader = getClass().getClassLoader();
+
+        String xsd = classLoader.getResource(XSDFILE_IN).getFile();
+        String outputPath = new File(xsd).getParent() + File.separator + "SVG.test9";
+        Path cacheDir = Paths.get(outputPath, "cache");
+        Path cold = Paths.get(outputPath, "cold");
+        Path warm = Paths.get(outputPath, "warm");
+        new FileHelper().deleteFolder(Paths.get(outputPath));
+
+        runXsdVi(new String[]{xsd, "-rootNodeName", "all", "-cacheDir", cacheDir.toString(), "-outputPath", cold.toString()});
+        long entries = Files.list(cacheDir).count();
+        assertTrue(entries > 0);
+        runXsdVi(new String[]{xsd, "-rootNodeName", "all", "-cacheDir", cacheDir.toString(), "-outputPath", warm.toString()});
+        assertTrue(Files.list(cacheDir).count() == entries);
+
+        List<Path> files = Files.list(cold).collect(Collectors.toList());
+        assertTrue(files.size() == 54);
+        for (Path file : files) {
+            assertTrue(Arrays.equals(Files.readAllBytes(file), Files.readAllBytes(warm.resolve(file.getFileName()))));
+        }
+
+        // entries exceeding the size limit are evicted at the end of the run
+        runXsdVi(new String[]{xsd, "-rootNodeName", "all", "-cacheDir", cacheDir.toString(), "-cacheSize", "0", "-outputPath", warm.toString()});
+        assertTrue(Files.list(cacheDir).count() == 0);
+    }
+
+    @Test
+    public void successWriteMetrics() throws Exception {
+        System.out.println(name.getMethodName());
+        ClassLoader classLoader = getClass().getClassLoader();
+
+        String xsd = classLoader.getResource(XSDFILE_IN).getFile();
+        String outputPath = new File(xsd).getParent() + File.separator + "SVG.test10";
+        Path report = Paths.get(outputPath, "metrics.json");
+        new FileHelper().deleteFolder(Paths.get(outputPath));
+
+        runXsdVi(new String[]{xsd, "-rootNodeName", "UnitsML", "-outputPath", outputPath, "-metrics", report.toString()});
+
+        String json = new String(Files.readAllBytes(report), "UTF-8");
+        // one record for parsing the input, one for the root
+        assertTrue(json.contains("\"root\": null"));
+        assertTrue(json.contains("\"root\": \"UnitsML\""));
+        assertTrue(json.contains("\"parse\": {\"wallMs\""));
+        assertTrue(json.contains("\"SymbolElement\": "));
+        assertTrue(json.contains("\"bytesWritten\": " + Files.size(Paths.get(outputPath, "UnitsML-v1.0-csd04.svg")) + ","));
+        assertTrue(json.contains("\"p90Ms\""));
+    }
+
+    @Test
+    public void successRecordFlightEvents() throws Exception {
+        System.out.println(name.getMethodName());
+        ClassLoader classLoader = getClass().getClassLoader();
+
+        String xsd = classLoader.getResource(XSDFILE_IN).getFile();
+        String outputPath = new File(xsd).getParent() + File.separator + "SVG.test11";
+        Path recordingFile = Paths.get(outputPath, "xsdvi.jfr");
+        new FileHelper().deleteFolder(Paths.get(outputPath));
+        Files.createDirectories(Paths.get(outputPath));
+
+        try (Recording recording = new Recording()) {
+            for (String event : new String[]{"xsdvi.SchemaLoad", "xsdvi.Traversal", "xsdvi.Annotation", "xsdvi.Layout", "xsdvi.Draw", "xsdvi.Flush"}) {
+                recording.enable(event);
+            }
+            recording.start();
+            runXsdVi(new String[]{xsd, "-rootNodeName", "UnitsML", "-oneNodeOnly", "-outputPath", outputPath});
+            recording.stop();
+            recording.dump(recordingFile);
+        }
+
+        Map<String, List<RecordedEvent>> events = RecordingFile.readAllEvents(recordingFile).stream()
+                .collect(Collectors.groupingBy(event -> event.getEventType().getName()));
+        assertTrue(events.get("xsdvi.SchemaLoad").size() == 1);
+        assertTrue(events.get("xsdvi.Traversal").get(0).getString("root").equals("UnitsML"));
+        assertTrue(events.get("xsdvi.Layout").get(0).getInt("nodes") > 1);
+        assertTrue(events.get("xsdvi.Draw").stream().allMatch(event -> "UnitsML".equals(event.getString("root"))));
+        assertTrue(events.get("xsdvi.Flush").get(0).getLong("bytes") == Files.size(Paths.get(outputPath, "UnitsML.svg")));
+        assertTrue(events.containsKey("xsdvi.Annotation"));
+    }
+
+    @Test
+    public void successMonitorRendersWithMBean() throws Exception {
+        System.out.println(name.getMethodName());
+        ClassLoader classLoader = getClass().getClassLoader();
+
+        String xsd = classLoader.getResource(XSDFILE_IN).getFile();
+        String outputPath = new File(xsd).getParent() + File.separator + "SVG.test12";
+        new FileHelper().deleteFolder(Paths.get(outputPath));
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName(RenderMonitor.OBJECT_NAME);
+        runXsdVi(new String[]{xsd, "-rootNodeName", "UnitsML", "-outputPath", outputPath, "-jmx"});
+        // the command line tool unregisters its monitor when done
+        assertTrue(!server.isRegistered(objectName));
+
+        // an embedding application feeds the monitor through Metrics
+        RenderMonitor monitor = new RenderMonitor();
+        Metrics metrics = new Metrics(false);
+        metrics.setMonitor(monitor);
+        monitor.register();
+        try {
+            monitor.rootStarted("UnitsML");
+            assertTrue(Arrays.equals((String[]) server.getAttribute(objectName, "InFlightRoots"), new String[]{"UnitsML"}));
+            metrics.begin(xsd, "UnitsML");
+            metrics.enter(Metrics.Phase.DRAW);
+            metrics.exit();
+            metrics.end();
+            monitor.rootFinished("UnitsML", true);
+            assertTrue((Long) server.getAttribute(objectName, "Renders") == 1);
+            assertTrue(((String[]) server.getAttribute(objectName, "InFlightRoots")).length == 0);
+            TabularData histograms = (TabularData) server.getAttribute(objectName, "PhaseLatencyHistograms");
+            long[] draw = (long[]) histograms.get(new Object[]{"draw"}).get("value");
+            assertTrue(Arrays.stream(draw).sum() == 1);
+            server.invoke(objectName, "clearCaches", new Object[0], new String[0]);
+
+            assertTrue((Integer) server.getAttribute(objectName, "ThreadPoolSize") == 1);
+            ThreadPoolExecutor executor = RenderThreads.newExecutor(2, false);
+            monitor.setExecutor(executor);
+            try {
+                server.setAttribute(objectName, new Attribute("ThreadPoolSize", 4));
+                assertTrue(executor.getCorePoolSize() == 4 && executor.getMaximumPoolSize() == 4);
+                server.setAttribute(objectName, new Attribute("ThreadPoolSize", 1));
+                assertTrue(executor.getCorePoolSize() == 1 && executor.getMaximumPoolSize() == 1);
+                assertTrue((Integer) server.getAttribute(objectName, "ThreadPoolSize") == 1);
+            } finally {
+                executor.shutdown();
+            }
+        } finally {
+            monitor.unregister();
+        }
+    }
+
+    @Test
+    public void successAnalyzeWithoutDrawing() throws Exception {
+        System.out.println(name.getMethodName());
+        ClassLoader classLoader = getClass().getClassLoader();
+
+        String xsd = classLoader.getResource(XSDFILE_IN).getFile();
+        String outputPath = new File(xsd).getParent() + File.separator + "SVG.test13";
+        new FileHelper().deleteFolder(Paths.get(outputPath));
+
+        runXsdVi(new String[]{xsd, "-rootNodeName", "UnitsML", "-outputPath", outputPath + File.separator + "analyzed", "-analyze"});
+        assertTrue(!Files.exists(Paths.get(outputPath, "analyzed")));
+        String report = systemOutRule.getLog().lines()
+                .filter(line -> line.startsWith("UnitsML "))
+                .findFirst().orElse("");
+        long predicted = Long.parseLong(report.trim().split("\\s+")[1]);
+
+        runXsdVi(new String[]{xsd, "-rootNodeName", "UnitsML", "-outputPath", outputPath});
+        String svg = new String(Files.readAllBytes(Paths.get(outputPath, "UnitsML-v1.0-csd04.svg")), "UTF-8");
+        long boxes = svg.split("class='box'", -1).length - 1;
+        assertTrue(predicted == boxes);
+    }
+
+    @Test
+    public void successTruncateDiagramsOverBudget() throws Exception {
+        System.out.println(name.getMethodName());
+        ClassLoader classLoader = getClass().getClassLoader();
+
+        String xsd = classLoader.getResource(XSDFILE_IN).getFile();
+        String outputPath = new File(xsd).getParent() + File.separator + "SVG.test14";
+        new FileHelper().deleteFolder(Paths.get(outputPath));
+
+        String metricsFile = outputPath + File.separator + "metrics.json";
+        runXsdVi(new String[]{xsd, "-rootNodeName", "UnitsML", "-outputPath", outputPath, "-maxNodes", "50", "-metrics", metricsFile});
+        String svg = new String(Files.readAllBytes(Paths.get(outputPath, "UnitsML-v1.0-csd04.svg")), "UTF-8");
+        assertTrue(svg.split("class='box'", -1).length - 1 == 51);
+        assertTrue(svg.contains("TRUNCATED") && svg.contains("max 50 boxes"));
+        assertTrue(new String(Files.readAllBytes(Paths.get(metricsFile)), "UTF-8").contains("truncated at"));
+
+        // the batch goes on after a truncated diagram
+        String allPath = outputPath + File.separator + "all";
+        runXsdVi(new String[]{xsd, "-rootNodeName", "all", "-outputPath", allPath, "-maxBytes", "15000"});
+        List<Path> files = Files.list(Paths.get(allPath)).collect(Collectors.toList());
+        assertTrue(files.size() == 54);
+        long truncated = 0;
+        for (Path file : files) {
+            if (new String(Files.readAllBytes(file), "UTF-8").contains("max 15000 bytes")) {
+                truncated++;
+            }
+        }
+        assertTrue(truncated > 0 && truncated < 54);
+    }
+
+    @Test
+    public void successLogWithContextAndLevel() throws Exception {
+        System.out.println(name.getMethodName());
+        ClassLoader classLoader = getClass().getClassLoader();
+
+        String xsd = classLoader.getResource(XSDFILE_IN).getFile();
+        String outputPath = new File(xsd).getParent() + File.separator + "SVG.test16";
+        new FileHelper().deleteFolder(Paths.get(outputPath));
+
+        Path log = Paths.get(outputPath, "logs", "xsdvi.log");
+        runXsdVi(new String[]{xsd, "-rootNodeName", "UnitsML", "-outputPath", outputPath, "-logFile", log.toString(), "-logLevel", "info"});
+        String text = new String(Files.readAllBytes(log), "UTF-8");
+        assertTrue(text.contains("] [INFO] [UnitsML-v1.0-csd04.xsd UnitsML] Done."));
+
+        runXsdVi(new String[]{xsd, "-rootNodeName", "UnitsML", "-outputPath", outputPath, "-logFile", log.toString(), "-logLevel", "WARNING"});
+        String warnings = new String(Files.readAllBytes(log), "UTF-8").substring(text.length());
+        assertTrue(warnings.contains("[WARNING]") && !warnings.contains("[INFO]"));
+    }
+
+    @Test
+    public void successRenderConcurrentlyWithLibrary() throws Exception {
+        System.out.println(name.getMethodName());
+        ClassLoader classLoader = getClass().getClassLoader();
+
+        String xsd = classLoader.getResource(XSDFILE_IN).getFile();
+        XsdRenderer renderer = new XsdRenderer(RenderOptions.builder().oneNodeOnly(true).compact(true).fragmentCacheSize(100).build());
+        XSModel model;
+        try (InputStream in = Files.newInputStream(Paths.get(xsd))) {
+            model = renderer.load(in, new File(xsd).toURI().toString());
+        }
+        List<String> roots = renderer.getRootNames(model);
+        Map<String, byte[]> expected = new HashMap<>();
+        for (String root : roots) {
+            expected.put(root, renderer.render(model, root));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<byte[]>> results = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                for (String root : roots) {
+                    results.add(executor.submit(() -> renderer.render(model, root)));
+                }
+            }
+            for (int i = 0; i < results.size(); i++) {
+                assertTrue(Arrays.equals(results.get(i).get(), expected.get(roots.get(i % roots.size()))));
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(!renderer.render(model, "UnitsML", Channels.newChannel(out)).isTruncated());
+        assertTrue(Arrays.equals(out.toByteArray(), expected.get("UnitsML")));
+        try {
+            renderer.render(model, "NoSuchRoot");
+            assertTrue(false);
+        } catch (IllegalArgumentException ex) {
+            assertTrue(ex.getMessage().contains("NoSuchRoot"));
+        }
+    }
+
+    @Test
+    public void successPublishChunksOnDemand() throws Exception {
+        System.out.println(name.getMethodName());
+        ClassLoader classLoader = getClass().getClassLoader();
+
+        String xsd = classLoader.getResource(XSDFILE_IN).getFile();
+        XsdRenderer renderer = new XsdRenderer(RenderOptions.builder().build());
+        XSModel model = renderer.load(xsd);
+        byte[] expected = renderer.render(model, "UnitsML");
+
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        List<Flow.Subscription> subscription = new ArrayList<>();
+        AtomicInteger chunks = new AtomicInteger();
+        CountDownLatch completed = new CountDownLatch(1);
+        renderer.publish(model, "UnitsML").subscribe(new Flow.Subscriber<ByteBuffer>() {
+            public void onSubscribe(Flow.Subscription s) {
+                subscription.add(s);
+                s.request(1);
+            }
+
+            public void onNext(ByteBuffer item) {
+                received.write(item.array(), item.position(), item.remaining());
+                chunks.incrementAndGet();
+            }
+
+            public void onError(Throwable throwable) {
+            }
+
+            public void onComplete() {
+                completed.countDown();
+            }
+        });
+        // nothing is rendered ahead of the demand
+        assertTrue(!completed.await(300, TimeUnit.MILLISECONDS));
+        assertTrue(chunks.get() == 1);
+        subscription.get(0).request(Long.MAX_VALUE);
+        assertTrue(completed.await(30, TimeUnit.SECONDS));
+        assertTrue(chunks.get() > 1);
+        assertTrue(Arrays.equals(received.toByteArray(), expected));
+    }
+
+    @Test
+    public void successRenderWithThreadsAndWriterStage() throws Exception {
+        System.out.println(name.getMethodName());
+        ClassLoader classLoader = getClass().getClassLoader();
+
+        String xsd = classLoader.getResource(XSDFILE_IN).getFile();
+        String outputPath = new File(xsd).getParent() + File.separator + "SVG.test17";
+        new FileHelper().deleteFolder(Paths.get(outputPath));
+
+        Path sequential = Paths.get(outputPath, "sequential");
+        Path parallel = Paths.get(outputPath, "parallel");
+        runXsdVi(new String[]{xsd, "-rootNodeName", "all", "-outputPath", sequential.toString()});
+        runXsdVi(new String[]{xsd, "-rootNodeName", "all", "-outputPath", parallel.toString(), "-threads", "4", "-virtualThreads"});
+        List<Path> files = Files.list(sequential).collect(Collectors.toList());
+        assertTrue(files.size() == 54);
+        for (Path file : files) {
+            assertTrue(Arrays.equals(Files.readAllBytes(file), Files.readAllBytes(parallel.resolve(file.getFileName()))));
+        }
+    }
+
+    @Test
+    public void successPipelineWritesAfterFailedOutput() throws Exception {
+        System.out.println(name.getMethodName());
+        ClassLoader classLoader = getClass().getClassLoader();
+
+        String xsd = classLoader.getResource(XSDFILE_IN).getFile();
+        Path outputPath = Paths.get(new File(xsd).getParent(), "SVG.test27");
+        new FileHelper().deleteFolder(outputPath);
+        Files.createDirectories(outputPath);
+
+        OutputPipeline pipeline = new OutputPipeline(4, null);
+        // an invalid path fails with a runtime exception on the I/O thread
+        String bad = outputPath.resolve("bad").toString() + "\0.svg";
+        String good = outputPath.resolve("good.svg").toString();
+        try (OutputStream out = pipeline.open(bad)) {
+            out.write(new byte[100000]);
+        }
+        try (OutputStream out = pipeline.open(good)) {
+            out.write("<svg/>".getBytes("UTF-8"));
+        }
+        pipeline.close();
+        assertTrue(pipeline.getFailures().size() == 1);
+        assertTrue(pipeline.isFailed(bad));
+        assertTrue(!pipeline.isFailed(good));
+        assertTrue(new String(Files.readAllBytes(Paths.get(good)), "UTF-8").equals("<svg/>"));
+
+        // the I/O thread is gone, a late output fails rather than waits
+        boolean failed = false;
+        try (OutputStream out = pipeline.open(good)) {
+            out.write(new byte[100000]);
+        } catch (IOException ex) {
+            failed = true;
+        }
+        assertTrue(failed);
+    }
+
+    @Test
+    public void successMergeShardsEqualToSingleRun() throws Exception {
+        System.out.println(name.getMethodName());
+        ClassLoader classLoader = getClass().getClassLoader();
+
+        String xsd = classLoader.getResource(XSDFILE_IN).getFile();
+        String outputPath = new File(xsd).getParent() + File.separator + "SVG.test18";
+        new FileHelper().deleteFolder(Paths.get(outputPath));
+
+        List<String> manifests = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            Path shard = Paths.get(outputPath, "shard" + i);
+            runXsdVi(new String[]{xsd, "-rootNodeName", "all", "-outputPath", shard.toString(), "-shard", i + "/3"});
+            manifests.add(shard.resolve("xsdvi-shard-" + i + "-of-3.txt").toString());
+        }
+        Path merged = Paths.get(outputPath, "merged.zip");
+        manifests.addAll(Arrays.asList("-mergeShards", "-outputArchive", merged.toString()));
+        runXsdVi(manifests.toArray(new String[0]));
+        Path single = Paths.get(outputPath, "single.zip");
+        runXsdVi(new String[]{xsd, "-rootNodeName", "all", "-outputArchive", single.toString()});
+
+        try (ZipFile mergedZip = new ZipFile(merged.toFile()); ZipFile singleZip = new ZipFile(single.toFile())) {
+            List<String> names = singleZip.stream().map(entry -> entry.getName()).collect(Collectors.toList());
+            assertTrue(names.size() == 55);
+            assertTrue(names.equals(mergedZip.stream().map(entry -> entry.getName()).collect(Collectors.toList())));
+            for (String entry : names) {
+                assertTrue(Arrays.equals(singleZip.getInputStream(singleZip.getEntry(entry)).readAllBytes(),
+                        mergedZip.getInputStream(mergedZip.getEntry(entry)).readAllBytes()));
+            }
+        }
+    }
+
+    @Test
+    public void successSelectRootsByPatternNamespaceAndList() throws Exception {
+        System.out.println(name.getMethodName());
+        ClassLoader classLoader = getClass().getClassLoader();
+
+        String xsd = classLoader.getResource(XSDFILE_IN).getFile();
+        String outputPath = new File(xsd).getParent() + File.separator + "SVG.test19";
+        new FileHelper().deleteFolder(Paths.get(outputPath));
+        Files.createDirectories(Paths.get(outputPath));
+        Path list = Paths.get(outputPath, "roots.txt");
+        Files.write(list, "# curated\nUnitName\n/Quantity(Name|Symbol)/\n!QuantityName\n".getBytes("UTF-8"));
+
+        String[] args = new String[]{xsd, "-roots", "{urn:oasis:names:tc:unitsml:schema:xsd:UnitsMLSchema-1.0}*Set,!Prefix*,@" + list,
+            "-outputPath", outputPath};
+        runXsdVi(args);
+
+        List<String> files = Files.list(Paths.get(outputPath)).map(path -> path.getFileName().toString()).sorted().collect(Collectors.toList());
+        assertTrue(files.equals(Arrays.asList("CountedItemSet.svg", "DimensionSet.svg", "QuantitySet.svg", "QuantitySymbol.svg",
+                "UnitName.svg", "UnitSet.svg", "roots.txt")));
+    }
+
+    @Test
+    public void successWatchRedrawsChangedRoots() throws Exception {
+        System.out.println(name.getMethodName());
+        ClassLoader classLoader = getClass().getClassLoader();
+
+        String outputPath = new File(classLoader.getResource(XSDFILE_IN).getFile()).getParent() + File.separator + "SVG.test20";
+        new FileHelper().deleteFolder(Paths.get(outputPath));
+        Files.createDirectories(Paths.get(outputPath));
+        Path xsd = Paths.get(outputPath, "UnitsML.xsd");
+        Files.copy(Paths.get(classLoader.getResource(XSDFILE_IN).getFile()), xsd);
+
+        Path log = Paths.get(outputPath, "watch.log");
+        Thread watching = new Thread(() -> runXsdVi(new String[]{xsd.toString(), "-rootNodeName", "all", "-outputPath", outputPath, "-watch",
+            "-logFile", log.toString()}));
+        watching.start();
+        try {
+            long deadline = System.currentTimeMillis() + 30000;
+            while (!(Files.exists(log) && new String(Files.readAllBytes(log), "UTF-8").contains("Watching")) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            Path unit = Paths.get(outputPath, "Unit.svg");
+            long prefixSetModified = Paths.get(outputPath, "PrefixSet.svg").toFile().lastModified();
+            String schema = new String(Files.readAllBytes(xsd), "UTF-8");
+            // the documentation of an attribute drawn only in Unit
+            Files.write(xsd, schema.replace("Used to indicate the version of the unit", "Used to indicate the edited version of the unit").getBytes("UTF-8"));
+            while (!new String(Files.readAllBytes(unit), "UTF-8").contains("edited version") && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertTrue(new String(Files.readAllBytes(unit), "UTF-8").contains("edited version"));
+            while (!new String(Files.readAllBytes(log), "UTF-8").contains("redrawn") && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertTrue(new String(Files.readAllBytes(log), "UTF-8").contains("1 diagrams redrawn, 53 unchanged, 0 removed, 0 failed"));
+            assertTrue(Paths.get(outputPath, "PrefixSet.svg").toFile().lastModified() == prefixSetModified);
+        } finally {
+            watching.interrupt();
+            watching.join();
+        }
+    }
+
+    @Test
+    public void successLeaveUnchangedFilesUntouched() throws Exception {
+        System.out.println(name.getMethodName());
+        ClassLoader classLoader = getClass().getClassLoader();
+
+        String xsd = classLoader.getResource(XSDFILE_IN).getFile();
+        String outputPath = new File(xsd).getParent() + File.separator + "SVG.test21";
+        new FileHelper().deleteFolder(Paths.get(outputPath));
+
+        runXsdVi(new String[]{xsd, "-rootNodeName", "all", "-outputPath", outputPath});
+        File unit = Paths.get(outputPath, "Unit.svg").toFile();
+        File prefixSet = Paths.get(outputPath, "PrefixSet.svg").toFile();
+        byte[] expected = Files.readAllBytes(unit.toPath());
+        // a longer and a shorter file with the same start
+        Files.write(unit.toPath(), Arrays.copyOf(expected, expected.length + 10));
+        assertTrue(unit.setLastModified(1000000000000L));
+        Files.write(prefixSet.toPath(), Arrays.copyOf(Files.readAllBytes(prefixSet.toPath()), 100));
+
+        Path metricsJson = Paths.get(outputPath, "metrics.json");
+        runXsdVi(new String[]{xsd, "-rootNodeName", "all", "-outputPath", outputPath, "-threads", "2", "-metrics", metricsJson.toString()});
+        assertTrue(Arrays.equals(Files.readAllBytes(unit.toPath()), expected));
+        assertTrue(unit.lastModified() != 1000000000000L);
+        assertTrue(Files.size(prefixSet.toPath()) > 100);
+        String json = new String(Files.readAllBytes(metricsJson), "UTF-8");
+        assertTrue(json.contains("\"filesChanged\": 2,"));
+        assertTrue(json.contains("\"filesUnchanged\": 52,"));
+
+        long modified = unit.lastModified() - 10000;
+        assertTrue(unit.setLastModified(modified));
+        runXsdVi(new String[]{xsd, "-rootNodeName", "all", "-outputPath", outputPath, "-metrics", metricsJson.toString()});
+        assertTrue(unit.lastModified() == modified);
+        assertTrue(new String(Files.readAllBytes(metricsJson), "UTF-8").contains("\"filesChanged\": 0,"));
+        try (Stream<Path> files = Files.list(Paths.get(outputPath))) {
+            assertTrue(files.noneMatch(path -> path.getFileName().toString().endsWith(".tmp")));
+        }
+    }
+
+    @Test
+    public void successResolveRemoteSchemasOffline() throws Exception {
+        System.out.println(name.getMethodName());
+        ClassLoader classLoader = getClass().getClassLoader();
+
+        String xsd = classLoader.getResource(XSDFILE_IN).getFile();
+        Path dir = Paths.get(new File(xsd).getParent(), "SVG.test22");
+        new FileHelper().deleteFolder(dir);
+        Path mirror = dir.resolve("mirror");
+        Files.createDirectories(mirror.resolve("www.example.org/xml"));
+        Files.write(mirror.resolve("www.example.org/xml/lang.xsd"), ("<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema' targetNamespace='urn:lang'>"
+                + "<xs:element name='lang' type='xs:language'/></xs:schema>").getBytes("UTF-8"));
+        Files.write(dir.resolve("common.xsd"), ("<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema' targetNamespace='urn:common'>"
+                + "<xs:element name='note' type='xs:string'/></xs:schema>").getBytes("UTF-8"));
+        Path catalog = dir.resolve("catalog.xml");
+        Files.write(catalog, ("<catalog xmlns='urn:oasis:names:tc:entity:xmlns:xml:catalog'>"
+                + "<system systemId='http://example.com/schemas/common.xsd' uri='common.xsd'/></catalog>").getBytes("UTF-8"));
+        Path input = dir.resolve("remote.xsd");
+        Files.write(input, ("<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema' xmlns:c='urn:common' xmlns:l='urn:lang'>"
+                + "<xs:import namespace='urn:common' schemaLocation='http://example.com/schemas/common.xsd'/>"
+                + "<xs:import namespace='urn:lang' schemaLocation='https://www.example.org/xml/lang.xsd'/>"
+                + "<xs:import namespace='urn:missing' schemaLocation='http://example.invalid/missing.xsd'/>"
+                + "<xs:element name='doc'><xs:complexType><xs:sequence><xs:element ref='c:note'/><xs:element ref='l:lang'/>"
+                + "</xs:sequence></xs:complexType></xs:element></xs:schema>").getBytes("UTF-8"));
+
+        SchemaResolver.clearDocuments();
+        XsdRenderer renderer = new XsdRenderer(RenderOptions.builder()
+                .catalogs(List.of(catalog.toString()))
+                .schemaMirror(mirror.toString())
+                .build());
+        XSModel model = renderer.load(input.toUri().toString());
+        assertTrue(model.getElementDeclaration("note", "urn:common") != null);
+        assertTrue(model.getElementDeclaration("lang", "urn:lang") != null);
+        // the unmapped location is not fetched
+        assertTrue(SchemaResolver.getDocumentCount() == 2);
+        String svg = new String(renderer.render(model, "doc"), "UTF-8");
+        assertTrue(svg.contains("note") && svg.contains("lang"));
+
+        // read once per process
+        renderer.load(input.toUri().toString());
+        assertTrue(SchemaResolver.getDocumentCount() == 2);
+
+        String outputPath = dir.resolve("SVG").toString();
+        runXsdVi(new String[]{input.toString(), "-rootNodeName", "all", "-outputPath", outputPath,
+            "-catalog", catalog.toString(), "-schemaMirror", mirror.toString()});
+        assertTrue(Paths.get(outputPath, "doc.svg").toFile().exists());
+    }
+
+    @Test
+    public void successLightReaderMatchesXerces() throws Exception {
+        System.out.println(name.getMethodName());
+        ClassLoader classLoader = getClass().getClassLoader();
+
+        String xsd = classLoader.getResource(XSDFILE_IN).getFile();
+        Path dir = Paths.get(new File(xsd).getParent(), "SVG.test23");
+        new FileHelper().deleteFolder(dir);
+        Files.createDirectories(dir);
+        Files.write(dir.resolve("chameleon.xsd"), ("<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'>"
+                + "<xs:complexType name='Part'><xs:sequence><xs:element name='code' type='Code'/><xs:element ref='head'/></xs:sequence>"
+                + "<xs:attribute name='unit' default='m'/></xs:complexType></xs:schema>").getBytes("UTF-8"));
+        Files.write(dir.resolve("redefined.xsd"), ("<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema' targetNamespace='urn:t'>"
+                + "<xs:group name='Tail'><xs:choice><xs:element name='first' type='xs:string'/></xs:choice></xs:group></xs:schema>").getBytes("UTF-8"));
+        Files.write(dir.resolve("other.xsd"), ("<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema' targetNamespace='urn:o' attributeFormDefault='qualified'>"
+                + "<xs:attribute name='lang' type='xs:language'/>"
+                + "<xs:element name='note'><xs:complexType><xs:attribute name='by'/><xs:anyAttribute namespace='##other'/></xs:complexType></xs:element>"
+                + "</xs:schema>").getBytes("UTF-8"));
+        Path input = dir.resolve("main.xsd");
+        Files.write(input, ("<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema' xmlns='urn:t' xmlns:o='urn:o' xmlns:r='urn:r' targetNamespace='urn:t' elementFormDefault='qualified'>"
+                + "<xs:include schemaLocation='chameleon.xsd'/>"
+                + "<xs:redefine schemaLocation='redefined.xsd'><xs:group name='Tail'><xs:sequence><xs:group ref='Tail'/>"
+                + "<xs:element name='second' type='xs:string'/></xs:sequence></xs:group></xs:redefine>"
+                + "<xs:import namespace='urn:o' schemaLocation='other.xsd'/>"
+                + "<xs:import namespace='urn:r' schemaLocation='http://www.example.org/remote.xsd'/>"
+                + "<xs:simpleType name='Code'><xs:restriction base='xs:token'><xs:maxLength value='3'/></xs:restriction></xs:simpleType>"
+                + "<xs:attributeGroup name='Common'><xs:attribute name='id' type='xs:ID'/><xs:attribute ref='o:lang' use='required'/>"
+                + "<xs:anyAttribute namespace='urn:o ##local' processContents='lax'/></xs:attributeGroup>"
+                + "<xs:complexType name='Base'><xs:annotation><xs:documentation>Base &amp; <b>more</b></xs:documentation></xs:annotation>"
+                + "<xs:sequence><xs:element name='a' type='xs:string' minOccurs='0'/>"
+                + "<xs:choice maxOccurs='unbounded'><xs:element ref='head'/><xs:any namespace='##other' processContents='skip'/></xs:choice></xs:sequence>"
+                + "<xs:attribute name='flag' type='xs:boolean' default='1'/><xs:attributeGroup ref='Common'/></xs:complexType>"
+                + "<xs:complexType name='Derived'><xs:complexContent><xs:extension base='Base'>"
+                + "<xs:sequence><xs:element name='part' type='Part' maxOccurs='3'/><xs:group ref='Tail'/></xs:sequence>"
+                + "<xs:attribute name='size' default=' +007 '><xs:simpleType><xs:restriction base='xs:int'/></xs:simpleType></xs:attribute>"
+                + "</xs:extension></xs:complexContent></xs:complexType>"
+                + "<xs:complexType name='Restricted'><xs:complexContent><xs:restriction base='Base'>"
+                + "<xs:sequence><xs:choice maxOccurs='unbounded'><xs:element ref='head'/></xs:choice></xs:sequence>"
+                + "<xs:attribute name='flag' use='prohibited'/></xs:restriction></xs:complexContent></xs:complexType>"
+                + "<xs:complexType name='Measure'><xs:simpleContent><xs:extension base='xs:decimal'>"
+                + "<xs:attribute name='unit' type='xs:string'/><xs:attribute ref='r:code'/></xs:extension></xs:simpleContent></xs:complexType>"
+                + "<xs:element name='head' type='Base' abstract='true'/>"
+                + "<xs:element name='member' substitutionGroup='head'/>"
+                + "<xs:element name='root'><xs:complexType><xs:sequence>"
+                + "<xs:element name='item' type='Derived' maxOccurs='unbounded'><xs:annotation><xs:documentation><![CDATA[<item>]]></xs:documentation></xs:annotation></xs:element>"
+                + "<xs:element name='restricted' type='Restricted'/><xs:element name='measure' type='Measure' nillable='true'/>"
+                + "<xs:element ref='o:note' minOccurs='2' maxOccurs='5'/><xs:element ref='member' minOccurs='0'/>"
+                + "</xs:sequence></xs:complexType>"
+                + "<xs:key name='itemKey'><xs:selector xpath='item'/><xs:field xpath='@id'/></xs:key>"
+                + "<xs:keyref name='itemRef' refer='itemKey'><xs:selector xpath='restricted'/><xs:field xpath='@id'/></xs:keyref>"
+                + "<xs:unique name='unique'><xs:selector xpath='.//item'/><xs:field xpath='a'/></xs:unique>"
+                + "</xs:element></xs:schema>").getBytes("UTF-8"));
+
+        // the remote document is missing, Xerces doesn't fetch it from the empty mirror
+        Files.createDirectories(dir.resolve("mirror"));
+        XsdRenderer xerces = new XsdRenderer(RenderOptions.builder().schemaMirror(dir.resolve("mirror").toString()).build());
+        XsdRenderer light = new XsdRenderer(RenderOptions.builder().lightweight(true).build());
+        SchemaModel xercesModel = xerces.read(input.toUri().toString());
+        SchemaModel lightModel = light.read(input.toUri().toString());
+        assertTrue(lightModel.getDocumentLocations().size() == 4);
+        List<String> roots = xerces.getRootNames(xercesModel);
+        assertTrue(roots.size() == 4 && roots.containsAll(light.getRootNames(lightModel)) && light.getRootNames(lightModel).containsAll(roots));
+        for (String root : roots) {
+            assertTrue(root, Arrays.equals(xerces.render(xercesModel, root), light.render(lightModel, root)));
+        }
+
+        String outputPath = dir.resolve("SVG").toString();
+        runXsdVi(new String[]{input.toString(), "-rootNodeName", "all", "-outputPath", outputPath, "-lightReader"});
+        assertTrue(Paths.get(outputPath, "root.svg").toFile().exists());
+    }
+
+    @Test
+    public void successSnapshotReadUntilADocumentChanges() throws Exception {
+        System.out.println(name.getMethodName());
+        ClassLoader classLoader = getClass().getClassLoader();
+
+        String xsd = classLoader.getResource(XSDFILE_IN).getFile();
+        Path dir = Paths.get(new File(xsd).getParent(), "SVG.test24");
+        new FileHelper().deleteFolder(dir);
+        Files.createDirectories(dir);
+        Path part = dir.resolve("part.xsd");
+        Files.write(part, ("<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'>"
+                + "<xs:element name='part'><xs:annotation><xs:documentation>A part</xs:documentation></xs:annotation>"
+                + "<xs:complexType><xs:attribute name='unit' default='m'/></xs:complexType></xs:element></xs:schema>").getBytes("UTF-8"));
+        Path input = dir.resolve("main.xsd");
+        Files.write(input, ("<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'>"
+                + "<xs:include schemaLocation='part.xsd'/>"
+                + "<xs:element name='root'><xs:complexType><xs:sequence><xs:element ref='part' maxOccurs='unbounded'/>"
+                + "<xs:any namespace='##other' processContents='lax'/></xs:sequence></xs:complexType>"
+                + "<xs:key name='partKey'><xs:selector xpath='part'/><xs:field xpath='@unit'/></xs:key></xs:element>"
+                + "</xs:schema>").getBytes("UTF-8"));
+        Path snapshots = dir.resolve("snapshots");
+        RenderOptions options = RenderOptions.builder().snapshotDir(snapshots.toString()).build();
+
+        // the first read writes the snapshot
+        XsdRenderer xerces = new XsdRenderer(RenderOptions.builder().build());
+        SchemaModel model = xerces.read(input.toString());
+        new XsdRenderer(options).read(input.toString());
+        File[] files = snapshots.toFile().listFiles();
+        assertTrue(files.length == 1);
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            // the permissions of any new file, not only the owner's
+            Path created = Files.createFile(dir.resolve("created"));
+            assertTrue(Files.getPosixFilePermissions(files[0].toPath()).equals(Files.getPosixFilePermissions(created)));
+        }
+        assertTrue(files[0].setLastModified(1000000000000L));
+
+        // a new renderer reads it, the diagrams are the same
+        XsdRenderer renderer = new XsdRenderer(options);
+        SchemaModel snapshot = renderer.read(input.toString());
+        assertTrue(files[0].lastModified() == 1000000000000L);
+        assertTrue(xerces.getRootNames(model).equals(renderer.getRootNames(snapshot)));
+        for (String root : xerces.getRootNames(model)) {
+            assertTrue(root, Arrays.equals(xerces.render(model, root), renderer.render(snapshot, root)));
+        }
+
+        // an edited include makes it out of date
+        Files.write(part, new String(Files.readAllBytes(part), "UTF-8")
+                .replace("</xs:schema>", "<xs:element name='piece' type='xs:token'/></xs:schema>").getBytes("UTF-8"));
+        snapshot = renderer.read(input.toString());
+        assertTrue(renderer.getRootNames(snapshot).contains("piece"));
+        assertTrue(files[0].lastModified() != 1000000000000L);
+
+        String outputPath = dir.resolve("SVG").toString();
+        runXsdVi(new String[]{input.toString(), "-rootNodeName", "all", "-outputPath", outputPath, "-snapshotDir", snapshots.toString()});
+        assertTrue(Paths.get(outputPath, "piece.svg").toFile().exists());
+    }
+
+    @Test
+    public void failedInputsDontAbortTheBatch() throws Exception {
+        System.out.println(name.getMethodName());
+        ClassLoader classLoader = getClass().getClassLoader();
+
+        String xsd = classLoader.getResource(XSDFILE_IN).getFile();
+        String outputPath = new File(xsd).getParent() + File.separator + "SVG.test15";
+        new FileHelper().deleteFolder(Paths.get(outputPath));
+        Files.createDirectories(Paths.get(outputPath));
+        Path broken = Paths.get(outputPath, "broken.xsd");
+        Files.write(broken, "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'><xs:element".getBytes("UTF-8"));
+
+        exitRule.expectSystemExitWithStatus(-1);
+        exitRule.checkAssertionAfterwards(new Assertion() {
+            public void checkAssertion() {
+                assertTrue(Files.exists(Paths.get(outputPath, "UnitsML-v1.0-csd04.svg")));
+                assertTrue(systemOutRule.getLog().contains("3 inputs, 1 diagrams written, 1 files changed, 0 unchanged, 2 failed"));
+            }
+        });
+        runXsdVi(new String[]{broken.toString(), "nonexist.xsd", xsd, "-outputPath", outputPath});
+    }
+
+    @Test
+    public void successCreateArchiveForAllNodes() throws Exception {
+        System.out.println(name.getMethodName());
+        ClassLoader classLoader = getClass().getClassLoader();
+
+        String xsd = classLoader.getResource(XSDFILE_IN).getFile();
+        String outputPath = new File(xsd).getParent() + File.separator + "SVG.test5";
+        Path archive = Paths.get(outputPath, "diagrams.zip");
+        new FileHelper().deleteFolder(Paths.get(outputPath));
+
+        String[] args = new String[]{xsd, "-rootNodeName", "all", "-outputArchive", archive.toString()};
+        runXsdVi(args);
+
+        try (ZipFile zipFile = new ZipFile(archive.toFile())) {
+            // 54 diagrams plus the index
+            assertTrue(zipFile.size() == 55);
+            assertTrue(zipFile.getEntry("ElectricCurrent.svg") != null);
+            assertTrue(zipFile.getEntry(ArchiveHelper.INDEX_ENTRY) != null);
+        }
+    }
+
+    @Test
+    public void successArchiveInputsWithTheSameRoots() throws Exception {
+        System.out.println(name.getMethodName());
+        ClassLoader classLoader = getClass().getClassLoader();
+
+        String xsd = classLoader.getResource(XSDFILE_IN).getFile();
+        Path dir = Paths.get(new File(xsd).getParent(), "SVG.test25");
+        new FileHelper().deleteFolder(dir);
+        Files.createDirectories(dir.resolve("b"));
+        String schema = "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'>"
+                + "<xs:element name='item' type='xs:string'/><xs:element name='%s' type='xs:int'/></xs:schema>";
+        Path first = dir.resolve("first.xsd");
+        Path second = dir.resolve("second.xsd");
+        Path third = dir.resolve("b").resolve("first.xsd");
+        Files.write(first, String.format(schema, "one").getBytes("UTF-8"));
+        Files.write(second, String.format(schema, "two").getBytes("UTF-8"));
+        Files.write(third, String.format(schema, "three").getBytes("UTF-8"));
+        Path archive = dir.resolve("diagrams.zip");
+
+        runXsdVi(new String[]{first.toString(), second.toString(), third.toString(), "-rootNodeName", "all", "-outputArchive", archive.toString()});
+
+        try (ZipFile zipFile = new ZipFile(archive.toFile())) {
+            List<String> names = zipFile.stream().map(entry -> entry.getName()).sorted().collect(Collectors.toList());
+            assertTrue(names.equals(Arrays.asList("first-2/item.svg", "first-2/three.svg", "first/item.svg", "first/one.svg",
+                    ArchiveHelper.INDEX_ENTRY, "second/item.svg", "second/two.svg")));
+            String index = new String(zipFile.getInputStream(zipFile.getEntry(ArchiveHelper.INDEX_ENTRY)).readAllBytes(), "UTF-8");
+            assertTrue(index.contains("item\tfirst/item.svg\n") && index.contains("item\tsecond/item.svg\n"));
+        }
+    }
+
+    @Test
+    public void failedArchiveEntryLeavesTheArchiveReadable() throws Exception {
+        System.out.println(name.getMethodName());
+        ClassLoader classLoader = getClass().getClassLoader();
+
+        String xsd = classLoader.getResource(XSDFILE_IN).getFile();
+        Path archive = Paths.get(new File(xsd).getParent(), "SVG.test25", "duplicate.zip");
+        ArchiveHelper helper = new ArchiveHelper(archive.toString());
+        try (OutputStream entry = helper.newEntry("item.svg")) {
+            entry.write("<svg/>".getBytes("UTF-8"));
+        }
+        helper.addIndexEntry("item", "item.svg");
+        try {
+            helper.newEntry("item.svg");
+            assertTrue(false);
+        } catch (IOException ex) {
+            // the name is taken
+        }
+        helper.close();
+
+        try (ZipFile zipFile = new ZipFile(archive.toFile())) {
+            assertTrue(zipFile.size() == 2);
+        }
+    }
+
+    @Test
+    public void successTarArchiveWithLongEntryNames() throws Exception {
+        System.out.println(name.getMethodName());
+        ClassLoader classLoader = getClass().getClassLoader();
+
+        String xsd = classLoader.getResource(XSDFILE_IN).getFile();
+        Path archive = Paths.get(new File(xsd).getParent(), "SVG.test26", "diagrams.tar");
+        char[] letters = new char[90];
+        Arrays.fill(letters, 'q');
+        String longName = "schema/" + new String(letters) + "/Quantity.svg";
+        String longerName = "schema/" + new String(letters) + new String(letters) + ".svg";
+        ArchiveHelper helper = new ArchiveHelper(archive.toString());
+        for (String entryName : new String[]{"schema/item.svg", longName, longerName}) {
+            try (OutputStream entry = helper.newEntry(entryName)) {
+                entry.write(("<svg>" + entryName + "</svg>").getBytes("UTF-8"));
+            }
+            helper.addIndexEntry("item", entryName);
+        }
+        try {
+            helper.newEntry(longName);
+            assertTrue(false);
+        } catch (IOException ex) {
+            // the name is taken
+        }
+        helper.close();
+
+        Map<String, String> entries = readTar(Files.readAllBytes(archive));
+        assertTrue(entries.keySet().equals(new HashSet<>(Arrays.asList("schema/item.svg", longName, longerName, ArchiveHelper.INDEX_ENTRY))));
+        assertTrue(entries.get(longerName).equals("<svg>" + longerName + "</svg>"));
+        assertTrue(entries.get(ArchiveHelper.INDEX_ENTRY).contains("item\t" + longName + "\n"));
+    }
+
+    @Test
+    public void failedWriterLogsTheFirstFailureOnly() throws Exception {
+        System.out.println(name.getMethodName());
+        List<Level> levels = new ArrayList<>();
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                levels.add(record.getLevel());
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        Logger logger = Logger.getLogger(LoggerHelper.LOGGER_NAME);
+        logger.addHandler(handler);
+        try {
+            WriterHelper writer = new WriterHelper(new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    throw new IOException("Disk full");
+                }
+            }, "UTF-8");
+            char[] chunk = new char[10000];
+            Arrays.fill(chunk, 'x');
+            for (int i = 0; i < 3; i++) {
+                writer.append(new String(chunk));
+            }
+            assertTrue(writer.getError() != null);
+            assertTrue(writer.getErrorsFollowing() == 2);
+            assertTrue(levels.stream().filter(level -> level == Level.SEVERE).count() == 1);
+        } finally {
+            logger.removeHandler(handler);
+        }
+    }
+
+    /**
+     * @param tar
+     * @return the contents of the files of a ustar archive by name, with the
+     * path of a PAX header, ending with its two empty blocks
+     * @throws IOException
+     */
+    static Map<String, String> readTar(byte[] tar) throws IOException {
+        Map<String, String> entries = new HashMap<>();
+        String paxPath = null;
+        int offset = 0;
+        while (tar[offset] != 0) {
+            int size = Integer.parseInt(new String(tar, offset + 124, 11, "US-ASCII"), 8);
+            String entryName = new String(tar, offset, 100, "UTF-8").replace("\0", "");
+            String prefix = new String(tar, offset + 345, 155, "UTF-8").replace("\0", "");
+            String data = new String(tar, offset + 512, size, "UTF-8");
+            if (tar[offset + 156] == 'x') {
+                paxPath = data.substring(data.indexOf("path=") + 5, data.length() - 1);
+            } else {
+                entries.put(paxPath != null ? paxPath : prefix.isEmpty() ? entryName : prefix + "/" + entryName, data);
+                paxPath = null;
+            }
+            offset += 512 + (size + 511) / 512 * 512;
+        }
+        assertTrue(tar.length == offset + 1024);
+        return entries;
+    }
+
+    /**
+     * Runs the command line, logging to {@link #LOG_FILE} unless the
+     * arguments name a log file.
+     *
+     * @param args
+     */
+    static void runXsdVi(String... args) {
+        if (Arrays.asList(args).contains("-logFile")) {
+            XsdVi.main(args);
+            return;
+        }
+        String[] logged = Arrays.copyOf(args, args.length + 2);
+        logged[args.length] = "-logFile";
+        logged[args.length + 1] = LOG_FILE;
+        XsdVi.main(logged);
+    }
 }